@@ -0,0 +1,436 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Class used to provide the base implementation of the parsers generated from
+ * annotated classes at compile time (see
+ * <code>com.thebuzzmedia.sjxp.processor.ParserProcessor</code> and the
+ * {@link com.thebuzzmedia.sjxp.bind.GenerateParser} annotation).
+ * <p/>
+ * A generated parser has no {@link com.thebuzzmedia.sjxp.rule.IRule}s and no
+ * {@link RuleSet}; the location paths of the class are compiled into the
+ * <code>switch</code> statements of {@link #transition(int, String, String)},
+ * {@link #bindAttributes(int, Object)} and
+ * {@link #bindText(int, char[], int, int, Object)}, which assign the parsed
+ * values straight to the fields of the class. Everything else, reading the
+ * input, skipping elements that can't be bound and the cancellation token,
+ * timeout and budgets of a parse, is inherited from {@link XMLParser}.
+ * <p/>
+ * A generated parser is used just like any other {@link XMLParser}, the user
+ * object of a <code>parse</code> method is the object bound. {@link #bind(InputStream)}
+ * binds a new object and {@link #parseRecords(InputStream, IRecordHandler)}
+ * binds a new object for every record of a class annotated with
+ * {@link com.thebuzzmedia.sjxp.bind.XMLRecord}.
+ * <p/>
+ * Instances of this class are not thread-safe, just like {@link XMLParser}.
+ * 
+ * @param <T>
+ *            The class type of the objects bound.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public abstract class AbstractCompiledParser<T> extends XMLParser<T> {
+	/**
+	 * The state of any element no field can be bound at or below.
+	 */
+	protected static final int NO_STATE = PathAutomaton.NO_STATE;
+
+	/**
+	 * The state of the document before its root element.
+	 */
+	protected static final int ROOT_STATE = PathAutomaton.ROOT_STATE;
+
+	private int recordState;
+	private boolean[] textStates;
+	private int[] matchCounts;
+
+	private int depth;
+	private int[] states = new int[32];
+	private int[] textBounds = new int[2];
+
+	private IRecordHandler<? super T> handler;
+	private T record;
+
+	/**
+	 * Create a new parser, tokenizing documents with the native tokenizer if
+	 * {@link XMLParser#ENABLE_NATIVE_TOKENIZER} is <code>true</code>.
+	 * 
+	 * @param recordState
+	 *            The state of the record elements, or {@link #NO_STATE} if the
+	 *            class has no records.
+	 * @param textStates
+	 *            Whether any field is bound to the character data of the
+	 *            elements, by state.
+	 * @param limitCount
+	 *            The number of fields with a match limit.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>textStates</code> is <code>null</code> or
+	 *             <code>limitCount</code> is &lt; 0.
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception.
+	 */
+	protected AbstractCompiledParser(int recordState, boolean[] textStates,
+			int limitCount) throws IllegalArgumentException,
+			XMLParserException {
+		this(recordState, textStates, limitCount, ENABLE_NATIVE_TOKENIZER);
+	}
+
+	/**
+	 * Create a new parser, tokenizing documents with either SJXP's own
+	 * byte-level tokenizer or the pull parser from the {@link #XPP_FACTORY}.
+	 * 
+	 * @param recordState
+	 *            The state of the record elements, or {@link #NO_STATE} if the
+	 *            class has no records.
+	 * @param textStates
+	 *            Whether any field is bound to the character data of the
+	 *            elements, by state.
+	 * @param limitCount
+	 *            The number of fields with a match limit.
+	 * @param nativeTokenizer
+	 *            <code>true</code> to use the native tokenizer (see
+	 *            {@link #ENABLE_NATIVE_TOKENIZER} for its limitations), or
+	 *            <code>false</code> to use the {@link #XPP_FACTORY}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>textStates</code> is <code>null</code> or
+	 *             <code>limitCount</code> is &lt; 0.
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception.
+	 */
+	protected AbstractCompiledParser(int recordState, boolean[] textStates,
+			int limitCount, boolean nativeTokenizer)
+			throws IllegalArgumentException, XMLParserException {
+		super(nativeTokenizer);
+
+		if (textStates == null)
+			throw new IllegalArgumentException("textStates cannot be null");
+		if (limitCount < 0)
+			throw new IllegalArgumentException("limitCount [" + limitCount
+					+ "] must be >= 0");
+
+		this.recordState = recordState;
+		this.textStates = textStates;
+		matchCounts = new int[limitCount];
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the parser
+	 * for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[states=" + textStates.length
+				+ ", recordState=" + recordState + "]";
+	}
+
+	/**
+	 * Used to bind the whole document in the given stream to a new object.
+	 * Fields matched more than once are set to the last value matched (or
+	 * have every value added, for collections).
+	 * 
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * 
+	 * @return the new object bound to the document.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if any error occurs while parsing the content of the stream
+	 *             or a value can't be parsed into the type of its field.
+	 */
+	public T bind(InputStream source) throws IllegalArgumentException,
+			XMLParserException {
+		T object = newObject();
+		parse(source, object);
+
+		return object;
+	}
+
+	/**
+	 * Used to bind every record of the document in the given stream to a new
+	 * object, handing each one to the given handler as soon as the end of its
+	 * record element has been parsed. Fields bound outside of the record
+	 * elements are ignored.
+	 * 
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * @param handler
+	 *            The handler the bound records are handed to.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> or <code>handler</code> is
+	 *             <code>null</code>.
+	 * @throws IllegalStateException
+	 *             if the class of the parser has no records.
+	 * @throws XMLParserException
+	 *             if any error occurs while parsing the content of the stream
+	 *             or a value can't be parsed into the type of its field.
+	 */
+	@SuppressWarnings("unchecked")
+	public void parseRecords(InputStream source,
+			IRecordHandler<? super T> handler) throws IllegalArgumentException,
+			IllegalStateException, XMLParserException {
+		if (handler == null)
+			throw new IllegalArgumentException("handler cannot be null");
+		if (recordState == NO_STATE)
+			throw new IllegalStateException(
+					"The class bound by this parser is not annotated with @XMLRecord, it has no records.");
+
+		this.handler = handler;
+
+		try {
+			parse(source, (T) null);
+		} finally {
+			this.handler = null;
+			record = null;
+		}
+	}
+
+	/**
+	 * Used to create a new, unbound object.
+	 * 
+	 * @return a new object.
+	 */
+	protected abstract T newObject();
+
+	/**
+	 * Used to find the state of an element.
+	 * 
+	 * @param state
+	 *            The state of the parent of the element, never
+	 *            {@link #NO_STATE}.
+	 * @param namespace
+	 *            The namespace URI of the element, or an empty string.
+	 * @param localName
+	 *            The local name of the element.
+	 * 
+	 * @return the state of the element, or {@link #NO_STATE} if no field is
+	 *         bound at or below it.
+	 */
+	protected abstract int transition(int state, String namespace,
+			String localName);
+
+	/**
+	 * Used to bind the attributes of the element just started to the fields
+	 * of the given object.
+	 * 
+	 * @param state
+	 *            The state of the element.
+	 * @param object
+	 *            The object bound.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if a value can't be parsed into the type of its field.
+	 */
+	protected abstract void bindAttributes(int state, T object)
+			throws IllegalArgumentException;
+
+	/**
+	 * Used to bind character data of the current element to the fields of
+	 * the given object. Only called for the states marked in the
+	 * <code>textStates</code> given to the constructor.
+	 * 
+	 * @param state
+	 *            The state of the element.
+	 * @param buffer
+	 *            The buffer holding the character data.
+	 * @param start
+	 *            The index of the first character.
+	 * @param length
+	 *            The number of characters.
+	 * @param object
+	 *            The object bound.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if a value can't be parsed into the type of its field.
+	 */
+	protected abstract void bindText(int state, char[] buffer, int start,
+			int length, T object) throws IllegalArgumentException;
+
+	/**
+	 * Used to get the value of an attribute of the element just started.
+	 * 
+	 * @param namespace
+	 *            The namespace URI of the attribute, or an empty string.
+	 * @param localName
+	 *            The local name of the attribute.
+	 * 
+	 * @return the value of the attribute, or <code>null</code> if the element
+	 *         has no such attribute.
+	 */
+	protected String getAttributeValue(String namespace, String localName) {
+		XmlPullParser xpp = getPullParser();
+
+		for (int i = 0, count = xpp.getAttributeCount(); i < count; i++) {
+			String attributeNamespace = xpp.getAttributeNamespace(i);
+
+			if (localName.equals(xpp.getAttributeName(i))
+					&& namespace.equals(attributeNamespace == null ? ""
+							: attributeNamespace))
+				return xpp.getAttributeValue(i);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Used to count a match of a field with a match limit.
+	 * 
+	 * @param index
+	 *            The index of the field among the fields with a match limit.
+	 * @param limit
+	 *            The match limit of the field.
+	 * 
+	 * @return <code>true</code> if the field hasn't reached its limit yet and
+	 *         the value should be bound.
+	 */
+	protected boolean countMatch(int index, int limit) {
+		if (matchCounts[index] >= limit)
+			return false;
+
+		matchCounts[index]++;
+		return true;
+	}
+
+	@Override
+	void startParse() {
+		super.startParse();
+
+		depth = 0;
+		states[0] = ROOT_STATE;
+
+		for (int i = 0; i < matchCounts.length; i++)
+			matchCounts[i] = 0;
+	}
+
+	@Override
+	boolean isSkippable() {
+		return (ENABLE_SKIPPING && states[depth] == NO_STATE);
+	}
+
+	@Override
+	protected void doStartTag(T userObject) {
+		int state = states[depth];
+
+		if (state != NO_STATE) {
+			XmlPullParser xpp = getPullParser();
+			String namespace = xpp.getNamespace();
+
+			state = transition(state, (namespace == null ? "" : namespace),
+					xpp.getName());
+		}
+
+		// Grow the stack if the document is deeper than expected
+		if (++depth == states.length) {
+			int[] newStates = new int[states.length * 2];
+			System.arraycopy(states, 0, newStates, 0, states.length);
+			states = newStates;
+		}
+
+		states[depth] = state;
+
+		if (DEBUG)
+			log("START_TAG: state %d", state);
+
+		if (state == NO_STATE)
+			return;
+
+		if (handler != null) {
+			if (state == recordState)
+				record = newObject();
+
+			// Only the records are bound when parsing records
+			if ((userObject = record) == null)
+				return;
+		}
+
+		try {
+			bindAttributes(state, userObject);
+		} catch (IllegalArgumentException e) {
+			throw invalidValue(e);
+		}
+	}
+
+	@Override
+	protected void doText(T userObject) {
+		int state = states[depth];
+
+		if (state == NO_STATE || !textStates[state])
+			return;
+
+		if (handler != null && (userObject = record) == null)
+			return;
+
+		char[] buffer = getPullParser().getTextCharacters(textBounds);
+
+		try {
+			bindText(state, buffer, textBounds[0], textBounds[1], userObject);
+		} catch (IllegalArgumentException e) {
+			throw invalidValue(e);
+		}
+	}
+
+	@Override
+	protected void doEndTag(T userObject) {
+		if (handler != null && states[depth] == recordState && record != null) {
+			T finished = record;
+			record = null;
+			handler.handleRecord(finished);
+		}
+
+		depth--;
+	}
+
+	/**
+	 * Used to create the exception stopping the parse when a value can't be
+	 * parsed into the type of its field.
+	 */
+	private XMLParserException invalidValue(IllegalArgumentException e) {
+		return new XMLParserException(
+				"A value of the document could not be parsed into the type of its field: "
+						+ e.getMessage(), e);
+	}
+
+	/**
+	 * Interface used to receive the records bound by
+	 * {@link AbstractCompiledParser#parseRecords(InputStream, IRecordHandler)}.
+	 * 
+	 * @param <T>
+	 *            The class type of the records.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public interface IRecordHandler<T> {
+		/**
+		 * Called with every record once the end of its element has been
+		 * parsed.
+		 * 
+		 * @param record
+		 *            The bound record.
+		 */
+		public void handleRecord(T record);
+	}
+}
@@ -0,0 +1,332 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to parse a batch of many XML documents concurrently on a
+ * caller-supplied {@link ExecutorService}.
+ * <p/>
+ * Every {@link ParseSource} in the batch is opened, parsed with a parser
+ * borrowed from an {@link XMLParserPool} and closed again on one of the
+ * executor's threads. At most <code>maxInFlight</code> documents of a batch
+ * are submitted to the executor at any time; the submitting thread blocks
+ * until a document finishes before submitting another, so a batch of tens of
+ * thousands of files never queues (or opens) more than that many at once.
+ * <p/>
+ * Every document is parsed with its own user object created by an
+ * {@link IUserObjectFactory} and gets a {@link ParseResult} holding it; a
+ * document that fails to parse is reported in its result and never affects
+ * the rest of the batch.
+ * <h3>Executors</h3>
+ * Any {@link ExecutorService} can be used; the caller owns it and is
+ * responsible for shutting it down. A fixed thread pool sized to the number
+ * of cores is a good fit for CPU-bound parsing of local files. On runtimes
+ * that support them, an executor creating a virtual thread per task works
+ * just as well and suits documents read from slow sources.
+ * <h3>Thread Safety</h3>
+ * This class is thread-safe; multiple batches can be parsed at the same time
+ * from different threads. The {@link IRule}s are called from many threads at
+ * once, so they must be thread-safe themselves; the user objects are only ever
+ * used by the thread parsing their document.
+ * 
+ * @param <T>
+ *            The class type of the user objects created for every document
+ *            and passed through to the handlers of the {@link IRule}s.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class BatchParser<T> {
+	private XMLParserPool<T> pool;
+	private ExecutorService executor;
+	private int maxInFlight;
+
+	/**
+	 * Create a new batch parser for the given compiled rules, using a new
+	 * {@link XMLParserPool} holding up to <code>maxInFlight</code> parsers.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules applied to every document.
+	 * @param executor
+	 *            The executor the documents are parsed on.
+	 * @param maxInFlight
+	 *            The maximum number of documents of a single batch submitted
+	 *            to the executor at the same time.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code> or <code>executor</code> is
+	 *             <code>null</code> or if <code>maxInFlight</code> is &lt; 1.
+	 */
+	public BatchParser(RuleSet<T> ruleSet, ExecutorService executor,
+			int maxInFlight) throws IllegalArgumentException {
+		this(newPool(ruleSet, maxInFlight), executor, maxInFlight);
+	}
+
+	/**
+	 * Create a new batch parser that borrows its parsers from the given pool.
+	 * 
+	 * @param pool
+	 *            The pool the parsers are borrowed from.
+	 * @param executor
+	 *            The executor the documents are parsed on.
+	 * @param maxInFlight
+	 *            The maximum number of documents of a single batch submitted
+	 *            to the executor at the same time.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>pool</code> or <code>executor</code> is
+	 *             <code>null</code> or if <code>maxInFlight</code> is &lt; 1.
+	 */
+	public BatchParser(XMLParserPool<T> pool, ExecutorService executor,
+			int maxInFlight) throws IllegalArgumentException {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight [" + maxInFlight
+					+ "] must be >= 1");
+		if (pool == null)
+			throw new IllegalArgumentException("pool cannot be null");
+		if (executor == null)
+			throw new IllegalArgumentException("executor cannot be null");
+
+		this.pool = pool;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the batch
+	 * parser for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the batch parser for easy
+	 *         debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[maxInFlight=" + maxInFlight
+				+ ", pool=" + pool + "]";
+	}
+
+	/**
+	 * @return the pool the parsers are borrowed from.
+	 */
+	public XMLParserPool<T> getPool() {
+		return pool;
+	}
+
+	/**
+	 * Parse every one of the given sources concurrently and wait for all of
+	 * them to finish.
+	 * <p/>
+	 * If the calling thread is interrupted while waiting, every document that
+	 * hasn't finished yet is cancelled and the interrupt is reported by
+	 * throwing {@link InterruptedException}.
+	 * 
+	 * @param sources
+	 *            The documents to parse.
+	 * @param factory
+	 *            The factory used to create the user object of every
+	 *            document, called with the index of the source on the calling
+	 *            thread right before the document is submitted.
+	 * 
+	 * @return one result per source, in the same order as the sources.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>sources</code> is <code>null</code> or contains
+	 *             <code>null</code> or if <code>factory</code> is
+	 *             <code>null</code>.
+	 * @throws RejectedExecutionException
+	 *             if the executor refuses to run a document, for example
+	 *             because it has been shut down.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting for the
+	 *             batch to finish.
+	 */
+	public List<ParseResult<T>> parse(List<? extends ParseSource> sources,
+			IUserObjectFactory<T> factory) throws IllegalArgumentException,
+			RejectedExecutionException, InterruptedException {
+		if (sources == null)
+			throw new IllegalArgumentException("sources cannot be null");
+		if (factory == null)
+			throw new IllegalArgumentException("factory cannot be null");
+
+		int size = sources.size();
+
+		for (int i = 0; i < size; i++) {
+			if (sources.get(i) == null)
+				throw new IllegalArgumentException("sources[" + i
+						+ "] cannot be null");
+		}
+
+		if (XMLParser.DEBUG)
+			XMLParser.log("Batch of %d sources starting [maxInFlight=%d]...",
+					size, maxInFlight);
+
+		long startTime = System.currentTimeMillis();
+		Semaphore permits = new Semaphore(maxInFlight);
+		List<Future<ParseResult<T>>> futures = new ArrayList<Future<ParseResult<T>>>(
+				size);
+		List<ParseResult<T>> results = new ArrayList<ParseResult<T>>(size);
+
+		try {
+			for (int i = 0; i < size; i++) {
+				// Wait for a document to finish before submitting another
+				permits.acquire();
+
+				try {
+					futures.add(executor.submit(new ParseTask(i, sources
+							.get(i), factory.newUserObject(i), permits)));
+				} catch (RejectedExecutionException e) {
+					permits.release();
+					throw e;
+				}
+			}
+
+			for (int i = 0; i < size; i++)
+				results.add(getResult(futures.get(i)));
+		} finally {
+			// Only true if we are leaving early, cancel what's left
+			if (results.size() < size) {
+				for (int i = 0, count = futures.size(); i < count; i++)
+					futures.get(i).cancel(true);
+			}
+		}
+
+		if (XMLParser.DEBUG)
+			XMLParser.log("Batch COMPLETE, elapsed time: %dms",
+					System.currentTimeMillis() - startTime);
+
+		return results;
+	}
+
+	/**
+	 * Used to create the pool of the {@link #BatchParser(RuleSet, ExecutorService, int)}
+	 * constructor, which can't check its arguments before calling
+	 * <code>this</code>.
+	 */
+	private static <T> XMLParserPool<T> newPool(RuleSet<T> ruleSet,
+			int maxInFlight) throws IllegalArgumentException {
+		if (ruleSet == null)
+			throw new IllegalArgumentException("ruleSet cannot be null");
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight [" + maxInFlight
+					+ "] must be >= 1");
+
+		return new XMLParserPool<T>(ruleSet, maxInFlight);
+	}
+
+	/**
+	 * Used to wait for the result of a single document.
+	 */
+	private ParseResult<T> getResult(Future<ParseResult<T>> future)
+			throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			// ParseTask catches every Exception, only Errors end up here
+			if (cause instanceof Error)
+				throw (Error) cause;
+
+			throw new XMLParserException(
+					"An unexpected exception occurred while parsing a batch.",
+					e);
+		}
+	}
+
+	/**
+	 * Task used to open, parse and close a single source of a batch on one of
+	 * the executor's threads.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	class ParseTask implements Callable<ParseResult<T>> {
+		private int index;
+		private ParseSource source;
+		private T userObject;
+		private Semaphore permits;
+
+		public ParseTask(int index, ParseSource source, T userObject,
+				Semaphore permits) {
+			this.index = index;
+			this.source = source;
+			this.userObject = userObject;
+			this.permits = permits;
+		}
+
+		public ParseResult<T> call() {
+			long startTime = System.currentTimeMillis();
+			XMLParserException exception;
+
+			try {
+				exception = parse();
+			} finally {
+				permits.release();
+			}
+
+			return new ParseResult<T>(index, source, userObject, exception,
+					System.currentTimeMillis() - startTime);
+		}
+
+		/**
+		 * @return the reason the parse failed or <code>null</code> if it
+		 *         succeeded.
+		 */
+		private XMLParserException parse() {
+			XMLParserException exception = null;
+			InputStream stream = null;
+
+			try {
+				stream = source.open();
+				pool.parse(stream, source.getEncoding(), userObject);
+			} catch (XMLParserException e) {
+				exception = e;
+			} catch (IOException e) {
+				exception = new XMLParserException(
+						"An exception occurred while reading the source ["
+								+ source.getName() + "].", e);
+			} catch (RuntimeException e) {
+				exception = new XMLParserException(
+						"An exception occurred while parsing the source ["
+								+ source.getName() + "].", e);
+			} finally {
+				if (stream != null) {
+					try {
+						source.close(stream);
+					} catch (IOException e) {
+						if (exception == null)
+							exception = new XMLParserException(
+									"An exception occurred while closing the source ["
+											+ source.getName() + "].", e);
+					}
+				}
+			}
+
+			return exception;
+		}
+	}
+}
@@ -0,0 +1,2280 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Class used to tokenize an XML document straight out of its bytes,
+ * implementing the {@link XmlPullParser} interface so it can be used by an
+ * {@link XMLParser} in place of XPP3.
+ * <p/>
+ * Unlike XPP3 the tokenizer never has to block waiting for input. Bytes are
+ * handed to it with {@link #feed(ByteBuffer)} and {@link #nextEvent()}
+ * returns {@link #NEED_INPUT} as soon as the next event is not complete yet,
+ * keeping all of its state until more bytes are fed. Complete events are
+ * tokenized in place in the fed buffer, only the bytes of an incomplete token
+ * at the end of a buffer are copied and kept for the next call. For plain
+ * pull parsing the tokenizer can also read from a (blocking)
+ * {@link InputStream} given to {@link #setInput(InputStream, String)}.
+ * <p/>
+ * Only encodings where every markup character is a single ASCII byte can be
+ * tokenized this way: UTF-8 (the default), US-ASCII and ISO-8859-1. Element
+ * and attribute names are looked up in a cache by their bytes, so a
+ * {@link String} is only created the first time a name is seen, and text and
+ * attribute values are only decoded once they are asked for.
+ * <p/>
+ * The tokenizer checks that elements are properly nested and that names,
+ * attributes and the XML declaration are well-formed, but only checks names
+ * against the ASCII part of the XML name characters, and entity and
+ * character references are only checked when the text containing them is
+ * decoded (see {@link XMLParser#ENABLE_NATIVE_TOKENIZER}).
+ * DOCTYPE declarations are skipped, only the predefined entities (e.g.
+ * <code>&amp;amp;</code>) and character references are supported.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class ByteTokenizer implements XmlPullParser {
+	/**
+	 * Returned by {@link #nextEvent()} when more bytes need to be fed before
+	 * the next event is available.
+	 */
+	static final int NEED_INPUT = -1;
+
+	private static final int SKIPPED = -2;
+
+	private static final int NAME = 0;
+	private static final int CONTENT = 1;
+	private static final int CDATA = 2;
+	private static final int ATTRIBUTE = 3;
+
+	private static final int MIN_APPEND = 8192;
+	private static final int MAX_CACHED_NAMES = 4096;
+
+	/*
+	 * SWAR (SIMD within a register) constants, used to look at 8 bytes of the
+	 * document at once: a byte repeated in every byte of a long and the
+	 * low/high bits of every byte.
+	 */
+	private static final int SWAR_MIN_LENGTH = 16;
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long LT_BYTES = '<' * ONES;
+	private static final long GT_BYTES = '>' * ONES;
+	private static final long AMP_BYTES = '&' * ONES;
+
+	private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+	private static final byte[] PI_END = { '?', '>' };
+	private static final byte[] COMMENT_END = { '-', '-', '>' };
+	private static final byte[] CDATA_START = { '[', 'C', 'D', 'A', 'T', 'A',
+			'[' };
+	private static final byte[] CDATA_END = { ']', ']', '>' };
+	private static final byte[] DOCTYPE = { 'D', 'O', 'C', 'T', 'Y', 'P', 'E' };
+	private static final byte[] VERSION = { 'v', 'e', 'r', 's', 'i', 'o', 'n' };
+	private static final byte[] ENCODING = { 'e', 'n', 'c', 'o', 'd', 'i', 'n',
+			'g' };
+	private static final byte[] STANDALONE = { 's', 't', 'a', 'n', 'd', 'a',
+			'l', 'o', 'n', 'e' };
+
+	/**
+	 * The ASCII characters allowed in a name, any byte of a multi-byte
+	 * character is taken to be part of the name.
+	 */
+	private static final boolean[] NAME_CHARS = new boolean[128];
+
+	static {
+		for (int c = 'a'; c <= 'z'; c++)
+			NAME_CHARS[c] = NAME_CHARS[c - 'a' + 'A'] = true;
+		for (int c = '0'; c <= '9'; c++)
+			NAME_CHARS[c] = true;
+
+		NAME_CHARS['_'] = NAME_CHARS[':'] = NAME_CHARS['-'] = NAME_CHARS['.'] = true;
+	}
+
+	private boolean namespaces;
+
+	private InputStream stream;
+	private byte[] readBuffer;
+	private ByteBuffer readView;
+	private String encoding;
+	private boolean encodingGiven;
+	private boolean utf8 = true;
+
+	private ByteBuffer in;
+	private int pos;
+	private int limit;
+	private long inOffset;
+	private ByteBuffer source;
+	private byte[] carryArray;
+	private ByteBuffer carry;
+	private int carrySourceStart = -1;
+	private boolean endOfInput;
+
+	private int scanned;
+	private int resumeOffset;
+	private boolean resumeChars;
+
+	/*
+	 * Lines are counted lazily, up to the offset of linesCounted, whenever a
+	 * position is asked for or bytes are about to be dropped.
+	 */
+	private int lineNumber = 1;
+	private long lineStart;
+	private long linesCounted;
+
+	private boolean started;
+	private boolean prologStarted;
+	private boolean docTypeSeen;
+	private boolean rootSeen;
+	private int eventType = START_DOCUMENT;
+	private boolean emptyElement;
+	private boolean popPending;
+
+	private int depth;
+	private Name[] elementNames = new Name[16];
+	private String[] elementNamespaces = new String[16];
+	private int[] namespaceCounts = new int[16];
+	private int namespaceCount;
+	private String[] namespacePrefixes = new String[8];
+	private String[] namespaceURIs = new String[8];
+
+	private int attributeCount;
+	private int[] nameStarts = new int[8];
+	private int[] nameEnds = new int[8];
+	private int[] valueStarts = new int[8];
+	private int[] valueEnds = new int[8];
+	private Name[] attributeNames = new Name[8];
+	private String[] attributeNamespaces = new String[8];
+	private String[] attributeValues = new String[8];
+
+	private int textStart;
+	private int textEnd;
+	private char[] chars = new char[256];
+	private int charCount = -1;
+	private String text;
+
+	private Name[] names = new Name[256];
+	private int nameCount;
+	private boolean namesUTF8 = true;
+
+	/**
+	 * Create a new tokenizer.
+	 * 
+	 * @param namespaces
+	 *            <code>true</code> if namespace prefixes should be resolved
+	 *            (the same as {@link XmlPullParser#FEATURE_PROCESS_NAMESPACES}
+	 *            ).
+	 */
+	ByteTokenizer(boolean namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	/**
+	 * Used to hand the tokenizer the next bytes of the document.
+	 * <p/>
+	 * All the remaining bytes of the buffer are consumed (its position is
+	 * moved to its limit), but the tokenizer keeps reading from the buffer
+	 * until {@link #nextEvent()} returns {@link #NEED_INPUT}. After that any
+	 * bytes it still needs have been copied and the buffer can be reused.
+	 * 
+	 * @param buffer
+	 *            The next bytes of the document.
+	 */
+	void feed(ByteBuffer buffer) {
+		if (in != null && in != carry && pos < limit)
+			saveTail();
+
+		// Bytes of the last buffer that were never looked at are kept too
+		if (source != null && source.hasRemaining())
+			append(source, source.remaining());
+
+		if (in == null || pos == limit) {
+			// Nothing left over, tokenize straight out of the new buffer
+			countLines();
+			inOffset += pos - buffer.position();
+			in = buffer;
+			pos = buffer.position();
+			limit = buffer.limit();
+			buffer.position(limit);
+
+			source = null;
+		} else
+			source = buffer;
+
+		carrySourceStart = -1;
+	}
+
+	/**
+	 * Used to tell the tokenizer no more bytes will be fed; once every event
+	 * has been returned {@link #nextEvent()} will return
+	 * {@link XmlPullParser#END_DOCUMENT}, or throw an exception if the
+	 * document is incomplete.
+	 */
+	void endOfInput() {
+		endOfInput = true;
+	}
+
+	/**
+	 * Used to get the offset of the next byte that will be tokenized from the
+	 * start of the document.
+	 * 
+	 * @return the number of bytes of the document tokenized so far.
+	 */
+	long getOffset() {
+		return inOffset + pos;
+	}
+
+	/**
+	 * Used to capture what the tokenizer knows about the document between two
+	 * events, so a new tokenizer can pick the document up again from
+	 * {@link #getOffset()} with {@link #restoreState(State)}.
+	 * 
+	 * @return the encoding, the line and column, the elements still open and
+	 *         the namespaces in scope once the current event has been
+	 *         processed.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the root element hasn't started yet, or the current event
+	 *             is the START_TAG of an empty element (whose END_TAG has no
+	 *             bytes of its own to pick up after).
+	 */
+	State saveState() throws IllegalStateException {
+		if (!rootSeen)
+			throw new IllegalStateException(
+					"The state of the tokenizer can only be saved once the root element has started.");
+		if (emptyElement)
+			throw new IllegalStateException(
+					"The state of the tokenizer can't be saved in the middle of an empty element.");
+
+		// The element of the END_TAG just returned is already closed
+		int openDepth = (popPending ? depth - 1 : depth);
+		int openNamespaces = (popPending ? namespaceCounts[depth]
+				: namespaceCount);
+
+		State state = new State();
+		state.encoding = (encoding == null ? "UTF-8" : encoding);
+		state.lineNumber = getLineNumber();
+		state.columnNumber = getColumnNumber();
+		state.elementNames = new byte[openDepth][];
+		state.elementNamespaces = new String[openDepth];
+		state.namespaceCounts = new int[openDepth];
+		state.namespacePrefixes = new String[openNamespaces];
+		state.namespaceURIs = new String[openNamespaces];
+
+		for (int i = 0; i < openDepth; i++) {
+			state.elementNames[i] = elementNames[i + 1].bytes;
+			state.elementNamespaces[i] = elementNamespaces[i + 1];
+			state.namespaceCounts[i] = namespaceCounts[i + 1];
+		}
+
+		System.arraycopy(namespacePrefixes, 0, state.namespacePrefixes, 0,
+				openNamespaces);
+		System.arraycopy(namespaceURIs, 0, state.namespaceURIs, 0,
+				openNamespaces);
+
+		return state;
+	}
+
+	/**
+	 * Used to pick up a document in the middle, right where the given state
+	 * was saved. This must be called after
+	 * {@link #setInput(InputStream, String)} (or {@link #reset()}) and before
+	 * the first event; the input must start at the byte the state was saved
+	 * at.
+	 * <p/>
+	 * Offsets returned by {@link #getOffset()} are counted from the start of
+	 * the new input, not from the start of the document; line and column
+	 * numbers carry on from the ones the state was saved at.
+	 * 
+	 * @param state
+	 *            A state returned by {@link #saveState()}.
+	 * 
+	 * @throws XmlPullParserException
+	 *             if the encoding of the state can't be tokenized.
+	 */
+	void restoreState(State state) throws XmlPullParserException {
+		setEncoding(state.encoding);
+		encodingGiven = true;
+		started = true;
+		prologStarted = true;
+		docTypeSeen = true;
+		rootSeen = true;
+
+		// Offsets start over, lines and columns pick up where they were
+		lineNumber = state.lineNumber;
+		lineStart = 1 - state.columnNumber;
+
+		while (state.elementNames.length >= elementNames.length)
+			growElements();
+
+		for (int i = 0; i < state.elementNames.length; i++) {
+			depth = i + 1;
+			elementNames[depth] = restoreName(state.elementNames[i]);
+			elementNamespaces[depth] = state.elementNamespaces[i];
+			namespaceCounts[depth] = state.namespaceCounts[i];
+		}
+
+		for (int i = 0; i < state.namespacePrefixes.length; i++)
+			declareNamespace(state.namespacePrefixes[i],
+					state.namespaceURIs[i]);
+	}
+
+	/**
+	 * @return the name of the open element at the given depth, the local name
+	 *         if namespaces are processed, otherwise the qualified name.
+	 */
+	String getElementName(int depth) {
+		return elementNames[depth].getName(namespaces);
+	}
+
+	/**
+	 * @return the namespace URI of the open element at the given depth.
+	 */
+	String getElementNamespace(int depth) {
+		return elementNamespaces[depth];
+	}
+
+	/**
+	 * Used to tokenize the next event out of the bytes fed so far.
+	 * 
+	 * @return {@link XmlPullParser#START_TAG}, {@link XmlPullParser#TEXT},
+	 *         {@link XmlPullParser#END_TAG},
+	 *         {@link XmlPullParser#END_DOCUMENT} or {@link #NEED_INPUT} if
+	 *         more bytes need to be fed first.
+	 * 
+	 * @throws XmlPullParserException
+	 *             if the document is malformed.
+	 */
+	int nextEvent() throws XmlPullParserException {
+		if (emptyElement) {
+			emptyElement = false;
+			popPending = true;
+			return eventType = END_TAG;
+		}
+
+		if (popPending)
+			popElement();
+		else if (eventType == END_DOCUMENT)
+			return END_DOCUMENT;
+
+		while (true) {
+			// Once the carried token is done, go back to the fed buffer
+			if (in == carry && carrySourceStart != -1 && pos >= carrySourceStart)
+				switchToSource();
+
+			int event;
+
+			/*
+			 * PERFORMANCE: Every token ends with a '>' (markup) or a '<' (text),
+			 * so there's no point in scanning an incomplete token again until
+			 * one of them shows up in the bytes fed since the last attempt.
+			 * This keeps a large token fed a few bytes at a time from being
+			 * re-scanned from its start on every call.
+			 */
+			if (in == null
+					|| (scanned > 0 && indexOfDelimiter(pos + scanned - 1) == -1))
+				event = NEED_INPUT;
+			else
+				event = scan();
+
+			scanned = (event == NEED_INPUT && started ? limit - pos : 0);
+
+			if (event == SKIPPED)
+				continue;
+			if (event != NEED_INPUT)
+				return eventType = event;
+
+			if (!moreInput()) {
+				if (!endOfInput)
+					return NEED_INPUT;
+
+				return eventType = endDocument();
+			}
+		}
+	}
+
+	/**
+	 * Used to clear all the state of the last document, keeping the buffers
+	 * and the name cache.
+	 */
+	void reset() {
+		stream = null;
+		encoding = null;
+		encodingGiven = false;
+		utf8 = true;
+
+		in = null;
+		pos = 0;
+		limit = 0;
+		inOffset = 0;
+		source = null;
+		carrySourceStart = -1;
+		endOfInput = false;
+
+		scanned = 0;
+		resumeOffset = 0;
+		resumeChars = false;
+
+		lineNumber = 1;
+		lineStart = 0;
+		linesCounted = 0;
+
+		started = false;
+		prologStarted = false;
+		docTypeSeen = false;
+		rootSeen = false;
+		eventType = START_DOCUMENT;
+		emptyElement = false;
+		popPending = false;
+
+		depth = 0;
+		namespaceCount = 0;
+		attributeCount = 0;
+		charCount = -1;
+		text = null;
+	}
+
+	public void setFeature(String name, boolean state)
+			throws XmlPullParserException {
+		if (FEATURE_PROCESS_NAMESPACES.equals(name)) {
+			if (namespaces != state) {
+				namespaces = state;
+				clearNames();
+			}
+		} else if (state)
+			throw new XmlPullParserException("Unsupported feature: " + name);
+	}
+
+	public boolean getFeature(String name) {
+		return (FEATURE_PROCESS_NAMESPACES.equals(name) ? namespaces : false);
+	}
+
+	public void setProperty(String name, Object value)
+			throws XmlPullParserException {
+		throw new XmlPullParserException("Unsupported property: " + name);
+	}
+
+	public Object getProperty(String name) {
+		return null;
+	}
+
+	/**
+	 * Only a <code>null</code> {@link Reader} is accepted, to release the
+	 * current input; characters can't be tokenized.
+	 */
+	public void setInput(Reader in) throws XmlPullParserException {
+		if (in != null)
+			throw new XmlPullParserException(
+					"Only an InputStream can be used as input, the tokenizer works on bytes.");
+
+		reset();
+	}
+
+	public void setInput(InputStream inputStream, String inputEncoding)
+			throws XmlPullParserException {
+		if (inputStream == null)
+			throw new IllegalArgumentException("inputStream cannot be null");
+
+		reset();
+		stream = inputStream;
+
+		if (readBuffer == null) {
+			readBuffer = new byte[65536];
+			readView = ByteBuffer.wrap(readBuffer);
+		}
+
+		if (inputEncoding != null) {
+			setEncoding(inputEncoding);
+			encodingGiven = true;
+		}
+	}
+
+	public String getInputEncoding() {
+		return encoding;
+	}
+
+	public void defineEntityReplacementText(String entityName,
+			String replacementText) throws XmlPullParserException {
+		throw new XmlPullParserException(
+				"Entity replacement text can't be defined, only the predefined entities are supported.");
+	}
+
+	public int getNamespaceCount(int depth) throws XmlPullParserException {
+		return (depth >= this.depth ? namespaceCount
+				: namespaceCounts[depth + 1]);
+	}
+
+	public String getNamespacePrefix(int pos) throws XmlPullParserException {
+		String prefix = namespacePrefixes[pos];
+		return (prefix.length() == 0 ? null : prefix);
+	}
+
+	public String getNamespaceUri(int pos) throws XmlPullParserException {
+		return namespaceURIs[pos];
+	}
+
+	public String getNamespace(String prefix) {
+		return findNamespace(prefix == null ? "" : prefix);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public String getPositionDescription() {
+		return "line " + getLineNumber() + ", column " + getColumnNumber()
+				+ ", byte " + getOffset();
+	}
+
+	/**
+	 * @return the line of the next byte that will be tokenized; while an event
+	 *         is current that is the line the event ends on.
+	 */
+	public int getLineNumber() {
+		countLines();
+		return lineNumber;
+	}
+
+	/**
+	 * @return the column of the next byte that will be tokenized, counted in
+	 *         bytes (not chars) from 1.
+	 */
+	public int getColumnNumber() {
+		countLines();
+		return (int) (getOffset() - lineStart) + 1;
+	}
+
+	public boolean isWhitespace() throws XmlPullParserException {
+		if (eventType != TEXT)
+			throw new XmlPullParserException("Not a TEXT event", this, null);
+
+		decodeText();
+
+		for (int i = 0; i < charCount; i++) {
+			if (!isWhitespace(chars[i]))
+				return false;
+		}
+
+		return true;
+	}
+
+	public String getText() {
+		if (eventType != TEXT)
+			return null;
+
+		if (text == null) {
+			decodeText();
+			text = new String(chars, 0, charCount);
+		}
+
+		return text;
+	}
+
+	public char[] getTextCharacters(int[] holderForStartAndLength) {
+		if (eventType != TEXT) {
+			holderForStartAndLength[0] = -1;
+			holderForStartAndLength[1] = -1;
+			return null;
+		}
+
+		decodeText();
+		holderForStartAndLength[0] = 0;
+		holderForStartAndLength[1] = charCount;
+
+		return chars;
+	}
+
+	public String getNamespace() {
+		return (isTag() ? elementNamespaces[depth] : null);
+	}
+
+	public String getName() {
+		return (isTag() ? elementNames[depth].getName(namespaces) : null);
+	}
+
+	public String getPrefix() {
+		return (isTag() ? elementNames[depth].prefix : null);
+	}
+
+	public boolean isEmptyElementTag() throws XmlPullParserException {
+		if (eventType != START_TAG)
+			throw new XmlPullParserException("Not a START_TAG event", this,
+					null);
+
+		return emptyElement;
+	}
+
+	public int getAttributeCount() {
+		return (eventType == START_TAG ? attributeCount : -1);
+	}
+
+	public String getAttributeNamespace(int index) {
+		checkAttribute(index);
+		return attributeNamespaces[index];
+	}
+
+	public String getAttributeName(int index) {
+		checkAttribute(index);
+		return attributeNames[index].getName(namespaces);
+	}
+
+	public String getAttributePrefix(int index) {
+		checkAttribute(index);
+		return attributeNames[index].prefix;
+	}
+
+	public String getAttributeType(int index) {
+		checkAttribute(index);
+		return "CDATA";
+	}
+
+	public boolean isAttributeDefault(int index) {
+		checkAttribute(index);
+		return false;
+	}
+
+	public String getAttributeValue(int index) {
+		checkAttribute(index);
+
+		// Values are only decoded when asked for
+		if (attributeValues[index] == null)
+			attributeValues[index] = decodeString(valueStarts[index],
+					valueEnds[index], ATTRIBUTE);
+
+		return attributeValues[index];
+	}
+
+	public String getAttributeValue(String namespace, String name) {
+		if (eventType != START_TAG)
+			throw new IndexOutOfBoundsException("Not a START_TAG event");
+
+		for (int i = 0; i < attributeCount; i++) {
+			if ((namespace == null || namespace.equals(attributeNamespaces[i]))
+					&& attributeNames[i].getName(namespaces).equals(name))
+				return getAttributeValue(i);
+		}
+
+		return null;
+	}
+
+	public int getEventType() throws XmlPullParserException {
+		return eventType;
+	}
+
+	/**
+	 * Used to pull the next event, reading more bytes from the
+	 * {@link InputStream} given to {@link #setInput(InputStream, String)}
+	 * (blocking if needed) whenever the event is not complete yet.
+	 * <p/>
+	 * The windows of a {@link MappedInputStream} are tokenized in place
+	 * instead of being read into a buffer.
+	 */
+	public int next() throws XmlPullParserException, IOException {
+		int event;
+
+		while ((event = nextEvent()) == NEED_INPUT) {
+			if (stream instanceof MappedInputStream) {
+				ByteBuffer window = ((MappedInputStream) stream).nextWindow();
+
+				if (window == null)
+					endOfInput();
+				else
+					feed(window);
+
+				continue;
+			}
+
+			if (stream instanceof ReadAheadInputStream) {
+				ByteBuffer chunk = ((ReadAheadInputStream) stream).nextChunk();
+
+				if (chunk == null)
+					endOfInput();
+				else
+					feed(chunk);
+
+				continue;
+			}
+
+			int length = (stream == null ? -1 : stream.read(readBuffer));
+
+			if (length == -1)
+				endOfInput();
+			else {
+				readView.clear();
+				readView.limit(length);
+				feed(readView);
+			}
+		}
+
+		return event;
+	}
+
+	/**
+	 * Returns the same events as {@link #next()}: comments, processing
+	 * instructions and the DOCTYPE declaration are skipped by the tokenizer
+	 * and never reported, CDATA sections and entity references are part of
+	 * the TEXT event around them.
+	 */
+	public int nextToken() throws XmlPullParserException, IOException {
+		return next();
+	}
+
+	public void require(int type, String namespace, String name)
+			throws XmlPullParserException, IOException {
+		if (type != eventType
+				|| (namespace != null && !namespace.equals(getNamespace()))
+				|| (name != null && !name.equals(getName())))
+			throw new XmlPullParserException("Expected " + TYPES[type]
+					+ " but found " + TYPES[eventType], this, null);
+	}
+
+	public String nextText() throws XmlPullParserException, IOException {
+		if (eventType != START_TAG)
+			throw new XmlPullParserException("Not a START_TAG event", this,
+					null);
+
+		String result = "";
+
+		if (next() == TEXT) {
+			result = getText();
+			next();
+		}
+
+		if (eventType != END_TAG)
+			throw new XmlPullParserException(
+					"Element contains more than just text", this, null);
+
+		return result;
+	}
+
+	public int nextTag() throws XmlPullParserException, IOException {
+		if (next() == TEXT && isWhitespace())
+			next();
+
+		if (eventType != START_TAG && eventType != END_TAG)
+			throw new XmlPullParserException("Expected a START_TAG or END_TAG",
+					this, null);
+
+		return eventType;
+	}
+
+	/**
+	 * Used to tokenize the next token starting at {@link #pos}, only moving
+	 * {@link #pos} past it if it is complete.
+	 * 
+	 * @return the event of the token, {@link #SKIPPED} if the token doesn't
+	 *         produce an event or {@link #NEED_INPUT} if it is incomplete.
+	 */
+	private int scan() throws XmlPullParserException {
+		if (!started)
+			return scanSignature();
+		if (pos == limit)
+			return NEED_INPUT;
+		if (depth == 0)
+			return scanMisc();
+		if (in.get(pos) != '<')
+			return scanText();
+		if (pos + 1 == limit)
+			return NEED_INPUT;
+
+		byte b = in.get(pos + 1);
+
+		if (b == '/')
+			return scanEndTag();
+		if (b == '!' || b == '?')
+			return scanText();
+
+		return scanStartTag();
+	}
+
+	/**
+	 * Used to check the first bytes of the document for a byte order mark.
+	 */
+	private int scanSignature() throws XmlPullParserException {
+		if (limit - pos < 4)
+			return NEED_INPUT;
+
+		int b0 = in.get(pos) & 0xFF;
+		int b1 = in.get(pos + 1) & 0xFF;
+
+		if (b0 == 0xEF && b1 == 0xBB && (in.get(pos + 2) & 0xFF) == 0xBF) {
+			pos += 3;
+
+			if (!encodingGiven)
+				setEncoding("UTF-8");
+		} else if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE)
+				|| b0 == 0 || b1 == 0)
+			throw new XmlPullParserException(
+					"The document appears to be UTF-16 or UTF-32 encoded, only UTF-8, US-ASCII and ISO-8859-1 can be tokenized directly from bytes.",
+					this, null);
+
+		started = true;
+		return SKIPPED;
+	}
+
+	/**
+	 * Used to tokenize the prolog and the end of the document, everything
+	 * outside of the root element.
+	 */
+	private int scanMisc() throws XmlPullParserException {
+		byte b = in.get(pos);
+
+		if (isWhitespace(b)) {
+			while (pos < limit && isWhitespace(in.get(pos)))
+				pos++;
+
+			prologStarted = true;
+			return SKIPPED;
+		}
+
+		if (b != '<')
+			throw new XmlPullParserException(
+					"Only markup is allowed outside of the root element", this,
+					null);
+		if (pos + 1 == limit)
+			return NEED_INPUT;
+
+		b = in.get(pos + 1);
+
+		if (b == '?') {
+			int end = indexOf(PI_END, pos + 2, limit);
+
+			if (end == -1)
+				return NEED_INPUT;
+
+			checkTarget(pos + 2, end);
+
+			// Only the very first bytes can be an XML declaration
+			if (isReservedTarget(pos + 2, end)) {
+				if (prologStarted || in.get(pos + 2) != 'x'
+						|| in.get(pos + 3) != 'm' || in.get(pos + 4) != 'l')
+					throw new XmlPullParserException(
+							"The processing instruction target [xml] is reserved for the XML declaration",
+							this, null);
+
+				readDeclaration(pos + 5, end);
+			}
+
+			prologStarted = true;
+			pos = end + PI_END.length;
+			return SKIPPED;
+		}
+
+		if (b == '!') {
+			if (limit - pos < 4)
+				return NEED_INPUT;
+
+			int end;
+
+			if (in.get(pos + 2) == '-' && in.get(pos + 3) == '-') {
+				if ((end = indexOf(COMMENT_END, pos + 4, limit)) == -1)
+					return NEED_INPUT;
+
+				checkComment(pos + 4, end);
+				pos = end + COMMENT_END.length;
+			} else {
+				if (limit - pos < 10)
+					return NEED_INPUT;
+				if (!startsWith(DOCTYPE, pos + 2)
+						|| !isWhitespace(in.get(pos + 9)))
+					throw new XmlPullParserException(
+							"Only comments and a DOCTYPE are allowed outside of the root element",
+							this, null);
+				if (rootSeen)
+					throw new XmlPullParserException(
+							"A DOCTYPE is not allowed after the root element",
+							this, null);
+				if (docTypeSeen)
+					throw new XmlPullParserException(
+							"Only one DOCTYPE is allowed", this, null);
+				if ((end = declarationEnd(pos + 10)) == -1)
+					return NEED_INPUT;
+
+				docTypeSeen = true;
+				pos = end + 1;
+			}
+
+			prologStarted = true;
+			return SKIPPED;
+		}
+
+		if (b == '/')
+			throw new XmlPullParserException(
+					"End tag does not match any start tag", this, null);
+		if (rootSeen)
+			throw new XmlPullParserException(
+					"Only one root element is allowed", this, null);
+
+		int event = scanStartTag();
+
+		if (event == START_TAG)
+			rootSeen = prologStarted = true;
+
+		return event;
+	}
+
+	/**
+	 * Used to tokenize text up to the next start or end tag. Comments,
+	 * processing instructions and CDATA sections are part of the text, just
+	 * like {@link XmlPullParser#next()} coalesces them into one TEXT event.
+	 */
+	private int scanText() throws XmlPullParserException {
+		int i = pos + resumeOffset;
+		boolean hasChars = resumeChars;
+
+		while (true) {
+			int start = i;
+
+			// A '>' in character data is fine, unless it ends a "]]>"
+			while ((i = indexOfDelimiter(i)) != -1 && in.get(i) == '>') {
+				if (i - 2 >= pos && in.get(i - 1) == ']'
+						&& in.get(i - 2) == ']')
+					throw new XmlPullParserException(
+							"']]>' is not allowed in character data", this,
+							null);
+
+				i++;
+			}
+
+			if (i == -1)
+				i = limit;
+
+			if (i > start)
+				hasChars = true;
+
+			int end = -1;
+
+			if (i + 1 < limit) {
+				byte b = in.get(i + 1);
+
+				if (b != '!' && b != '?')
+					break;
+
+				if (b == '?') {
+					if ((end = indexOf(PI_END, i + 2, limit)) != -1) {
+						checkTarget(i + 2, end);
+
+						if (isReservedTarget(i + 2, end))
+							throw new XmlPullParserException(
+									"The processing instruction target [xml] is reserved for the XML declaration",
+									this, null);
+
+						end += PI_END.length;
+					}
+				} else if (i + 4 <= limit && in.get(i + 2) == '-'
+						&& in.get(i + 3) == '-') {
+					if ((end = indexOf(COMMENT_END, i + 4, limit)) != -1) {
+						checkComment(i + 4, end);
+						end += COMMENT_END.length;
+					}
+				} else if (i + 9 <= limit) {
+					if (!startsWith(CDATA_START, i + 2))
+						throw new XmlPullParserException(
+								"Declarations are not allowed inside of an element",
+								this, null);
+
+					if ((end = indexOf(CDATA_END, i + 9, limit)) != -1) {
+						if (end > i + 9)
+							hasChars = true;
+
+						end += CDATA_END.length;
+					}
+				}
+			}
+
+			if (end == -1) {
+				// Continue from this markup once more bytes are fed
+				resumeOffset = i - pos;
+				resumeChars = hasChars;
+				return NEED_INPUT;
+			}
+
+			i = end;
+		}
+
+		resumeOffset = 0;
+		resumeChars = false;
+
+		textStart = pos;
+		textEnd = i;
+		charCount = -1;
+		text = null;
+		pos = i;
+
+		return (hasChars ? TEXT : SKIPPED);
+	}
+
+	/**
+	 * Used to tokenize a start tag along with all of its attributes.
+	 */
+	private int scanStartTag() throws XmlPullParserException {
+		int i = nameEnd(pos + 1);
+
+		if (i == limit)
+			return NEED_INPUT;
+		if (i == pos + 1 || !isNameStart(in.get(pos + 1)))
+			throw new XmlPullParserException("Element name expected", this,
+					null);
+
+		int elementNameEnd = i;
+		int count = 0;
+		boolean empty;
+
+		while (true) {
+			int spaceStart = i;
+
+			if ((i = skipWhitespace(i)) == limit)
+				return NEED_INPUT;
+
+			byte b = in.get(i);
+
+			if (b == '>') {
+				i++;
+				empty = false;
+				break;
+			}
+
+			if (b == '/') {
+				if (i + 1 == limit)
+					return NEED_INPUT;
+				if (in.get(i + 1) != '>')
+					throw new XmlPullParserException("'>' expected after '/'",
+							this, null);
+
+				i += 2;
+				empty = true;
+				break;
+			}
+
+			int nameStart = i;
+
+			if ((i = nameEnd(i)) == limit)
+				return NEED_INPUT;
+			if (i == nameStart || !isNameStart(in.get(nameStart)))
+				throw new XmlPullParserException("Attribute name expected",
+						this, null);
+			if (nameStart == spaceStart)
+				throw new XmlPullParserException(
+						"Whitespace expected before attribute name", this, null);
+
+			int nameEnd = i;
+
+			if ((i = skipWhitespace(i)) == limit)
+				return NEED_INPUT;
+			if (in.get(i) != '=')
+				throw new XmlPullParserException(
+						"'=' expected after attribute name", this, null);
+			if ((i = skipWhitespace(i + 1)) == limit)
+				return NEED_INPUT;
+
+			byte quote = in.get(i);
+
+			if (quote != '"' && quote != '\'')
+				throw new XmlPullParserException(
+						"Attribute value must be quoted", this, null);
+
+			int valueEnd = indexOf(quote, i + 1, limit);
+
+			if (valueEnd == -1)
+				return NEED_INPUT;
+			if (indexOf((byte) '<', i + 1, valueEnd) != -1)
+				throw new XmlPullParserException(
+						"'<' is not allowed in attribute values", this, null);
+
+			if (count == nameStarts.length)
+				growAttributes();
+
+			nameStarts[count] = nameStart;
+			nameEnds[count] = nameEnd;
+			valueStarts[count] = i + 1;
+			valueEnds[count] = valueEnd;
+			count++;
+
+			i = valueEnd + 1;
+		}
+
+		// The tag is complete, now its names are worth looking up
+		Name name = lookupName(pos + 1, elementNameEnd);
+		pos = i;
+
+		startElement(name, count);
+		emptyElement = empty;
+
+		return START_TAG;
+	}
+
+	/**
+	 * Used to push the element of the start tag that was just tokenized,
+	 * declaring its namespaces and resolving the namespaces of the element and
+	 * its attributes.
+	 */
+	private void startElement(Name name, int count)
+			throws XmlPullParserException {
+		// Tags only have a few attributes, their names are compared in place
+		for (int i = 1; i < count; i++) {
+			for (int j = 0; j < i; j++) {
+				if (equalBytes(nameStarts[i], nameEnds[i], nameStarts[j],
+						nameEnds[j]))
+					throw new XmlPullParserException("Duplicate attribute ["
+							+ decodeString(nameStarts[i], nameEnds[i], NAME)
+							+ "]", this, null);
+			}
+		}
+
+		if (!name.qualified)
+			throw new XmlPullParserException("Malformed element name ["
+					+ name.qName + "]", this, null);
+		if (++depth == elementNames.length)
+			growElements();
+
+		namespaceCounts[depth] = namespaceCount;
+		elementNames[depth] = name;
+		attributeCount = 0;
+
+		for (int i = 0; i < count; i++) {
+			Name attribute = lookupName(nameStarts[i], nameEnds[i]);
+
+			if (!attribute.qualified)
+				throw new XmlPullParserException("Malformed attribute name ["
+						+ attribute.qName + "]", this, null);
+			if (namespaces && attribute.isNamespaceDeclaration()) {
+				declareNamespace(
+						(attribute.prefix == null ? "" : attribute.localName),
+						decodeString(valueStarts[i], valueEnds[i], ATTRIBUTE));
+				continue;
+			}
+
+			// Namespace declarations are not reported as attributes
+			attributeNames[attributeCount] = attribute;
+			valueStarts[attributeCount] = valueStarts[i];
+			valueEnds[attributeCount] = valueEnds[i];
+			attributeValues[attributeCount] = null;
+			attributeCount++;
+		}
+
+		if (namespaces) {
+			elementNamespaces[depth] = resolveNamespace(name.prefix, true);
+
+			for (int i = 0; i < attributeCount; i++) {
+				attributeNamespaces[i] = resolveNamespace(
+						attributeNames[i].prefix, false);
+
+				// Different prefixes can still be bound to the same namespace
+				for (int j = 0; j < i; j++) {
+					if (attributeNames[i].localName
+							.equals(attributeNames[j].localName)
+							&& attributeNamespaces[i]
+									.equals(attributeNamespaces[j]))
+						throw new XmlPullParserException(
+								"Duplicate attribute ["
+										+ attributeNames[i].qName + "]", this,
+								null);
+				}
+			}
+		} else {
+			elementNamespaces[depth] = "";
+
+			for (int i = 0; i < attributeCount; i++)
+				attributeNamespaces[i] = "";
+		}
+	}
+
+	/**
+	 * Used to get the state the given automaton moves to from the given state
+	 * on the element of the current START_TAG.
+	 * <p/>
+	 * PERFORMANCE: Every cached {@link Name} remembers the last transition
+	 * taken on it. The same element nearly always shows up at the same place
+	 * in a document, so once its name has been found by its bytes in the name
+	 * cache the element is matched against the rule paths without hashing or
+	 * comparing any {@link String}s.
+	 * 
+	 * @param automaton
+	 *            The automaton compiled out of the rules.
+	 * @param state
+	 *            The state of the parent element.
+	 * 
+	 * @return the state of the current element.
+	 */
+	int transition(PathAutomaton<?> automaton, int state) {
+		Name name = elementNames[depth];
+		String namespaceURI = elementNamespaces[depth];
+
+		if (name.automaton == automaton
+				&& name.fromState == state
+				&& (name.namespaceURI == namespaceURI || name.namespaceURI
+						.equals(namespaceURI)))
+			return name.toState;
+
+		int next = automaton.transition(state, namespaceURI,
+				name.getName(namespaces));
+
+		name.automaton = automaton;
+		name.fromState = state;
+		name.namespaceURI = namespaceURI;
+		name.toState = next;
+
+		return next;
+	}
+
+	/**
+	 * Used to tokenize an end tag, checking it closes the current element.
+	 */
+	private int scanEndTag() throws XmlPullParserException {
+		int nameEnd = nameEnd(pos + 2);
+		int i = skipWhitespace(nameEnd);
+
+		if (i == limit)
+			return NEED_INPUT;
+		if (in.get(i) != '>')
+			throw new XmlPullParserException("'>' expected after end tag name",
+					this, null);
+
+		Name name = elementNames[depth];
+
+		if (!name.matches(in, pos + 2, nameEnd))
+			throw new XmlPullParserException("End tag does not match <"
+					+ name.qName + ">", this, null);
+
+		pos = i + 1;
+		popPending = true;
+
+		return END_TAG;
+	}
+
+	/**
+	 * Used to pop the element whose END_TAG was last returned.
+	 */
+	private void popElement() {
+		namespaceCount = namespaceCounts[depth];
+		depth--;
+		popPending = false;
+	}
+
+	/**
+	 * Used to check the document is complete once there is no more input.
+	 */
+	private int endDocument() throws XmlPullParserException {
+		if (depth > 0)
+			throw new XmlPullParserException("Document ended with " + depth
+					+ " unclosed elements", this, null);
+		if (pos < limit)
+			throw new XmlPullParserException(
+					"Document ended in the middle of markup", this, null);
+		if (!rootSeen)
+			throw new XmlPullParserException(
+					"Document ended without a root element", this, null);
+
+		return END_DOCUMENT;
+	}
+
+	/**
+	 * Used to get more bytes to tokenize once the current token is found to be
+	 * incomplete.
+	 * <p/>
+	 * If the tokenizer is reading straight out of a fed buffer, the bytes of
+	 * the incomplete token are copied into the carry buffer and there is no
+	 * more input until the next buffer is fed. If it is already reading out of
+	 * the carry buffer, more bytes of the last fed buffer are appended to it.
+	 * 
+	 * @return <code>true</code> if there are more bytes to tokenize.
+	 */
+	private boolean moreInput() {
+		if (in == null)
+			return false;
+
+		if (in != carry) {
+			saveTail();
+			return false;
+		}
+
+		if (source == null || !source.hasRemaining()) {
+			source = null;
+			return false;
+		}
+
+		// Append at least as many bytes as are already carried, so the
+		// incomplete token is re-scanned a logarithmic number of times
+		int length = Math.min(source.remaining(),
+				Math.max(MIN_APPEND, limit - pos));
+
+		// append(..) moves this index along when it compacts the carry buffer
+		if (carrySourceStart == -1)
+			carrySourceStart = limit;
+
+		append(source, length);
+		return true;
+	}
+
+	/**
+	 * Used to copy the bytes from {@link #pos} to {@link #limit} of the buffer
+	 * being tokenized into the carry buffer and tokenize from there.
+	 */
+	private void saveTail() {
+		int length = limit - pos;
+		countLines();
+		ensureCarry(length);
+
+		ByteBuffer tail = in.duplicate();
+		tail.limit(limit);
+		tail.position(pos);
+		tail.get(carryArray, 0, length);
+
+		inOffset += pos;
+		in = carry;
+		pos = 0;
+		limit = length;
+	}
+
+	/**
+	 * Used to append the given number of bytes of the given buffer to the
+	 * carry buffer, dropping the bytes already tokenized from it first.
+	 */
+	private void append(ByteBuffer buffer, int length) {
+		if (in != carry)
+			saveTail();
+
+		if (pos > 0) {
+			countLines();
+			System.arraycopy(carryArray, pos, carryArray, 0, limit - pos);
+
+			if (carrySourceStart != -1)
+				carrySourceStart -= pos;
+
+			inOffset += pos;
+			limit -= pos;
+			pos = 0;
+		}
+
+		ensureCarry(limit + length);
+		buffer.get(carryArray, limit, length);
+		limit += length;
+	}
+
+	/**
+	 * Used to go back to tokenizing straight out of the last fed buffer once
+	 * the token that had to be carried over is complete. The bytes after the
+	 * token that were appended to the carry buffer are simply un-read from the
+	 * fed buffer.
+	 */
+	private void switchToSource() {
+		int unread = limit - pos;
+		source.position(source.position() - unread);
+
+		countLines();
+		inOffset += pos - source.position();
+		in = source;
+		pos = source.position();
+		limit = source.limit();
+		source.position(limit);
+
+		source = null;
+		carrySourceStart = -1;
+	}
+
+	private void ensureCarry(int capacity) {
+		if (carryArray == null || carryArray.length < capacity) {
+			boolean carrying = (in != null && in == carry);
+			byte[] newArray = new byte[Math.max(capacity, MIN_APPEND) * 2];
+
+			if (carrying)
+				System.arraycopy(carryArray, 0, newArray, 0, limit);
+
+			carryArray = newArray;
+			carry = ByteBuffer.wrap(carryArray);
+
+			if (carrying)
+				in = carry;
+		}
+	}
+
+	/**
+	 * Used to check the pseudo-attributes of the XML declaration between the
+	 * given offsets (right after <code>&lt;?xml</code> and at its
+	 * <code>?&gt;</code>), reading the encoding it declares unless one was
+	 * given.
+	 */
+	private void readDeclaration(int start, int end)
+			throws XmlPullParserException {
+		int i = skipWhitespace(start);
+		int quote = (i > start ? pseudoAttribute(VERSION, i, end) : -1);
+
+		if (quote == -1)
+			throw new XmlPullParserException(
+					"The XML declaration must start with a version", this,
+					null);
+
+		int valueEnd = indexOf(in.get(quote), quote + 1, end);
+
+		// VersionNum is "1." followed by digits
+		if (valueEnd - quote < 4 || in.get(quote + 1) != '1'
+				|| in.get(quote + 2) != '.')
+			throw new XmlPullParserException(
+					"Only XML 1.x versions can be declared", this, null);
+
+		for (int j = quote + 3; j < valueEnd; j++) {
+			byte b = in.get(j);
+
+			if (b < '0' || b > '9')
+				throw new XmlPullParserException(
+						"Only XML 1.x versions can be declared", this, null);
+		}
+
+		i = skipWhitespace(valueEnd + 1);
+
+		// Every pseudo-attribute is optional, but they must come in order
+		if (i > valueEnd + 1
+				&& (quote = pseudoAttribute(ENCODING, i, end)) != -1) {
+			valueEnd = indexOf(in.get(quote), quote + 1, end);
+			StringBuilder name = new StringBuilder(valueEnd - quote);
+
+			for (int j = quote + 1; j < valueEnd; j++) {
+				byte b = in.get(j);
+
+				if (b < 0 || !NAME_CHARS[b] || b == ':'
+						|| (j == quote + 1 && !isNameStart(b)))
+					throw new XmlPullParserException(
+							"Illegal character in the XML declaration encoding",
+							this, null);
+
+				name.append((char) b);
+			}
+
+			if (!encodingGiven)
+				setEncoding(name.toString());
+
+			i = skipWhitespace(valueEnd + 1);
+		}
+
+		if (i > valueEnd + 1
+				&& (quote = pseudoAttribute(STANDALONE, i, end)) != -1) {
+			valueEnd = indexOf(in.get(quote), quote + 1, end);
+			int length = valueEnd - quote - 1;
+
+			if (!(length == 3 && in.get(quote + 1) == 'y'
+					&& in.get(quote + 2) == 'e' && in.get(quote + 3) == 's')
+					&& !(length == 2 && in.get(quote + 1) == 'n' && in
+							.get(quote + 2) == 'o'))
+				throw new XmlPullParserException(
+						"standalone must be 'yes' or 'no'", this, null);
+
+			i = skipWhitespace(valueEnd + 1);
+		}
+
+		if (i != end)
+			throw new XmlPullParserException("Malformed XML declaration",
+					this, null);
+	}
+
+	/**
+	 * Used to read the pseudo-attribute with the given name at the given
+	 * offset of the XML declaration ending at the given offset.
+	 * 
+	 * @return the offset of the opening quote of its value, or -1 if the
+	 *         pseudo-attribute at the offset has a different name.
+	 */
+	private int pseudoAttribute(byte[] name, int i, int end)
+			throws XmlPullParserException {
+		if (end - i < name.length || !startsWith(name, i))
+			return -1;
+
+		i = skipWhitespace(i + name.length);
+
+		if (i >= end || in.get(i) != '=')
+			throw new XmlPullParserException(
+					"'=' expected in the XML declaration", this, null);
+
+		i = skipWhitespace(i + 1);
+		byte quote = (i < end ? in.get(i) : 0);
+
+		if ((quote != '"' && quote != '\'')
+				|| indexOf(quote, i + 1, end) == -1)
+			throw new XmlPullParserException(
+					"Quoted value expected in the XML declaration", this, null);
+
+		return i;
+	}
+
+	/**
+	 * Used to check the processing instruction whose target starts at the
+	 * given offset, and which ends at the other one, has a target at all.
+	 */
+	private void checkTarget(int start, int end)
+			throws XmlPullParserException {
+		if (start == end || !isNameStart(in.get(start)))
+			throw new XmlPullParserException(
+					"Processing instruction target expected", this, null);
+	}
+
+	/**
+	 * @return <code>true</code> if the target of the processing instruction
+	 *         starting at the given offset, and ending at the other one, is
+	 *         <code>xml</code> in any case.
+	 */
+	private boolean isReservedTarget(int start, int end) {
+		return (end - start >= 3 && (in.get(start) | 0x20) == 'x'
+				&& (in.get(start + 1) | 0x20) == 'm'
+				&& (in.get(start + 2) | 0x20) == 'l' && (end - start == 3 || isWhitespace(in
+						.get(start + 3))));
+	}
+
+	/**
+	 * Used to set the encoding of the document, which must be one of the
+	 * encodings the tokenizer can read.
+	 */
+	private void setEncoding(String name) throws XmlPullParserException {
+		String canonical;
+
+		try {
+			canonical = Charset.forName(name).name();
+		} catch (IllegalArgumentException e) {
+			canonical = name;
+		}
+
+		if ("UTF-8".equals(canonical))
+			utf8 = true;
+		else if ("ISO-8859-1".equals(canonical)
+				|| "US-ASCII".equals(canonical))
+			utf8 = false;
+		else
+			throw new XmlPullParserException("Unsupported encoding [" + name
+					+ "], only UTF-8, US-ASCII and ISO-8859-1 can be tokenized directly from bytes.");
+
+		encoding = canonical;
+
+		// Cached names were decoded using the other encoding
+		if (utf8 != namesUTF8) {
+			namesUTF8 = utf8;
+			clearNames();
+		}
+	}
+
+	private void declareNamespace(String prefix, String namespaceURI) {
+		if (namespaceCount == namespacePrefixes.length) {
+			String[] newPrefixes = new String[namespaceCount * 2];
+			String[] newURIs = new String[namespaceCount * 2];
+			System.arraycopy(namespacePrefixes, 0, newPrefixes, 0,
+					namespaceCount);
+			System.arraycopy(namespaceURIs, 0, newURIs, 0, namespaceCount);
+			namespacePrefixes = newPrefixes;
+			namespaceURIs = newURIs;
+		}
+
+		namespacePrefixes[namespaceCount] = prefix;
+		namespaceURIs[namespaceCount] = namespaceURI;
+		namespaceCount++;
+	}
+
+	/**
+	 * @return the namespace URI the given prefix is bound to, or
+	 *         <code>null</code> if it isn't bound.
+	 */
+	private String findNamespace(String prefix) {
+		for (int i = namespaceCount - 1; i >= 0; i--) {
+			if (prefix.equals(namespacePrefixes[i]))
+				return namespaceURIs[i];
+		}
+
+		if ("xml".equals(prefix))
+			return XML_NAMESPACE;
+
+		return null;
+	}
+
+	/**
+	 * Used to resolve the namespace of an element or attribute name with the
+	 * given prefix. Unprefixed elements are in the default namespace,
+	 * unprefixed attributes are in no namespace.
+	 */
+	private String resolveNamespace(String prefix, boolean element)
+			throws XmlPullParserException {
+		if (prefix == null) {
+			String namespaceURI = (element ? findNamespace("") : null);
+			return (namespaceURI == null ? "" : namespaceURI);
+		}
+
+		String namespaceURI = findNamespace(prefix);
+
+		if (namespaceURI == null)
+			throw new XmlPullParserException("Namespace prefix [" + prefix
+					+ "] is not bound to a namespace", this, null);
+
+		return namespaceURI;
+	}
+
+	/**
+	 * Used to look up the {@link Name} with the bytes between the given
+	 * offsets, adding it to the cache if it hasn't been seen before.
+	 */
+	private Name lookupName(int start, int end) {
+		int hash = 0;
+
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + in.get(i);
+
+		int mask = names.length - 1;
+		int index = hash & mask;
+
+		for (Name name = names[index]; name != null; name = names[index]) {
+			if (name.hash == hash && name.matches(in, start, end))
+				return name;
+
+			index = (index + 1) & mask;
+		}
+
+		byte[] bytes = new byte[end - start];
+
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = in.get(start + i);
+
+		Name name = new Name(bytes, hash, decodeString(start, end, NAME),
+				namespaces);
+
+		// Don't let a document with endless distinct names grow the cache
+		if (nameCount < MAX_CACHED_NAMES) {
+			if (++nameCount * 2 > names.length) {
+				rehashNames();
+				mask = names.length - 1;
+				index = hash & mask;
+
+				while (names[index] != null)
+					index = (index + 1) & mask;
+			}
+
+			names[index] = name;
+		}
+
+		return name;
+	}
+
+	/**
+	 * Used to create the {@link Name} of an element restored from a saved
+	 * {@link State}. Restored names are not cached, only a handful of them are
+	 * ever restored.
+	 */
+	private Name restoreName(byte[] bytes) {
+		int hash = 0;
+
+		for (int i = 0; i < bytes.length; i++)
+			hash = 31 * hash + bytes[i];
+
+		try {
+			return new Name(bytes, hash, new String(bytes, encoding),
+					namespaces);
+		} catch (UnsupportedEncodingException e) {
+			// Can't happen, setEncoding(..) only accepts supported encodings
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void rehashNames() {
+		Name[] oldNames = names;
+		names = new Name[oldNames.length * 2];
+		int mask = names.length - 1;
+
+		for (int i = 0; i < oldNames.length; i++) {
+			Name name = oldNames[i];
+
+			if (name != null) {
+				int index = name.hash & mask;
+
+				while (names[index] != null)
+					index = (index + 1) & mask;
+
+				names[index] = name;
+			}
+		}
+	}
+
+	private void clearNames() {
+		for (int i = 0; i < names.length; i++)
+			names[i] = null;
+
+		nameCount = 0;
+	}
+
+	/**
+	 * Used to decode the text of the current TEXT event into {@link #chars},
+	 * if it hasn't been decoded yet.
+	 */
+	private void decodeText() {
+		if (charCount == -1) {
+			ensureChars(textEnd - textStart);
+			charCount = decode(textStart, textEnd, CONTENT, 0);
+		}
+	}
+
+	private String decodeString(int start, int end, int mode) {
+		ensureChars(end - start);
+		return new String(chars, 0, decode(start, end, mode, 0));
+	}
+
+	/**
+	 * Used to decode the bytes between the given offsets into {@link #chars}
+	 * at the given index. No more chars than bytes are ever produced, so
+	 * {@link #chars} must have room for <code>end - start</code> more chars.
+	 * 
+	 * @param mode
+	 *            {@link #NAME} to only decode characters, {@link #CONTENT} to
+	 *            also replace references and skip over comments and
+	 *            processing instructions, {@link #CDATA} to also normalize line
+	 *            breaks or {@link #ATTRIBUTE} to also replace references and
+	 *            normalize whitespace as in an attribute value.
+	 * 
+	 * @return the index after the last decoded char.
+	 */
+	private int decode(int i, int end, int mode, int n) {
+		char[] c = chars;
+
+		while (i < end) {
+			/*
+			 * PERFORMANCE: Copy runs of 8 plain ASCII characters at a time; a
+			 * long holding no high bits, control characters (e.g. line
+			 * breaks), '&' or '<' needs no decoding at all.
+			 */
+			while (i + 8 <= end) {
+				long word = in.getLong(i);
+
+				if ((((word | (word - 14 * ONES)) & HIGH_BITS)
+						| zeroBytes(word ^ AMP_BYTES) | zeroBytes(word ^ LT_BYTES)) != 0)
+					break;
+
+				for (int j = 0; j < 8; j++)
+					c[n++] = (char) in.get(i++);
+			}
+
+			if (i == end)
+				break;
+
+			int b = in.get(i);
+
+			if (b >= 0) {
+				if (mode == NAME || (b > '&' && b != '<')) {
+					// Most common case, a plain ASCII character
+					c[n++] = (char) b;
+					i++;
+				} else if (b == '&' && mode != CDATA) {
+					int semicolon = indexOf((byte) ';', i + 1, end);
+
+					if (semicolon == -1)
+						throw decodeError("Unterminated reference", i);
+
+					n = decodeReference(i + 1, semicolon, n);
+					i = semicolon + 1;
+				} else if (b == '<' && mode == CONTENT) {
+					if (in.get(i + 1) == '?')
+						i = indexOf(PI_END, i + 2, end) + PI_END.length;
+					else if (in.get(i + 2) == '-')
+						i = indexOf(COMMENT_END, i + 4, end)
+								+ COMMENT_END.length;
+					else {
+						int cdataEnd = indexOf(CDATA_END, i + 9, end);
+						n = decode(i + 9, cdataEnd, CDATA, n);
+						i = cdataEnd + CDATA_END.length;
+					}
+				} else if (b == '\r') {
+					// Line breaks are normalized to a single '\n'
+					if (i + 1 < end && in.get(i + 1) == '\n')
+						i++;
+
+					c[n++] = (mode == ATTRIBUTE ? ' ' : '\n');
+					i++;
+				} else if (mode == ATTRIBUTE && (b == '\n' || b == '\t')) {
+					c[n++] = ' ';
+					i++;
+				} else {
+					c[n++] = (char) b;
+					i++;
+				}
+			} else if (!utf8) {
+				c[n++] = (char) (b & 0xFF);
+				i++;
+			} else {
+				int length = (b >= -32 ? (b >= -16 ? 4 : 3) : 2);
+				int codePoint = (length == 2 ? b & 0x1F : (length == 3 ? b & 0x0F
+						: b & 0x07));
+
+				for (int j = 1; j < length && codePoint != -1; j++) {
+					int next = (i + j < end ? in.get(i + j) : 0);
+					codePoint = ((next & 0xC0) == 0x80 ? (codePoint << 6)
+							| (next & 0x3F) : -1);
+				}
+
+				if (b < -62 || b > -12 || codePoint == -1) {
+					// Malformed, replaced just like a Reader would
+					c[n++] = '\uFFFD';
+					i++;
+				} else {
+					n = appendCodePoint(codePoint, n);
+					i += length;
+				}
+			}
+		}
+
+		return n;
+	}
+
+	/**
+	 * Used to decode the entity or character reference whose name is between
+	 * the given offsets (without the '&amp;' and ';').
+	 */
+	private int decodeReference(int start, int end, int n) {
+		if (end - start > 1 && in.get(start) == '#') {
+			int radix = 10;
+			int i = start + 1;
+
+			if (in.get(i) == 'x') {
+				radix = 16;
+				i++;
+			}
+
+			int codePoint = (i < end ? 0 : -1);
+
+			for (; i < end && codePoint != -1; i++) {
+				int digit = Character.digit((char) in.get(i), radix);
+				codePoint = (digit == -1 || codePoint > 0x10FFFF ? -1
+						: codePoint * radix + digit);
+			}
+
+			if (codePoint == -1 || codePoint > 0x10FFFF)
+				throw decodeError("Invalid character reference", start - 1);
+
+			return appendCodePoint(codePoint, n);
+		}
+
+		char c;
+
+		if (isName("lt", start, end))
+			c = '<';
+		else if (isName("gt", start, end))
+			c = '>';
+		else if (isName("amp", start, end))
+			c = '&';
+		else if (isName("apos", start, end))
+			c = '\'';
+		else if (isName("quot", start, end))
+			c = '"';
+		else
+			throw decodeError("Undeclared entity", start - 1);
+
+		chars[n] = c;
+		return n + 1;
+	}
+
+	private int appendCodePoint(int codePoint, int n) {
+		if (codePoint < 0x10000)
+			chars[n++] = (char) codePoint;
+		else {
+			codePoint -= 0x10000;
+			chars[n++] = (char) (0xD800 + (codePoint >> 10));
+			chars[n++] = (char) (0xDC00 + (codePoint & 0x3FF));
+		}
+
+		return n;
+	}
+
+	/**
+	 * Used to create the exception thrown when decoding fails. The decoding
+	 * methods are called from {@link #getText()} and friends, which can't
+	 * throw an {@link XmlPullParserException}.
+	 */
+	private XMLParserException decodeError(String message, int offset) {
+		return new XMLParserException(message + " at byte "
+				+ (inOffset + offset) + " of the document.");
+	}
+
+	private boolean isTag() {
+		return (eventType == START_TAG || eventType == END_TAG);
+	}
+
+	private void checkAttribute(int index) {
+		if (eventType != START_TAG || index < 0 || index >= attributeCount)
+			throw new IndexOutOfBoundsException("No attribute at index "
+					+ index);
+	}
+
+	private boolean isName(String name, int start, int end) {
+		if (end - start != name.length())
+			return false;
+
+		for (int i = start; i < end; i++) {
+			if (in.get(i) != name.charAt(i - start))
+				return false;
+		}
+
+		return true;
+	}
+
+	private boolean startsWith(byte[] prefix, int start) {
+		for (int i = 0; i < prefix.length; i++) {
+			if (in.get(start + i) != prefix[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the offset just past the name starting at the given offset, or
+	 *         {@link #limit} if the name may not be complete yet.
+	 */
+	private int nameEnd(int i) {
+		for (; i < limit; i++) {
+			byte b = in.get(i);
+
+			if (b >= 0 && !NAME_CHARS[b])
+				break;
+		}
+
+		return i;
+	}
+
+	/**
+	 * @return <code>true</code> if a name can start with the given byte.
+	 */
+	private static boolean isNameStart(byte b) {
+		int lower = b | 0x20;
+
+		return (b < 0 || b == '_' || b == ':' || (lower >= 'a' && lower <= 'z'));
+	}
+
+	/**
+	 * @return <code>true</code> if the bytes of the two given ranges are the
+	 *         same.
+	 */
+	private boolean equalBytes(int start, int end, int otherStart,
+			int otherEnd) {
+		if (end - start != otherEnd - otherStart)
+			return false;
+
+		for (int i = start; i < end; i++) {
+			if (in.get(i) != in.get(otherStart + i - start))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Used to check the text of a comment, up to the offset of its "-->",
+	 * doesn't contain "--" or end with a '-'.
+	 */
+	private void checkComment(int start, int end)
+			throws XmlPullParserException {
+		// The '-' right before the end is checked against the "-->" itself
+		for (int i = indexOf((byte) '-', start, end); i != -1; i = indexOf(
+				(byte) '-', i + 1, end)) {
+			if (in.get(i + 1) == '-')
+				throw new XmlPullParserException(
+						"'--' is not allowed inside of a comment", this, null);
+		}
+	}
+
+	/**
+	 * Used to count the lines of the bytes tokenized since the last call, up
+	 * to {@link #pos}. This has to happen before those bytes are dropped from
+	 * {@link #in}.
+	 */
+	private void countLines() {
+		if (in == null)
+			return;
+
+		for (int i = indexOf((byte) '\n', (int) (linesCounted - inOffset),
+				pos); i != -1; i = indexOf((byte) '\n', i + 1, pos)) {
+			lineNumber++;
+			lineStart = inOffset + i + 1;
+		}
+
+		linesCounted = inOffset + pos;
+	}
+
+	private int skipWhitespace(int i) {
+		while (i < limit && isWhitespace(in.get(i)))
+			i++;
+
+		return i;
+	}
+
+	/**
+	 * @return the offset of the '>' ending the declaration whose name starts
+	 *         at the given offset, or -1 if it isn't complete yet.
+	 */
+	private int declarationEnd(int i) {
+		int brackets = 0;
+		byte quote = 0;
+
+		for (; i < limit; i++) {
+			byte b = in.get(i);
+
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'')
+				quote = b;
+			else if (b == '[')
+				brackets++;
+			else if (b == ']')
+				brackets--;
+			else if (b == '>' && brackets == 0)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return the offset of the first '&lt;' or '&gt;' from the given offset,
+	 *         or -1 if there is none.
+	 */
+	private int indexOfDelimiter(int i) {
+		if (limit - i >= SWAR_MIN_LENGTH) {
+			for (int last = limit - 8; i <= last; i += 8) {
+				long word = in.getLong(i);
+				long flags = zeroBytes(word ^ LT_BYTES)
+						| zeroBytes(word ^ GT_BYTES);
+
+				if (flags != 0)
+					return i + firstFlagged(flags);
+			}
+		}
+
+		for (; i < limit; i++) {
+			byte b = in.get(i);
+
+			if (b == '<' || b == '>')
+				return i;
+		}
+
+		return -1;
+	}
+
+	private int indexOf(byte b, int start, int end) {
+		int i = start;
+
+		/*
+		 * PERFORMANCE: Long runs of text, attribute values and comments are
+		 * searched 8 bytes at a time instead of byte by byte.
+		 */
+		if (end - i >= SWAR_MIN_LENGTH) {
+			long pattern = (b & 0xFFL) * ONES;
+
+			for (int last = end - 8; i <= last; i += 8) {
+				long flags = zeroBytes(in.getLong(i) ^ pattern);
+
+				if (flags != 0)
+					return i + firstFlagged(flags);
+			}
+		}
+
+		for (; i < end; i++) {
+			if (in.get(i) == b)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Used to find the zero bytes of a long, without any carries between its
+	 * bytes that could flag a byte next to a zero one.
+	 * 
+	 * @return a long with the high bit of every byte that is zero in the given
+	 *         long set, and every other bit clear.
+	 */
+	private static long zeroBytes(long word) {
+		return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+	}
+
+	/**
+	 * @return the offset, within the last long read from {@link #in}, of the
+	 *         first byte flagged in the given flags.
+	 */
+	private int firstFlagged(long flags) {
+		return (in.order() == ByteOrder.BIG_ENDIAN ? Long
+				.numberOfLeadingZeros(flags) : Long
+				.numberOfTrailingZeros(flags)) >>> 3;
+	}
+
+	private int indexOf(byte[] bytes, int start, int end) {
+		for (int i = indexOf(bytes[0], start, end); i != -1; i = indexOf(
+				bytes[0], i + 1, end)) {
+			if (i + bytes.length > end)
+				return -1;
+
+			int j = 1;
+
+			while (j < bytes.length && in.get(i + j) == bytes[j])
+				j++;
+
+			if (j == bytes.length)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private void ensureChars(int length) {
+		if (chars.length < length)
+			chars = new char[Math.max(length, chars.length * 2)];
+	}
+
+	private void growElements() {
+		int length = elementNames.length * 2;
+		Name[] newNames = new Name[length];
+		String[] newNamespaces = new String[length];
+		int[] newCounts = new int[length];
+
+		System.arraycopy(elementNames, 0, newNames, 0, depth);
+		System.arraycopy(elementNamespaces, 0, newNamespaces, 0, depth);
+		System.arraycopy(namespaceCounts, 0, newCounts, 0, depth);
+
+		elementNames = newNames;
+		elementNamespaces = newNamespaces;
+		namespaceCounts = newCounts;
+	}
+
+	private void growAttributes() {
+		int length = nameStarts.length * 2;
+
+		nameStarts = grow(nameStarts, length);
+		nameEnds = grow(nameEnds, length);
+		valueStarts = grow(valueStarts, length);
+		valueEnds = grow(valueEnds, length);
+		attributeNames = new Name[length];
+		attributeNamespaces = new String[length];
+		attributeValues = new String[length];
+	}
+
+	private static int[] grow(int[] array, int length) {
+		int[] newArray = new int[length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+	private static boolean isWhitespace(int c) {
+		return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+	}
+
+	/**
+	 * Class used to hold the state of a document saved between two events, see
+	 * {@link ByteTokenizer#saveState()}.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class State implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private String encoding;
+		private int lineNumber;
+		private int columnNumber;
+
+		// Parallel arrays, one entry per open element from the root down
+		private byte[][] elementNames;
+		private String[] elementNamespaces;
+		private int[] namespaceCounts;
+
+		private String[] namespacePrefixes;
+		private String[] namespaceURIs;
+
+		/**
+		 * @return the number of elements still open.
+		 */
+		int getDepth() {
+			return elementNames.length;
+		}
+	}
+
+	/**
+	 * Class used to represent an element or attribute name, cached by the raw
+	 * bytes it appears as in the document.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class Name {
+		private byte[] bytes;
+		private int hash;
+
+		private String qName;
+		private String prefix;
+		private String localName;
+		private boolean qualified;
+
+		// The last transition taken on this name, see transition(..)
+		private PathAutomaton<?> automaton;
+		private int fromState;
+		private String namespaceURI;
+		private int toState;
+
+		Name(byte[] bytes, int hash, String qName, boolean namespaces) {
+			this.bytes = bytes;
+			this.hash = hash;
+			this.qName = qName;
+
+			int colon = (namespaces ? qName.indexOf(':') : -1);
+
+			if (colon > 0) {
+				prefix = qName.substring(0, colon);
+				localName = qName.substring(colon + 1);
+			} else
+				localName = qName;
+
+			// A colon can only separate a prefix from a local name
+			qualified = (!namespaces || (colon != 0
+					&& localName.length() > 0 && localName.indexOf(':') == -1));
+		}
+
+		/**
+		 * @return the local name if namespaces are processed, otherwise the
+		 *         qualified name.
+		 */
+		String getName(boolean namespaces) {
+			return (namespaces ? localName : qName);
+		}
+
+		boolean isNamespaceDeclaration() {
+			return (prefix == null ? "xmlns".equals(qName) : "xmlns"
+					.equals(prefix));
+		}
+
+		/**
+		 * @return <code>true</code> if the bytes of the given buffer between
+		 *         the given offsets are the bytes of this name.
+		 */
+		boolean matches(ByteBuffer buffer, int start, int end) {
+			if (end - start != bytes.length)
+				return false;
+
+			for (int i = 0; i < bytes.length; i++) {
+				if (buffer.get(start + i) != bytes[i])
+					return false;
+			}
+
+			return true;
+		}
+	}
+}
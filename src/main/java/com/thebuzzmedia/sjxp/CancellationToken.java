@@ -0,0 +1,62 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to cancel one or more parses from any thread.
+ * <p/>
+ * Give the same token to every parser working on behalf of, for example, a
+ * single request; calling {@link #cancel()} makes all of them abort with a
+ * {@link XMLParserAbortedException} at their next parse event, or as soon as
+ * they read more of their document.
+ * <p/>
+ * Unlike {@link XMLParser#stop()}, which is meant for {@link IRule}s that have
+ * seen everything they need and makes the parse return normally, cancelling
+ * means the results of the parse are not wanted any more.
+ * <h3>Thread Safety</h3>
+ * This class is thread-safe. A token can't be reset once it has been
+ * cancelled, create a new one for the next unit of work.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class CancellationToken {
+	private volatile boolean cancelled;
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the token
+	 * for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[cancelled=" + cancelled + "]";
+	}
+
+	/**
+	 * Used to cancel every parse using this token.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #cancel()} has been called.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
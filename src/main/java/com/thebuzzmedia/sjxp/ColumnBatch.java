@@ -0,0 +1,496 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Class used to hold the values extracted out of a batch of records by a
+ * {@link ColumnExtractor}, one primitive array per column.
+ * <p/>
+ * Record <code>i</code> of the batch is found at index <code>i</code> of
+ * every column, up to {@link #getRecordCount()}; anything past that is left
+ * over from previous batches and must be ignored. Depending on the
+ * {@link Type} of a column, its values are read out of {@link #getInts(int)},
+ * {@link #getLongs(int)}, {@link #getDoubles(int)} or, for strings,
+ * {@link #getCodes(int)}: every distinct string is stored once in the
+ * {@link #getDictionary(int)} of the column and the records only hold its
+ * code. The codes of a column stay the same for the whole document, so they
+ * can be compared, grouped and counted across batches without ever looking
+ * at the strings.
+ * <p/>
+ * A value missing from a record (the element or attribute isn't there) is 0
+ * in a numeric column and -1 in a string column; {@link #isNull(int, int)}
+ * tells a missing 0 from a real one. A value matched more than once in a
+ * record overwrites the previous one.
+ * <p/>
+ * Batches are reused: once the handler of the {@link ColumnExtractor} returns,
+ * the same batch is filled with the next records. Copy anything needed later
+ * out of it first.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ColumnBatch {
+	/**
+	 * The initial number of records the columns have room for, the columns
+	 * grow up to the batch size of the {@link ColumnExtractor} as needed.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private String[] names;
+	private Type[] types;
+	private int batchSize;
+
+	private int capacity;
+	private int recordCount;
+	private long firstRecord;
+	private int record = -1;
+
+	private int[][] ints;
+	private long[][] longs;
+	private double[][] doubles;
+	private boolean[][] present;
+	private StringDictionary[] dictionaries;
+
+	/**
+	 * Create a new, empty batch of the given columns.
+	 * 
+	 * @param names
+	 *            The names of the columns.
+	 * @param types
+	 *            The types of the columns.
+	 * @param batchSize
+	 *            The maximum number of records held.
+	 */
+	ColumnBatch(String[] names, Type[] types, int batchSize) {
+		this.names = names;
+		this.types = types;
+		this.batchSize = batchSize;
+
+		capacity = Math.min(batchSize, INITIAL_CAPACITY);
+		ints = new int[types.length][];
+		longs = new long[types.length][];
+		doubles = new double[types.length][];
+		present = new boolean[types.length][capacity];
+		dictionaries = new StringDictionary[types.length];
+
+		for (int i = 0; i < types.length; i++) {
+			switch (types[i]) {
+			case INT:
+				ints[i] = new int[capacity];
+				break;
+
+			case LONG:
+				longs[i] = new long[capacity];
+				break;
+
+			case DOUBLE:
+				doubles[i] = new double[capacity];
+				break;
+
+			case STRING:
+				ints[i] = new int[capacity];
+				dictionaries[i] = new StringDictionary();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the batch
+	 * for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[columns=" + names.length
+				+ ", firstRecord=" + firstRecord + ", recordCount="
+				+ recordCount + "]";
+	}
+
+	/**
+	 * Used to get the number of records in this batch.
+	 * 
+	 * @return the number of records in this batch.
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Used to get the index of the first record of this batch in the
+	 * document, counting from 0.
+	 * 
+	 * @return the index of the first record of this batch in the document.
+	 */
+	public long getFirstRecord() {
+		return firstRecord;
+	}
+
+	/**
+	 * Used to get the number of columns.
+	 * 
+	 * @return the number of columns.
+	 */
+	public int getColumnCount() {
+		return names.length;
+	}
+
+	/**
+	 * Used to get the name of a column.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the name of the column.
+	 */
+	public String getColumnName(int column) {
+		return names[column];
+	}
+
+	/**
+	 * Used to get the type of a column.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the type of the column.
+	 */
+	public Type getColumnType(int column) {
+		return types[column];
+	}
+
+	/**
+	 * Used to find a column by its name.
+	 * 
+	 * @param name
+	 *            The name of the column.
+	 * 
+	 * @return the index of the column, or -1 if there is no column with that
+	 *         name.
+	 */
+	public int getColumnIndex(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name))
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Used to get the values of an {@link Type#INT} column.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the values of the column, valid up to {@link #getRecordCount()}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the column is not an {@link Type#INT} column.
+	 */
+	public int[] getInts(int column) throws IllegalArgumentException {
+		checkType(column, Type.INT);
+		return ints[column];
+	}
+
+	/**
+	 * Used to get the values of a {@link Type#LONG} column.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the values of the column, valid up to {@link #getRecordCount()}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link Type#LONG} column.
+	 */
+	public long[] getLongs(int column) throws IllegalArgumentException {
+		checkType(column, Type.LONG);
+		return longs[column];
+	}
+
+	/**
+	 * Used to get the values of a {@link Type#DOUBLE} column.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the values of the column, valid up to {@link #getRecordCount()}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link Type#DOUBLE} column.
+	 */
+	public double[] getDoubles(int column) throws IllegalArgumentException {
+		checkType(column, Type.DOUBLE);
+		return doubles[column];
+	}
+
+	/**
+	 * Used to get the dictionary codes of a {@link Type#STRING} column.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the codes of the values of the column, indexes into
+	 *         {@link #getDictionary(int)} or -1 for missing values, valid up to
+	 *         {@link #getRecordCount()}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link Type#STRING} column.
+	 */
+	public int[] getCodes(int column) throws IllegalArgumentException {
+		checkType(column, Type.STRING);
+		return ints[column];
+	}
+
+	/**
+	 * Used to get the dictionary of a {@link Type#STRING} column, holding
+	 * every distinct value of the column found in the document so far.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the values of the column by code, valid up to
+	 *         {@link #getDictionarySize(int)}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link Type#STRING} column.
+	 */
+	public String[] getDictionary(int column) throws IllegalArgumentException {
+		checkType(column, Type.STRING);
+		return dictionaries[column].getValues();
+	}
+
+	/**
+	 * Used to get the number of distinct values of a {@link Type#STRING}
+	 * column found in the document so far.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * 
+	 * @return the number of values in the dictionary of the column.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link Type#STRING} column.
+	 */
+	public int getDictionarySize(int column) throws IllegalArgumentException {
+		checkType(column, Type.STRING);
+		return dictionaries[column].size();
+	}
+
+	/**
+	 * Used to get the value of a {@link Type#STRING} column for a record.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * @param record
+	 *            The index of the record in this batch.
+	 * 
+	 * @return the value, or <code>null</code> if it is missing.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the column is not a {@link Type#STRING} column or
+	 *             <code>record</code> is not a record of this batch.
+	 */
+	public String getString(int column, int record)
+			throws IllegalArgumentException {
+		checkType(column, Type.STRING);
+		checkRecord(record);
+
+		int code = ints[column][record];
+		return (code == -1 ? null : dictionaries[column].getValues()[code]);
+	}
+
+	/**
+	 * Used to check if a record is missing the value of a column.
+	 * 
+	 * @param column
+	 *            The index of the column.
+	 * @param record
+	 *            The index of the record in this batch.
+	 * 
+	 * @return <code>true</code> if the record has no value for the column.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>record</code> is not a record of this batch.
+	 */
+	public boolean isNull(int column, int record)
+			throws IllegalArgumentException {
+		checkRecord(record);
+		return !present[column][record];
+	}
+
+	/**
+	 * Used to start a new record, all of its values are missing until set.
+	 */
+	void startRecord() {
+		if (recordCount == capacity)
+			grow();
+
+		record = recordCount++;
+
+		for (int i = 0; i < types.length; i++) {
+			present[i][record] = false;
+
+			switch (types[i]) {
+			case INT:
+				ints[i][record] = 0;
+				break;
+
+			case LONG:
+				longs[i][record] = 0;
+				break;
+
+			case DOUBLE:
+				doubles[i][record] = 0;
+				break;
+
+			case STRING:
+				ints[i][record] = -1;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Used to end the current record.
+	 * 
+	 * @return <code>true</code> if the batch is full.
+	 */
+	boolean endRecord() {
+		record = -1;
+		return (recordCount == batchSize);
+	}
+
+	/**
+	 * Used to empty the batch once its records have been handled, the next
+	 * record is the first of the next batch.
+	 */
+	void clear() {
+		firstRecord += recordCount;
+		recordCount = 0;
+		record = -1;
+	}
+
+	void setInt(int column, int value) {
+		if (record != -1) {
+			ints[column][record] = value;
+			present[column][record] = true;
+		}
+	}
+
+	void setLong(int column, long value) {
+		if (record != -1) {
+			longs[column][record] = value;
+			present[column][record] = true;
+		}
+	}
+
+	void setDouble(int column, double value) {
+		if (record != -1) {
+			doubles[column][record] = value;
+			present[column][record] = true;
+		}
+	}
+
+	void setString(int column, char[] buffer, int start, int length) {
+		if (record != -1) {
+			ints[column][record] = dictionaries[column].add(buffer, start,
+					length);
+			present[column][record] = true;
+		}
+	}
+
+	void setString(int column, String value) {
+		if (record != -1) {
+			ints[column][record] = dictionaries[column].add(value);
+			present[column][record] = true;
+		}
+	}
+
+	/**
+	 * Used to make room for more records in every column, up to the batch
+	 * size.
+	 */
+	private void grow() {
+		int newCapacity = (int) Math.min((long) capacity * 2, batchSize);
+
+		for (int i = 0; i < types.length; i++) {
+			boolean[] newPresent = new boolean[newCapacity];
+			System.arraycopy(present[i], 0, newPresent, 0, capacity);
+			present[i] = newPresent;
+
+			if (ints[i] != null) {
+				int[] newInts = new int[newCapacity];
+				System.arraycopy(ints[i], 0, newInts, 0, capacity);
+				ints[i] = newInts;
+			} else if (longs[i] != null) {
+				long[] newLongs = new long[newCapacity];
+				System.arraycopy(longs[i], 0, newLongs, 0, capacity);
+				longs[i] = newLongs;
+			} else {
+				double[] newDoubles = new double[newCapacity];
+				System.arraycopy(doubles[i], 0, newDoubles, 0, capacity);
+				doubles[i] = newDoubles;
+			}
+		}
+
+		capacity = newCapacity;
+	}
+
+	private void checkType(int column, Type type)
+			throws IllegalArgumentException {
+		if (types[column] != type)
+			throw new IllegalArgumentException("column [" + names[column]
+					+ "] is a " + types[column] + " column, not a " + type
+					+ " column");
+	}
+
+	private void checkRecord(int record) throws IllegalArgumentException {
+		if (record < 0 || record >= recordCount)
+			throw new IllegalArgumentException("record [" + record
+					+ "] must be >= 0 and < getRecordCount() [" + recordCount
+					+ "]");
+	}
+
+	/**
+	 * Enum used to describe the type of the values of a column.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public enum Type {
+		/**
+		 * Values parsed into an <code>int</code>, see
+		 * {@link com.thebuzzmedia.sjxp.rule.ValueParser#parseInt(char[], int, int)}
+		 * .
+		 */
+		INT,
+		/**
+		 * Values parsed into a <code>long</code>, see
+		 * {@link com.thebuzzmedia.sjxp.rule.ValueParser#parseLong(char[], int, int)}
+		 * .
+		 */
+		LONG,
+		/**
+		 * Values parsed into a <code>double</code>, see
+		 * {@link com.thebuzzmedia.sjxp.rule.ValueParser#parseDouble(char[], int, int)}
+		 * .
+		 */
+		DOUBLE,
+		/**
+		 * Values kept as dictionary-encoded strings.
+		 */
+		STRING;
+	}
+}
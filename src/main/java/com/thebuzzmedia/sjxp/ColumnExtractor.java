@@ -0,0 +1,499 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.InputStream;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.DoubleRule;
+import com.thebuzzmedia.sjxp.rule.ICharacterBufferRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IntRule;
+import com.thebuzzmedia.sjxp.rule.LongRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Class used to extract values out of the records of a document straight into
+ * primitive columns, handed back a {@link ColumnBatch} of records at a time.
+ * <p/>
+ * Every {@link Column} names the character data or attribute of a record to
+ * extract and the type to extract it as. Instead of calling a handler per
+ * value the way an {@link IRule} does, the numeric values are parsed out of
+ * the parser's buffer right into the <code>int[]</code>, <code>long[]</code>
+ * or <code>double[]</code> of their column, and string values are
+ * dictionary-encoded into an <code>int[]</code> of codes, so a string is only
+ * created the first time a value is seen. This is a good fit for feeding
+ * aggregations or analytics code that works on arrays over millions of
+ * records:
+ * 
+ * <pre>
+ * ColumnExtractor extractor = new ColumnExtractor(&quot;/library/book&quot;, 4096,
+ * 		new Column(&quot;id&quot;, ColumnBatch.Type.LONG, &quot;&quot;, &quot;id&quot;),
+ * 		new Column(&quot;pages&quot;, ColumnBatch.Type.INT, &quot;pages&quot;),
+ * 		new Column(&quot;author&quot;, ColumnBatch.Type.STRING, &quot;author&quot;));
+ * 
+ * extractor.extract(source, new IBatchHandler() {
+ * 	public boolean handleBatch(ColumnBatch batch) {
+ * 		int[] pages = batch.getInts(1);
+ * 
+ * 		for (int i = 0; i &lt; batch.getRecordCount(); i++)
+ * 			totalPages += pages[i];
+ * 
+ * 		return true;
+ * 	}
+ * });
+ * </pre>
+ * 
+ * A value that can't be parsed into the type of its column fails the
+ * extraction with an {@link XMLParserException}, just like the typed rules it
+ * is built on (see {@link com.thebuzzmedia.sjxp.rule.AbstractTypedRule}).
+ * <h3>Thread Safety</h3>
+ * The columns are compiled into a {@link RuleSet} once, when the extractor is
+ * created. Every call to {@link #extract(InputStream, IBatchHandler)} uses a
+ * new {@link XMLParser} and {@link ColumnBatch}, so an extractor can be used
+ * by any number of threads at the same time.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ColumnExtractor {
+	private String recordPath;
+	private int batchSize;
+	private String[] names;
+	private ColumnBatch.Type[] types;
+	private RuleSet<Extraction> ruleSet;
+
+	/**
+	 * Create a new extractor of the given columns out of the records found at
+	 * the given location path.
+	 * 
+	 * @param recordPath
+	 *            The location path of the records, e.g.
+	 *            <code>/library/book</code>.
+	 * @param batchSize
+	 *            The maximum number of records in every {@link ColumnBatch}.
+	 * @param columns
+	 *            The columns to extract.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>recordPath</code> is <code>null</code> or not an
+	 *             absolute path, if <code>batchSize</code> is &lt; 1, if
+	 *             <code>columns</code> is <code>null</code> or empty or if
+	 *             two columns share the same name.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public ColumnExtractor(String recordPath, int batchSize, Column... columns)
+			throws IllegalArgumentException {
+		if (recordPath == null || !recordPath.startsWith("/"))
+			throw new IllegalArgumentException("recordPath [" + recordPath
+					+ "] must be an absolute location path");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize [" + batchSize
+					+ "] must be >= 1");
+		if (columns == null || columns.length == 0)
+			throw new IllegalArgumentException(
+					"columns cannot be null or empty");
+
+		this.recordPath = recordPath;
+		this.batchSize = batchSize;
+
+		names = new String[columns.length];
+		types = new ColumnBatch.Type[columns.length];
+		IRule<Extraction>[] rules = new IRule[columns.length + 1];
+		rules[0] = new RecordRule(recordPath);
+
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i] == null)
+				throw new IllegalArgumentException("columns[" + i
+						+ "] cannot be null");
+
+			for (int j = 0; j < i; j++) {
+				if (names[j].equals(columns[i].name))
+					throw new IllegalArgumentException("column name ["
+							+ columns[i].name + "] is used more than once");
+			}
+
+			names[i] = columns[i].name;
+			types[i] = columns[i].type;
+			rules[i + 1] = createRule(i, columns[i]);
+		}
+
+		ruleSet = new RuleSet<Extraction>(rules);
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the
+	 * extractor for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[recordPath=" + recordPath
+				+ ", batchSize=" + batchSize + ", columns=" + names.length
+				+ "]";
+	}
+
+	/**
+	 * Used to get the location path of the records.
+	 * 
+	 * @return the location path of the records.
+	 */
+	public String getRecordPath() {
+		return recordPath;
+	}
+
+	/**
+	 * Used to get the maximum number of records in every {@link ColumnBatch}.
+	 * 
+	 * @return the maximum number of records in every batch.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Used to extract the columns out of every record of the given document.
+	 * <p/>
+	 * The handler is called every time a batch fills up and once more at the
+	 * end of the document with the remaining records, if any. The same
+	 * {@link ColumnBatch} is reused for every call; the string codes of a
+	 * column stay the same from one batch to the next.
+	 * 
+	 * @param source
+	 *            The stream to read the document from.
+	 * @param handler
+	 *            The handler called with every batch of records.
+	 * 
+	 * @return the number of records handed to the handler.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> or <code>handler</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if any error occurs parsing the document or a value can't
+	 *             be parsed into the type of its column.
+	 */
+	public long extract(InputStream source, IBatchHandler handler)
+			throws IllegalArgumentException, XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+		if (handler == null)
+			throw new IllegalArgumentException("handler cannot be null");
+
+		Extraction extraction = new Extraction(new ColumnBatch(names, types,
+				batchSize), handler);
+		new XMLParser<Extraction>(ruleSet).parse(source, extraction);
+
+		// Hand over whatever is left of the last batch
+		if (!extraction.stopped && extraction.batch.getRecordCount() > 0)
+			extraction.flush();
+
+		return extraction.batch.getFirstRecord();
+	}
+
+	private IRule<Extraction> createRule(int column, Column definition) {
+		String locationPath = definition.locationPath;
+
+		if (!locationPath.startsWith("/"))
+			locationPath = (locationPath.length() == 0 ? recordPath
+					: recordPath + '/' + locationPath);
+
+		Type ruleType;
+		String[] attributeNames;
+
+		if (definition.attributeName == null) {
+			ruleType = Type.CHARACTER;
+			attributeNames = new String[0];
+		} else {
+			ruleType = Type.ATTRIBUTE;
+			attributeNames = new String[] { definition.attributeName };
+		}
+
+		switch (definition.type) {
+		case INT:
+			return new IntColumnRule(ruleType, locationPath, attributeNames,
+					column);
+
+		case LONG:
+			return new LongColumnRule(ruleType, locationPath, attributeNames,
+					column);
+
+		case DOUBLE:
+			return new DoubleColumnRule(ruleType, locationPath,
+					attributeNames, column);
+
+		default:
+			return new StringColumnRule(ruleType, locationPath,
+					attributeNames, column);
+		}
+	}
+
+	/**
+	 * Interface used to describe the handler of the batches of records
+	 * extracted by a {@link ColumnExtractor}.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public interface IBatchHandler {
+		/**
+		 * Handler method called with every batch of records.
+		 * 
+		 * @param batch
+		 *            The batch, only valid until this method returns.
+		 * 
+		 * @return <code>true</code> to keep extracting records or
+		 *         <code>false</code> to stop.
+		 */
+		public boolean handleBatch(ColumnBatch batch);
+	}
+
+	/**
+	 * Class used to define a column extracted by a {@link ColumnExtractor}.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public static class Column {
+		private String name;
+		private ColumnBatch.Type type;
+		private String locationPath;
+		private String attributeName;
+
+		/**
+		 * Create a new column of the character data found at the given
+		 * location path.
+		 * 
+		 * @param name
+		 *            The name of the column.
+		 * @param type
+		 *            The type of the column.
+		 * @param locationPath
+		 *            The location path of the element, either absolute or
+		 *            relative to the record path (an empty path being the
+		 *            record element itself).
+		 * 
+		 * @throws IllegalArgumentException
+		 *             if any argument is <code>null</code>.
+		 */
+		public Column(String name, ColumnBatch.Type type, String locationPath)
+				throws IllegalArgumentException {
+			this(name, type, locationPath, null);
+		}
+
+		/**
+		 * Create a new column of the values of an attribute of the element
+		 * found at the given location path.
+		 * 
+		 * @param name
+		 *            The name of the column.
+		 * @param type
+		 *            The type of the column.
+		 * @param locationPath
+		 *            The location path of the element, either absolute or
+		 *            relative to the record path (an empty path being the
+		 *            record element itself).
+		 * @param attributeName
+		 *            The name of the attribute, or <code>null</code> to
+		 *            extract the character data of the element.
+		 * 
+		 * @throws IllegalArgumentException
+		 *             if <code>name</code>, <code>type</code> or
+		 *             <code>locationPath</code> is <code>null</code> or if
+		 *             <code>attributeName</code> is empty.
+		 */
+		public Column(String name, ColumnBatch.Type type, String locationPath,
+				String attributeName) throws IllegalArgumentException {
+			if (name == null)
+				throw new IllegalArgumentException("name cannot be null");
+			if (type == null)
+				throw new IllegalArgumentException("type cannot be null");
+			if (locationPath == null)
+				throw new IllegalArgumentException(
+						"locationPath cannot be null");
+			if (attributeName != null && attributeName.length() == 0)
+				throw new IllegalArgumentException(
+						"attributeName cannot be empty");
+
+			this.name = name;
+			this.type = type;
+			this.locationPath = locationPath;
+			this.attributeName = attributeName;
+		}
+
+		/**
+		 * Overridden to provide a nicely formatted representation of the
+		 * column for easy debugging.
+		 */
+		@Override
+		public String toString() {
+			return this.getClass().getName() + "[name=" + name + ", type="
+					+ type + ", locationPath=" + locationPath
+					+ ", attributeName=" + attributeName + "]";
+		}
+
+		/**
+		 * Used to get the name of the column.
+		 * 
+		 * @return the name of the column.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Used to get the type of the column.
+		 * 
+		 * @return the type of the column.
+		 */
+		public ColumnBatch.Type getType() {
+			return type;
+		}
+
+		/**
+		 * Used to get the location path of the element.
+		 * 
+		 * @return the location path of the element, as given.
+		 */
+		public String getLocationPath() {
+			return locationPath;
+		}
+
+		/**
+		 * Used to get the name of the attribute.
+		 * 
+		 * @return the name of the attribute, or <code>null</code> for the
+		 *         character data of the element.
+		 */
+		public String getAttributeName() {
+			return attributeName;
+		}
+	}
+
+	/**
+	 * Class used as the user object of an extraction, so the compiled rules
+	 * can be shared by every extraction running at the same time.
+	 */
+	static class Extraction {
+		private ColumnBatch batch;
+		private IBatchHandler handler;
+		private boolean stopped;
+
+		Extraction(ColumnBatch batch, IBatchHandler handler) {
+			this.batch = batch;
+			this.handler = handler;
+		}
+
+		/**
+		 * Used to hand the batch to the handler and empty it.
+		 * 
+		 * @return <code>false</code> if the handler asked to stop.
+		 */
+		boolean flush() {
+			if (!handler.handleBatch(batch))
+				stopped = true;
+
+			batch.clear();
+			return !stopped;
+		}
+	}
+
+	static class RecordRule extends DefaultRule<Extraction> {
+		RecordRule(String recordPath) {
+			super(Type.TAG, recordPath);
+		}
+
+		@Override
+		public void handleTag(XMLParser<Extraction> parser,
+				boolean isStartTag, Extraction extraction) {
+			if (extraction.stopped)
+				return;
+
+			if (isStartTag)
+				extraction.batch.startRecord();
+			else if (extraction.batch.endRecord() && !extraction.flush())
+				parser.stop();
+		}
+	}
+
+	static class IntColumnRule extends IntRule<Extraction> {
+		private int column;
+
+		IntColumnRule(Type type, String locationPath,
+				String[] attributeNames, int column) {
+			super(type, locationPath, attributeNames);
+			this.column = column;
+		}
+
+		@Override
+		public void handleParsedInt(XMLParser<Extraction> parser, int index,
+				int value, Extraction extraction) {
+			extraction.batch.setInt(column, value);
+		}
+	}
+
+	static class LongColumnRule extends LongRule<Extraction> {
+		private int column;
+
+		LongColumnRule(Type type, String locationPath,
+				String[] attributeNames, int column) {
+			super(type, locationPath, attributeNames);
+			this.column = column;
+		}
+
+		@Override
+		public void handleParsedLong(XMLParser<Extraction> parser, int index,
+				long value, Extraction extraction) {
+			extraction.batch.setLong(column, value);
+		}
+	}
+
+	static class DoubleColumnRule extends DoubleRule<Extraction> {
+		private int column;
+
+		DoubleColumnRule(Type type, String locationPath,
+				String[] attributeNames, int column) {
+			super(type, locationPath, attributeNames);
+			this.column = column;
+		}
+
+		@Override
+		public void handleParsedDouble(XMLParser<Extraction> parser,
+				int index, double value, Extraction extraction) {
+			extraction.batch.setDouble(column, value);
+		}
+	}
+
+	static class StringColumnRule extends DefaultRule<Extraction> implements
+			ICharacterBufferRule<Extraction> {
+		private int column;
+
+		StringColumnRule(Type type, String locationPath,
+				String[] attributeNames, int column) {
+			super(type, locationPath, attributeNames);
+			this.column = column;
+		}
+
+		public void handleParsedCharacters(XMLParser<Extraction> parser,
+				char[] buffer, int start, int length, Extraction extraction) {
+			extraction.batch.setString(column, buffer, start, length);
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<Extraction> parser,
+				int index, String value, Extraction extraction) {
+			// Attributes missing from the element leave the value missing
+			if (value != null)
+				extraction.batch.setString(column, value);
+		}
+	}
+}
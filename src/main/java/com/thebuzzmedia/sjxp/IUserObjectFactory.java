@@ -0,0 +1,46 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Interface used to create a separate user object for every part of a document
+ * that is parsed on its own, for example every chunk of records parsed by a
+ * {@link SplitParser}, or for every document of a batch parsed by a
+ * {@link BatchParser}.
+ * <p/>
+ * Giving each part its own user object means the {@link com.thebuzzmedia.sjxp.rule.IRule}s
+ * parsing it never have to share state with the rules parsing other parts on
+ * other threads, and lets the caller put the results of all the parts back
+ * together in document order once they are done.
+ * 
+ * @param <T>
+ *            The class type of the user objects created.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface IUserObjectFactory<T> {
+	/**
+	 * Used to create the user object for the given part of a document. Parts
+	 * (or the documents of a batch) are numbered from 0 in order and this
+	 * method is called in that same order, on a single thread.
+	 * 
+	 * @param index
+	 *            The index of the part of the document.
+	 * 
+	 * @return the user object handed to every rule matching in that part.
+	 */
+	public T newUserObject(int index);
+}
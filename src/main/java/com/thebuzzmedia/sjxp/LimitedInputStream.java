@@ -0,0 +1,78 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class used to count the bytes a parser reads out of its stream, checking the
+ * limits of the parse on every read.
+ * <p/>
+ * Checking on every read, and not only between parse events, is what makes a
+ * parse abort promptly inside a pathological token (e.g. a text node hundreds
+ * of megabytes long) that produces no events at all while it is read.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class LimitedInputStream extends FilterInputStream {
+	private XMLParser<?> parser;
+
+	/**
+	 * Create a new stream counting the bytes read out of the given stream
+	 * against the limits of the given parser.
+	 * 
+	 * @param in
+	 *            The stream being parsed.
+	 * @param parser
+	 *            The parser reading it.
+	 */
+	LimitedInputStream(InputStream in, XMLParser<?> parser) {
+		super(in);
+		this.parser = parser;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+
+		if (b != -1)
+			parser.countBytes(1);
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int length = in.read(b, off, len);
+
+		if (length > 0)
+			parser.countBytes(length);
+
+		return length;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(n);
+
+		if (skipped > 0)
+			parser.countBytes((int) skipped);
+
+		return skipped;
+	}
+}
@@ -0,0 +1,171 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Class used to read a file by memory-mapping it one window at a time, from
+ * the current position of its {@link FileChannel} (or any other offset) to
+ * the end of the file.
+ * <p/>
+ * Mapping the file lets the OS page cache do the reading: there are no
+ * <code>read</code> calls copying bytes from kernel buffers and, when the
+ * bytes are tokenized by a {@link ByteTokenizer} (which pulls the mapped
+ * windows straight out of {@link #nextWindow()}), no copies at all. Files
+ * larger than 2GB, more than a single {@link ByteBuffer} can address, are
+ * mapped in consecutive windows; any token split between two windows is the
+ * only thing copied.
+ * <p/>
+ * Other pull parsers simply use this class as an {@link InputStream}, copying
+ * straight out of the mapped window into their own buffer.
+ * <p/>
+ * The position of the channel is never changed and closing the stream does
+ * not close the channel. A mapped window is released by the JVM once it has
+ * been garbage collected.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class MappedInputStream extends InputStream {
+	/**
+	 * The default number of bytes mapped at once: 64MB.
+	 */
+	static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private FileChannel channel;
+	private long position;
+	private long end;
+	private int windowSize;
+
+	private ByteBuffer window;
+
+	/**
+	 * Create a new stream over the given channel, mapping windows of
+	 * {@link #DEFAULT_WINDOW_SIZE} bytes.
+	 * 
+	 * @param channel
+	 *            The channel of the file to read.
+	 * 
+	 * @throws IOException
+	 *             if the position or size of the channel can't be read.
+	 */
+	MappedInputStream(FileChannel channel) throws IOException {
+		this(channel, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Create a new stream over the given channel, mapping windows of the
+	 * given size.
+	 * 
+	 * @param channel
+	 *            The channel of the file to read.
+	 * @param windowSize
+	 *            The number of bytes mapped at once.
+	 * 
+	 * @throws IOException
+	 *             if the position or size of the channel can't be read.
+	 */
+	MappedInputStream(FileChannel channel, int windowSize) throws IOException {
+		this(channel, channel.position(), windowSize);
+	}
+
+	/**
+	 * Create a new stream over the given channel, starting at the given
+	 * position instead of the current position of the channel.
+	 * 
+	 * @param channel
+	 *            The channel of the file to read.
+	 * @param position
+	 *            The offset in the file of the first byte to read.
+	 * @param windowSize
+	 *            The number of bytes mapped at once.
+	 * 
+	 * @throws IOException
+	 *             if the size of the channel can't be read.
+	 */
+	MappedInputStream(FileChannel channel, long position, int windowSize)
+			throws IOException {
+		this.channel = channel;
+		this.position = position;
+		this.windowSize = windowSize;
+
+		end = channel.size();
+	}
+
+	/**
+	 * Used to map the next window of the file. Any bytes of the current window
+	 * that were not read are skipped.
+	 * 
+	 * @return the next window, or <code>null</code> if the end of the file has
+	 *         been reached.
+	 * 
+	 * @throws IOException
+	 *             if the window can't be mapped.
+	 */
+	ByteBuffer nextWindow() throws IOException {
+		if (position >= end)
+			return (window = null);
+
+		long size = Math.min(windowSize, end - position);
+		window = channel.map(MapMode.READ_ONLY, position, size);
+		position += size;
+
+		return window;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!hasRemaining())
+			return -1;
+
+		return (window.get() & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!hasRemaining())
+			return -1;
+
+		len = Math.min(len, window.remaining());
+		window.get(b, off, len);
+
+		return len;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (window == null ? 0 : window.remaining());
+	}
+
+	/**
+	 * @return <code>true</code> if there are bytes left to read, mapping the
+	 *         next window if the current one has been read completely.
+	 */
+	private boolean hasRemaining() throws IOException {
+		while (window == null || !window.hasRemaining()) {
+			if (nextWindow() == null)
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,184 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Class used to map a qualified XML name (namespace URI and local name) within
+ * an <code>int</code> scope (e.g. the state of the parent element) to an
+ * <code>int</code> value.
+ * <p/>
+ * This is a purpose-built open-addressing hash table using linear probing over
+ * parallel primitive arrays. Lookups never allocate or box anything and a hit
+ * is only reported after the scope, namespace URI and local name have all been
+ * verified exactly, so two names that happen to share a hash code can never be
+ * confused with one another.
+ * <h3>Thread Safety</h3>
+ * Instances are only modified while the owning {@link PathAutomaton} is being
+ * compiled; once compilation is done, lookups are safe from any number of
+ * threads.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class NameIndex {
+	/**
+	 * Value returned by {@link #get(int, String, String)} when no entry exists
+	 * for the given name.
+	 */
+	static final int NOT_FOUND = -1;
+
+	private int size;
+	private int mask;
+
+	private int[] hashes;
+	private int[] scopes;
+	private String[] namespaces;
+	private String[] localNames;
+	private int[] values;
+
+	/**
+	 * Create a new index sized to hold the given number of entries without
+	 * needing to grow.
+	 * 
+	 * @param expectedSize
+	 *            The number of entries the index is expected to hold.
+	 */
+	NameIndex(int expectedSize) {
+		int capacity = 16;
+
+		// Keep the load factor at or below 50% so probe chains stay short
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+
+		allocate(capacity);
+	}
+
+	/**
+	 * Used to get the value mapped to the given name within the given scope.
+	 * 
+	 * @param scope
+	 *            The scope the name is defined in.
+	 * @param namespaceURI
+	 *            The namespace URI of the name or an empty {@link String} if
+	 *            the name is not namespace-qualified.
+	 * @param localName
+	 *            The local name.
+	 * 
+	 * @return the mapped value or {@link #NOT_FOUND} if there is none.
+	 */
+	int get(int scope, String namespaceURI, String localName) {
+		int hash = hash(scope, namespaceURI, localName);
+
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			String entryLocalName = localNames[i];
+
+			// An empty slot ends the probe chain, the name isn't in the index
+			if (entryLocalName == null)
+				return NOT_FOUND;
+
+			if (hashes[i] == hash && scopes[i] == scope
+					&& entryLocalName.equals(localName)
+					&& namespaces[i].equals(namespaceURI))
+				return values[i];
+		}
+	}
+
+	/**
+	 * Used to map the given name within the given scope to the given value,
+	 * replacing any previously mapped value.
+	 * 
+	 * @param scope
+	 *            The scope the name is defined in.
+	 * @param namespaceURI
+	 *            The namespace URI of the name or an empty {@link String} if
+	 *            the name is not namespace-qualified.
+	 * @param localName
+	 *            The local name.
+	 * @param value
+	 *            The value to map the name to.
+	 */
+	void put(int scope, String namespaceURI, String localName, int value) {
+		// Grow before we exceed a 50% load factor
+		if ((size + 1) * 2 > hashes.length)
+			rehash(hashes.length * 2);
+
+		int hash = hash(scope, namespaceURI, localName);
+
+		for (int i = hash & mask;; i = (i + 1) & mask) {
+			if (localNames[i] == null) {
+				hashes[i] = hash;
+				scopes[i] = scope;
+				namespaces[i] = namespaceURI;
+				localNames[i] = localName;
+				values[i] = value;
+				size++;
+				return;
+			}
+
+			if (hashes[i] == hash && scopes[i] == scope
+					&& localNames[i].equals(localName)
+					&& namespaces[i].equals(namespaceURI)) {
+				values[i] = value;
+				return;
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void allocate(int capacity) {
+		mask = capacity - 1;
+
+		hashes = new int[capacity];
+		scopes = new int[capacity];
+		namespaces = new String[capacity];
+		localNames = new String[capacity];
+		values = new int[capacity];
+	}
+
+	private void rehash(int capacity) {
+		int[] oldScopes = scopes;
+		String[] oldNamespaces = namespaces;
+		String[] oldLocalNames = localNames;
+		int[] oldValues = values;
+
+		size = 0;
+		allocate(capacity);
+
+		for (int i = 0; i < oldLocalNames.length; i++) {
+			if (oldLocalNames[i] != null)
+				put(oldScopes[i], oldNamespaces[i], oldLocalNames[i],
+						oldValues[i]);
+		}
+	}
+
+	/**
+	 * Used to calculate the hash of a scoped name. The result is run through a
+	 * final bit-mixing step so that the low bits used to pick a slot depend on
+	 * all the bits of the scope and both name hash codes.
+	 */
+	private static int hash(int scope, String namespaceURI, String localName) {
+		int h = (scope * 31 + namespaceURI.hashCode()) * 31
+				+ localName.hashCode();
+
+		h ^= (h >>> 16);
+		h *= 0x85EBCA6B;
+		h ^= (h >>> 13);
+
+		return h;
+	}
+}
@@ -0,0 +1,127 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+
+import com.thebuzzmedia.sjxp.rule.ILimitedRule;
+
+/**
+ * Class used to represent a point in a document, right after the end of a
+ * record, that a {@link RecordIterator} can resume parsing from.
+ * <p/>
+ * A checkpoint holds everything needed to pick the document up again without
+ * parsing what came before it: the byte offset to continue from, the elements
+ * still open and the namespaces in scope at that offset, the number of
+ * records returned so far and how many matches every {@link ILimitedRule} has
+ * left. Checkpoints are {@link Serializable}, so a long running ingest can
+ * write one out after every few records and, after a crash, resume from the
+ * last one with
+ * {@link RecordIterator#RecordIterator(RuleSet, String, IUserObjectFactory, FileChannel, ParseCheckpoint)}
+ * instead of starting over from the first byte.
+ * <p/>
+ * A checkpoint can only be resumed with the same rules and record path it was
+ * taken with, over the same (unmodified) file.
+ * <h3>Thread Safety</h3>
+ * This class is immutable and thread-safe.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ParseCheckpoint implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private String recordPath;
+	private long byteOffset;
+	private int recordCount;
+
+	private ByteTokenizer.State tokenizerState;
+	private int[] matchesLeft;
+
+	/**
+	 * Create a new checkpoint.
+	 * 
+	 * @param recordPath
+	 *            The location path of the record elements.
+	 * @param byteOffset
+	 *            The offset in the file of the byte right after the last
+	 *            record.
+	 * @param recordCount
+	 *            The number of records up to and including the last record.
+	 * @param tokenizerState
+	 *            The open elements and namespaces in scope at the offset.
+	 * @param matchesLeft
+	 *            The number of matches every rule has left, or
+	 *            <code>null</code> if none of the rules has a match limit.
+	 */
+	ParseCheckpoint(String recordPath, long byteOffset, int recordCount,
+			ByteTokenizer.State tokenizerState, int[] matchesLeft) {
+		this.recordPath = recordPath;
+		this.byteOffset = byteOffset;
+		this.recordCount = recordCount;
+		this.tokenizerState = tokenizerState;
+		this.matchesLeft = matchesLeft;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the
+	 * checkpoint for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[recordPath=" + recordPath
+				+ ", byteOffset=" + byteOffset + ", recordCount="
+				+ recordCount + ", depth=" + getDepth() + "]";
+	}
+
+	/**
+	 * @return the location path of the record elements.
+	 */
+	public String getRecordPath() {
+		return recordPath;
+	}
+
+	/**
+	 * @return the offset in the file of the byte right after the end of the
+	 *         last record, where parsing resumes.
+	 */
+	public long getByteOffset() {
+		return byteOffset;
+	}
+
+	/**
+	 * @return the number of records in the document up to and including the
+	 *         last record; the index the next record is created with.
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return the number of elements still open at the offset.
+	 */
+	public int getDepth() {
+		return tokenizerState.getDepth();
+	}
+
+	ByteTokenizer.State getTokenizerState() {
+		return tokenizerState;
+	}
+
+	int[] getMatchesLeft() {
+		return matchesLeft;
+	}
+}
@@ -0,0 +1,126 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Class used to report the outcome of parsing a single {@link ParseSource} as
+ * part of a batch run by a {@link BatchParser}.
+ * <p/>
+ * A failure to parse one document never affects the others in the batch;
+ * instead its result carries the {@link XMLParserException} describing what
+ * went wrong.
+ * 
+ * @param <T>
+ *            The class type of the user object the source was parsed with.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ParseResult<T> {
+	private int index;
+	private ParseSource source;
+	private T userObject;
+	private XMLParserException exception;
+	private long elapsedTime;
+
+	/**
+	 * Create a new result.
+	 * 
+	 * @param index
+	 *            The index of the source in the batch.
+	 * @param source
+	 *            The source that was parsed.
+	 * @param userObject
+	 *            The user object the source was parsed with.
+	 * @param exception
+	 *            The reason the parse failed or <code>null</code> if it
+	 *            succeeded.
+	 * @param elapsedTime
+	 *            The time, in milliseconds, it took to parse the source.
+	 */
+	ParseResult(int index, ParseSource source, T userObject,
+			XMLParserException exception, long elapsedTime) {
+		this.index = index;
+		this.source = source;
+		this.userObject = userObject;
+		this.exception = exception;
+		this.elapsedTime = elapsedTime;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the result
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the result for easy
+	 *         debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[index=" + index + ", source="
+				+ source.getName() + ", success=" + isSuccess()
+				+ ", elapsedTime=" + elapsedTime + "ms"
+				+ (exception == null ? "" : ", exception=" + exception) + "]";
+	}
+
+	/**
+	 * @return the index of the source in the batch it was parsed in.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the source that was parsed.
+	 */
+	public ParseSource getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the user object the source was parsed with, holding whatever
+	 *         the {@link com.thebuzzmedia.sjxp.rule.IRule}s collected from it
+	 *         (even if the parse failed part of the way through).
+	 */
+	public T getUserObject() {
+		return userObject;
+	}
+
+	/**
+	 * @return <code>true</code> if the source was parsed completely (or until
+	 *         {@link XMLParser#stop()} was called) without any error.
+	 */
+	public boolean isSuccess() {
+		return (exception == null);
+	}
+
+	/**
+	 * @return the reason the parse failed or <code>null</code> if it
+	 *         succeeded. Errors opening or closing the source and unchecked
+	 *         exceptions thrown by an {@link com.thebuzzmedia.sjxp.rule.IRule}
+	 *         are wrapped and available from
+	 *         {@link XMLParserException#getCause()}.
+	 */
+	public XMLParserException getException() {
+		return exception;
+	}
+
+	/**
+	 * @return the time, in milliseconds, it took to open, parse and close the
+	 *         source.
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+}
@@ -0,0 +1,203 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class used to describe a single XML document that a {@link BatchParser}
+ * opens, parses and closes again on one of its worker threads.
+ * <p/>
+ * Sources for the common cases are created with {@link #forFile(File)},
+ * {@link #forBytes(byte[])} and {@link #forStream(InputStream)}; anything else
+ * (e.g. a URL or a database BLOB) can be supported by subclassing this class
+ * and implementing {@link #open()}.
+ * <p/>
+ * Opening the stream is deferred until a worker thread actually parses the
+ * source, so a batch of thousands of files only ever has as many of them open
+ * as there are documents being parsed at once.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public abstract class ParseSource {
+	private String name;
+	private String encoding;
+
+	/**
+	 * Create a new source with the given name and encoding.
+	 * 
+	 * @param name
+	 *            The name of the source used in results and error messages
+	 *            (e.g. the path of a file).
+	 * @param encoding
+	 *            The character encoding (e.g. "UTF-8") of the source, or
+	 *            <code>null</code> to let the underlying pull parser determine
+	 *            it.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>name</code> is <code>null</code>.
+	 */
+	protected ParseSource(String name, String encoding)
+			throws IllegalArgumentException {
+		if (name == null)
+			throw new IllegalArgumentException("name cannot be null");
+
+		this.name = name;
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the source
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the source for easy
+	 *         debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[name=" + name + ", encoding="
+				+ encoding + "]";
+	}
+
+	/**
+	 * @return the name of the source used in results and error messages.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the character encoding of the source or <code>null</code> if the
+	 *         underlying pull parser should determine it.
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Used to open a new stream to read the XML content of the source from.
+	 * This is called once, on the thread that parses the source.
+	 * 
+	 * @return a new stream to parse.
+	 * 
+	 * @throws IOException
+	 *             if the stream cannot be opened.
+	 */
+	protected abstract InputStream open() throws IOException;
+
+	/**
+	 * Used to close the stream returned by {@link #open()} once the source has
+	 * been parsed (successfully or not).
+	 * <p/>
+	 * The default implementation simply closes the stream.
+	 * 
+	 * @param stream
+	 *            The stream returned by {@link #open()}.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs while closing the stream.
+	 */
+	protected void close(InputStream stream) throws IOException {
+		stream.close();
+	}
+
+	/**
+	 * Create a source that reads the given file.
+	 * 
+	 * @param file
+	 *            The file to parse.
+	 * 
+	 * @return a new source for the file.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> is <code>null</code>.
+	 */
+	public static ParseSource forFile(final File file)
+			throws IllegalArgumentException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		return new ParseSource(file.getPath(), null) {
+			@Override
+			protected InputStream open() throws IOException {
+				return new BufferedInputStream(new FileInputStream(file));
+			}
+		};
+	}
+
+	/**
+	 * Create a source that reads the given bytes. The array is not copied, so
+	 * it must not be modified until the source has been parsed.
+	 * 
+	 * @param data
+	 *            The XML content to parse.
+	 * 
+	 * @return a new source for the bytes.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>data</code> is <code>null</code>.
+	 */
+	public static ParseSource forBytes(final byte[] data)
+			throws IllegalArgumentException {
+		if (data == null)
+			throw new IllegalArgumentException("data cannot be null");
+
+		return new ParseSource("byte[" + data.length + "]", null) {
+			@Override
+			protected InputStream open() throws IOException {
+				return new ByteArrayInputStream(data);
+			}
+		};
+	}
+
+	/**
+	 * Create a source that reads the given, already open, stream.
+	 * <p/>
+	 * Following the convention of {@link XMLParser#parse(InputStream)}, the
+	 * stream is <strong>not</strong> closed once it has been parsed; the
+	 * caller must take care to clean up that resource.
+	 * 
+	 * @param stream
+	 *            The stream to parse.
+	 * 
+	 * @return a new source for the stream.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>stream</code> is <code>null</code>.
+	 */
+	public static ParseSource forStream(final InputStream stream)
+			throws IllegalArgumentException {
+		if (stream == null)
+			throw new IllegalArgumentException("stream cannot be null");
+
+		return new ParseSource(stream.toString(), null) {
+			@Override
+			protected InputStream open() throws IOException {
+				return stream;
+			}
+
+			@Override
+			protected void close(InputStream stream) throws IOException {
+				// no-op, the caller owns the stream.
+			}
+		};
+	}
+}
@@ -0,0 +1,570 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to compile the location paths of every {@link IRule} given to an
+ * {@link XMLParser} into a single deterministic state machine of element
+ * transitions.
+ * <p/>
+ * Every state represents the set of rule path steps the parser's current
+ * location has matched so far. The parser only needs to keep track of the
+ * current state at each depth of the document; matching the rules for a
+ * START_TAG, TEXT or END_TAG event is then a single array lookup using that
+ * state.
+ * <p/>
+ * Elements that can not lead to any rule transition into {@link #NO_STATE}.
+ * <h3>Wildcards</h3>
+ * On top of plain element names, location paths can contain:
+ * <ul>
+ * <li><code>*</code> - matches any element, in any namespace (e.g.
+ * <code>/rss/&#42;/item</code>).</li>
+ * <li><code>[namespaceURI]*</code> - matches any element from the given
+ * namespace.</li>
+ * <li><code>//</code> - matches the following element at any depth below the
+ * previous one instead of only as a direct child (e.g. <code>//title</code>
+ * matches every "title" element in the document).</li>
+ * </ul>
+ * All wildcard paths are compiled ahead of time (subset construction) into the
+ * same state machine as the plain paths, so the cost of a transition stays
+ * constant no matter how many rules, wildcard or otherwise, are defined.
+ * <h3>Transitions</h3>
+ * A transition is resolved with at most 3 lookups: the exact element name, the
+ * "any other element in this namespace" transition and finally the "any other
+ * element" default transition. The exact and namespace transitions are stored
+ * in a {@link NameIndex} keyed by the parent state; only transitions that
+ * differ from their less specific fall-back are stored.
+ * 
+ * @param <T>
+ *            The class type of the user object handed to the compiled
+ *            {@link IRule}s.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class PathAutomaton<T> {
+	/**
+	 * State used to represent a location in the document that no rule can
+	 * match at or below.
+	 */
+	static final int NO_STATE = NameIndex.NOT_FOUND;
+
+	/**
+	 * State used to represent the document itself, before the root element has
+	 * been entered.
+	 */
+	static final int ROOT_STATE = 0;
+
+	/**
+	 * Local name used in location paths to match any element. This is never a
+	 * valid XML name, so it is also used as the key of the "any other element
+	 * in this namespace" transitions.
+	 */
+	static final String WILDCARD = "*";
+
+	private static final int KIND_NAME = 0;
+	private static final int KIND_NAMESPACE = 1;
+	private static final int KIND_ANY = 2;
+
+	private String[] paths;
+	private NameIndex transitions;
+	private int[] defaultTransitions;
+
+	private RuleTable<T> ruleTable;
+
+	private int tagRuleCount;
+	private int attrRuleCount;
+	private int charRuleCount;
+
+	/*
+	 * Compile-time only: the tree of rule path steps that the states are built
+	 * out of. These are released once compilation is done.
+	 */
+	private List<Step> stepList;
+	private IRule<T>[] ruleArray;
+
+	/**
+	 * Compile the given rules into a new state machine.
+	 * 
+	 * @param rules
+	 *            The rules to compile.
+	 * 
+	 * @throws XMLParserException
+	 *             if any of the rule location paths are malformed.
+	 */
+	@SuppressWarnings("unchecked")
+	PathAutomaton(IRule<T>... rules) throws XMLParserException {
+		ruleArray = rules;
+		stepList = new ArrayList<Step>(rules.length * 4);
+		stepList.add(new Step(0, false, KIND_ANY, "", ""));
+
+		for (int i = 0; i < rules.length; i++)
+			addRule(i);
+
+		compile();
+
+		// Done compiling, release the step tree
+		stepList = null;
+		ruleArray = null;
+	}
+
+	/**
+	 * Used to get the state the parser moves into when it enters an element
+	 * with the given name while in the given state.
+	 * 
+	 * @param state
+	 *            The state of the parent element.
+	 * @param namespaceURI
+	 *            The namespace URI of the element or an empty {@link String}
+	 *            if the element is not namespace-qualified.
+	 * @param localName
+	 *            The local name of the element.
+	 * 
+	 * @return the state of the element or {@link #NO_STATE} if no rule can
+	 *         match the element or anything below it.
+	 */
+	int transition(int state, String namespaceURI, String localName) {
+		if (state == NO_STATE)
+			return NO_STATE;
+
+		/*
+		 * Each fall-back can only ever match a subset of what the more
+		 * specific transition matched, so falling through on a NO_STATE is
+		 * always safe. NO_STATE is defined as NameIndex.NOT_FOUND.
+		 */
+		int next = transitions.get(state, namespaceURI, localName);
+
+		if (next == NO_STATE) {
+			next = transitions.get(state, namespaceURI, WILDCARD);
+
+			if (next == NO_STATE)
+				next = defaultTransitions[state];
+		}
+
+		return next;
+	}
+
+	/**
+	 * Used to get the location path a state represents.
+	 * <p/>
+	 * When a state can be reached through multiple paths (e.g. through a
+	 * wildcard), the first path the state was reached through while it was
+	 * being compiled is returned.
+	 * 
+	 * @param state
+	 *            The state.
+	 * 
+	 * @return the location path the state represents.
+	 */
+	String getPath(int state) {
+		return paths[state];
+	}
+
+	/**
+	 * @return the table of rules matching each state.
+	 */
+	RuleTable<T> getRuleTable() {
+		return ruleTable;
+	}
+
+	int getStateCount() {
+		return paths.length;
+	}
+
+	int getTagRuleCount() {
+		return tagRuleCount;
+	}
+
+	int getAttributeRuleCount() {
+		return attrRuleCount;
+	}
+
+	int getCharacterRuleCount() {
+		return charRuleCount;
+	}
+
+	/**
+	 * Used to parse the location path of the rule at the given index into
+	 * steps, adding any steps that aren't already shared with another rule to
+	 * the step tree.
+	 */
+	private void addRule(int ruleIndex) throws XMLParserException {
+		IRule<T> rule = ruleArray[ruleIndex];
+		String path = rule.getLocationPath();
+
+		if (path == null || path.length() == 0 || path.charAt(0) != '/')
+			throw new XMLParserException(
+					"locationPath must begin with a slash (/) for IRule: "
+							+ rule);
+
+		Step step = stepList.get(0);
+		int index = 0;
+
+		while (index < path.length()) {
+			// Skip the separator, a double-slash is the descendant axis
+			boolean descendant = (++index < path.length() && path
+					.charAt(index) == '/');
+
+			if (descendant)
+				index++;
+
+			String namespaceURI = "";
+
+			// Parse the namespace URI out of the element if necessary
+			if (index < path.length() && path.charAt(index) == '[') {
+				int endIndex = path.indexOf(']', index);
+
+				if (endIndex <= index + 1)
+					throw new XMLParserException(
+							"namespace URI for rule looks to be incomplete or empty for IRule: "
+									+ rule);
+
+				namespaceURI = path.substring(index + 1, endIndex);
+				index = endIndex + 1;
+			}
+
+			int endIndex = path.indexOf('/', index);
+
+			if (endIndex == -1)
+				endIndex = path.length();
+			if (endIndex == index)
+				throw new XMLParserException(
+						"local name for rule looks to be missing for IRule: "
+								+ rule);
+
+			String localName = path.substring(index, endIndex);
+			int kind = KIND_NAME;
+
+			if (WILDCARD.equals(localName))
+				kind = (namespaceURI.length() == 0 ? KIND_ANY : KIND_NAMESPACE);
+			else if (localName.indexOf('*') != -1)
+				throw new XMLParserException(
+						"wildcard (*) must make up the entire local name for IRule: "
+								+ rule);
+
+			step = step.getChild(descendant, kind, namespaceURI, localName);
+			index = endIndex;
+		}
+
+		step.ruleIndexList.add(Integer.valueOf(ruleIndex));
+
+		switch (rule.getType()) {
+		case TAG:
+			tagRuleCount++;
+			break;
+
+		case ATTRIBUTE:
+			attrRuleCount++;
+			break;
+
+		case CHARACTER:
+			charRuleCount++;
+			break;
+		}
+	}
+
+	/**
+	 * Used to build the deterministic state machine out of the step tree.
+	 * <p/>
+	 * Every state is a set of items, where each item is a step index shifted
+	 * left by 1 with the low bit indicating if the current element matched the
+	 * step exactly (0) or is only somewhere below an element that matched it,
+	 * waiting for a descendant (//) step to match (1).
+	 */
+	private void compile() {
+		List<int[]> stateList = new ArrayList<int[]>();
+		List<String> pathList = new ArrayList<String>();
+		Map<ItemSet, Integer> stateMap = new HashMap<ItemSet, Integer>();
+
+		transitions = new NameIndex(stepList.size() * 2);
+		defaultTransitions = new int[16];
+
+		// The root state has exactly matched the (empty) root step
+		getState(new int[] { 0 }, "", stateList, pathList, stateMap);
+
+		for (int state = 0; state < stateList.size(); state++) {
+			int[] items = stateList.get(state);
+			String path = pathList.get(state);
+
+			// Collect every name and namespace the steps can move on
+			List<String[]> nameList = new ArrayList<String[]>();
+			List<String> namespaceList = new ArrayList<String>();
+			Set<String> seen = new HashSet<String>();
+
+			for (int i = 0; i < items.length; i++) {
+				List<Step> children = stepList.get(items[i] >> 1).children;
+
+				for (int j = 0, size = children.size(); j < size; j++) {
+					Step child = children.get(j);
+
+					if (child.kind == KIND_ANY)
+						continue;
+					if (seen.add("[" + child.namespaceURI + "]"))
+						namespaceList.add(child.namespaceURI);
+					if (child.kind == KIND_NAME
+							&& seen.add("[" + child.namespaceURI + "]"
+									+ child.localName))
+						nameList.add(new String[] { child.namespaceURI,
+								child.localName });
+				}
+			}
+
+			// Any other element
+			int defaultState = getState(move(items, null, null), path + "/"
+					+ WILDCARD, stateList, pathList, stateMap);
+
+			if (state >= defaultTransitions.length) {
+				int[] newTransitions = new int[defaultTransitions.length * 2];
+				System.arraycopy(defaultTransitions, 0, newTransitions, 0,
+						defaultTransitions.length);
+				defaultTransitions = newTransitions;
+			}
+
+			defaultTransitions[state] = defaultState;
+
+			// Any other element in one of the named namespaces
+			for (int i = 0, size = namespaceList.size(); i < size; i++) {
+				String namespaceURI = namespaceList.get(i);
+				int next = getState(move(items, namespaceURI, null), path
+						+ "/[" + namespaceURI + "]" + WILDCARD, stateList,
+						pathList, stateMap);
+
+				if (next != defaultState)
+					transitions.put(state, namespaceURI, WILDCARD, next);
+			}
+
+			// Exact element names
+			for (int i = 0, size = nameList.size(); i < size; i++) {
+				String[] name = nameList.get(i);
+				String namePath = path + "/"
+						+ (name[0].length() == 0 ? "" : "[" + name[0] + "]")
+						+ name[1];
+				int next = getState(move(items, name[0], name[1]), namePath,
+						stateList, pathList, stateMap);
+				int fallback = transitions.get(state, name[0], WILDCARD);
+
+				if (fallback == NO_STATE)
+					fallback = defaultState;
+				if (next != fallback)
+					transitions.put(state, name[0], name[1], next);
+			}
+		}
+
+		// Collect the matched rules of every state into the rule table
+		int stateCount = stateList.size();
+		int[][] stateRuleIndexes = new int[stateCount][];
+
+		paths = pathList.toArray(new String[stateCount]);
+
+		for (int state = 0; state < stateCount; state++) {
+			int[] items = stateList.get(state);
+			TreeSet<Integer> ruleIndexSet = new TreeSet<Integer>();
+
+			// Only the steps the current element matched exactly have rules
+			for (int i = 0; i < items.length; i++) {
+				if ((items[i] & 1) == 0)
+					ruleIndexSet
+							.addAll(stepList.get(items[i] >> 1).ruleIndexList);
+			}
+
+			if (ruleIndexSet.isEmpty())
+				continue;
+
+			// Keep the rules in the order they were given to the parser
+			int[] indexes = new int[ruleIndexSet.size()];
+			int index = 0;
+
+			for (Integer ruleIndex : ruleIndexSet)
+				indexes[index++] = ruleIndex.intValue();
+
+			stateRuleIndexes[state] = indexes;
+		}
+
+		ruleTable = new RuleTable<T>(ruleArray, stateRuleIndexes);
+	}
+
+	/**
+	 * Used to calculate the set of items reached from the given set of items
+	 * when entering an element with the given name.
+	 * 
+	 * @param items
+	 *            The items of the parent element's state.
+	 * @param namespaceURI
+	 *            The namespace URI of the element or <code>null</code> to
+	 *            represent a namespace no step names explicitly.
+	 * @param localName
+	 *            The local name of the element or <code>null</code> to
+	 *            represent a name no step names explicitly.
+	 */
+	private int[] move(int[] items, String namespaceURI, String localName) {
+		TreeSet<Integer> itemSet = new TreeSet<Integer>();
+
+		for (int i = 0; i < items.length; i++) {
+			int stepIndex = items[i] >> 1;
+			boolean exact = (items[i] & 1) == 0;
+			Step step = stepList.get(stepIndex);
+
+			for (int j = 0, size = step.children.size(); j < size; j++) {
+				Step child = step.children.get(j);
+
+				// Child steps can only follow an exact match
+				if ((exact || child.descendant)
+						&& child.matches(namespaceURI, localName))
+					itemSet.add(Integer.valueOf(child.index << 1));
+			}
+
+			// Keep waiting on any descendant steps below this one
+			if (step.hasDescendants)
+				itemSet.add(Integer.valueOf((stepIndex << 1) | 1));
+		}
+
+		int[] result = new int[itemSet.size()];
+		int index = 0;
+
+		for (Integer item : itemSet)
+			result[index++] = item.intValue();
+
+		return result;
+	}
+
+	/**
+	 * Used to get the state for the given set of items, creating a new state
+	 * if one doesn't exist yet.
+	 * 
+	 * @return the state for the set of items or {@link #NO_STATE} if the set
+	 *         is empty.
+	 */
+	private static int getState(int[] items, String path,
+			List<int[]> stateList, List<String> pathList,
+			Map<ItemSet, Integer> stateMap) {
+		if (items.length == 0)
+			return NO_STATE;
+
+		ItemSet key = new ItemSet(items);
+		Integer state = stateMap.get(key);
+
+		if (state == null) {
+			state = Integer.valueOf(stateList.size());
+			stateMap.put(key, state);
+			stateList.add(items);
+			pathList.add(path);
+		}
+
+		return state.intValue();
+	}
+
+	/**
+	 * Simple class used to represent a single step of a location path (e.g.
+	 * "/title", "//[http://w3.org/texts]book" or "/&#42;") in the tree of steps
+	 * built out of all the rules before it is compiled into states.
+	 */
+	private class Step {
+		private int index;
+		private boolean descendant;
+		private int kind;
+		private String namespaceURI;
+		private String localName;
+
+		private boolean hasDescendants;
+		private List<Step> children = new ArrayList<Step>(4);
+		private List<Integer> ruleIndexList = new ArrayList<Integer>(2);
+
+		private Step(int index, boolean descendant, int kind,
+				String namespaceURI, String localName) {
+			this.index = index;
+			this.descendant = descendant;
+			this.kind = kind;
+			this.namespaceURI = namespaceURI;
+			this.localName = localName;
+		}
+
+		private Step getChild(boolean descendant, int kind,
+				String namespaceURI, String localName) {
+			for (int i = 0, size = children.size(); i < size; i++) {
+				Step child = children.get(i);
+
+				if (child.descendant == descendant && child.kind == kind
+						&& child.localName.equals(localName)
+						&& child.namespaceURI.equals(namespaceURI))
+					return child;
+			}
+
+			Step child = new Step(stepList.size(), descendant, kind,
+					namespaceURI, localName);
+
+			stepList.add(child);
+			children.add(child);
+			hasDescendants |= descendant;
+
+			return child;
+		}
+
+		/**
+		 * @return <code>true</code> if an element with the given name matches
+		 *         this step; <code>null</code> values represent a namespace or
+		 *         local name no step names explicitly.
+		 */
+		private boolean matches(String namespaceURI, String localName) {
+			switch (kind) {
+			case KIND_NAME:
+				return localName != null && namespaceURI != null
+						&& this.localName.equals(localName)
+						&& this.namespaceURI.equals(namespaceURI);
+
+			case KIND_NAMESPACE:
+				return namespaceURI != null
+						&& this.namespaceURI.equals(namespaceURI);
+
+			default:
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Simple class used to key the compiled states by their set of items.
+	 */
+	private static class ItemSet {
+		private int[] items;
+		private int hashCode;
+
+		private ItemSet(int[] items) {
+			this.items = items;
+			this.hashCode = Arrays.hashCode(items);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof ItemSet && Arrays.equals(items,
+					((ItemSet) obj).items));
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to define a parser that is pushed the bytes of a document as
+ * they arrive, instead of pulling them out of a blocking {@link InputStream}.
+ * <p/>
+ * Every call to {@link #feed(ByteBuffer)} parses as much of the document as
+ * the bytes fed so far allow, running the matching {@link IRule}s as usual,
+ * and returns as soon as it needs more bytes. The location of the parser and
+ * the state of its rules are kept until the next call, so a single thread
+ * (e.g. the event loop of a NIO server) can parse any number of documents at
+ * once, each one only taking up the thread while there are bytes to parse:
+ * 
+ * <pre>
+ * parser.start(userObject);
+ * 
+ * while (channel.read(buffer) != -1) {
+ * 	buffer.flip();
+ * 	parser.feed(buffer);
+ * 	buffer.clear();
+ * }
+ * 
+ * parser.endOfInput();
+ * </pre>
+ * 
+ * The bytes are tokenized by SJXP's own byte-level tokenizer instead of the
+ * pull parser from the {@link #XPP_FACTORY}, so only documents encoded in
+ * UTF-8, US-ASCII or ISO-8859-1 can be pushed. The inherited
+ * <code>parse</code> methods use the same tokenizer.
+ * <h3>Thread Safety</h3> Just like {@link XMLParser}, this class is not
+ * thread-safe. A document can be fed from different threads over time as
+ * long as the calls don't overlap (and are safely published, as they are when
+ * handed between threads by an executor), but every document being parsed at
+ * the same time needs its own parser; create them from a shared
+ * {@link RuleSet} with {@link #PushParser(RuleSet)}.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from {@link #start(Object)} directly to the
+ *            handler when an {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class PushParser<T> extends XMLParser<T> {
+	private ByteTokenizer tokenizer;
+
+	private boolean started;
+	private T userObject;
+	private boolean pushing;
+
+	/**
+	 * Create a new push parser that uses the given {@link IRule}s when parsing
+	 * any XML content.
+	 * 
+	 * @param rules
+	 *            The rules applied to any parsed content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>rules</code> is <code>null</code> or empty.
+	 * @throws XMLParserException
+	 *             if any of the rules define a malformed location path.
+	 */
+	@SuppressWarnings("unchecked")
+	public PushParser(IRule<T>... rules) throws IllegalArgumentException,
+			XMLParserException {
+		this(new RuleSet<T>(rules));
+	}
+
+	/**
+	 * Create a new push parser that uses the given, already compiled,
+	 * {@link RuleSet} when parsing any XML content.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules applied to any parsed content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code> is <code>null</code>.
+	 */
+	public PushParser(RuleSet<T> ruleSet) throws IllegalArgumentException {
+		this(ruleSet, new ByteTokenizer(ENABLE_NAMESPACES));
+	}
+
+	private PushParser(RuleSet<T> ruleSet, ByteTokenizer tokenizer) {
+		super(ruleSet, tokenizer);
+		this.tokenizer = tokenizer;
+	}
+
+	/**
+	 * Used to start parsing a new document. Any document that was still being
+	 * parsed is abandoned.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through to the matching
+	 *            {@link IRule}'s <code>handleXXX</code> method when a match is
+	 *            found, or <code>null</code> if no user object is needed.
+	 */
+	public void start(T userObject) {
+		reset();
+		startParse();
+
+		this.userObject = userObject;
+		started = true;
+
+		if (DEBUG)
+			log("Push parsing starting [userObject=%s]...",
+					(userObject == null ? "" : userObject));
+	}
+
+	/**
+	 * Used to push the next bytes of the document to the parser, parsing as
+	 * much of the document as possible before returning.
+	 * <p/>
+	 * All the remaining bytes of the buffer are consumed. The few bytes of an
+	 * incomplete token at the end of the buffer are copied and kept by the
+	 * parser, so the buffer can be reused as soon as this method returns.
+	 * 
+	 * @param buffer
+	 *            The next bytes of the document.
+	 * 
+	 * @return <code>true</code> if the parser wants more bytes, or
+	 *         <code>false</code> if the document has been parsed completely or
+	 *         parsing was stopped (see {@link #stop()}); any more bytes fed are
+	 *         ignored.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>buffer</code> is <code>null</code>.
+	 * @throws IllegalStateException
+	 *             if {@link #start(Object)} hasn't been called.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed or not in one of the
+	 *             supported encodings.
+	 */
+	public boolean feed(ByteBuffer buffer) throws IllegalArgumentException,
+			IllegalStateException, XMLParserException {
+		if (buffer == null)
+			throw new IllegalArgumentException("buffer cannot be null");
+		if (!started)
+			throw new IllegalStateException(
+					"start(T) must be called before feeding a new document to the parser.");
+
+		if (!isParsing()) {
+			buffer.position(buffer.limit());
+			return false;
+		}
+
+		if (isLimited())
+			countBytes(buffer.remaining());
+
+		tokenizer.feed(buffer);
+		return process();
+	}
+
+	/**
+	 * Used to tell the parser the end of the document has been reached,
+	 * parsing whatever is left of it.
+	 * <p/>
+	 * Once this method returns the parser can be started on a new document
+	 * with {@link #start(Object)}.
+	 * 
+	 * @throws IllegalStateException
+	 *             if {@link #start(Object)} hasn't been called.
+	 * @throws XMLParserException
+	 *             if the document is incomplete or the XML content is
+	 *             malformed.
+	 */
+	public void endOfInput() throws IllegalStateException, XMLParserException {
+		if (!started)
+			throw new IllegalStateException(
+					"start(T) must be called before feeding a new document to the parser.");
+
+		try {
+			if (isParsing()) {
+				tokenizer.endOfInput();
+				process();
+			}
+		} finally {
+			started = false;
+			userObject = null;
+		}
+	}
+
+	/**
+	 * Overridden to also abandon the document being pushed, if any.
+	 */
+	@Override
+	void reset() {
+		super.reset();
+
+		started = false;
+		userObject = null;
+	}
+
+	/**
+	 * Overridden to return {@link ByteTokenizer#NEED_INPUT} once the bytes fed
+	 * so far run out, instead of blocking for more.
+	 */
+	@Override
+	int nextEvent() throws IOException, XmlPullParserException {
+		return (pushing ? tokenizer.nextEvent() : super.nextEvent());
+	}
+
+	/**
+	 * Used to process every event available from the bytes fed so far. This
+	 * does the same work as {@link #doParse(Object)}, except that skipping an
+	 * element (see {@link #skipElement(Object)}) can be spread over any number
+	 * of calls.
+	 * 
+	 * @return <code>true</code> if parsing is not complete yet.
+	 */
+	private boolean process() throws XMLParserException {
+		pushing = true;
+
+		try {
+			while (isParsing()) {
+				if (parseEvent(userObject) == ByteTokenizer.NEED_INPUT)
+					return true;
+			}
+		} catch (IOException e) {
+			// no-op, pushed bytes are never read from a stream.
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"An exception occurred while parsing the bytes fed to the parser, the XML document may be malformed.",
+					e);
+		} finally {
+			pushing = false;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,417 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Class used to read (and, if needed, decompress) a stream on a separate
+ * thread, ahead of the thread parsing it.
+ * <p/>
+ * The stream is read into two chunks: while the parsing thread works through
+ * one of them, the read-ahead thread fills the other. Reading from the
+ * source, which for a compressed document includes inflating it, overlaps
+ * with parsing instead of adding to it; on a large compressed document that
+ * is often the difference between parsing at the speed of the slower of the
+ * two and parsing at the speed of both added up.
+ * <p/>
+ * Compression is detected from the first bytes of the stream: gzip (e.g.
+ * <code>.gz</code> files and <code>Content-Encoding: gzip</code>) and zlib
+ * (<code>Content-Encoding: deflate</code>) streams are inflated, anything else
+ * is read as it is. An XML document can never be mistaken for either, its
+ * first byte (<code>&lt;</code>, whitespace or a byte order mark) doesn't
+ * start a valid gzip or zlib header.
+ * 
+ * <pre>
+ * InputStream in = new ReadAheadInputStream(new FileInputStream(&quot;export.xml.gz&quot;));
+ * 
+ * try {
+ * 	parser.parse(in);
+ * } finally {
+ * 	in.close();
+ * }
+ * </pre>
+ * 
+ * The native tokenizer (see {@link XMLParser#ENABLE_NATIVE_TOKENIZER})
+ * tokenizes the chunks in place, without copying them into a buffer of its
+ * own. Any other reader simply copies out of the chunks.
+ * <h3>Thread Safety</h3>
+ * Like any other stream, this class is meant to be read by a single thread.
+ * The read-ahead thread closes the source as soon as it has been read
+ * completely (or can't be read); closing this stream closes the source right
+ * away and stops the read-ahead thread.
+ * <p/>
+ * <strong>NOTE</strong>: Always close the stream, even if it isn't read to the
+ * end. A stream that is dropped without being closed keeps its read-ahead
+ * thread (or a thread of the given executor) waiting for an empty chunk until
+ * the stream has been garbage collected; only then does the thread notice,
+ * within {@link #ABANDONED_CHECK_INTERVAL} milliseconds, and close the
+ * source.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class ReadAheadInputStream extends InputStream {
+	/**
+	 * The default size of each of the two chunks: 256KB.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * How often, in milliseconds, the read-ahead thread checks whether the
+	 * stream it is waiting on has been dropped without being closed: 1
+	 * second.
+	 */
+	public static final long ABANDONED_CHECK_INTERVAL = 1000;
+
+	/**
+	 * The size of the buffer the source is inflated through.
+	 */
+	private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Marks the end of the source in the queue of full chunks, or a closed
+	 * stream in the queue of empty chunks.
+	 */
+	private static final Chunk END = new Chunk(0);
+
+	private InputStream source;
+
+	private BlockingQueue<Chunk> emptyChunks;
+	private BlockingQueue<Chunk> fullChunks;
+	private Chunk current;
+
+	private volatile boolean closed;
+	private ReadAhead readAhead;
+
+	/**
+	 * Create a new stream reading ahead of the given source on a new daemon
+	 * thread, in chunks of {@link #DEFAULT_CHUNK_SIZE} bytes.
+	 * 
+	 * @param source
+	 *            The stream to read, either compressed or not.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 */
+	public ReadAheadInputStream(InputStream source)
+			throws IllegalArgumentException {
+		this(source, DEFAULT_CHUNK_SIZE, null);
+	}
+
+	/**
+	 * Create a new stream reading ahead of the given source on the given
+	 * executor, in chunks of the given size.
+	 * 
+	 * @param source
+	 *            The stream to read, either compressed or not.
+	 * @param chunkSize
+	 *            The number of bytes handed to the parsing thread at once.
+	 * @param executor
+	 *            The executor the source is read on, or <code>null</code> to
+	 *            read it on a new daemon thread. The source is read by a
+	 *            single task that runs until the end of the source, or until
+	 *            the stream is closed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code> or if
+	 *             <code>chunkSize</code> is &lt; 1.
+	 */
+	public ReadAheadInputStream(InputStream source, int chunkSize,
+			Executor executor) throws IllegalArgumentException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize [" + chunkSize
+					+ "] must be >= 1");
+
+		this.source = source;
+
+		// Room for both chunks and the END marker, so a put never blocks
+		emptyChunks = new ArrayBlockingQueue<Chunk>(3);
+		fullChunks = new ArrayBlockingQueue<Chunk>(3);
+		emptyChunks.add(new Chunk(chunkSize));
+		emptyChunks.add(new Chunk(chunkSize));
+
+		readAhead = new ReadAhead(this);
+
+		if (executor == null) {
+			Thread thread = new Thread(readAhead, "sjxp-read-ahead");
+			thread.setDaemon(true);
+			thread.start();
+		} else
+			executor.execute(readAhead);
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the stream
+	 * for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[source=" + source + ", closed="
+				+ closed + "]";
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!hasRemaining())
+			return -1;
+
+		return (current.buffer.get() & 0xFF);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!hasRemaining())
+			return -1;
+
+		len = Math.min(len, current.buffer.remaining());
+		current.buffer.get(b, off, len);
+
+		return len;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (current == null ? 0 : current.buffer.remaining());
+	}
+
+	/**
+	 * Used to close this stream and the source, stopping the read-ahead
+	 * thread.
+	 * 
+	 * @throws IOException
+	 *             if the source can't be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+
+		// Wakes the read-ahead thread up if it is waiting for an empty chunk
+		emptyChunks.offer(END);
+		source.close();
+	}
+
+	/**
+	 * Used to get the next chunk of the stream. The last chunk returned is
+	 * handed back to the read-ahead thread to fill again, it must not be used
+	 * any more once this method has been called.
+	 * 
+	 * @return the next chunk, or <code>null</code> if the end of the stream
+	 *         has been reached.
+	 * 
+	 * @throws IOException
+	 *             if the source could not be read or decompressed, or if the
+	 *             stream has been closed.
+	 */
+	ByteBuffer nextChunk() throws IOException {
+		if (closed)
+			throw new IOException("The stream has been closed.");
+
+		if (current != END) {
+			if (current != null)
+				emptyChunks.offer(current);
+
+			try {
+				current = fullChunks.take();
+			} catch (InterruptedException e) {
+				current = null;
+				throw new InterruptedIOException(
+						"Interrupted while waiting for the read-ahead thread.");
+			}
+		}
+
+		if (current == END) {
+			if (readAhead.failure != null)
+				throw readAhead.failure;
+
+			return null;
+		}
+
+		return current.buffer;
+	}
+
+	/**
+	 * @return <code>true</code> if there are bytes left to read, taking the
+	 *         next chunk if the current one has been read completely.
+	 */
+	private boolean hasRemaining() throws IOException {
+		if (closed)
+			throw new IOException("The stream has been closed.");
+
+		while (current == null || !current.buffer.hasRemaining()) {
+			if (nextChunk() == null)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Task used to fill chunks from the source until the end of the source is
+	 * reached, the source can't be read or the stream is closed (or dropped).
+	 * Runs on the read-ahead thread.
+	 * <p/>
+	 * The task only holds a weak reference to its stream, so a stream that is
+	 * never closed can still be garbage collected and the task can tell.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	private static class ReadAhead implements Runnable {
+		private WeakReference<ReadAheadInputStream> stream;
+		private InputStream source;
+		private BlockingQueue<Chunk> emptyChunks;
+		private BlockingQueue<Chunk> fullChunks;
+
+		// Only read after END is taken from fullChunks
+		private IOException failure;
+
+		private ReadAhead(ReadAheadInputStream stream) {
+			this.stream = new WeakReference<ReadAheadInputStream>(stream);
+			this.source = stream.source;
+			this.emptyChunks = stream.emptyChunks;
+			this.fullChunks = stream.fullChunks;
+		}
+
+		public void run() {
+			InputStream data = source;
+			Inflater inflater = null;
+
+			try {
+				PushbackInputStream in = new PushbackInputStream(source, 2);
+				int b0 = in.read();
+				int b1 = (b0 == -1 ? -1 : in.read());
+
+				if (b1 != -1)
+					in.unread(b1);
+				if (b0 != -1)
+					in.unread(b0);
+
+				data = in;
+
+				if (b0 == 0x1F && b1 == 0x8B)
+					data = new GZIPInputStream(in, INFLATE_BUFFER_SIZE);
+				else if (b1 != -1 && (b0 & 0x0F) == 8 && (b0 >> 4) < 8
+						&& ((b0 << 8) | b1) % 31 == 0) {
+					inflater = new Inflater();
+					data = new InflaterInputStream(in, inflater,
+							INFLATE_BUFFER_SIZE);
+				}
+
+				if (XMLParser.DEBUG)
+					XMLParser.log("Reading ahead [compression=%s]...",
+							(data instanceof GZIPInputStream ? "gzip"
+									: inflater != null ? "zlib" : "none"));
+
+				while (true) {
+					Chunk chunk = takeEmptyChunk();
+
+					if (chunk == END)
+						break;
+
+					byte[] bytes = chunk.buffer.array();
+					int length = 0;
+
+					// Always hand over full chunks, until the very last one
+					for (int n = 0; length < bytes.length
+							&& (n = data.read(bytes, length, bytes.length
+									- length)) != -1;)
+						length += n;
+
+					if (length > 0) {
+						chunk.buffer.clear();
+						chunk.buffer.limit(length);
+						fullChunks.add(chunk);
+					}
+
+					if (length < bytes.length)
+						break;
+				}
+			} catch (InterruptedException e) {
+				// no-op, the read-ahead thread is being shut down.
+			} catch (IOException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				failure = new IOException(
+						"An unexpected exception occurred while reading ahead of the parser.");
+				failure.initCause(e);
+			} finally {
+				try {
+					data.close();
+				} catch (IOException e) {
+					// no-op, everything that is needed has been read.
+				}
+
+				if (inflater != null)
+					inflater.end();
+
+				fullChunks.add(END);
+			}
+		}
+
+		/**
+		 * Used to wait for the next chunk to fill.
+		 * 
+		 * @return the chunk, or {@link #END} if the stream has been closed or
+		 *         garbage collected without being closed.
+		 */
+		private Chunk takeEmptyChunk() throws InterruptedException {
+			Chunk chunk;
+
+			while ((chunk = emptyChunks.poll(ABANDONED_CHECK_INTERVAL,
+					TimeUnit.MILLISECONDS)) == null) {
+				if (stream.get() == null) {
+					if (XMLParser.DEBUG)
+						XMLParser.log("Stream dropped without being closed, no longer reading ahead.");
+
+					return END;
+				}
+			}
+
+			return chunk;
+		}
+	}
+
+	/**
+	 * Class used to hold the bytes of a single chunk.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	private static class Chunk {
+		private ByteBuffer buffer;
+
+		private Chunk(int size) {
+			buffer = ByteBuffer.wrap(new byte[size]);
+		}
+	}
+}
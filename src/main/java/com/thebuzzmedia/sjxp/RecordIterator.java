@@ -0,0 +1,572 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Class used to pull the records of a document out one at a time, instead of
+ * having {@link IRule}s push everything into a single user object.
+ * <p/>
+ * Every element matching the record path (e.g. <code>/rss/channel/item</code>)
+ * gets its own user object, created by an {@link IUserObjectFactory} when the
+ * element starts and handed to every {@link IRule} matching inside of it. The
+ * rules fill it in as usual and, once the element ends, it is returned by
+ * {@link #next()}:
+ * 
+ * <pre>
+ * RecordIterator&lt;Item&gt; items = new RecordIterator&lt;Item&gt;(ruleSet,
+ * 		&quot;/rss/channel/item&quot;, factory, in);
+ * 
+ * try {
+ * 	while (items.hasNext())
+ * 		process(items.next());
+ * } finally {
+ * 	items.close();
+ * }
+ * </pre>
+ * 
+ * The document is parsed lazily: {@link #hasNext()} only parses as far as the
+ * end of the next record, so a consumer that stops early (or calls
+ * {@link #close()}) never parses, or reads, the rest of the document.
+ * <p/>
+ * The record path supports the same syntax as the location path of an
+ * {@link IRule}, including namespace URIs, wildcards and the descendant axis.
+ * A record nested inside of another record is not a record of its own, it is
+ * simply part of the outer one. Rules matching outside of any record are
+ * handed a <code>null</code> user object.
+ * <p/>
+ * The match limits of {@link com.thebuzzmedia.sjxp.rule.ILimitedRule}s count
+ * matches over the whole document, not per record. Unlike a plain {@link XMLParser}, the iterator
+ * doesn't stop once every rule has reached its limit; the records after that
+ * are still returned, just not filled in by those rules.
+ * <h3>Checkpoints</h3>
+ * An iterator over a {@link FileChannel}, or any iterator using the native
+ * tokenizer (see {@link XMLParser#ENABLE_NATIVE_TOKENIZER}), keeps track of
+ * where the last record returned by {@link #next()} ended. The
+ * {@link ParseCheckpoint} returned by {@link #getCheckpoint()} can be
+ * serialized and handed to
+ * {@link #RecordIterator(RuleSet, String, IUserObjectFactory, FileChannel, ParseCheckpoint)}
+ * to resume the file right after that record, for example after a crash
+ * half way through a multi-GB document:
+ * 
+ * <pre>
+ * RecordIterator&lt;Item&gt; items = new RecordIterator&lt;Item&gt;(ruleSet,
+ * 		&quot;/rss/channel/item&quot;, factory, channel, loadCheckpoint());
+ * 
+ * while (items.hasNext()) {
+ * 	process(items.next());
+ * 	saveCheckpoint(items.getCheckpoint());
+ * }
+ * </pre>
+ * 
+ * <h3>Thread Safety</h3>
+ * This class is not thread-safe; each thread iterating over a document needs
+ * its own instance. Create them from a shared {@link RuleSet}.
+ * 
+ * @param <T>
+ *            The class type of the records, the user objects passed through to
+ *            the handlers of the {@link IRule}s.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class RecordIterator<T> implements Iterator<T>, Closeable {
+	private String recordPath;
+	private IUserObjectFactory<T> factory;
+
+	private RecordParser parser;
+	private XmlPullParser xpp;
+	private ByteTokenizer tokenizer;
+	private long baseOffset;
+
+	private PathAutomaton<T> recordAutomaton;
+	private int[] recordStates;
+	private int recordDepth;
+	private int index;
+
+	private T record;
+	private T next;
+
+	/*
+	 * The checkpoint of the last record returned is only built when asked
+	 * for; until then it is kept as the values below. The tokenizer state of
+	 * the ancestors of the records is shared until an element outside of any
+	 * record starts or ends.
+	 */
+	private ParseCheckpoint checkpoint;
+	private long checkpointOffset;
+	private int checkpointIndex;
+	private ByteTokenizer.State checkpointState;
+	private int[] checkpointMatchesLeft;
+	private ByteTokenizer.State ancestorState;
+
+	/**
+	 * Create a new iterator over the records of the given stream, detecting
+	 * the encoding of the stream from the XML content.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules filling in every record.
+	 * @param recordPath
+	 *            The location path of the record elements (e.g.
+	 *            <code>/rss/channel/item</code>).
+	 * @param factory
+	 *            The factory creating the user object of every record.
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code>, <code>recordPath</code>,
+	 *             <code>factory</code> or <code>source</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the <code>recordPath</code> is malformed or the stream
+	 *             can't be used as input.
+	 */
+	public RecordIterator(RuleSet<T> ruleSet, String recordPath,
+			IUserObjectFactory<T> factory, InputStream source)
+			throws IllegalArgumentException, XMLParserException {
+		try {
+			init(ruleSet, recordPath, factory, source, null,
+					XMLParser.ENABLE_NATIVE_TOKENIZER);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, there is no encoding to check.
+		}
+	}
+
+	/**
+	 * Create a new iterator over the records of the given stream, which is
+	 * in the given encoding.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules filling in every record.
+	 * @param recordPath
+	 *            The location path of the record elements (e.g.
+	 *            <code>/rss/channel/item</code>).
+	 * @param factory
+	 *            The factory creating the user object of every record.
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * @param encoding
+	 *            The character encoding of the stream, or <code>null</code> to
+	 *            detect it from the XML content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code>, <code>recordPath</code>,
+	 *             <code>factory</code> or <code>source</code> is
+	 *             <code>null</code>.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> is not supported by this runtime.
+	 * @throws XMLParserException
+	 *             if the <code>recordPath</code> is malformed or the stream
+	 *             can't be used as input.
+	 */
+	public RecordIterator(RuleSet<T> ruleSet, String recordPath,
+			IUserObjectFactory<T> factory, InputStream source, String encoding)
+			throws IllegalArgumentException, UnsupportedEncodingException,
+			XMLParserException {
+		init(ruleSet, recordPath, factory, source, encoding,
+				XMLParser.ENABLE_NATIVE_TOKENIZER);
+	}
+
+	/**
+	 * Create a new iterator over the records of the given file channel, from
+	 * its current position to the end of the file.
+	 * <p/>
+	 * The file is memory-mapped and tokenized with the native tokenizer (see
+	 * {@link XMLParser#ENABLE_NATIVE_TOKENIZER} for its limitations), which
+	 * makes {@link #getCheckpoint()} available. The channel is neither closed
+	 * nor is its position changed.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules filling in every record.
+	 * @param recordPath
+	 *            The location path of the record elements (e.g.
+	 *            <code>/rss/channel/item</code>).
+	 * @param factory
+	 *            The factory creating the user object of every record.
+	 * @param channel
+	 *            The channel of the file that XML content will be read out of.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code>, <code>recordPath</code>,
+	 *             <code>factory</code> or <code>channel</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the <code>recordPath</code> is malformed or the file can't
+	 *             be mapped.
+	 */
+	public RecordIterator(RuleSet<T> ruleSet, String recordPath,
+			IUserObjectFactory<T> factory, FileChannel channel)
+			throws IllegalArgumentException, XMLParserException {
+		this(ruleSet, recordPath, factory, channel, null);
+	}
+
+	/**
+	 * Create a new iterator over the records of the given file channel,
+	 * resuming the file right after the record the given checkpoint was taken
+	 * at. The records are numbered (see
+	 * {@link IUserObjectFactory#newUserObject(int)}) and the match limits of
+	 * the rules are counted as if the file had been parsed from the start.
+	 * <p/>
+	 * The file is memory-mapped and tokenized with the native tokenizer (see
+	 * {@link XMLParser#ENABLE_NATIVE_TOKENIZER} for its limitations). The
+	 * channel is neither closed nor is its position changed.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules filling in every record, the same rules
+	 *            the checkpoint was taken with.
+	 * @param recordPath
+	 *            The location path of the record elements, the same path the
+	 *            checkpoint was taken with.
+	 * @param factory
+	 *            The factory creating the user object of every record.
+	 * @param channel
+	 *            The channel of the file that XML content will be read out of.
+	 * @param checkpoint
+	 *            The checkpoint to resume from, or <code>null</code> to start
+	 *            at the current position of the channel.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code>, <code>recordPath</code>,
+	 *             <code>factory</code> or <code>channel</code> is
+	 *             <code>null</code>, or if the checkpoint was taken with
+	 *             different rules or a different record path.
+	 * @throws XMLParserException
+	 *             if the <code>recordPath</code> is malformed or the file can't
+	 *             be mapped.
+	 */
+	public RecordIterator(RuleSet<T> ruleSet, String recordPath,
+			IUserObjectFactory<T> factory, FileChannel channel,
+			ParseCheckpoint checkpoint) throws IllegalArgumentException,
+			XMLParserException {
+		if (channel == null)
+			throw new IllegalArgumentException("channel cannot be null");
+		if (checkpoint != null && recordPath != null
+				&& !recordPath.equals(checkpoint.getRecordPath()))
+			throw new IllegalArgumentException("checkpoint was taken at ["
+					+ checkpoint.getRecordPath() + "] records, not at ["
+					+ recordPath + "] records");
+
+		MappedInputStream in;
+
+		try {
+			baseOffset = (checkpoint == null ? channel.position() : checkpoint
+					.getByteOffset());
+			in = new MappedInputStream(channel, baseOffset,
+					MappedInputStream.DEFAULT_WINDOW_SIZE);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"Unable to read the position and size of the given FileChannel.",
+					e);
+		}
+
+		try {
+			init(ruleSet, recordPath, factory, in, null, true);
+		} catch (UnsupportedEncodingException e) {
+			// no-op, there is no encoding to check.
+		}
+
+		if (checkpoint != null)
+			resume(checkpoint);
+	}
+
+	private void init(RuleSet<T> ruleSet, String recordPath,
+			IUserObjectFactory<T> factory, InputStream source, String encoding,
+			boolean nativeTokenizer) throws IllegalArgumentException,
+			UnsupportedEncodingException, XMLParserException {
+		if (recordPath == null)
+			throw new IllegalArgumentException("recordPath cannot be null");
+		if (factory == null)
+			throw new IllegalArgumentException("factory cannot be null");
+
+		this.recordPath = recordPath;
+		this.factory = factory;
+
+		// A single TAG rule marks the states matching the record path
+		@SuppressWarnings("unchecked")
+		PathAutomaton<T> automaton = new PathAutomaton<T>(new DefaultRule<T>(
+				Type.TAG, recordPath));
+		recordAutomaton = automaton;
+		recordStates = new int[32];
+		recordStates[0] = PathAutomaton.ROOT_STATE;
+
+		parser = new RecordParser(ruleSet, nativeTokenizer);
+		xpp = parser.getPullParser();
+
+		// Only the native tokenizer knows the byte offset of every event
+		tokenizer = (xpp instanceof ByteTokenizer ? (ByteTokenizer) xpp
+				: null);
+
+		parser.setInput(source, encoding);
+		parser.startParse();
+	}
+
+	/**
+	 * Used to pick up the document right after the record the given
+	 * checkpoint was taken at.
+	 */
+	private void resume(ParseCheckpoint checkpoint)
+			throws IllegalArgumentException, XMLParserException {
+		try {
+			parser.resume(checkpoint.getTokenizerState(), checkpoint
+					.getMatchesLeft());
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"Unable to resume parsing from the given checkpoint.", e);
+		}
+
+		// Checkpoints are never taken inside of a record
+		int depth = checkpoint.getDepth();
+
+		if (depth >= recordStates.length) {
+			int[] newStates = new int[depth * 2];
+			System.arraycopy(recordStates, 0, newStates, 0,
+					recordStates.length);
+			recordStates = newStates;
+		}
+
+		for (int i = 1; i <= depth; i++)
+			recordStates[i] = recordAutomaton.transition(recordStates[i - 1],
+					tokenizer.getElementNamespace(i), tokenizer
+							.getElementName(i));
+
+		index = checkpoint.getRecordCount();
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the iterator
+	 * for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[recordPath=" + recordPath
+				+ ", records=" + index + "]";
+	}
+
+	/**
+	 * Used to parse the document up to the end of the next record, if that
+	 * hasn't been done already.
+	 * 
+	 * @return <code>true</code> if there is another record, or
+	 *         <code>false</code> if the end of the document has been reached,
+	 *         parsing was stopped (see {@link XMLParser#stop()}) or this
+	 *         iterator has been closed.
+	 * 
+	 * @throws XMLParserException
+	 *             if the XML content is malformed or the underlying stream
+	 *             can't be read. No more records are returned after that.
+	 */
+	public boolean hasNext() throws XMLParserException {
+		try {
+			while (next == null && parser.isParsing())
+				parser.parseEvent(null);
+		} catch (IOException e) {
+			parser.stop();
+			throw new XMLParserException(
+					"An exception occurred while parsing the given source, the XML document may be malformed.",
+					e);
+		} catch (XmlPullParserException e) {
+			parser.stop();
+			throw new XMLParserException(
+					"An error with the underlying data stream being parsed occurred.",
+					e);
+		}
+
+		return (next != null);
+	}
+
+	/**
+	 * Used to get the next record, parsing the document up to its end if
+	 * needed.
+	 * 
+	 * @return the next record.
+	 * 
+	 * @throws NoSuchElementException
+	 *             if there are no more records.
+	 * @throws XMLParserException
+	 *             if the XML content is malformed or the underlying stream
+	 *             can't be read.
+	 */
+	public T next() throws NoSuchElementException, XMLParserException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		T result = next;
+		next = null;
+
+		// Parsing stopped right after the end tag of the record
+		if (tokenizer != null) {
+			if (ancestorState == null)
+				ancestorState = tokenizer.saveState();
+
+			checkpoint = null;
+			checkpointOffset = baseOffset + tokenizer.getOffset();
+			checkpointIndex = index;
+			checkpointState = ancestorState;
+			checkpointMatchesLeft = parser.getMatchesLeft();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Records can't be removed from a document.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             always.
+	 */
+	public void remove() throws UnsupportedOperationException {
+		throw new UnsupportedOperationException(
+				"Records can't be removed from the document being parsed.");
+	}
+
+	/**
+	 * Used to stop parsing the document; {@link #hasNext()} returns
+	 * <code>false</code> from now on.
+	 * <p/>
+	 * This class will not close the stream it was given, the caller must take
+	 * care to clean up that resource.
+	 */
+	public void close() {
+		parser.stop();
+
+		record = null;
+		next = null;
+	}
+
+	/**
+	 * @return the location path of the record elements.
+	 */
+	public String getRecordPath() {
+		return recordPath;
+	}
+
+	/**
+	 * Used to get the checkpoint right after the last record returned by
+	 * {@link #next()}; resuming from it continues with the record after that
+	 * one.
+	 * 
+	 * @return the checkpoint of the last record returned, the checkpoint this
+	 *         iterator resumed from if no record has been returned yet, or
+	 *         <code>null</code> if neither (resuming means starting over).
+	 * 
+	 * @throws IllegalStateException
+	 *             if this iterator doesn't use the native tokenizer and can't
+	 *             take checkpoints.
+	 */
+	public ParseCheckpoint getCheckpoint() throws IllegalStateException {
+		if (tokenizer == null)
+			throw new IllegalStateException(
+					"Checkpoints can only be taken by an iterator using the native tokenizer.");
+
+		if (checkpoint == null && checkpointState != null)
+			checkpoint = new ParseCheckpoint(recordPath, checkpointOffset,
+					checkpointIndex, checkpointState, checkpointMatchesLeft);
+
+		return checkpoint;
+	}
+
+	/**
+	 * Class used to hand every event to the {@link IRule}s with the user
+	 * object of the record it is part of, creating and completing records as
+	 * their elements start and end.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	private class RecordParser extends XMLParser<T> {
+		private RecordParser(RuleSet<T> ruleSet, boolean nativeTokenizer) {
+			super(ruleSet, nativeTokenizer);
+		}
+
+		@Override
+		protected void doStartTag(T userObject) {
+			int depth = xpp.getDepth();
+
+			if (depth == recordStates.length) {
+				int[] newStates = new int[depth * 2];
+				System.arraycopy(recordStates, 0, newStates, 0, depth);
+				recordStates = newStates;
+			}
+
+			int state = recordAutomaton.transition(recordStates[depth - 1],
+					xpp.getNamespace(), xpp.getName());
+			recordStates[depth] = state;
+
+			if (recordDepth == 0 && state != PathAutomaton.NO_STATE
+					&& recordAutomaton.getRuleTable().getTagRules(state) != null) {
+				recordDepth = depth;
+				record = factory.newUserObject(index++);
+			} else if (recordDepth == 0)
+				ancestorState = null;
+
+			super.doStartTag(record);
+		}
+
+		@Override
+		protected void doText(T userObject) {
+			super.doText(record);
+		}
+
+		@Override
+		protected void doEndTag(T userObject) {
+			super.doEndTag(record);
+
+			if (xpp.getDepth() == recordDepth) {
+				next = record;
+				record = null;
+				recordDepth = 0;
+			} else if (recordDepth == 0)
+				ancestorState = null;
+		}
+
+		@Override
+		protected void doEndDocument(T userObject) {
+			super.doEndDocument(record);
+		}
+
+		/**
+		 * Overridden to keep parsing, the rest of the records are still
+		 * returned.
+		 */
+		@Override
+		void stopLimitsReached() {
+			// no-op
+		}
+
+		/**
+		 * Overridden to never skip an element a record can still start in.
+		 */
+		@Override
+		boolean isSkippable() {
+			return (super.isSkippable() && (recordDepth > 0 || recordStates[xpp
+					.getDepth()] == PathAutomaton.NO_STATE));
+		}
+	}
+}
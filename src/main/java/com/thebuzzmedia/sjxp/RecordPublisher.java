@@ -0,0 +1,378 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to publish the records of a document to a subscriber, parsing
+ * only as far as the subscriber has asked for records.
+ * <p/>
+ * The records are pulled out of the document by a {@link RecordIterator}
+ * (see it for how records are built). The subscriber signals how many more
+ * records it can handle with {@link ISubscription#request(long)}; once that
+ * many have been handed to {@link ISubscriber#onNext(Object)} parsing pauses,
+ * right after the end of the last record, until more are requested. A slow
+ * subscriber therefore never makes records pile up in memory, however large
+ * the document. Cancelling the subscription stops parsing just like
+ * {@link XMLParser#stop()}.
+ * <p/>
+ * The interfaces follow the Reactive Streams rules, so adapting them to any
+ * reactive library is a matter of forwarding calls: the subscriber is always
+ * signalled serially, <code>onNext</code> never exceeds the requested demand,
+ * the stream ends with exactly one of <code>onComplete</code> or
+ * <code>onError</code>, and <code>request</code> can be called from inside
+ * <code>onNext</code> without recursing.
+ * <h3>Threading</h3>
+ * Without an {@link Executor}, records are parsed and published on whichever
+ * thread calls <code>request</code>. Given an {@link Executor}, parsing runs
+ * on it instead and <code>request</code> returns immediately; at most one
+ * task parses at a time and it returns its thread to the executor whenever
+ * demand runs out.
+ * <p/>
+ * A document can only be parsed once, so a publisher only accepts a single
+ * subscriber. The stream it was given is not closed, the caller must take
+ * care to clean up that resource once the subscriber is done.
+ * 
+ * @param <T>
+ *            The class type of the records, the user objects passed through to
+ *            the handlers of the {@link IRule}s.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class RecordPublisher<T> {
+	private RecordIterator<T> records;
+	private Executor executor;
+
+	private AtomicBoolean subscribed = new AtomicBoolean();
+	private ISubscriber<? super T> subscriber;
+
+	private AtomicLong demand = new AtomicLong();
+	private AtomicInteger pending = new AtomicInteger();
+	private volatile boolean cancelled;
+	private volatile Throwable failure;
+	private boolean done;
+
+	private Runnable drainTask = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Create a new publisher of the records of the given stream, parsing them
+	 * on the threads requesting them.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules filling in every record.
+	 * @param recordPath
+	 *            The location path of the record elements (e.g.
+	 *            <code>/rss/channel/item</code>).
+	 * @param factory
+	 *            The factory creating the user object of every record.
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code>, <code>recordPath</code>,
+	 *             <code>factory</code> or <code>source</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the <code>recordPath</code> is malformed or the stream
+	 *             can't be used as input.
+	 */
+	public RecordPublisher(RuleSet<T> ruleSet, String recordPath,
+			IUserObjectFactory<T> factory, InputStream source)
+			throws IllegalArgumentException, XMLParserException {
+		this(ruleSet, recordPath, factory, source, null);
+	}
+
+	/**
+	 * Create a new publisher of the records of the given stream, parsing them
+	 * on the given executor.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules filling in every record.
+	 * @param recordPath
+	 *            The location path of the record elements (e.g.
+	 *            <code>/rss/channel/item</code>).
+	 * @param factory
+	 *            The factory creating the user object of every record.
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * @param executor
+	 *            The executor records are parsed and published on, or
+	 *            <code>null</code> to use the threads requesting them.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code>, <code>recordPath</code>,
+	 *             <code>factory</code> or <code>source</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the <code>recordPath</code> is malformed or the stream
+	 *             can't be used as input.
+	 */
+	public RecordPublisher(RuleSet<T> ruleSet, String recordPath,
+			IUserObjectFactory<T> factory, InputStream source, Executor executor)
+			throws IllegalArgumentException, XMLParserException {
+		records = new RecordIterator<T>(ruleSet, recordPath, factory, source);
+		this.executor = executor;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the
+	 * publisher for easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[records=" + records
+				+ ", demand=" + demand.get() + ", cancelled=" + cancelled
+				+ "]";
+	}
+
+	/**
+	 * Used to subscribe to the records of the document. The subscriber is
+	 * handed its {@link ISubscription} right away, no records are parsed until
+	 * it requests some.
+	 * <p/>
+	 * Any subscriber after the first one is handed an
+	 * {@link IllegalStateException} through
+	 * {@link ISubscriber#onError(Throwable)}.
+	 * 
+	 * @param subscriber
+	 *            The subscriber the records are published to.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>subscriber</code> is <code>null</code>.
+	 */
+	public void subscribe(ISubscriber<? super T> subscriber)
+			throws IllegalArgumentException {
+		if (subscriber == null)
+			throw new IllegalArgumentException("subscriber cannot be null");
+
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new ISubscription() {
+				public void request(long n) {
+					// no-op, nothing will ever be published.
+				}
+
+				public void cancel() {
+					// no-op, nothing will ever be published.
+				}
+			});
+			subscriber.onError(new IllegalStateException(
+					"A RecordPublisher only accepts a single subscriber, its document can only be parsed once."));
+			return;
+		}
+
+		this.subscriber = subscriber;
+
+		subscriber.onSubscribe(new ISubscription() {
+			public void request(long n) {
+				if (n <= 0) {
+					fail(new IllegalArgumentException("n [" + n
+							+ "] must be > 0"));
+					return;
+				}
+
+				// Add to the demand, an overflow means unbounded
+				for (long current = demand.get(); !demand.compareAndSet(
+						current, (current + n < 0 ? Long.MAX_VALUE : current
+								+ n)); current = demand.get())
+					;
+
+				schedule();
+			}
+
+			public void cancel() {
+				RecordPublisher.this.cancel();
+			}
+		});
+	}
+
+	/**
+	 * Used to stop publishing because of the given error, which is handed to
+	 * the subscriber by the parsing thread.
+	 */
+	private void fail(Throwable error) {
+		failure = error;
+		cancel();
+	}
+
+	/**
+	 * Used to stop publishing; the parsing thread stops parsing.
+	 */
+	private void cancel() {
+		cancelled = true;
+		schedule();
+	}
+
+	/**
+	 * Used to make sure records are published, either by starting to parse
+	 * them or by letting the thread already parsing know there is more to do.
+	 */
+	private void schedule() {
+		if (pending.getAndIncrement() != 0)
+			return;
+
+		if (executor == null)
+			drain();
+		else
+			executor.execute(drainTask);
+	}
+
+	/**
+	 * Used to parse and publish as many records as have been requested. Only
+	 * ever runs on one thread at a time; a {@link #schedule()} call while it
+	 * runs makes it loop once more instead of running it again.
+	 */
+	private void drain() {
+		RuntimeException subscriberException = null;
+		int missed = 1;
+
+		do {
+			while (!done) {
+				if (cancelled) {
+					done = true;
+					records.close();
+
+					if (failure != null)
+						subscriber.onError(failure);
+					break;
+				}
+
+				if (demand.get() == 0)
+					break;
+
+				T record = null;
+				boolean hasNext;
+
+				try {
+					hasNext = records.hasNext();
+
+					if (hasNext)
+						record = records.next();
+				} catch (RuntimeException e) {
+					// Parse errors, but also anything thrown by a rule or factory
+					done = true;
+					records.close();
+					subscriber.onError(e);
+					break;
+				}
+
+				if (!hasNext) {
+					done = true;
+					records.close();
+					subscriber.onComplete();
+					break;
+				}
+
+				if (demand.get() != Long.MAX_VALUE)
+					demand.decrementAndGet();
+
+				try {
+					subscriber.onNext(record);
+				} catch (RuntimeException e) {
+					// A broken subscriber is cancelled, as if it asked to be
+					done = true;
+					records.close();
+					subscriberException = e;
+					break;
+				}
+			}
+
+			missed = pending.addAndGet(-missed);
+		} while (missed != 0);
+
+		// Rethrown once nothing is pending, so later calls aren't ignored
+		if (subscriberException != null)
+			throw subscriberException;
+	}
+
+	/**
+	 * Interface used to receive the records published by a
+	 * {@link RecordPublisher}, one method call at a time.
+	 * 
+	 * @param <T>
+	 *            The class type of the records.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public interface ISubscriber<T> {
+		/**
+		 * Called once, before anything else, with the subscription used to
+		 * request records.
+		 * 
+		 * @param subscription
+		 *            The subscription of this subscriber.
+		 */
+		public void onSubscribe(ISubscription subscription);
+
+		/**
+		 * Called with every record, never more often than requested.
+		 * 
+		 * @param record
+		 *            The next record of the document.
+		 */
+		public void onNext(T record);
+
+		/**
+		 * Called once if the document can't be parsed, nothing is published
+		 * after that.
+		 * 
+		 * @param error
+		 *            The reason the document can't be parsed.
+		 */
+		public void onError(Throwable error);
+
+		/**
+		 * Called once after the last record of the document has been
+		 * published.
+		 */
+		public void onComplete();
+	}
+
+	/**
+	 * Interface used by an {@link ISubscriber} to control how many records
+	 * are published to it.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public interface ISubscription {
+		/**
+		 * Used to ask for the given number of additional records. Parsing only
+		 * continues as long as there are records asked for.
+		 * 
+		 * @param n
+		 *            The number of records, {@link Long#MAX_VALUE} for every
+		 *            record of the document. Anything &lt;= 0 fails the
+		 *            subscription with an {@link IllegalArgumentException}.
+		 */
+		public void request(long n);
+
+		/**
+		 * Used to stop publishing records and parsing the document. Records
+		 * already on their way may still be published.
+		 */
+		public void cancel();
+	}
+}
@@ -0,0 +1,429 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class used to scan the raw bytes of an XML document for the boundaries of
+ * every "record" element at a given path, grouping consecutive records into
+ * chunks that can be parsed independently of each other.
+ * <p/>
+ * The scanner is a small byte-level state machine that understands just
+ * enough XML to keep track of element nesting: start, end and empty tags,
+ * quoted attribute values, comments, CDATA sections, processing instructions
+ * and the DOCTYPE declaration. It does not check the document is well-formed
+ * or decode any characters; that is left to the pull parser that parses each
+ * chunk. Only encodings where every markup character is a single ASCII byte
+ * (e.g. UTF-8, US-ASCII or ISO-8859-1) can be scanned.
+ * <p/>
+ * For every chunk the scanner hands over everything needed to turn it into a
+ * standalone document: the document's prolog (XML declaration, DOCTYPE,
+ * etc.) and the verbatim start tags of the record's ancestor elements
+ * (including any namespace declarations).
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+abstract class RecordScanner {
+	private static final int TEXT = 0;
+	private static final int LT = 1;
+	private static final int START_TAG = 2;
+	private static final int ATTRIBUTE_VALUE = 3;
+	private static final int EMPTY_TAG = 4;
+	private static final int END_TAG = 5;
+	private static final int PI = 6;
+	private static final int BANG = 7;
+	private static final int COMMENT_OPEN = 8;
+	private static final int COMMENT = 9;
+	private static final int CDATA = 10;
+	private static final int DECLARATION = 11;
+
+	private byte[][] steps;
+	private long chunkSize;
+
+	private int state = TEXT;
+	private long position;
+	private long tagStart;
+
+	private byte[] tag = new byte[256];
+	private int tagLength;
+	private int nameLength;
+	private byte quote;
+	private int counter;
+
+	private boolean inProlog = true;
+	private byte[] prolog = new byte[256];
+	private int prologLength;
+
+	private int depth;
+	private boolean[] matches = new boolean[32];
+	private byte[][] ancestorTags;
+	private int ancestorGeneration;
+	private long recordStart;
+
+	private long chunkStart = -1;
+	private long chunkEnd;
+	private int chunkGeneration;
+	private byte[][] chunkAncestorTags;
+
+	/**
+	 * Create a new scanner.
+	 * 
+	 * @param steps
+	 *            The names of the elements on the path to the records, from
+	 *            the root element down to the record element itself, encoded
+	 *            the same way as the document.
+	 * @param chunkSize
+	 *            The number of bytes after which no further records are added
+	 *            to a chunk. A single record larger than this is put in a chunk
+	 *            of its own.
+	 */
+	RecordScanner(byte[][] steps, long chunkSize) {
+		this.steps = steps;
+		this.chunkSize = chunkSize;
+
+		matches[0] = true;
+		ancestorTags = new byte[steps.length - 1][];
+	}
+
+	/**
+	 * Called every time a chunk of one or more consecutive records has been
+	 * scanned, in document order.
+	 * 
+	 * @param prolog
+	 *            Everything in the document before the root element. This
+	 *            array is shared by all chunks and must not be modified.
+	 * @param ancestorTags
+	 *            The verbatim start tags of the ancestors of the records, from
+	 *            the root element down.
+	 * @param start
+	 *            The offset of the first byte of the first record.
+	 * @param end
+	 *            The offset just past the last byte of the last record.
+	 * 
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while handing the chunk off.
+	 */
+	protected abstract void handleChunk(byte[] prolog, byte[][] ancestorTags,
+			long start, long end) throws InterruptedException;
+
+	/**
+	 * Used to scan the entire document, calling
+	 * {@link #handleChunk(byte[], byte[][], long, long)} for every
+	 * chunk of records found.
+	 * 
+	 * @param in
+	 *            The stream to read the document from, starting at its first
+	 *            byte.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs while reading the stream.
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while handing a chunk off.
+	 * @throws XMLParserException
+	 *             if the document is in an encoding the scanner doesn't
+	 *             support or its elements are not properly nested.
+	 */
+	void scan(InputStream in) throws IOException, InterruptedException,
+			XMLParserException {
+		byte[] buffer = new byte[65536];
+
+		for (int length = in.read(buffer); length != -1; length = in
+				.read(buffer)) {
+			if (position == 0 && length > 1)
+				checkEncoding(buffer[0], buffer[1]);
+
+			for (int i = 0; i < length; i++, position++) {
+				byte b = buffer[i];
+
+				if (inProlog)
+					prolog = append(prolog, prologLength++, b);
+
+				next(b);
+			}
+		}
+
+		if (depth > 0 || state != TEXT)
+			throw new XMLParserException("Document ended after " + position
+					+ " bytes with " + depth + " unclosed elements.");
+
+		flushChunk();
+	}
+
+	/**
+	 * Used to move the state machine along by one byte.
+	 */
+	private void next(byte b) throws InterruptedException {
+		switch (state) {
+		case TEXT:
+			if (b == '<') {
+				state = LT;
+				tagStart = position;
+			}
+			break;
+
+		case LT:
+			if (b == '/')
+				state = END_TAG;
+			else if (b == '?') {
+				state = PI;
+				counter = 0;
+			} else if (b == '!')
+				state = BANG;
+			else {
+				// The prolog ends where the root element starts
+				if (inProlog) {
+					inProlog = false;
+					prologLength = (int) tagStart;
+				}
+
+				state = START_TAG;
+				tag[0] = '<';
+				tag[1] = b;
+				tagLength = 2;
+				nameLength = -1;
+			}
+			break;
+
+		case START_TAG:
+			appendTag(b);
+
+			if (nameLength == -1
+					&& (b == ' ' || b == '\t' || b == '\r' || b == '\n'
+							|| b == '/' || b == '>'))
+				nameLength = tagLength - 2;
+
+			if (b == '"' || b == '\'') {
+				state = ATTRIBUTE_VALUE;
+				quote = b;
+			} else if (b == '/')
+				state = EMPTY_TAG;
+			else if (b == '>') {
+				state = TEXT;
+				startElement(false);
+			}
+			break;
+
+		case ATTRIBUTE_VALUE:
+			appendTag(b);
+
+			if (b == quote)
+				state = START_TAG;
+			break;
+
+		case EMPTY_TAG:
+			appendTag(b);
+
+			if (b == '>') {
+				state = TEXT;
+				startElement(true);
+			} else
+				state = START_TAG;
+			break;
+
+		case END_TAG:
+			if (b == '>') {
+				state = TEXT;
+				endElement(position + 1);
+			}
+			break;
+
+		case PI:
+			if (b == '>' && counter == 1)
+				state = TEXT;
+			else
+				counter = (b == '?' ? 1 : 0);
+			break;
+
+		case BANG:
+			counter = 0;
+			quote = 0;
+
+			if (b == '-')
+				state = COMMENT_OPEN;
+			else if (b == '[')
+				state = CDATA;
+			else
+				state = DECLARATION;
+			break;
+
+		case COMMENT_OPEN:
+			// Second '-' of the opening "<!--"
+			state = COMMENT;
+			break;
+
+		case COMMENT:
+			if (b == '>' && counter >= 2)
+				state = TEXT;
+			else
+				counter = (b == '-' ? counter + 1 : 0);
+			break;
+
+		case CDATA:
+			if (b == '>' && counter >= 2)
+				state = TEXT;
+			else
+				counter = (b == ']' ? counter + 1 : 0);
+			break;
+
+		case DECLARATION:
+			// DOCTYPE, possibly with an internal subset in [brackets]
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'')
+				quote = b;
+			else if (b == '[')
+				counter++;
+			else if (b == ']')
+				counter--;
+			else if (b == '>' && counter == 0)
+				state = TEXT;
+			break;
+		}
+	}
+
+	/**
+	 * Used to process the start tag that was just scanned.
+	 */
+	private void startElement(boolean empty) throws InterruptedException {
+		if (++depth == matches.length) {
+			boolean[] newMatches = new boolean[matches.length * 2];
+			System.arraycopy(matches, 0, newMatches, 0, matches.length);
+			matches = newMatches;
+		}
+
+		boolean match = matches[depth - 1] && depth <= steps.length
+				&& isName(steps[depth - 1]);
+		matches[depth] = match;
+
+		if (match) {
+			if (depth < steps.length) {
+				// Keep a verbatim copy of the ancestor to replay it later
+				byte[] ancestorTag = new byte[tagLength];
+				System.arraycopy(tag, 0, ancestorTag, 0, tagLength);
+
+				ancestorTags[depth - 1] = ancestorTag;
+				ancestorGeneration++;
+			} else
+				recordStart = tagStart;
+		}
+
+		if (empty)
+			endElement(position + 1);
+	}
+
+	/**
+	 * Used to process the end of the current element, which ends just before
+	 * the given offset.
+	 */
+	private void endElement(long end) throws InterruptedException {
+		if (depth == 0)
+			throw new XMLParserException("End tag at offset " + tagStart
+					+ " does not match any start tag.");
+
+		if (matches[depth] && depth == steps.length)
+			addRecord(recordStart, end);
+
+		depth--;
+	}
+
+	/**
+	 * Used to add the record between the given offsets to the current chunk,
+	 * flushing the current chunk first if the record can't be added to it.
+	 */
+	private void addRecord(long start, long end) throws InterruptedException {
+		if (chunkStart != -1
+				&& (chunkGeneration != ancestorGeneration || end - chunkStart > chunkSize))
+			flushChunk();
+
+		if (chunkStart == -1) {
+			chunkStart = start;
+			chunkGeneration = ancestorGeneration;
+			chunkAncestorTags = ancestorTags.clone();
+		}
+
+		chunkEnd = end;
+	}
+
+	/**
+	 * Used to hand off the current chunk, if there is one.
+	 */
+	private void flushChunk() throws InterruptedException {
+		if (chunkStart == -1)
+			return;
+
+		if (prolog.length != prologLength) {
+			byte[] newProlog = new byte[prologLength];
+			System.arraycopy(prolog, 0, newProlog, 0, prologLength);
+			prolog = newProlog;
+		}
+
+		handleChunk(prolog, chunkAncestorTags, chunkStart, chunkEnd);
+		chunkStart = -1;
+	}
+
+	/**
+	 * @return <code>true</code> if the name of the start tag that was just
+	 *         scanned is the given name.
+	 */
+	private boolean isName(byte[] name) {
+		if (name.length != nameLength)
+			return false;
+
+		for (int i = 0; i < nameLength; i++) {
+			if (tag[i + 1] != name[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	private void appendTag(byte b) {
+		tag = append(tag, tagLength++, b);
+	}
+
+	/**
+	 * Used to ensure a stream in an encoding we can't scan is rejected rather
+	 * than silently producing no records.
+	 */
+	private static void checkEncoding(byte first, byte second)
+			throws XMLParserException {
+		if ((first == (byte) 0xFE && second == (byte) 0xFF)
+				|| (first == (byte) 0xFF && second == (byte) 0xFE)
+				|| (first == 0 && second == '<') || (first == '<' && second == 0))
+			throw new XMLParserException(
+					"The document appears to be UTF-16 or UTF-32 encoded; only documents in an ASCII-compatible encoding (e.g. UTF-8 or ISO-8859-1) can be split into records.");
+	}
+
+	/**
+	 * Used to set the byte at the given index of the array, growing the array
+	 * first if needed.
+	 * 
+	 * @return the array, or its replacement if it had to grow.
+	 */
+	private static byte[] append(byte[] array, int index, byte b) {
+		if (index == array.length) {
+			byte[] newArray = new byte[array.length * 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			array = newArray;
+		}
+
+		array[index] = b;
+		return array;
+	}
+}
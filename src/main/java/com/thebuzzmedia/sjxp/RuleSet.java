@@ -0,0 +1,132 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to represent a set of {@link IRule}s compiled once, ahead of time,
+ * into the state machine and dispatch tables an {@link XMLParser} matches its
+ * location against while parsing.
+ * <p/>
+ * Compiling the rules is by far the most expensive part of creating an
+ * {@link XMLParser}. A {@link RuleSet} holds only the compiled, immutable
+ * result and can be handed to any number of parsers with
+ * {@link XMLParser#XMLParser(RuleSet)}; each of those parsers then only holds
+ * the per-document state of a parse (the underlying pull parser, its location
+ * in the document and any match limit counters), making them cheap to create.
+ * <h3>Thread Safety</h3>
+ * This class is immutable and thread-safe. A single instance can be shared by
+ * any number of {@link XMLParser}s parsing on any number of threads at the
+ * same time, as long as the {@link IRule}s themselves are safe to call from
+ * those threads (the default rule implementations hold no mutable state).
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public final class RuleSet<T> {
+	private final PathAutomaton<T> automaton;
+	private final String toString;
+
+	/**
+	 * Compile the given {@link IRule}s into a new rule set.
+	 * 
+	 * @param rules
+	 *            The rules applied to any parsed content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>rules</code> is <code>null</code> or empty.
+	 * @throws XMLParserException
+	 *             if any of the rules define a malformed location path or
+	 *             attribute name.
+	 */
+	@SuppressWarnings("unchecked")
+	public RuleSet(IRule<T>... rules) throws IllegalArgumentException,
+			XMLParserException {
+		if (rules == null || rules.length == 0)
+			throw new IllegalArgumentException(
+					"rules cannot be null or empty, you must provide at least 1 rule to execute otherwise parsing will do nothing.");
+
+		// Copy the rules so the caller can't modify them once compiled
+		IRule<T>[] ruleArray = rules.clone();
+
+		for (int i = 0; i < ruleArray.length; i++) {
+			if (ruleArray[i] == null)
+				throw new IllegalArgumentException("rules[" + i
+						+ "] cannot be null");
+		}
+
+		automaton = new PathAutomaton<T>(ruleArray);
+		toString = this.getClass().getName() + "[states="
+				+ automaton.getStateCount() + ", tagRules="
+				+ automaton.getTagRuleCount() + ", attributeRules="
+				+ automaton.getAttributeRuleCount() + ", characterRules="
+				+ automaton.getCharacterRuleCount() + "]";
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the rule set
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the rule set for easy
+	 *         debugging.
+	 */
+	@Override
+	public String toString() {
+		return toString;
+	}
+
+	/**
+	 * @return the number of states the location paths of the rules were
+	 *         compiled into.
+	 */
+	public int getStateCount() {
+		return automaton.getStateCount();
+	}
+
+	/**
+	 * @return the number of {@link IRule.Type#TAG} rules in this set.
+	 */
+	public int getTagRuleCount() {
+		return automaton.getTagRuleCount();
+	}
+
+	/**
+	 * @return the number of {@link IRule.Type#ATTRIBUTE} rules in this set.
+	 */
+	public int getAttributeRuleCount() {
+		return automaton.getAttributeRuleCount();
+	}
+
+	/**
+	 * @return the number of {@link IRule.Type#CHARACTER} rules in this set.
+	 */
+	public int getCharacterRuleCount() {
+		return automaton.getCharacterRuleCount();
+	}
+
+	/**
+	 * @return the compiled state machine of the rules.
+	 */
+	PathAutomaton<T> getAutomaton() {
+		return automaton;
+	}
+}
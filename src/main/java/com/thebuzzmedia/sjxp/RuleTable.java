@@ -0,0 +1,526 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.thebuzzmedia.sjxp.rule.ILimitedRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+/**
+ * Class used to hold the dispatch tables the {@link XMLParser} uses to find
+ * the {@link IRule}s matching each state of a {@link PathAutomaton}.
+ * <p/>
+ * For every state there is one array of matching rules per {@link Type} (or
+ * <code>null</code> if there are none) along with a parallel array holding the
+ * index of each of those rules in the order they were given to the parser.
+ * <h3>Attribute Slots</h3>
+ * The attribute names of every {@link Type#ATTRIBUTE} rule are parsed into
+ * namespace URI and local name pairs once, when the table is created. Every
+ * distinct pair is given a numbered "slot" and every state gets a
+ * {@link NameIndex} entry for each pair its rules are interested in. The parser
+ * can then make a single pass over the attributes of an element, dropping each
+ * interesting value into its slot, and hand every rule its values straight out
+ * of the slots using {@link #getAttributeSlots(int)}.
+ * <h3>Match Limits</h3>
+ * The table compiled by the {@link PathAutomaton} is never modified. If any of
+ * the rules is an {@link ILimitedRule} with a limit, {@link #forParse()}
+ * returns a copy of the table for a single parse to count matches in; once a
+ * rule reaches its limit it is removed from every state of that copy. The
+ * per-state arrays of the copy are shared with the original until they are
+ * actually modified (copy-on-write), so starting a parse only costs a copy of
+ * the outer arrays.
+ * <h3>Thread Safety</h3>
+ * The compiled table is safe to use from any number of threads; copies
+ * returned by {@link #forParse()} must only be used by the parse they were
+ * created for.
+ * 
+ * @param <T>
+ *            The class type of the user object handed to the {@link IRule}s.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class RuleTable<T> {
+	private IRule<T>[] rules;
+	private int[] matchLimits;
+	private int[][] ruleStates;
+	private int limitedRuleCount;
+
+	private IRule<T>[][] tagRules;
+	private IRule<T>[][] attrRules;
+	private IRule<T>[][] charRules;
+
+	private int[][] tagRuleIndexes;
+	private int[][] attrRuleIndexes;
+	private int[][] charRuleIndexes;
+
+	private int attrSlotCount;
+	private int[][] ruleAttrSlots;
+	private int[][][] attrSlots;
+	private NameIndex attrSlotIndex;
+
+	/*
+	 * Per-parse only: the number of matches each limited rule has left
+	 * (unlimited rules always have 0) and the number of limited rules that
+	 * haven't reached their limit yet.
+	 */
+	private int[] matchesLeft;
+	private int limitedRulesLeft;
+
+	/**
+	 * Create a new table out of the given rules.
+	 * 
+	 * @param rules
+	 *            The rules, in the order they were given to the parser.
+	 * @param stateRuleIndexes
+	 *            For every state, the indexes of all the rules (of any
+	 *            {@link Type}) matching it in ascending order or
+	 *            <code>null</code> if no rule matches the state.
+	 * 
+	 * @throws XMLParserException
+	 *             if any of the attribute names of the rules are malformed.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	RuleTable(IRule<T>[] rules, int[][] stateRuleIndexes)
+			throws XMLParserException {
+		int stateCount = stateRuleIndexes.length;
+
+		this.rules = rules;
+		matchLimits = new int[rules.length];
+		ruleStates = new int[rules.length][];
+
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i] instanceof ILimitedRule) {
+				int limit = ((ILimitedRule<T>) rules[i]).getMatchLimit();
+
+				if (limit > 0) {
+					matchLimits[i] = limit;
+					ruleStates[i] = new int[0];
+					limitedRuleCount++;
+				}
+			}
+		}
+
+		// Give every distinct attribute name its own slot
+		List<String[]> slotNameList = new ArrayList<String[]>();
+		NameIndex slotIndex = new NameIndex(rules.length);
+		ruleAttrSlots = new int[rules.length][];
+
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i].getType() != Type.ATTRIBUTE)
+				continue;
+
+			String[] attrNames = rules[i].getAttributeNames();
+			int[] slots = new int[attrNames == null ? 0 : attrNames.length];
+
+			for (int j = 0; j < slots.length; j++) {
+				String[] name = parseAttributeName(attrNames[j], rules[i]);
+				int slot = slotIndex.get(0, name[0], name[1]);
+
+				if (slot == NameIndex.NOT_FOUND) {
+					slot = slotNameList.size();
+					slotIndex.put(0, name[0], name[1], slot);
+					slotNameList.add(name);
+				}
+
+				slots[j] = slot;
+			}
+
+			ruleAttrSlots[i] = slots;
+		}
+
+		attrSlotCount = slotNameList.size();
+		attrSlots = new int[stateCount][][];
+		attrSlotIndex = new NameIndex(attrSlotCount);
+
+		tagRules = new IRule[stateCount][];
+		attrRules = new IRule[stateCount][];
+		charRules = new IRule[stateCount][];
+
+		tagRuleIndexes = new int[stateCount][];
+		attrRuleIndexes = new int[stateCount][];
+		charRuleIndexes = new int[stateCount][];
+
+		for (int state = 0; state < stateCount; state++) {
+			int[] indexes = stateRuleIndexes[state];
+
+			if (indexes == null)
+				continue;
+
+			tagRuleIndexes[state] = filter(indexes, Type.TAG, -1);
+			attrRuleIndexes[state] = filter(indexes, Type.ATTRIBUTE, -1);
+			charRuleIndexes[state] = filter(indexes, Type.CHARACTER, -1);
+
+			tagRules[state] = toRules(tagRuleIndexes[state]);
+			attrRules[state] = toRules(attrRuleIndexes[state]);
+			charRules[state] = toRules(charRuleIndexes[state]);
+			attrSlots[state] = toSlots(attrRuleIndexes[state]);
+
+			// Index the slot of every attribute the state's rules want
+			if (attrSlots[state] != null) {
+				for (int i = 0; i < attrSlots[state].length; i++) {
+					int[] slots = attrSlots[state][i];
+
+					for (int j = 0; j < slots.length; j++) {
+						String[] name = slotNameList.get(slots[j]);
+						attrSlotIndex.put(state, name[0], name[1], slots[j]);
+					}
+				}
+			}
+
+			// Remember every state a limited rule needs to be removed from
+			for (int i = 0; i < indexes.length; i++) {
+				int[] states = ruleStates[indexes[i]];
+
+				if (states != null) {
+					int[] newStates = new int[states.length + 1];
+					System.arraycopy(states, 0, newStates, 0, states.length);
+					newStates[states.length] = state;
+					ruleStates[indexes[i]] = newStates;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a copy of the given table to count matches in for a single
+	 * parse.
+	 */
+	private RuleTable(RuleTable<T> table) {
+		rules = table.rules;
+		matchLimits = table.matchLimits;
+		ruleStates = table.ruleStates;
+		limitedRuleCount = table.limitedRuleCount;
+
+		tagRules = table.tagRules.clone();
+		attrRules = table.attrRules.clone();
+		charRules = table.charRules.clone();
+
+		tagRuleIndexes = table.tagRuleIndexes.clone();
+		attrRuleIndexes = table.attrRuleIndexes.clone();
+		charRuleIndexes = table.charRuleIndexes.clone();
+
+		attrSlotCount = table.attrSlotCount;
+		ruleAttrSlots = table.ruleAttrSlots;
+		attrSlots = table.attrSlots.clone();
+		attrSlotIndex = table.attrSlotIndex;
+
+		matchesLeft = matchLimits.clone();
+		limitedRulesLeft = limitedRuleCount;
+	}
+
+	/**
+	 * Used to get the table a single parse should dispatch its events through.
+	 * 
+	 * @return this table if none of the rules has a match limit, otherwise a
+	 *         new copy of this table to count matches in.
+	 */
+	RuleTable<T> forParse() {
+		return (limitedRuleCount == 0 ? this : new RuleTable<T>(this));
+	}
+
+	/**
+	 * @return the {@link Type#TAG} rules matching the state or
+	 *         <code>null</code> if there are none.
+	 */
+	IRule<T>[] getTagRules(int state) {
+		return (state == PathAutomaton.NO_STATE ? null : tagRules[state]);
+	}
+
+	/**
+	 * @return the {@link Type#ATTRIBUTE} rules matching the state or
+	 *         <code>null</code> if there are none.
+	 */
+	IRule<T>[] getAttributeRules(int state) {
+		return (state == PathAutomaton.NO_STATE ? null : attrRules[state]);
+	}
+
+	/**
+	 * @return the {@link Type#CHARACTER} rules matching the state or
+	 *         <code>null</code> if there are none.
+	 */
+	IRule<T>[] getCharacterRules(int state) {
+		return (state == PathAutomaton.NO_STATE ? null : charRules[state]);
+	}
+
+	/**
+	 * Used to get the attribute slots of every {@link Type#ATTRIBUTE} rule
+	 * matching the given state.
+	 * 
+	 * @return an array parallel to {@link #getAttributeRules(int)} holding,
+	 *         for every rule, an array parallel to
+	 *         {@link IRule#getAttributeNames()} holding the slot of each
+	 *         attribute name.
+	 */
+	int[][] getAttributeSlots(int state) {
+		return (state == PathAutomaton.NO_STATE ? null : attrSlots[state]);
+	}
+
+	/**
+	 * Used to get the slot the value of an attribute with the given name is
+	 * collected in while in the given state.
+	 * 
+	 * @param state
+	 *            The state of the element the attribute belongs to.
+	 * @param namespaceURI
+	 *            The namespace URI of the attribute or an empty {@link String}
+	 *            if the attribute is not namespace-qualified.
+	 * @param localName
+	 *            The local name of the attribute.
+	 * 
+	 * @return the slot of the attribute or {@link NameIndex#NOT_FOUND} if no
+	 *         rule matching the state is interested in it.
+	 */
+	int getAttributeSlot(int state, String namespaceURI, String localName) {
+		return attrSlotIndex.get(state, namespaceURI, localName);
+	}
+
+	/**
+	 * @return the total number of distinct attribute slots; slots are
+	 *         numbered from 0 up to (but not including) this number.
+	 */
+	int getAttributeSlotCount() {
+		return attrSlotCount;
+	}
+
+	int getLimitedRuleCount() {
+		return limitedRuleCount;
+	}
+
+	/**
+	 * @return a copy of the number of matches each rule has left in a table
+	 *         counting matches (<code>0</code> for unlimited rules and rules
+	 *         that have reached their limit), or <code>null</code> if this
+	 *         table isn't counting matches.
+	 */
+	int[] getMatchesLeft() {
+		return (matchesLeft == null ? null : matchesLeft.clone());
+	}
+
+	/**
+	 * Used to pick up counting matches where another parse with the same
+	 * rules left off, removing every rule that had reached its limit.
+	 * 
+	 * @param matchesLeft
+	 *            The counts returned by {@link #getMatchesLeft()}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the counts weren't taken from a table with the same
+	 *             rules.
+	 */
+	void setMatchesLeft(int[] matchesLeft) throws IllegalArgumentException {
+		boolean counting = (this.matchesLeft != null);
+
+		if (counting != (matchesLeft != null)
+				|| (counting && matchesLeft.length != rules.length))
+			throw new IllegalArgumentException(
+					"matchesLeft was not taken from a table with the same rules.");
+		if (!counting)
+			return;
+
+		for (int i = 0; i < matchesLeft.length; i++) {
+			if (matchLimits[i] == 0)
+				continue;
+
+			this.matchesLeft[i] = matchesLeft[i];
+
+			if (matchesLeft[i] == 0)
+				remove(i);
+		}
+	}
+
+	/**
+	 * Used to count a single match for every rule of the given type matching
+	 * the given state, removing any rule that reaches its limit from the
+	 * table.
+	 * <p/>
+	 * This is a no-op on a table that isn't counting matches.
+	 * 
+	 * @param state
+	 *            The state the rules were matched in.
+	 * @param type
+	 *            The type of the rules that were matched.
+	 * 
+	 * @return <code>true</code> if every rule in the table has a limit and all
+	 *         of them have now been reached, otherwise <code>false</code>.
+	 */
+	boolean countMatches(int state, Type type) {
+		if (matchesLeft == null || state == PathAutomaton.NO_STATE)
+			return false;
+
+		int[] indexes = getIndexes(type)[state];
+
+		if (indexes == null)
+			return false;
+
+		for (int i = 0; i < indexes.length; i++) {
+			int ruleIndex = indexes[i];
+
+			if (matchesLeft[ruleIndex] > 0 && --matchesLeft[ruleIndex] == 0)
+				remove(ruleIndex);
+		}
+
+		return (limitedRulesLeft == 0 && limitedRuleCount == rules.length);
+	}
+
+	/**
+	 * Used to remove the rule at the given index from every state it matches.
+	 * The per-state arrays are replaced, never modified, so any caller still
+	 * iterating over one of them is unaffected.
+	 */
+	private void remove(int ruleIndex) {
+		Type type = rules[ruleIndex].getType();
+		IRule<T>[][] ruleTable = getRules(type);
+		int[][] indexTable = getIndexes(type);
+		int[] states = ruleStates[ruleIndex];
+
+		for (int i = 0; i < states.length; i++) {
+			int state = states[i];
+			int[] indexes = filter(indexTable[state], type, ruleIndex);
+
+			indexTable[state] = indexes;
+			ruleTable[state] = toRules(indexes);
+
+			if (type == Type.ATTRIBUTE)
+				attrSlots[state] = toSlots(indexes);
+		}
+
+		limitedRulesLeft--;
+
+		if (XMLParser.DEBUG)
+			XMLParser.log("\tMatch limit reached, removed rule: %s",
+					rules[ruleIndex]);
+	}
+
+	private IRule<T>[][] getRules(Type type) {
+		switch (type) {
+		case TAG:
+			return tagRules;
+
+		case ATTRIBUTE:
+			return attrRules;
+
+		default:
+			return charRules;
+		}
+	}
+
+	private int[][] getIndexes(Type type) {
+		switch (type) {
+		case TAG:
+			return tagRuleIndexes;
+
+		case ATTRIBUTE:
+			return attrRuleIndexes;
+
+		default:
+			return charRuleIndexes;
+		}
+	}
+
+	/**
+	 * Used to get the indexes of the given type, minus the excluded index.
+	 * 
+	 * @return the filtered indexes or <code>null</code> if none are left.
+	 */
+	private int[] filter(int[] indexes, Type type, int excludedIndex) {
+		if (indexes == null)
+			return null;
+
+		int[] result = new int[indexes.length];
+		int count = 0;
+
+		for (int i = 0; i < indexes.length; i++) {
+			int ruleIndex = indexes[i];
+
+			if (ruleIndex != excludedIndex
+					&& rules[ruleIndex].getType() == type)
+				result[count++] = ruleIndex;
+		}
+
+		if (count == 0)
+			return null;
+		if (count < result.length) {
+			int[] trimmed = new int[count];
+			System.arraycopy(result, 0, trimmed, 0, count);
+			result = trimmed;
+		}
+
+		return result;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private IRule<T>[] toRules(int[] indexes) {
+		if (indexes == null)
+			return null;
+
+		IRule<T>[] result = new IRule[indexes.length];
+
+		for (int i = 0; i < indexes.length; i++)
+			result[i] = rules[indexes[i]];
+
+		return result;
+	}
+
+	private int[][] toSlots(int[] indexes) {
+		if (indexes == null)
+			return null;
+
+		int[][] result = new int[indexes.length][];
+
+		for (int i = 0; i < indexes.length; i++)
+			result[i] = ruleAttrSlots[indexes[i]];
+
+		return result;
+	}
+
+	/**
+	 * Used to parse an attribute name (e.g. "about" or
+	 * "[http://www.w3.org/1999/02/22-rdf-syntax-ns#]about") into its namespace
+	 * URI (or an empty {@link String}) and local name.
+	 * 
+	 * @throws XMLParserException
+	 *             if the attribute name is malformed.
+	 */
+	private static String[] parseAttributeName(String attrName, IRule<?> rule)
+			throws XMLParserException {
+		String namespaceURI = "";
+		int startIndex = 0;
+
+		// Parse the namespaceURI out of the name if necessary
+		if (attrName != null && attrName.length() > 0
+				&& attrName.charAt(0) == '[') {
+			int endIndex = attrName.indexOf(']');
+
+			if (endIndex <= 1)
+				throw new XMLParserException(
+						"namespace URI for rule looks to be incomplete or empty for IRule: "
+								+ rule);
+
+			namespaceURI = attrName.substring(1, endIndex);
+			startIndex = endIndex + 1;
+		}
+
+		if (attrName == null || attrName.length() <= startIndex)
+			throw new XMLParserException(
+					"local name for rule looks to be missing for IRule: "
+							+ rule);
+
+		return new String[] { namespaceURI, attrName.substring(startIndex) };
+	}
+}
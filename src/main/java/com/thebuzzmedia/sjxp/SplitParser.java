@@ -0,0 +1,559 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to parse a single large XML document in parallel by splitting it
+ * at the boundaries of a repeating "record" element.
+ * <p/>
+ * Many large documents are little more than a very long list of independent
+ * records, for example every <code>&lt;e&gt;</code> entry of
+ * <code>/dictionary/e</code> or every <code>&lt;item&gt;</code> of
+ * <code>/rss/channel/item</code>. Given the path to the record element, this
+ * class:
+ * <ol>
+ * <li>Scans the raw bytes of the document on the calling thread for the start
+ * and end of every record. Scanning only tracks element nesting and is much
+ * cheaper than parsing.</li>
+ * <li>Groups consecutive records into chunks of roughly <code>chunkSize</code>
+ * bytes.</li>
+ * <li>Turns every chunk into a small standalone document made out of the
+ * original document's prolog, the original start tags of the records'
+ * ancestors (so every namespace declaration and attribute they carry is still
+ * in scope), the records themselves and the matching end tags.</li>
+ * <li>Parses the chunks on the given {@link ExecutorService} while the scan
+ * continues, with at most <code>maxInFlight</code> of them in memory and
+ * submitted at any time.</li>
+ * </ol>
+ * Every chunk is parsed with its own user object created by an
+ * {@link IUserObjectFactory}; those user objects are returned in document
+ * order, so results collected in them can be put back together in the order
+ * they appeared in the document.
+ * <h3>Limitations</h3>
+ * <ul>
+ * <li>The record path is a plain path of qualified element names exactly as
+ * they appear in the document (e.g. <code>/feed/entry</code> or
+ * <code>/rdf:RDF/item</code>); it does not support wildcards or namespace
+ * URIs.</li>
+ * <li>Only the records (and anything between two records of the same chunk)
+ * are parsed. {@link IRule}s should therefore match the record element or
+ * something inside of it; rules matching an ancestor see that ancestor once
+ * per chunk, and content outside of the records is never seen.</li>
+ * <li>Match limits (see {@link com.thebuzzmedia.sjxp.rule.ILimitedRule})
+ * would only count within a single chunk, so rules with a limit are not
+ * allowed.</li>
+ * <li>The document must be in an ASCII-compatible encoding such as UTF-8,
+ * US-ASCII or ISO-8859-1.</li>
+ * </ul>
+ * <h3>Thread Safety</h3>
+ * This class is thread-safe. The {@link IRule}s are called from many threads
+ * at once, so they must be thread-safe themselves; the user objects are only
+ * ever used by the thread parsing their chunk.
+ * 
+ * @param <T>
+ *            The class type of the user objects created for every chunk and
+ *            passed through to the handlers of the {@link IRule}s.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class SplitParser<T> {
+	/**
+	 * The default number of bytes a chunk is made of: 1MB.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1048576;
+
+	/**
+	 * The largest standalone document a chunk can be turned into, the size of
+	 * the largest <code>byte[]</code> every VM can allocate.
+	 */
+	static final int MAX_DOCUMENT_LENGTH = Integer.MAX_VALUE - 8;
+
+	private String recordPath;
+	private byte[][] steps;
+	private XMLParserPool<T> pool;
+	private ExecutorService executor;
+	private int chunkSize;
+	private int maxInFlight;
+
+	/**
+	 * Create a new split parser using chunks of {@link #DEFAULT_CHUNK_SIZE}
+	 * bytes and at most twice as many chunks in flight as there are
+	 * processors.
+	 * 
+	 * @see #SplitParser(RuleSet, String, ExecutorService, int, int)
+	 */
+	public SplitParser(RuleSet<T> ruleSet, String recordPath,
+			ExecutorService executor) throws IllegalArgumentException {
+		this(ruleSet, recordPath, executor, DEFAULT_CHUNK_SIZE, Runtime
+				.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * Create a new split parser.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules applied to every chunk.
+	 * @param recordPath
+	 *            The path of the record element the document is split at, for
+	 *            example "/dictionary/e".
+	 * @param executor
+	 *            The executor the chunks are parsed on.
+	 * @param chunkSize
+	 *            The number of bytes after which no more records are added to
+	 *            a chunk.
+	 * @param maxInFlight
+	 *            The maximum number of chunks submitted to the executor at the
+	 *            same time.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code>, <code>recordPath</code> or
+	 *             <code>executor</code> are <code>null</code>, if
+	 *             <code>recordPath</code> is not a plain path of element names,
+	 *             if any of the rules has a match limit or if
+	 *             <code>chunkSize</code> or <code>maxInFlight</code> are &lt;
+	 *             1.
+	 */
+	public SplitParser(RuleSet<T> ruleSet, String recordPath,
+			ExecutorService executor, int chunkSize, int maxInFlight)
+			throws IllegalArgumentException {
+		if (ruleSet == null)
+			throw new IllegalArgumentException("ruleSet cannot be null");
+		if (ruleSet.getAutomaton().getRuleTable().getLimitedRuleCount() > 0)
+			throw new IllegalArgumentException(
+					"ruleSet cannot contain rules with a match limit, every chunk would be limited separately");
+		if (executor == null)
+			throw new IllegalArgumentException("executor cannot be null");
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize [" + chunkSize
+					+ "] must be >= 1");
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight [" + maxInFlight
+					+ "] must be >= 1");
+
+		this.recordPath = recordPath;
+		this.steps = parseRecordPath(recordPath);
+		this.pool = new XMLParserPool<T>(ruleSet, maxInFlight);
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the split
+	 * parser for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the split parser for easy
+	 *         debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[recordPath=" + recordPath
+				+ ", chunkSize=" + chunkSize + ", maxInFlight=" + maxInFlight
+				+ ", pool=" + pool + "]";
+	}
+
+	/**
+	 * @return the path of the record element the document is split at.
+	 */
+	public String getRecordPath() {
+		return recordPath;
+	}
+
+	/**
+	 * Parse the XML document held in the given bytes.
+	 * 
+	 * @param data
+	 *            The document.
+	 * @param factory
+	 *            The factory used to create the user object of every chunk.
+	 * 
+	 * @return the user objects of every chunk, in document order.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>data</code> or <code>factory</code> is
+	 *             <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the document cannot be split or any of its chunks fails
+	 *             to parse. The exception of the first chunk (in document
+	 *             order) that failed is reported.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting for the
+	 *             chunks to be parsed.
+	 */
+	public List<T> parse(final byte[] data, IUserObjectFactory<T> factory)
+			throws IllegalArgumentException, XMLParserException,
+			InterruptedException {
+		if (data == null)
+			throw new IllegalArgumentException("data cannot be null");
+
+		try {
+			return parse(new ByteArrayInputStream(data), new RangeReader() {
+				public void read(long position, byte[] buffer, int offset,
+						int length) {
+					System.arraycopy(data, (int) position, buffer, offset,
+							length);
+				}
+			}, factory);
+		} catch (IOException e) {
+			// This should never happen with an in-memory document.
+			throw new XMLParserException(
+					"An unexpected exception occurred while reading an in-memory document.",
+					e);
+		}
+	}
+
+	/**
+	 * Parse the XML document in the given file. The file can be of any size;
+	 * it is read once, sequentially, to find the records, and then every
+	 * chunk is read again by the thread parsing it.
+	 * 
+	 * @param file
+	 *            The document.
+	 * @param factory
+	 *            The factory used to create the user object of every chunk.
+	 * 
+	 * @return the user objects of every chunk, in document order.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> or <code>factory</code> is
+	 *             <code>null</code> or if a chunk would be larger than
+	 *             {@link #MAX_DOCUMENT_LENGTH} bytes, which only happens when
+	 *             a single record (or <code>chunkSize</code> plus the record
+	 *             ending a chunk) is that large.
+	 * @throws XMLParserException
+	 *             if the file cannot be read, the document cannot be split or
+	 *             any of its chunks fails to parse. The exception of the first
+	 *             chunk (in document order) that failed is reported.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting for the
+	 *             chunks to be parsed.
+	 */
+	public List<T> parse(File file, IUserObjectFactory<T> factory)
+			throws IllegalArgumentException, XMLParserException,
+			InterruptedException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		InputStream in = null;
+		RandomAccessFile randomAccessFile = null;
+
+		try {
+			in = new BufferedInputStream(new FileInputStream(file), 65536);
+			randomAccessFile = new RandomAccessFile(file, "r");
+			final FileChannel channel = randomAccessFile.getChannel();
+
+			return parse(in, new RangeReader() {
+				public void read(long position, byte[] buffer, int offset,
+						int length) throws IOException {
+					ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+
+					// Positional reads are safe from any number of threads
+					while (target.hasRemaining()) {
+						if (channel.read(target, position + target.position()
+								- offset) == -1)
+							throw new EOFException("File ended while reading ["
+									+ length + "] bytes at offset [" + position
+									+ "]");
+					}
+				}
+			}, factory);
+		} catch (IOException e) {
+			throw new XMLParserException("Unable to read the file ["
+					+ file.getPath() + "].", e);
+		} finally {
+			close(in);
+			close(randomAccessFile);
+		}
+	}
+
+	/**
+	 * Used to scan the document read from the given stream and parse every
+	 * chunk found, reading the chunks back with the given reader.
+	 */
+	private List<T> parse(InputStream in, final RangeReader reader,
+			final IUserObjectFactory<T> factory) throws IOException,
+			XMLParserException, InterruptedException {
+		if (factory == null)
+			throw new IllegalArgumentException("factory cannot be null");
+
+		if (XMLParser.DEBUG)
+			XMLParser.log("Splitting document at [%s] starting...", recordPath);
+
+		long startTime = System.currentTimeMillis();
+		final Semaphore permits = new Semaphore(maxInFlight);
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		final List<T> userObjects = new ArrayList<T>();
+		boolean complete = false;
+
+		try {
+			new RecordScanner(steps, chunkSize) {
+				@Override
+				protected void handleChunk(byte[] prolog,
+						byte[][] ancestorTags, long start, long end)
+						throws InterruptedException {
+					// Fail before waiting on, or reading, a chunk too large
+					getDocumentLength(prolog, ancestorTags, start, end);
+
+					T userObject = factory.newUserObject(userObjects.size());
+					userObjects.add(userObject);
+
+					// Wait for a chunk to finish before submitting another
+					permits.acquire();
+
+					try {
+						futures.add(executor.submit(new ChunkTask(reader,
+								prolog, ancestorTags, start, end, userObject,
+								permits)));
+					} catch (RejectedExecutionException e) {
+						permits.release();
+						throw e;
+					}
+				}
+			}.scan(in);
+
+			XMLParserException exception = null;
+
+			for (int i = 0, size = futures.size(); i < size; i++) {
+				XMLParserException chunkException = getException(futures
+						.get(i));
+
+				if (exception == null && chunkException != null)
+					exception = new XMLParserException(
+							"An exception occurred while parsing chunk " + i
+									+ " of the records at [" + recordPath
+									+ "].", chunkException);
+			}
+
+			complete = true;
+
+			if (exception != null)
+				throw exception;
+		} finally {
+			// Only true if we are leaving early, cancel what's left
+			if (!complete) {
+				for (int i = 0, size = futures.size(); i < size; i++)
+					futures.get(i).cancel(true);
+			}
+		}
+
+		if (XMLParser.DEBUG)
+			XMLParser.log("Split parse COMPLETE, %d chunks, elapsed time: %dms",
+					userObjects.size(), System.currentTimeMillis() - startTime);
+
+		return userObjects;
+	}
+
+	/**
+	 * Used to wait for a single chunk to be parsed.
+	 * 
+	 * @return the reason the chunk failed or <code>null</code> if it was
+	 *         parsed successfully.
+	 */
+	private static XMLParserException getException(Future<Object> future)
+			throws InterruptedException {
+		try {
+			future.get();
+			return null;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof XMLParserException)
+				return (XMLParserException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+
+			return new XMLParserException(
+					"An exception occurred while parsing a chunk.",
+					(Exception) cause);
+		}
+	}
+
+	/**
+	 * Used to parse the given record path into the names of its steps,
+	 * encoded as UTF-8 (which every ASCII-compatible encoding agrees with for
+	 * plain ASCII names).
+	 */
+	private static byte[][] parseRecordPath(String recordPath)
+			throws IllegalArgumentException {
+		if (recordPath == null || recordPath.length() < 2
+				|| recordPath.charAt(0) != '/' || recordPath.endsWith("/"))
+			throw new IllegalArgumentException("recordPath [" + recordPath
+					+ "] must be a path of element names starting with '/'");
+
+		String[] names = recordPath.substring(1).split("/", -1);
+		byte[][] steps = new byte[names.length][];
+
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+
+			if (name.length() == 0 || name.indexOf('*') != -1
+					|| name.indexOf('[') != -1)
+				throw new IllegalArgumentException(
+						"recordPath ["
+								+ recordPath
+								+ "] must be a plain path of element names, wildcards and namespace URIs are not supported");
+
+			try {
+				steps[i] = name.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				// no-op, UTF-8 is always supported.
+			}
+		}
+
+		return steps;
+	}
+
+	/**
+	 * Used to get the length of the standalone document built for a chunk:
+	 * prolog, ancestor start tags, the records and the ancestor end tags.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the document would be larger than
+	 *             {@link #MAX_DOCUMENT_LENGTH} bytes.
+	 */
+	int getDocumentLength(byte[] prolog, byte[][] ancestorTags, long start,
+			long end) throws IllegalArgumentException {
+		long length = prolog.length + (end - start);
+
+		for (int i = 0; i < ancestorTags.length; i++)
+			length += ancestorTags[i].length + steps[i].length + 3;
+
+		if (length > MAX_DOCUMENT_LENGTH)
+			throw new IllegalArgumentException("The chunk of records at ["
+					+ recordPath + "] between byte offsets [" + start
+					+ "] and [" + end + "] is [" + length
+					+ "] bytes long, more than the [" + MAX_DOCUMENT_LENGTH
+					+ "] bytes a single chunk can be parsed from.");
+
+		return (int) length;
+	}
+
+	/**
+	 * Used to quietly close the given resource, if it was opened.
+	 */
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// no-op, nothing left to read.
+			}
+		}
+	}
+
+	/**
+	 * Interface used to read a range of bytes of the document back from any
+	 * thread.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	interface RangeReader {
+		public void read(long position, byte[] buffer, int offset, int length)
+				throws IOException;
+	}
+
+	/**
+	 * Task used to build the standalone document of a single chunk and parse
+	 * it on one of the executor's threads.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	class ChunkTask implements Callable<Object> {
+		private RangeReader reader;
+		private byte[] prolog;
+		private byte[][] ancestorTags;
+		private long start;
+		private long end;
+		private T userObject;
+		private Semaphore permits;
+
+		public ChunkTask(RangeReader reader, byte[] prolog,
+				byte[][] ancestorTags, long start, long end, T userObject,
+				Semaphore permits) {
+			this.reader = reader;
+			this.prolog = prolog;
+			this.ancestorTags = ancestorTags;
+			this.start = start;
+			this.end = end;
+			this.userObject = userObject;
+			this.permits = permits;
+		}
+
+		public Object call() throws IOException {
+			try {
+				pool.parse(new ByteArrayInputStream(toDocument()), userObject);
+			} finally {
+				permits.release();
+			}
+
+			return null;
+		}
+
+		/**
+		 * Used to build the standalone document: prolog, ancestor start tags,
+		 * the records and the ancestor end tags.
+		 */
+		private byte[] toDocument() throws IOException {
+			byte[] document = new byte[getDocumentLength(prolog,
+					ancestorTags, start, end)];
+			int offset = prolog.length;
+			System.arraycopy(prolog, 0, document, 0, offset);
+
+			for (int i = 0; i < ancestorTags.length; i++) {
+				System.arraycopy(ancestorTags[i], 0, document, offset,
+						ancestorTags[i].length);
+				offset += ancestorTags[i].length;
+			}
+
+			reader.read(start, document, offset, (int) (end - start));
+			offset += (int) (end - start);
+
+			for (int i = ancestorTags.length - 1; i >= 0; i--) {
+				document[offset++] = '<';
+				document[offset++] = '/';
+				System.arraycopy(steps[i], 0, document, offset,
+						steps[i].length);
+				offset += steps[i].length;
+				document[offset++] = '>';
+			}
+
+			return document;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Class used to assign every distinct string of a {@link ColumnBatch} column
+ * an <code>int</code> code, in the order the strings are first seen.
+ * <p/>
+ * This is a purpose-built open-addressing hash table using linear probing,
+ * keyed straight off the parser's <code>char[]</code> buffer: a string that
+ * is already in the dictionary is found by comparing characters, so only the
+ * first occurrence of every value ever becomes a {@link String}.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+class StringDictionary {
+	private int size;
+	private int mask;
+
+	/**
+	 * The codes of the entries by slot, offset by 1 so 0 marks an empty slot.
+	 */
+	private int[] slots;
+	private int[] hashes;
+	private String[] values;
+
+	StringDictionary() {
+		slots = new int[16];
+		mask = slots.length - 1;
+		hashes = new int[8];
+		values = new String[8];
+	}
+
+	/**
+	 * Used to get the number of distinct strings in the dictionary.
+	 * 
+	 * @return the number of distinct strings in the dictionary.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Used to get the strings of the dictionary by code.
+	 * 
+	 * @return the strings of the dictionary, valid up to {@link #size()}.
+	 */
+	String[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Used to get the code of the given characters, adding them to the
+	 * dictionary if they were never seen before.
+	 * 
+	 * @param buffer
+	 *            The buffer holding the characters.
+	 * @param start
+	 *            The index of the first character.
+	 * @param length
+	 *            The number of characters.
+	 * 
+	 * @return the code of the string.
+	 */
+	int add(char[] buffer, int start, int length) {
+		int hash = 0;
+
+		for (int i = start, end = start + length; i < end; i++)
+			hash = 31 * hash + buffer[i];
+
+		int slot = spread(hash) & mask;
+
+		for (int code; (code = slots[slot] - 1) != -1; slot = (slot + 1) & mask) {
+			if (hashes[code] == hash && equals(values[code], buffer, start,
+					length))
+				return code;
+		}
+
+		return insert(slot, hash, new String(buffer, start, length));
+	}
+
+	/**
+	 * Used to get the code of the given string, adding it to the dictionary if
+	 * it was never seen before.
+	 * 
+	 * @param value
+	 *            The string.
+	 * 
+	 * @return the code of the string.
+	 */
+	int add(String value) {
+		// Same hash as the char[] version, String.hashCode is defined that way
+		int hash = value.hashCode();
+		int slot = spread(hash) & mask;
+
+		for (int code; (code = slots[slot] - 1) != -1; slot = (slot + 1) & mask) {
+			if (hashes[code] == hash && values[code].equals(value))
+				return code;
+		}
+
+		return insert(slot, hash, value);
+	}
+
+	private int insert(int slot, int hash, String value) {
+		if (size == values.length) {
+			String[] newValues = new String[size * 2];
+			int[] newHashes = new int[size * 2];
+			System.arraycopy(values, 0, newValues, 0, size);
+			System.arraycopy(hashes, 0, newHashes, 0, size);
+			values = newValues;
+			hashes = newHashes;
+		}
+
+		int code = size++;
+		values[code] = value;
+		hashes[code] = hash;
+		slots[slot] = code + 1;
+
+		// Keep the load factor at or below 50% so probe chains stay short
+		if (size * 2 > slots.length)
+			rehash();
+
+		return code;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		mask = slots.length - 1;
+
+		for (int code = 0; code < size; code++) {
+			int slot = spread(hashes[code]) & mask;
+
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			slots[slot] = code + 1;
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(String value, char[] buffer, int start,
+			int length) {
+		if (value.length() != length)
+			return false;
+
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) != buffer[start + i])
+				return false;
+		}
+
+		return true;
+	}
+}
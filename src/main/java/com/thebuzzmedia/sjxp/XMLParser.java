@@ -15,19 +15,22 @@
  */
 package com.thebuzzmedia.sjxp;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import com.thebuzzmedia.sjxp.XMLParserAbortedException.Reason;
+import com.thebuzzmedia.sjxp.rule.ICharacterBufferRule;
+import com.thebuzzmedia.sjxp.rule.ILimitedRule;
 import com.thebuzzmedia.sjxp.rule.IRule;
 import com.thebuzzmedia.sjxp.rule.IRule.Type;
 
@@ -38,6 +41,12 @@ import com.thebuzzmedia.sjxp.rule.IRule.Type;
  * <h3>Thread Safety</h3> This class is not thread-safe, however instances of
  * {@link XMLParser} can safely be re-used to parse multiple files once the
  * previous parse operation is done.
+ * <p/>
+ * To parse on multiple threads at once, compile the {@link IRule}s into a
+ * {@link RuleSet} once and give every thread its own parser created with
+ * {@link #XMLParser(RuleSet)}. The compiled rules are shared by all of the
+ * parsers, each parser only holds the state of the document it is parsing,
+ * so creating one per thread (or per document) is cheap.
  * 
  * @param <T>
  *            The class type of any user-supplied object that the caller wishes
@@ -110,6 +119,83 @@ public class XMLParser<T> {
 	public static final Boolean ENABLE_VALIDATION = Boolean
 			.getBoolean("sjxp.validation");
 
+	/**
+	 * Flag used to indicate if this parser should skip over the entire subtree
+	 * of any element that no {@link IRule} can possibly match (neither the
+	 * element itself nor anything below it) by setting the "sjxp.skipping"
+	 * system property to <code>true</code>. This value will be
+	 * <code>true</code> if the "sjxp.skipping" system property is undefined.
+	 * Skipping can only be disabled by setting this system property to
+	 * <code>false</code>.
+	 * <p/>
+	 * When an element is skipped, the parser still reports its START_TAG and
+	 * END_TAG to {@link #doStartTag(Object)} and {@link #doEndTag(Object)},
+	 * but drains everything in between straight out of the underlying
+	 * {@link XmlPullParser} without updating its location or consulting any
+	 * rules. You only need to disable this if you have subclassed
+	 * {@link XMLParser} and need to see every event in the document.
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dsjxp.skipping=false
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded.
+	 * <p/>
+	 * This is <code>true</code> by default.
+	 */
+	public static final Boolean ENABLE_SKIPPING = (System
+			.getProperty("sjxp.skipping") == null ? Boolean.TRUE : Boolean
+			.getBoolean("sjxp.skipping"));
+
+	/**
+	 * Flag used to indicate if new parsers should tokenize documents with
+	 * SJXP's own byte-level tokenizer instead of the pull parser from the
+	 * {@link #XPP_FACTORY} by setting the "sjxp.nativeTokenizer" system
+	 * property to <code>true</code>. This value will be <code>false</code> if
+	 * the "sjxp.nativeTokenizer" system property is undefined or set to
+	 * <code>false</code>.
+	 * <p/>
+	 * The native tokenizer works directly on the bytes of the document
+	 * instead of decoding all of it into chars first: element names are
+	 * matched against the rule paths by their bytes and text or attribute
+	 * values are only decoded when an {@link IRule} asks for them. On
+	 * ASCII-heavy documents, where most of the content is never handed to a
+	 * rule, this saves most of the parsing time.
+	 * <p/>
+	 * <strong>NOTE</strong>: Only documents encoded in UTF-8, US-ASCII or
+	 * ISO-8859-1 can be tokenized natively (anything else fails with an
+	 * {@link XMLParserException}), DTDs are skipped instead of being
+	 * processed (only the predefined entities are supported) and
+	 * {@link #ENABLE_VALIDATION} is ignored.
+	 * <p/>
+	 * The native tokenizer doesn't check well-formedness exactly like XPP3
+	 * does, so the two backends don't reject the same documents. It is
+	 * stricter in a few places XPP3 lets slip (e.g. missing whitespace
+	 * between attributes, a DOCTYPE after the root element), but looser in
+	 * others:
+	 * <ul>
+	 * <li>Names are only checked against the ASCII part of the XML name
+	 * characters, any non-ASCII character is accepted in a name.</li>
+	 * <li>Entity and character references are only checked when the text or
+	 * attribute value containing them is decoded, so a bad reference in
+	 * content no {@link IRule} asks for goes unnoticed.</li>
+	 * <li>The inside of a DOCTYPE is skipped without being checked.</li>
+	 * <li>Any <code>1.x</code> version is accepted in the XML declaration,
+	 * not just <code>1.0</code>.</li>
+	 * </ul>
+	 * <p/>
+	 * This system property can be set on startup with:<br/>
+	 * <code>
+	 * -Dsjxp.nativeTokenizer=true
+	 * </code> or by calling {@link System#setProperty(String, String)} before
+	 * this class is loaded. A single parser can also be created with either
+	 * tokenizer using {@link #XMLParser(RuleSet, boolean)}.
+	 * <p/>
+	 * This is <code>false</code> by default.
+	 */
+	public static final Boolean ENABLE_NATIVE_TOKENIZER = Boolean
+			.getBoolean("sjxp.nativeTokenizer");
+
 	/**
 	 * Prefix to every log message this library logs. Using a well-defined
 	 * prefix helps make it easier both visually and programmatically to scan
@@ -144,8 +230,9 @@ public class XMLParser<T> {
 					ENABLE_VALIDATION);
 
 			if (DEBUG)
-				log("XmlPullParserFactory configured [namespaces=%s, validation=%s]",
-						ENABLE_NAMESPACES, ENABLE_VALIDATION);
+				log("XmlPullParserFactory configured [namespaces=%s, validation=%s, skipping=%s, nativeTokenizer=%s]",
+						ENABLE_NAMESPACES, ENABLE_VALIDATION, ENABLE_SKIPPING,
+						ENABLE_NATIVE_TOKENIZER);
 		} catch (XmlPullParserException e) {
 			throw new RuntimeException(
 					"An exception occurred while calling XmlPullParserFactory.newInstance(). A library providing the impl of the XML Pull Parser spec (e.g. XPP3 or Android SDK) must be available at runtime.",
@@ -183,15 +270,39 @@ public class XMLParser<T> {
 			System.out.printf(LOG_MESSAGE_PREFIX + message + '\n', params);
 	}
 
+	/**
+	 * The number of parse events between two checks of the clock against the
+	 * timeout of a parse; reading the clock on every event would be far more
+	 * expensive than the event itself.
+	 */
+	private static final int TIMEOUT_CHECK_INTERVAL = 64;
+
 	private String toStringCache;
-	private boolean continueParsing = true;
+	private volatile boolean continueParsing = true;
+	private int skipDepth;
+
+	private CancellationToken cancellationToken;
+	private long timeout;
+	private long maxBytes;
+	private long maxEvents;
+
+	private boolean limited;
+	private long deadline;
+	private long byteCount;
+	private long eventCount;
 
 	private Location location;
 	private XmlPullParser xpp;
+	private ByteTokenizer tokenizer;
+
+	private RuleSet<T> ruleSet;
+	private PathAutomaton<T> automaton;
+	private RuleTable<T> ruleTable;
+	private String[] attrValues;
+	private int[] textBounds = new int[2];
 
-	private Map<Integer, List<IRule<T>>> tagRuleMap;
-	private Map<Integer, List<IRule<T>>> attrRuleMap;
-	private Map<Integer, List<IRule<T>>> charRuleMap;
+	// The pool this parser is currently acquired from, guarded by this parser
+	XMLParserPool<T> checkedOutFrom;
 
 	/**
 	 * Create a new parser that uses the given {@link IRule}s when parsing any
@@ -212,18 +323,102 @@ public class XMLParser<T> {
 			throw new IllegalArgumentException(
 					"rules cannot be null or empty, you must provide at least 1 rule to execute otherwise parsing will do nothing.");
 
-		location = new Location();
-
-		try {
-			xpp = XPP_FACTORY.newPullParser();
-		} catch (XmlPullParserException e) {
-			throw new XMLParserException(
-					"An exception occurred while trying to create a new XmlPullParser instance using the XmlPullParserFactory.",
-					e);
-		}
+		initPullParser(newPullParser(ENABLE_NATIVE_TOKENIZER));
 
 		// Load all the rules
 		initRules(rules);
+
+		location = new Location();
+	}
+
+	/**
+	 * Create a new parser that uses the given, already compiled,
+	 * {@link RuleSet} when parsing any XML content.
+	 * <p/>
+	 * No rules are compiled, so this is much cheaper than
+	 * {@link #XMLParser(IRule...)}; the same {@link RuleSet} can be used to
+	 * create any number of parsers, for example one per thread.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules applied to any parsed content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception.
+	 */
+	public XMLParser(RuleSet<T> ruleSet) throws IllegalArgumentException,
+			XMLParserException {
+		this(ruleSet, newPullParser(ENABLE_NATIVE_TOKENIZER));
+	}
+
+	/**
+	 * Create a new parser that uses the given, already compiled,
+	 * {@link RuleSet} when parsing any XML content, tokenizing it with either
+	 * SJXP's own byte-level tokenizer or the pull parser from the
+	 * {@link #XPP_FACTORY}, regardless of {@link #ENABLE_NATIVE_TOKENIZER}.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules applied to any parsed content.
+	 * @param nativeTokenizer
+	 *            <code>true</code> to use the native tokenizer (see
+	 *            {@link #ENABLE_NATIVE_TOKENIZER} for its limitations), or
+	 *            <code>false</code> to use the {@link #XPP_FACTORY}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception.
+	 */
+	public XMLParser(RuleSet<T> ruleSet, boolean nativeTokenizer)
+			throws IllegalArgumentException, XMLParserException {
+		this(ruleSet, newPullParser(nativeTokenizer));
+	}
+
+	/**
+	 * Create a new parser that uses the given, already compiled,
+	 * {@link RuleSet} and reads events from the given {@link XmlPullParser}
+	 * instead of one created by the {@link #XPP_FACTORY}.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules applied to any parsed content.
+	 * @param xpp
+	 *            The pull parser events are read from.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code> is <code>null</code>.
+	 */
+	XMLParser(RuleSet<T> ruleSet, XmlPullParser xpp)
+			throws IllegalArgumentException {
+		if (ruleSet == null)
+			throw new IllegalArgumentException("ruleSet cannot be null");
+
+		initPullParser(xpp);
+
+		// Use the already compiled rules
+		initRuleSet(ruleSet);
+
+		location = new Location();
+	}
+
+	/**
+	 * Create a new parser without any rules, for subclasses that match the
+	 * location of the parser themselves (see {@link AbstractCompiledParser}).
+	 * Such a subclass must override every <code>doXXX</code> method and
+	 * {@link #isSkippable()}; none of the rule matching is set up.
+	 * 
+	 * @param nativeTokenizer
+	 *            <code>true</code> to use the native tokenizer, or
+	 *            <code>false</code> to use the {@link #XPP_FACTORY}.
+	 * 
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception.
+	 */
+	XMLParser(boolean nativeTokenizer) throws XMLParserException {
+		initPullParser(newPullParser(nativeTokenizer));
 	}
 
 	/**
@@ -241,13 +436,30 @@ public class XMLParser<T> {
 	@Override
 	public synchronized String toString() {
 		if (toStringCache == null) {
-			toStringCache = this.getClass().getName() + "[attributeRules="
-					+ attrRuleMap + ", characterRules=" + charRuleMap + "]";
+			toStringCache = this.getClass().getName() + "[states="
+					+ automaton.getStateCount() + ", tagRules="
+					+ automaton.getTagRuleCount() + ", attributeRules="
+					+ automaton.getAttributeRuleCount() + ", characterRules="
+					+ automaton.getCharacterRuleCount() + "]";
 		}
 
 		return toStringCache;
 	}
 
+	/**
+	 * Used to get the compiled rules this parser matches against. The result
+	 * can be used to create more parsers using the same rules without
+	 * compiling them again.
+	 * 
+	 * @return the compiled rules this parser matches against, or
+	 *         <code>null</code> for an {@link AbstractCompiledParser}.
+	 * 
+	 * @see #XMLParser(RuleSet)
+	 */
+	public RuleSet<T> getRuleSet() {
+		return ruleSet;
+	}
+
 	/**
 	 * Used to indicate to the parser that you would like it to stop parsing.
 	 * <p/>
@@ -260,11 +472,134 @@ public class XMLParser<T> {
 	 * {@link XmlPullParser} to stop working after it's done with its current
 	 * parse event and return from whichever <code>parse</code> method was
 	 * called.
+	 * <p/>
+	 * This method is also called automatically once every {@link IRule} is an
+	 * {@link ILimitedRule} that has reached its match limit.
+	 * <p/>
+	 * The flag is <code>volatile</code>, so this method can also be called
+	 * from any other thread; the parse stops at its next parse event. To
+	 * abort a parse from another thread, as opposed to simply ending it early,
+	 * use a {@link CancellationToken} instead.
 	 */
 	public void stop() {
 		continueParsing = false;
 	}
 
+	/**
+	 * Used to set the token that cancels the parses of this parser. Once the
+	 * token is cancelled, any parse running or started with it throws a
+	 * {@link XMLParserAbortedException} at its next parse event or read.
+	 * 
+	 * @param cancellationToken
+	 *            The token, or <code>null</code> for none.
+	 */
+	public void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * @return the token that cancels the parses of this parser, or
+	 *         <code>null</code> if there is none.
+	 */
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+
+	/**
+	 * Used to set the number of milliseconds every parse is allowed to run
+	 * for, measured from the call to one of the <code>parse</code> methods. A
+	 * parse running past it throws a {@link XMLParserAbortedException}.
+	 * <p/>
+	 * The clock is checked on every read from the stream being parsed and on
+	 * every 64th parse event, so a parse is aborted promptly however slowly its
+	 * stream delivers bytes; a read that blocks forever can't be interrupted
+	 * though, that needs a read timeout on the stream itself.
+	 * 
+	 * @param timeout
+	 *            The timeout in milliseconds, or <code>0</code> for none.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>timeout</code> is &lt; 0.
+	 */
+	public void setTimeout(long timeout) throws IllegalArgumentException {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout [" + timeout
+					+ "] must be >= 0");
+
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the number of milliseconds every parse is allowed to run for, or
+	 *         <code>0</code> if there is no timeout.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Used to set the maximum number of bytes every parse is allowed to read.
+	 * A parse reading more than that throws a
+	 * {@link XMLParserAbortedException} as soon as it has read them, before
+	 * it tokenizes them.
+	 * <p/>
+	 * Counting the bytes means the stream being parsed is read through a thin
+	 * wrapper, so while any limit is set a file given to
+	 * {@link #parse(FileChannel, Object)} is copied out of its mapped windows
+	 * like any other stream instead of being tokenized in place.
+	 * 
+	 * @param maxBytes
+	 *            The maximum number of bytes, or <code>0</code> for no
+	 *            maximum.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxBytes</code> is &lt; 0.
+	 */
+	public void setMaxBytes(long maxBytes) throws IllegalArgumentException {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("maxBytes [" + maxBytes
+					+ "] must be >= 0");
+
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the maximum number of bytes every parse is allowed to read, or
+	 *         <code>0</code> if there is no maximum.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Used to set the maximum number of parse events (start tags, text, end
+	 * tags) every parse is allowed to process, including the events of
+	 * skipped elements. A parse processing more than that throws a
+	 * {@link XMLParserAbortedException}.
+	 * 
+	 * @param maxEvents
+	 *            The maximum number of events, or <code>0</code> for no
+	 *            maximum.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>maxEvents</code> is &lt; 0.
+	 */
+	public void setMaxEvents(long maxEvents) throws IllegalArgumentException {
+		if (maxEvents < 0)
+			throw new IllegalArgumentException("maxEvents [" + maxEvents
+					+ "] must be >= 0");
+
+		this.maxEvents = maxEvents;
+	}
+
+	/**
+	 * @return the maximum number of parse events every parse is allowed to
+	 *         process, or <code>0</code> if there is no maximum.
+	 */
+	public long getMaxEvents() {
+		return maxEvents;
+	}
+
 	/**
 	 * Parse the XML out of the given stream matching the {@link IRule}s
 	 * provided when the {@link XMLParser} was instantiated.
@@ -424,6 +759,45 @@ public class XMLParser<T> {
 	public void parse(InputStream source, String encoding, T userObject)
 			throws IllegalArgumentException, UnsupportedEncodingException,
 			XMLParserException {
+		setInput(source, encoding);
+
+		if (DEBUG)
+			log("Parsing input [userObject=%s]", (userObject == null ? ""
+					: userObject));
+
+		try {
+			doParse(userObject);
+		} catch (IOException e) {
+			throw new XMLParserException(
+					"An exception occurred while parsing the given source, the XML document may be malformed.",
+					e);
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"An error with the underlying data stream being parsed occurred.",
+					e);
+		}
+	}
+
+	/**
+	 * Used to set the given stream as the input of the underlying
+	 * {@link XmlPullParser}.
+	 * 
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * @param encoding
+	 *            The character encoding of the stream, or <code>null</code> to
+	 *            detect it from the XML content.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws UnsupportedEncodingException
+	 *             if <code>encoding</code> is not supported by this runtime.
+	 * @throws XMLParserException
+	 *             if the underlying pull parser rejects the input.
+	 */
+	void setInput(InputStream source, String encoding)
+			throws IllegalArgumentException, UnsupportedEncodingException,
+			XMLParserException {
 		if (source == null)
 			throw new IllegalArgumentException("source cannot be null");
 		if (encoding != null) {
@@ -438,13 +812,16 @@ public class XMLParser<T> {
 								+ "] is not a valid charset encoding in this runtime according to Charset.isSupported(encoding).");
 		}
 
+		// Count the bytes read, and check the clock, while any limit is set
+		if (timeout > 0 || maxBytes > 0 || cancellationToken != null)
+			source = new LimitedInputStream(source, this);
+
 		try {
 			xpp.setInput(source, encoding);
 
 			if (DEBUG)
-				log("Underlying XmlPullParser input set [type=InputStream, encoding=%s (null is OK), userObject=%s]",
-						xpp.getInputEncoding(), (userObject == null ? ""
-								: userObject));
+				log("Underlying XmlPullParser input set [type=InputStream, encoding=%s (null is OK)]",
+						xpp.getInputEncoding());
 		} catch (XmlPullParserException e) {
 			throw new XMLParserException(
 					"Unable to set the given InputStream (with an optional encoding of '"
@@ -452,79 +829,249 @@ public class XMLParser<T> {
 							+ "') as input for the underlying XmlPullParser.",
 					e);
 		}
+	}
+
+	/**
+	 * Parse the XML out of the given file matching the {@link IRule}s provided
+	 * when the {@link XMLParser} was instantiated.
+	 * <p/>
+	 * The file is memory-mapped instead of being read through a stream, see
+	 * {@link #parse(FileChannel, Object)}.
+	 * <h3>Stopping Parsing</h3>
+	 * Parsing can be safely stopped by calling {@link #stop()}. This allows
+	 * {@link IRule} implementations control over stopping parsing, for example,
+	 * if an arbitrary threshold is hit. A followup call to any of the
+	 * <code>parse</code> methods will reset the stopped state.
+	 * 
+	 * @param file
+	 *            The file that XML content will be read out of.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the file can't be opened or read, or if the XML content
+	 *             itself is malformed and the underlying pull parser cannot
+	 *             parse it.
+	 */
+	public void parse(File file) throws IllegalArgumentException,
+			XMLParserException {
+		parse(file, null);
+	}
+
+	/**
+	 * Parse the XML out of the given file matching the {@link IRule}s provided
+	 * when the {@link XMLParser} was instantiated.
+	 * <p/>
+	 * The file is memory-mapped instead of being read through a stream, see
+	 * {@link #parse(FileChannel, Object)}.
+	 * <h3>Stopping Parsing</h3>
+	 * Parsing can be safely stopped by calling {@link #stop()}. This allows
+	 * {@link IRule} implementations control over stopping parsing, for example,
+	 * if an arbitrary threshold is hit. A followup call to any of the
+	 * <code>parse</code> methods will reset the stopped state.
+	 * 
+	 * @param file
+	 *            The file that XML content will be read out of.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed. Passing through a user-object is just meant as a
+	 *            convenience for giving the handler methods on the
+	 *            {@link IRule}'s access to objects like DAOs that can be used
+	 *            to persist or process parsed data easily.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>file</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the file can't be opened or read, or if the XML content
+	 *             itself is malformed and the underlying pull parser cannot
+	 *             parse it.
+	 */
+	public void parse(File file, T userObject) throws IllegalArgumentException,
+			XMLParserException {
+		if (file == null)
+			throw new IllegalArgumentException("file cannot be null");
+
+		FileInputStream in;
 
 		try {
-			doParse(userObject);
+			in = new FileInputStream(file);
+		} catch (FileNotFoundException e) {
+			throw new XMLParserException("Unable to open the file ["
+					+ file.getAbsolutePath() + "] for parsing.", e);
+		}
+
+		try {
+			parse(in.getChannel(), userObject);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// no-op, the file was only read from.
+			}
+		}
+	}
+
+	/**
+	 * Parse the XML out of the given file channel, from its current position
+	 * to the end of the file, matching the {@link IRule}s provided when the
+	 * {@link XMLParser} was instantiated.
+	 * <p/>
+	 * Instead of being read through a stream, the file is memory-mapped in
+	 * windows of up to 64MB (so files of any size can be parsed), letting the
+	 * OS page cache do the reading. The native tokenizer (see
+	 * {@link #ENABLE_NATIVE_TOKENIZER}) tokenizes the mapped windows in place
+	 * without copying them at all; the pull parser from the
+	 * {@link #XPP_FACTORY} copies straight out of them into its own buffer.
+	 * <p/>
+	 * This class will neither close the given channel nor change its
+	 * position, the caller must take care to clean up that resource.
+	 * <h3>Stopping Parsing</h3>
+	 * Parsing can be safely stopped by calling {@link #stop()}. This allows
+	 * {@link IRule} implementations control over stopping parsing, for example,
+	 * if an arbitrary threshold is hit. A followup call to any of the
+	 * <code>parse</code> methods will reset the stopped state.
+	 * 
+	 * @param channel
+	 *            The channel of the file that XML content will be read out of.
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed. Passing through a user-object is just meant as a
+	 *            convenience for giving the handler methods on the
+	 *            {@link IRule}'s access to objects like DAOs that can be used
+	 *            to persist or process parsed data easily.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>channel</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if the file can't be mapped, or if the XML content itself is
+	 *             malformed and the underlying pull parser cannot parse it.
+	 */
+	public void parse(FileChannel channel, T userObject)
+			throws IllegalArgumentException, XMLParserException {
+		if (channel == null)
+			throw new IllegalArgumentException("channel cannot be null");
+
+		MappedInputStream in;
+
+		try {
+			in = new MappedInputStream(channel);
 		} catch (IOException e) {
 			throw new XMLParserException(
-					"An exception occurred while parsing the given source, the XML document may be malformed.",
-					e);
-		} catch (XmlPullParserException e) {
-			throw new XMLParserException(
-					"An error with the underlying data stream being parsed occurred.",
+					"Unable to read the position and size of the given FileChannel.",
 					e);
 		}
+
+		parse(in, userObject);
 	}
 
-	protected void initRules(IRule<T>... rules) {
-		// calculate a rough optimal size for the rule maps
-		int optSize = (rules.length > 64 ? rules.length * 2 : 64);
-
-		// init the rule maps
-		tagRuleMap = new HashMap<Integer, List<IRule<T>>>(optSize);
-		attrRuleMap = new HashMap<Integer, List<IRule<T>>>(optSize);
-		charRuleMap = new HashMap<Integer, List<IRule<T>>>(optSize);
-
-		// init the rules
-		List<IRule<T>> ruleList = null;
-
-		for (int i = 0, length = rules.length; i < length; i++) {
-			IRule<T> rule = rules[i];
-
-			switch (rule.getType()) {
-			case TAG:
-				// Get the rule list for this path
-				ruleList = tagRuleMap.get(rule.getLocationPath());
-
-				// If there wasn't already a rule list, create and add it
-				if (ruleList == null) {
-					ruleList = new ArrayList<IRule<T>>(3);
-					tagRuleMap.put(rule.getLocationPath().hashCode(), ruleList);
-				}
-				break;
-
-			case ATTRIBUTE:
-				// Get the rule list for this path
-				ruleList = attrRuleMap.get(rule.getLocationPath());
-
-				// If there wasn't already a rule list, create and add it
-				if (ruleList == null) {
-					ruleList = new ArrayList<IRule<T>>(3);
-					attrRuleMap
-							.put(rule.getLocationPath().hashCode(), ruleList);
-				}
-				break;
-
-			case CHARACTER:
-				// Get the rule list for this path
-				ruleList = charRuleMap.get(rule.getLocationPath());
-
-				// If there wasn't already a rule list, create and add it
-				if (ruleList == null) {
-					ruleList = new ArrayList<IRule<T>>(3);
-					charRuleMap
-							.put(rule.getLocationPath().hashCode(), ruleList);
-				}
-				break;
-			}
+	/**
+	 * Used to reset this parser in place so it can be handed out again by an
+	 * {@link XMLParserPool}.
+	 * <p/>
+	 * This drops every reference the parser holds to the last document (the
+	 * input of the underlying {@link XmlPullParser} and any collected
+	 * attribute values) and clears its location and stopped state. The
+	 * underlying pull parser and all of its buffers are kept for the next
+	 * document.
+	 */
+	void reset() {
+		continueParsing = true;
+		skipDepth = 0;
+
+		if (automaton != null) {
+			location.clear();
+			ruleTable = automaton.getRuleTable();
 
-			// Add the rule to the list for the given path
-			ruleList.add(rule);
+			for (int i = 0; i < attrValues.length; i++)
+				attrValues[i] = null;
 		}
 
+		try {
+			xpp.setInput(null);
+		} catch (XmlPullParserException e) {
+			// no-op, a null Reader simply releases the previous input.
+		}
+	}
+
+	/**
+	 * Used to compile the location paths of all the given rules into the
+	 * {@link PathAutomaton} the parser uses to match its current location
+	 * against the rules while parsing.
+	 * 
+	 * @param rules
+	 *            The rules applied to any parsed content.
+	 * 
+	 * @throws XMLParserException
+	 *             if any of the rules define a malformed location path.
+	 */
+	protected void initRules(IRule<T>... rules) throws XMLParserException {
+		initRuleSet(new RuleSet<T>(rules));
+	}
+
+	/**
+	 * Used to set up the per-parse state of this parser for the given compiled
+	 * rules.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules applied to any parsed content.
+	 */
+	private void initRuleSet(RuleSet<T> ruleSet) {
+		this.ruleSet = ruleSet;
+		automaton = ruleSet.getAutomaton();
+		ruleTable = automaton.getRuleTable();
+		attrValues = new String[ruleTable.getAttributeSlotCount()];
+
 		if (DEBUG)
-			log("Initialized %d TAG rules, %d ATTRIBUTE rules and %d CHARACTER rules.",
-					tagRuleMap.size(), attrRuleMap.size(), charRuleMap.size());
+			log("Initialized %d TAG rules, %d ATTRIBUTE rules and %d CHARACTER rules into %d states.",
+					automaton.getTagRuleCount(),
+					automaton.getAttributeRuleCount(),
+					automaton.getCharacterRuleCount(),
+					automaton.getStateCount());
+	}
+
+	/**
+	 * Used to set the underlying {@link XmlPullParser} events are read from.
+	 * 
+	 * @param xpp
+	 *            The pull parser.
+	 */
+	private void initPullParser(XmlPullParser xpp) {
+		this.xpp = xpp;
+
+		// Elements are matched by their bytes when tokenized natively
+		tokenizer = (xpp instanceof ByteTokenizer ? (ByteTokenizer) xpp
+				: null);
+	}
+
+	/**
+	 * Used to create the underlying {@link XmlPullParser} of a new parser.
+	 * 
+	 * @param nativeTokenizer
+	 *            <code>true</code> to create SJXP's own byte-level tokenizer.
+	 * 
+	 * @return a new native tokenizer or a new pull parser from the
+	 *         {@link #XPP_FACTORY}.
+	 * 
+	 * @throws XMLParserException
+	 *             if the {@link #XPP_FACTORY} is unable to create a new
+	 *             {@link XmlPullParser} instance and throws an exception.
+	 */
+	private static XmlPullParser newPullParser(boolean nativeTokenizer)
+			throws XMLParserException {
+		if (nativeTokenizer)
+			return new ByteTokenizer(ENABLE_NAMESPACES);
+
+		try {
+			return XPP_FACTORY.newPullParser();
+		} catch (XmlPullParserException e) {
+			throw new XMLParserException(
+					"An exception occurred while trying to create a new XmlPullParser instance using the XmlPullParserFactory.",
+					e);
+		}
 	}
 
 	/**
@@ -539,11 +1086,19 @@ public class XMLParser<T> {
 	 * one of the {@link #doStartTag(Object)}, {@link #doText(Object)},
 	 * {@link #doEndTag(Object)} and {@link #doEndDocument(Object)} methods to
 	 * add custom behavior and not necessarily override this central method.
+	 * <h3>Skipping</h3>
+	 * If {@link #ENABLE_SKIPPING} is <code>true</code> and the element of a
+	 * {@link XmlPullParser#START_TAG} cannot lead to any {@link IRule}, the
+	 * rest of that element is drained by {@link #skipElement(Object)}.
 	 * <h3>Stopping Parsing</h3>
 	 * Parsing can be safely stopped by calling {@link #stop()}. This allows
 	 * {@link IRule} implementations control over stopping parsing, for example,
 	 * if an arbitrary threshold is hit. A followup call to any of the
 	 * <code>parse</code> methods will reset the stopped state.
+	 * <p/>
+	 * If every {@link IRule} is an {@link ILimitedRule} with a match limit,
+	 * {@link #stop()} is called automatically as soon as all of the limits
+	 * have been reached.
 	 * 
 	 * @param userObject
 	 *            The user-supplied object passed through from this parse method
@@ -565,34 +1120,15 @@ public class XMLParser<T> {
 	 */
 	protected void doParse(T userObject) throws IOException,
 			XmlPullParserException {
-		location.clear();
-		continueParsing = true;
+		startParse();
 
 		if (DEBUG)
 			log("Parsing starting...");
 
 		long startTime = System.currentTimeMillis();
 
-		while (continueParsing) {
-			switch (xpp.next()) {
-			case XmlPullParser.START_TAG:
-				doStartTag(userObject);
-				break;
-
-			case XmlPullParser.TEXT:
-				doText(userObject);
-				break;
-
-			case XmlPullParser.END_TAG:
-				doEndTag(userObject);
-				break;
-
-			case XmlPullParser.END_DOCUMENT:
-				continueParsing = false;
-				doEndDocument(userObject);
-				break;
-			}
-		}
+		while (continueParsing)
+			parseEvent(userObject);
 
 		if (DEBUG) {
 			long duration = System.currentTimeMillis() - startTime;
@@ -601,6 +1137,242 @@ public class XMLParser<T> {
 		}
 	}
 
+	/**
+	 * Used to pull the next event out of the underlying {@link XmlPullParser}
+	 * and hand it to the appropriate <code>doXXX</code> method, skipping the
+	 * rest of the element if it is a {@link XmlPullParser#START_TAG} no rule
+	 * can match at or below.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through to the matching
+	 *            {@link IRule}s.
+	 * 
+	 * @return the event that was processed, or {@link ByteTokenizer#NEED_INPUT}
+	 *         if the bytes pushed to a {@link PushParser} have run out.
+	 */
+	int parseEvent(T userObject) throws IOException, XmlPullParserException {
+		int event = nextEvent();
+
+		if (event == ByteTokenizer.NEED_INPUT)
+			return event;
+		if (limited)
+			countEvent();
+
+		// Pushed bytes can run out half way through a skipped element
+		if (skipDepth > 0) {
+			skipEvent(event, userObject);
+			return event;
+		}
+
+		switch (event) {
+		case XmlPullParser.START_TAG:
+			doStartTag(userObject);
+
+			// If no rule can match at or below this element, skip it
+			if (isSkippable())
+				skipElement(userObject);
+			break;
+
+		case XmlPullParser.TEXT:
+			doText(userObject);
+			break;
+
+		case XmlPullParser.END_TAG:
+			doEndTag(userObject);
+			break;
+
+		case XmlPullParser.END_DOCUMENT:
+			continueParsing = false;
+			doEndDocument(userObject);
+			break;
+		}
+
+		return event;
+	}
+
+	/**
+	 * Used to pull the next event out of the underlying {@link XmlPullParser}.
+	 * 
+	 * @return the next event, or {@link ByteTokenizer#NEED_INPUT} if the
+	 *         bytes pushed to a {@link PushParser} have run out.
+	 */
+	int nextEvent() throws IOException, XmlPullParserException {
+		return xpp.next();
+	}
+
+	/**
+	 * Used to clear the location and stopped state of the parser before a new
+	 * document is parsed.
+	 */
+	void startParse() {
+		continueParsing = true;
+		skipDepth = 0;
+
+		limited = (cancellationToken != null || timeout > 0 || maxBytes > 0
+				|| maxEvents > 0);
+		deadline = (timeout > 0 ? System.currentTimeMillis() + timeout : 0);
+		byteCount = 0;
+		eventCount = 0;
+
+		// Start counting matches again for any rules with a match limit
+		if (automaton != null) {
+			location.clear();
+			ruleTable = automaton.getRuleTable().forParse();
+		}
+	}
+
+	/**
+	 * Used to clear the cancellation token, timeout and budgets of this
+	 * parser, so a pooled parser doesn't carry them over to its next caller.
+	 */
+	void clearLimits() {
+		cancellationToken = null;
+		timeout = 0;
+		maxBytes = 0;
+		maxEvents = 0;
+	}
+
+	/**
+	 * Used to count a parse event against the limits of the current parse.
+	 * The token and event budget are checked on every event, the clock only
+	 * on every {@link #TIMEOUT_CHECK_INTERVAL}th one.
+	 * 
+	 * @throws XMLParserAbortedException
+	 *             if the parse has to be aborted.
+	 */
+	void countEvent() throws XMLParserAbortedException {
+		eventCount++;
+
+		if (cancellationToken != null && cancellationToken.isCancelled())
+			abort(Reason.CANCELLED, "The parse was cancelled.");
+		if (maxEvents > 0 && eventCount > maxEvents)
+			abort(Reason.MAX_EVENTS,
+					"The document has more than the maximum of " + maxEvents
+							+ " parse events.");
+		if (deadline > 0 && (eventCount % TIMEOUT_CHECK_INTERVAL) == 0)
+			checkDeadline();
+	}
+
+	/**
+	 * Used to count the given number of bytes read from the document against
+	 * the limits of the current parse, checking the token and the clock as
+	 * well.
+	 * 
+	 * @param length
+	 *            The number of bytes read.
+	 * 
+	 * @throws XMLParserAbortedException
+	 *             if the parse has to be aborted.
+	 */
+	void countBytes(int length) throws XMLParserAbortedException {
+		byteCount += length;
+
+		if (cancellationToken != null && cancellationToken.isCancelled())
+			abort(Reason.CANCELLED, "The parse was cancelled.");
+		if (maxBytes > 0 && byteCount > maxBytes)
+			abort(Reason.MAX_BYTES,
+					"The document is larger than the maximum of " + maxBytes
+							+ " bytes.");
+		if (deadline > 0)
+			checkDeadline();
+	}
+
+	/**
+	 * Used to abort the current parse if it has run past its timeout.
+	 */
+	private void checkDeadline() throws XMLParserAbortedException {
+		if (System.currentTimeMillis() > deadline)
+			abort(Reason.TIMEOUT,
+					"The parse did not complete within its timeout of "
+							+ timeout + "ms.");
+	}
+
+	/**
+	 * Used to stop the current parse and throw the exception telling the
+	 * caller why.
+	 */
+	private void abort(Reason reason, String message)
+			throws XMLParserAbortedException {
+		if (DEBUG)
+			log("\tAborting parse [reason=%s]...", reason);
+
+		continueParsing = false;
+		throw new XMLParserAbortedException(reason, message);
+	}
+
+	/**
+	 * Used to pick up the current document in the middle, right where a
+	 * {@link ParseCheckpoint} was taken. This must be called after
+	 * {@link #startParse()}, with the input set to start at the byte offset of
+	 * the checkpoint.
+	 * 
+	 * @param tokenizerState
+	 *            The open elements and namespaces in scope at the offset.
+	 * @param matchesLeft
+	 *            The number of matches every rule has left.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the checkpoint wasn't taken with the same rules.
+	 * @throws IllegalStateException
+	 *             if this parser doesn't use the native tokenizer.
+	 * @throws XmlPullParserException
+	 *             if the tokenizer can't be restored.
+	 */
+	void resume(ByteTokenizer.State tokenizerState, int[] matchesLeft)
+			throws IllegalArgumentException, IllegalStateException,
+			XmlPullParserException {
+		if (tokenizer == null)
+			throw new IllegalStateException(
+					"Only a parser using the native tokenizer can resume a document.");
+
+		tokenizer.restoreState(tokenizerState);
+		ruleTable.setMatchesLeft(matchesLeft);
+
+		for (int i = 1, depth = tokenizerState.getDepth(); i <= depth; i++)
+			location.push(tokenizer.getElementName(i), tokenizer
+					.getElementNamespace(i));
+	}
+
+	/**
+	 * @return the number of matches every rule has left in the current parse,
+	 *         or <code>null</code> if none of the rules has a match limit.
+	 */
+	int[] getMatchesLeft() {
+		return ruleTable.getMatchesLeft();
+	}
+
+	/**
+	 * @return the underlying pull parser events are read from.
+	 */
+	XmlPullParser getPullParser() {
+		return xpp;
+	}
+
+	/**
+	 * @return <code>true</code> until the current document has been parsed
+	 *         completely or {@link #stop()} has been called.
+	 */
+	boolean isParsing() {
+		return continueParsing;
+	}
+
+	/**
+	 * @return <code>true</code> if the current parse has a cancellation token,
+	 *         a timeout or a budget that bytes and events are counted against.
+	 */
+	boolean isLimited() {
+		return limited;
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #ENABLE_SKIPPING} is enabled and no
+	 *         {@link IRule} can match the element whose START_TAG was just
+	 *         processed or anything inside of it.
+	 */
+	boolean isSkippable() {
+		return (ENABLE_SKIPPING && location.getState() == PathAutomaton.NO_STATE);
+	}
+
 	/**
 	 * Used to process a {@link XmlPullParser#START_TAG} event.
 	 * <p/>
@@ -620,31 +1392,32 @@ public class XMLParser<T> {
 	 */
 	protected void doStartTag(T userObject) {
 		// Update parser location
-		location.push(xpp.getName(), xpp.getNamespace());
+		if (tokenizer == null)
+			location.push(xpp.getName(), xpp.getNamespace());
+		else
+			location.push(tokenizer.transition(automaton, location.getState()));
 
 		if (DEBUG)
 			log("START_TAG: %s", location);
 
 		// Get the rules for the current path
-		List<IRule<T>> tagRuleList = tagRuleMap.get(location
-				.getCachedHashCode());
-		List<IRule<T>> attrRuleList = attrRuleMap.get(location
-				.getCachedHashCode());
+		int state = location.getState();
+		IRule<T>[] tagRules = ruleTable.getTagRules(state);
+		IRule<T>[] attrRules = ruleTable.getAttributeRules(state);
 
 		// If there are no rules for the current path, then we are done.
-		if ((tagRuleList == null || tagRuleList.isEmpty())
-				&& (attrRuleList == null || attrRuleList.isEmpty()))
+		if (tagRules == null && attrRules == null)
 			return;
 
 		if (DEBUG)
 			log("\t%d TAG rules and %d ATTR rules found for START_TAG...",
-					(tagRuleList == null ? 0 : tagRuleList.size()),
-					(attrRuleList == null ? 0 : attrRuleList.size()));
+					(tagRules == null ? 0 : tagRules.length),
+					(attrRules == null ? 0 : attrRules.length));
 
 		// Process the TAG rules
-		if (tagRuleList != null) {
-			for (int i = 0, size = tagRuleList.size(); i < size; i++) {
-				IRule<T> rule = tagRuleList.get(i);
+		if (tagRules != null) {
+			for (int i = 0; i < tagRules.length; i++) {
+				IRule<T> rule = tagRules[i];
 
 				if (DEBUG)
 					log("\t\tRunning TAG Rule: %s", rule);
@@ -654,77 +1427,49 @@ public class XMLParser<T> {
 		}
 
 		// Process the ATTR rules
-		if (attrRuleList != null) {
-			for (int i = 0, size = attrRuleList.size(); i < size; i++) {
-				IRule<T> rule = attrRuleList.get(i);
+		if (attrRules != null) {
+			int[][] attrSlots = ruleTable.getAttributeSlots(state);
+
+			// Clear the slots first, missing attributes are passed as null
+			for (int i = 0; i < attrSlots.length; i++) {
+				int[] slots = attrSlots[i];
+
+				for (int j = 0; j < slots.length; j++)
+					attrValues[slots[j]] = null;
+			}
+
+			/*
+			 * PERFORMANCE: The attribute names of every rule were parsed into
+			 * namespace URI/local name slots when the rules were loaded, so
+			 * all we need here is a single pass over the element's attributes
+			 * collecting the values any rule is interested in; no substrings
+			 * and no repeated scans of the attribute list per rule name.
+			 */
+			for (int i = 0, count = xpp.getAttributeCount(); i < count; i++) {
+				String namespaceURI = xpp.getAttributeNamespace(i);
+				int slot = ruleTable.getAttributeSlot(state,
+						(namespaceURI == null ? "" : namespaceURI),
+						xpp.getAttributeName(i));
+
+				if (slot != NameIndex.NOT_FOUND)
+					attrValues[slot] = xpp.getAttributeValue(i);
+			}
+
+			for (int i = 0; i < attrRules.length; i++) {
+				IRule<T> rule = attrRules[i];
+				int[] slots = attrSlots[i];
 
 				if (DEBUG)
 					log("\t\tRunning ATTR Rule: %s", rule);
 
-				String[] attrNames = rule.getAttributeNames();
-
-				// Be safe, jump to the next rule if this one has no name
-				// entries
-				if (attrNames == null || attrNames.length == 0)
-					continue;
-
-				/*
-				 * PERFORMANCE: Generating the substrings is the fastest way to
-				 * parse out the matching rules as it shares the same underlying
-				 * char[] used to represent the entire location path or
-				 * attribute name and just creates a new simple String instance
-				 * with modified index/offset values that is GC'ed quickly and
-				 * easily (uses a special package-protected String constructor).
-				 * 
-				 * Using regexp to match, splitting the rule or just about any
-				 * other approach would have been magnitudes more expensive both
-				 * in memory and CPU requirements than doing a simple substring.
-				 */
-				for (int j = 0; j < attrNames.length; j++) {
-					String attrName = attrNames[j];
-					String localName = null;
-					String namespaceURI = null;
-
-					// Parse the namespaceURI out of the name if necessary
-					if (attrName.charAt(0) == '[') {
-						int endIndex = attrName.indexOf(']');
-
-						/*
-						 * Make sure the rule is valid so we avoid out of bounds
-						 * and keep the caller informed when their rules are
-						 * busted by failing fast.
-						 */
-						if (endIndex <= 2)
-							throw new XMLParserException(
-									"namespace URI for rule looks to be incomplete or empty for IRule: "
-											+ rule);
-
-						namespaceURI = attrName.substring(1, endIndex);
-					}
-
-					int startIndex = (namespaceURI == null ? 0 : namespaceURI
-							.length() + 2);
-
-					/*
-					 * Make sure the rule is valid so we avoid out of bounds and
-					 * keep the caller informed when their rules are busted by
-					 * failing fast.
-					 */
-					if (attrName.length() - startIndex <= 1)
-						throw new XMLParserException(
-								"local name for rule looks to be missing for IRule: "
-										+ rule);
-
-					// Parse the local name
-					localName = attrName.substring(startIndex,
-							attrName.length());
-
-					// Give the parsed attribute value to the matching rule
-					rule.handleParsedAttribute(this, j,
-							xpp.getAttributeValue(namespaceURI, localName),
+				// Give the parsed attribute values to the matching rule
+				for (int j = 0; j < slots.length; j++)
+					rule.handleParsedAttribute(this, j, attrValues[slots[j]],
 							userObject);
-				}
 			}
+
+			if (ruleTable.countMatches(state, Type.ATTRIBUTE))
+				stopLimitsReached();
 		}
 	}
 
@@ -733,6 +1478,11 @@ public class XMLParser<T> {
 	 * <p/>
 	 * By default this processes all {@link IRule}s of type
 	 * {@link Type#CHARACTER} that match the parser's current location.
+	 * <p/>
+	 * Rules implementing {@link ICharacterBufferRule} are handed the text
+	 * straight out of the underlying {@link XmlPullParser}'s buffer; a
+	 * {@link String} copy of the text is only created if at least one of the
+	 * matching rules needs it.
 	 * 
 	 * @param userObject
 	 *            The user-supplied object passed through from this parse method
@@ -748,26 +1498,42 @@ public class XMLParser<T> {
 			log("TEXT: %s", location);
 
 		// Get the rules for the current path
-		List<IRule<T>> ruleList = charRuleMap.get(location.getCachedHashCode());
+		int state = location.getState();
+		IRule<T>[] charRules = ruleTable.getCharacterRules(state);
 
 		// If there are no rules for the current path, then we are done.
-		if (ruleList == null || ruleList.isEmpty())
+		if (charRules == null)
 			return;
 
 		if (DEBUG)
-			log("\t%d rules found for TEXT...", ruleList.size());
+			log("\t%d rules found for TEXT...", charRules.length);
 
-		String text = xpp.getText();
+		char[] buffer = null;
+		String text = null;
 
 		// Give the parsed text to all matching IRules for this path
-		for (int i = 0, size = ruleList.size(); i < size; i++) {
-			IRule<T> rule = ruleList.get(i);
+		for (int i = 0; i < charRules.length; i++) {
+			IRule<T> rule = charRules[i];
 
 			if (DEBUG)
 				log("\t\tRunning Rule: %s", rule);
 
-			rule.handleParsedCharacters(this, text, userObject);
+			if (rule instanceof ICharacterBufferRule) {
+				if (buffer == null)
+					buffer = xpp.getTextCharacters(textBounds);
+
+				((ICharacterBufferRule<T>) rule).handleParsedCharacters(this,
+						buffer, textBounds[0], textBounds[1], userObject);
+			} else {
+				if (text == null)
+					text = xpp.getText();
+
+				rule.handleParsedCharacters(this, text, userObject);
+			}
 		}
+
+		if (ruleTable.countMatches(state, Type.CHARACTER))
+			stopLimitsReached();
 	}
 
 	/**
@@ -784,23 +1550,26 @@ public class XMLParser<T> {
 	 */
 	protected void doEndTag(T userObject) {
 		// Get the rules for the current path
-		List<IRule<T>> tagRuleList = tagRuleMap.get(location
-				.getCachedHashCode());
+		int state = location.getState();
+		IRule<T>[] tagRules = ruleTable.getTagRules(state);
 
 		// If there are no rules for the current path, then we are done.
-		if (tagRuleList != null && !tagRuleList.isEmpty()) {
+		if (tagRules != null) {
 			if (DEBUG)
-				log("\t%d TAG rules found for END_TAG...", tagRuleList.size());
+				log("\t%d TAG rules found for END_TAG...", tagRules.length);
 
 			// Process the TAG rules
-			for (int i = 0, size = tagRuleList.size(); i < size; i++) {
-				IRule<T> rule = tagRuleList.get(i);
+			for (int i = 0; i < tagRules.length; i++) {
+				IRule<T> rule = tagRules[i];
 
 				if (DEBUG)
 					log("\t\tRunning TAG Rule: %s", rule);
 
 				rule.handleTag(this, false, userObject);
 			}
+
+			if (ruleTable.countMatches(state, Type.TAG))
+				stopLimitsReached();
 		}
 
 		// Update parser location
@@ -810,6 +1579,87 @@ public class XMLParser<T> {
 			log("END_TAG: %s", location);
 	}
 
+	/**
+	 * Used to skip over the rest of the element whose
+	 * {@link XmlPullParser#START_TAG} was just processed because no
+	 * {@link IRule} can match anything inside of it.
+	 * <p/>
+	 * All events up to and including the element's matching
+	 * {@link XmlPullParser#END_TAG} are pulled from the underlying
+	 * {@link XmlPullParser} and discarded without updating the parser's
+	 * location, pulling text out of the parser or looking up any rules. Once
+	 * the matching END_TAG is reached it is handed to
+	 * {@link #doEndTag(Object)} like normal.
+	 * <p/>
+	 * If the bytes pushed to a {@link PushParser} run out first, this returns
+	 * early and the rest of the element is drained as more bytes are pushed.
+	 * 
+	 * @param userObject
+	 *            The user-supplied object passed through from this parse method
+	 *            to the matching {@link IRule}'s <code>handleXXX</code> method
+	 *            when a match is found, or <code>null</code> if no user object
+	 *            is needed. Passing through a user-object is just meant as a
+	 *            convenience for giving the handler methods on the
+	 *            {@link IRule}'s access to objects like DAOs that can be used
+	 *            to persist or process parsed data easily.
+	 * 
+	 * @throws IOException
+	 *             if an error occurs with reading from the underlying
+	 *             {@link InputStream} given to one of the public
+	 *             <code>parse</code> methods.
+	 * @throws XmlPullParserException
+	 *             if an error occurs while parsing the XML content from the
+	 *             underlying stream; typically resulting from malformed or
+	 *             invalid XML.
+	 */
+	protected void skipElement(T userObject) throws IOException,
+			XmlPullParserException {
+		skipDepth = xpp.getDepth();
+
+		if (DEBUG)
+			log("\tSkipping element, no rules can match inside of it...");
+
+		int event;
+
+		while (skipDepth > 0
+				&& (event = nextEvent()) != ByteTokenizer.NEED_INPUT) {
+			if (limited)
+				countEvent();
+
+			skipEvent(event, userObject);
+		}
+	}
+
+	/**
+	 * Used to discard an event of the element being skipped, handing its
+	 * END_TAG to {@link #doEndTag(Object)} and ending the skip.
+	 */
+	private void skipEvent(int event, T userObject)
+			throws XmlPullParserException {
+		/*
+		 * The END_TAG of an element reports the same depth as its START_TAG,
+		 * any END_TAG from a child element will report a deeper one.
+		 */
+		if (event == XmlPullParser.END_TAG && xpp.getDepth() == skipDepth) {
+			skipDepth = 0;
+			doEndTag(userObject);
+		} else if (event == XmlPullParser.END_DOCUMENT)
+			throw new XmlPullParserException(
+					"Document ended before the skipped element was closed.",
+					xpp, null);
+	}
+
+	/**
+	 * Used to stop parsing once every {@link ILimitedRule} has reached its
+	 * match limit; there is nothing left in the document any rule can match.
+	 */
+	void stopLimitsReached() {
+		if (DEBUG)
+			log("\tAll rules have reached their match limit, stopping...");
+
+		stop();
+	}
+
 	/**
 	 * Used to process a {@link XmlPullParser#END_DOCUMENT} event.
 	 * <p/>
@@ -832,146 +1682,76 @@ public class XMLParser<T> {
 	}
 
 	/**
-	 * Simple and fast class used to mock the behavior of a stack in the form of
-	 * a string for the purposes of "pushing" and "popping" the parser's current
-	 * location within an XML document as it processes START and END_TAG events.
+	 * Simple and fast class used to keep track of the parser's current location
+	 * within an XML document as it processes START and END_TAG events.
 	 * <p/>
-	 * Performance is optimized by using a {@link StringBuilder} who's length is
-	 * chopped (which just adjusts an <code>int</code> value) to simulate a
-	 * "pop" off the top.
+	 * The location is represented as a stack of <code>int</code> states from
+	 * the {@link PathAutomaton} compiled out of the parser's {@link IRule}s,
+	 * one for every depth of the document. "Pushing" an element is a single
+	 * transition lookup in the automaton and "popping" one simply decrements
+	 * the depth.
 	 * <h3>Performance</h3>
-	 * As of SJXP 2.0 String object creation and char[] duplication (e.g.
-	 * {@link System#arraycopy(Object, int, Object, int, int)}) has been
-	 * completely removed and replaced with using simple integer hash codes.
-	 * <p/>
-	 * The performance improvement is huge over the original toString-based
-	 * method of matching {@link IRule}'s <code>locationPath</code>s against the
-	 * parser's current location.
+	 * As of SJXP 2.3 the location path is no longer maintained as a
+	 * {@link StringBuilder} that is hashed on every event; the cost of pushing,
+	 * popping and matching rules against the current location is now
+	 * independent of the depth of the document and the length of the paths.
 	 * 
 	 * @author Riyad Kalla (software@thebuzzmedia.com)
 	 */
 	class Location {
-		private static final int HASH_CODE_CACHE_SIZE = 512;
-
-		private int hashCode;
-		private Integer[] hashCodeCache;
-
-		private StringBuilder path;
-		private List<Integer> lengthList;
+		private int depth;
+		private int[] states;
 
 		/**
 		 * Creates a new empty location.
 		 */
 		public Location() {
-			hashCode = 0;
-			hashCodeCache = new Integer[HASH_CODE_CACHE_SIZE];
-
-			path = new StringBuilder(256);
-			lengthList = new ArrayList<Integer>(16);
+			depth = 0;
+			states = new int[32];
+			states[0] = PathAutomaton.ROOT_STATE;
 		}
 
 		/**
-		 * Overridden to calculate the hash code of this location using the
-		 * exact same hash code calculation that {@link String#hashCode()} uses.
-		 * This allows us to say a <code>String</code> with the content
-		 * "/library/book/title" is equal to an instance of this class
-		 * representing the same location when doing lookups in a {@link Map}.
-		 * <p/>
-		 * This method calculates the hash code and then caches it, followup
-		 * calls to {@link #push(String, String)} or {@link #pop()} invalidate
-		 * the cached hash code allowing it to be recalculated again on the next
-		 * call.
+		 * Overridden to provide the location path of the deepest element on
+		 * the stack that can still match a rule for easy debugging.
 		 */
 		@Override
-		public int hashCode() {
-			/*
-			 * If the hash code is already 0 and our path is empty, there is
-			 * nothing to compute so the hash code stays 0. Otherwise we drop
-			 * into the for-loop and calculate the String-equivalent hash code.
-			 */
-			if (hashCode == 0 && path.length() > 0) {
-				for (int i = 0, length = path.length(); i < length; i++) {
-					hashCode = 31 * hashCode + path.charAt(i);
-				}
-			}
+		public String toString() {
+			int i = depth;
+
+			// Walk back up to the last element that can still match a rule
+			while (states[i] == PathAutomaton.NO_STATE)
+				i--;
+
+			String path = automaton.getPath(states[i]);
 
-			return hashCode;
+			return (i == depth ? path : path + "/...[" + (depth - i)
+					+ " unmatched]");
 		}
 
 		/**
-		 * Used to get a cached {@link Integer} version of the <code>int</code>
-		 * {@link #hashCode()} return value.
-		 * <p/>
-		 * To avoid unnecessary {@link Integer} allocations, this method caches
-		 * up to a certain number of {@link Integer} instances, re-using them
-		 * every time the same hash code value comes back up and creating new
-		 * instances when it doesn't.
-		 * <p/>
-		 * If a larger number of {@link Integer} instances are created than the
-		 * underlying cache can hold, then a new instance will be created and
-		 * returned like normal.
-		 * <h3>Design</h3>
-		 * The reason this works so well for parsing XML is because of the
-		 * nested, tag-matching structure of XML. When considering unique paths
-		 * inside of an XML doc (e.g. "/library", "/library/book", etc.) there
-		 * are typically not that many; maybe 20, 50 or less than a 100 in most
-		 * cases.
-		 * <p/>
-		 * Once the hash code {@link Integer} values for these unique paths is
-		 * created and cached, once we re-encounter that path again and again,
-		 * we don't need to recreate that hash code {@link Integer}, we can just
-		 * use the one from the previous occurrence.
+		 * Used to get the {@link PathAutomaton} state representing the
+		 * current location.
 		 * 
-		 * @return a cached {@link Integer} version of the <code>int</code>
-		 *         {@link #hashCode()} return value.
+		 * @return the state representing the current location or
+		 *         {@link PathAutomaton#NO_STATE} if no rule can match the
+		 *         current location or anything below it.
 		 */
-		public Integer getCachedHashCode() {
-			// Recalculate the hash code
-			hashCode();
-
-			// Figure out the index, in our cache, where this value WOULD be.
-			int index = hashCode % hashCodeCache.length;
-
-			// Absolute value only
-			if (index < 0)
-				index = -index;
-
-			// Get the Integer we think represents our value.
-			Integer value = hashCodeCache[index];
-
-			// If we haven't created an Integer for this value yet, do it now.
-			if (value == null)
-				hashCodeCache[index] = (value = Integer.valueOf(hashCode));
-			/*
-			 * If a collision has occurred and we have filled up our cache
-			 * already and the Integer we grabbed doesn't represent our int
-			 * value, forget the cache and just create a new Integer the old
-			 * fashion way and return it.
-			 * 
-			 * The hope is that the cache is always large enough that we only
-			 * ever hit it and have no misses like this.
-			 */
-			else if (hashCode != value.intValue())
-				value = Integer.valueOf(hashCode);
-
-			return value;
+		public int getState() {
+			return states[depth];
 		}
 
 		/**
 		 * Used to clear all the internal state of the location.
 		 */
 		public void clear() {
-			hashCode = 0;
-			hashCodeCache = new Integer[HASH_CODE_CACHE_SIZE];
-
-			path.setLength(0);
-			lengthList.clear();
+			depth = 0;
 		}
 
 		/**
 		 * "Pushes" a new local name and optional namespace URI onto the "stack"
-		 * by appending it to the current location path that represents the
-		 * parser's location inside of the XML doc.
+		 * by transitioning from the current state to the state of the given
+		 * element.
 		 * 
 		 * @param localName
 		 *            The local name of the tag (e.g. "title").
@@ -980,44 +1760,34 @@ public class XMLParser<T> {
 		 *            tag.
 		 */
 		public void push(String localName, String namespaceURI) {
-			// Clear the hash code cache first to be safe.
-			hashCode = 0;
-
-			// Remember the length before we inserted this last entry
-			lengthList.add(path.length());
-
-			// Add separator
-			path.append('/');
+			push(automaton.transition(states[depth],
+					(namespaceURI == null ? "" : namespaceURI), localName));
+		}
 
-			// Add the namespace URI if there is one.
-			if (namespaceURI != null && namespaceURI.length() > 0)
-				path.append('[').append(namespaceURI).append(']');
+		/**
+		 * "Pushes" an element onto the "stack" whose state has already been
+		 * found by transitioning from the current state.
+		 * 
+		 * @param state
+		 *            The state of the element.
+		 */
+		public void push(int state) {
+			// Grow the stack if the document is deeper than expected
+			if (++depth == states.length) {
+				int[] newStates = new int[states.length * 2];
+				System.arraycopy(states, 0, newStates, 0, states.length);
+				states = newStates;
+			}
 
-			// Append the local name
-			path.append(localName);
+			states[depth] = state;
 		}
 
 		/**
-		 * "Pops" the last pushed path element off the "stack" by re-adjusting
-		 * the {@link StringBuilder}'s length to what it was before the last
-		 * element was appended.
-		 * <p/>
-		 * This effectively chops the last element off the path without doing a
-		 * more costly {@link StringBuilder#delete(int, int)} operation that
-		 * would incur a call to
-		 * {@link System#arraycopy(Object, int, Object, int, int)} by simply
-		 * adjusting a single <code>int</code> counter inside of
-		 * {@link StringBuilder}.
+		 * "Pops" the last pushed element off the "stack" by simply decrementing
+		 * the current depth.
 		 */
 		public void pop() {
-			// Clear the hash code cache first to be safe.
-			hashCode = 0;
-
-			// Get the length before the last insertion
-			Integer lastLength = lengthList.remove(lengthList.size() - 1);
-
-			// 'Pop' the last insertion by cropping the length to exclude it.
-			path.setLength(lastLength);
+			depth--;
 		}
 	}
 }
\ No newline at end of file
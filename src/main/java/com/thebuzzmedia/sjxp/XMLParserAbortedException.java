@@ -0,0 +1,78 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+/**
+ * Unchecked exception thrown when a parse is aborted before the document has
+ * been parsed completely: it was cancelled, ran past its timeout or went over
+ * one of its budgets.
+ * <p/>
+ * This is a {@link XMLParserException}, so callers that only care whether a
+ * parse succeeded don't need to handle it separately; callers that do can
+ * tell an aborted parse apart from a malformed document by catching this
+ * exception first and checking its {@link #getReason()}.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class XMLParserAbortedException extends XMLParserException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The reasons a parse can be aborted for.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public enum Reason {
+		/**
+		 * The {@link CancellationToken} of the parse was cancelled.
+		 */
+		CANCELLED,
+		/**
+		 * The parse did not complete within its timeout.
+		 */
+		TIMEOUT,
+		/**
+		 * The document is larger than the maximum number of bytes.
+		 */
+		MAX_BYTES,
+		/**
+		 * The document has more than the maximum number of parse events.
+		 */
+		MAX_EVENTS;
+	}
+
+	private Reason reason;
+
+	/**
+	 * Create a new exception with the given reason and message.
+	 * 
+	 * @param reason
+	 *            The reason the parse was aborted.
+	 * @param message
+	 *            The explanation of why the exception was thrown.
+	 */
+	public XMLParserAbortedException(Reason reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	/**
+	 * @return the reason the parse was aborted.
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+}
@@ -0,0 +1,281 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+/**
+ * Class used to define a bounded, thread-safe pool of {@link XMLParser}s that
+ * all share the same compiled {@link RuleSet}.
+ * <p/>
+ * Creating an {@link XMLParser} means creating a new underlying
+ * {@link XmlPullParser} along with all of its internal buffers. When a lot of
+ * small documents are parsed (e.g. one per request on a busy server) that
+ * cost can easily outweigh the parse itself. A pool keeps up to
+ * <code>maxIdle</code> parsers around and resets them in place between
+ * documents instead.
+ * <p/>
+ * Parsers can either be borrowed with {@link #acquire()} and handed back with
+ * {@link #release(XMLParser)}, or the pool can do both around a single parse
+ * with one of its <code>parse</code> methods.
+ * <h3>Statistics</h3>
+ * The pool keeps count of how many parsers it had to create, how many
+ * acquisitions were served by an idle parser and how many released parsers
+ * were discarded because the pool was already full. A pool whose
+ * {@link #getCreatedCount()} keeps growing under a steady load is too small.
+ * <h3>Thread Safety</h3>
+ * This class is thread-safe. Every parser handed out by {@link #acquire()}
+ * belongs to the calling thread until it is released and must not be used
+ * after it is released.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class XMLParserPool<T> {
+	private RuleSet<T> ruleSet;
+	private BlockingQueue<XMLParser<T>> idleParsers;
+
+	private AtomicLong createdCount = new AtomicLong();
+	private AtomicLong acquiredCount = new AtomicLong();
+	private AtomicLong reusedCount = new AtomicLong();
+	private AtomicLong discardedCount = new AtomicLong();
+
+	/**
+	 * Create a new, empty pool of parsers using the given compiled rules.
+	 * Parsers are created as needed; at most <code>maxIdle</code> of them are
+	 * kept around once they are released.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules every parser of the pool uses.
+	 * @param maxIdle
+	 *            The maximum number of released parsers kept in the pool.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>ruleSet</code> is <code>null</code> or if
+	 *             <code>maxIdle</code> is &lt; 1.
+	 */
+	public XMLParserPool(RuleSet<T> ruleSet, int maxIdle)
+			throws IllegalArgumentException {
+		if (ruleSet == null)
+			throw new IllegalArgumentException("ruleSet cannot be null");
+		if (maxIdle < 1)
+			throw new IllegalArgumentException("maxIdle [" + maxIdle
+					+ "] must be >= 1");
+
+		this.ruleSet = ruleSet;
+		idleParsers = new ArrayBlockingQueue<XMLParser<T>>(maxIdle);
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the pool and
+	 * its statistics for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the pool for easy
+	 *         debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[idle=" + getIdleCount()
+				+ ", created=" + getCreatedCount() + ", acquired="
+				+ getAcquiredCount() + ", reused=" + getReusedCount()
+				+ ", discarded=" + getDiscardedCount() + ", ruleSet="
+				+ ruleSet + "]";
+	}
+
+	/**
+	 * @return the compiled rules every parser of the pool uses.
+	 */
+	public RuleSet<T> getRuleSet() {
+		return ruleSet;
+	}
+
+	/**
+	 * @return the number of released parsers currently waiting in the pool.
+	 */
+	public int getIdleCount() {
+		return idleParsers.size();
+	}
+
+	/**
+	 * @return the number of parsers the pool has created so far.
+	 */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	/**
+	 * @return the number of times {@link #acquire()} has been called.
+	 */
+	public long getAcquiredCount() {
+		return acquiredCount.get();
+	}
+
+	/**
+	 * @return the number of times {@link #acquire()} handed out an idle parser
+	 *         instead of creating a new one.
+	 */
+	public long getReusedCount() {
+		return reusedCount.get();
+	}
+
+	/**
+	 * @return the number of released parsers that were thrown away because
+	 *         the pool already held <code>maxIdle</code> idle parsers.
+	 */
+	public long getDiscardedCount() {
+		return discardedCount.get();
+	}
+
+	/**
+	 * Used to borrow a parser from the pool, creating a new one if there are
+	 * no idle parsers left.
+	 * <p/>
+	 * The parser must be handed back with {@link #release(XMLParser)} once
+	 * the caller is done with it, typically in a <code>finally</code> block.
+	 * 
+	 * @return a parser ready to parse a new document.
+	 * 
+	 * @throws XMLParserException
+	 *             if a new parser had to be created and its underlying
+	 *             {@link XmlPullParser} could not be created.
+	 */
+	public XMLParser<T> acquire() throws XMLParserException {
+		XMLParser<T> parser = idleParsers.poll();
+		acquiredCount.incrementAndGet();
+
+		if (parser == null) {
+			parser = newParser(ruleSet);
+			createdCount.incrementAndGet();
+		} else
+			reusedCount.incrementAndGet();
+
+		synchronized (parser) {
+			parser.checkedOutFrom = this;
+		}
+
+		return parser;
+	}
+
+	/**
+	 * Used to hand a parser obtained from {@link #acquire()} back to the pool.
+	 * <p/>
+	 * The parser is reset, dropping any reference it holds to the last
+	 * document it parsed as well as any cancellation token, timeout or budget
+	 * it was given, and kept for the next caller unless the pool is already
+	 * full.
+	 * 
+	 * @param parser
+	 *            The parser to release. It must not be used again by the
+	 *            caller.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>parser</code> is <code>null</code>, was not
+	 *             created from this pool's {@link RuleSet}, was not acquired
+	 *             from this pool or has already been released since it was
+	 *             acquired.
+	 */
+	public void release(XMLParser<T> parser) throws IllegalArgumentException {
+		if (parser == null)
+			throw new IllegalArgumentException("parser cannot be null");
+		if (parser.getRuleSet() != ruleSet)
+			throw new IllegalArgumentException(
+					"parser was not created from this pool's RuleSet and cannot be released into it.");
+
+		// A parser released twice would be handed out to two callers at once
+		synchronized (parser) {
+			if (parser.checkedOutFrom != this)
+				throw new IllegalArgumentException(
+						"parser was not acquired from this pool or has already been released into it.");
+
+			parser.checkedOutFrom = null;
+		}
+
+		parser.reset();
+		parser.clearLimits();
+
+		if (!idleParsers.offer(parser))
+			discardedCount.incrementAndGet();
+	}
+
+	/**
+	 * Used to parse the given stream with a parser from the pool, releasing
+	 * the parser again once the parse is done.
+	 * 
+	 * @see XMLParser#parse(InputStream, Object)
+	 */
+	public void parse(InputStream source, T userObject)
+			throws IllegalArgumentException, XMLParserException {
+		XMLParser<T> parser = acquire();
+
+		try {
+			parser.parse(source, userObject);
+		} finally {
+			release(parser);
+		}
+	}
+
+	/**
+	 * Used to parse the given stream (producing content matching the given
+	 * encoding) with a parser from the pool, releasing the parser again once
+	 * the parse is done.
+	 * 
+	 * @see XMLParser#parse(InputStream, String, Object)
+	 */
+	public void parse(InputStream source, String encoding, T userObject)
+			throws IllegalArgumentException, UnsupportedEncodingException,
+			XMLParserException {
+		XMLParser<T> parser = acquire();
+
+		try {
+			parser.parse(source, encoding, userObject);
+		} finally {
+			release(parser);
+		}
+	}
+
+	/**
+	 * Used to create a new parser for the pool. Subclasses of
+	 * {@link XMLParser} can be pooled by overriding this method.
+	 * 
+	 * @param ruleSet
+	 *            The compiled rules of the pool; the new parser must be
+	 *            created with {@link XMLParser#XMLParser(RuleSet)} using this
+	 *            exact instance.
+	 * 
+	 * @return a new parser.
+	 * 
+	 * @throws XMLParserException
+	 *             if the underlying {@link XmlPullParser} of the new parser
+	 *             could not be created.
+	 */
+	protected XMLParser<T> newParser(RuleSet<T> ruleSet)
+			throws XMLParserException {
+		return new XMLParser<T>(ruleSet);
+	}
+}
@@ -0,0 +1,670 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.bind;
+
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.thebuzzmedia.sjxp.IUserObjectFactory;
+import com.thebuzzmedia.sjxp.RecordIterator;
+import com.thebuzzmedia.sjxp.RuleSet;
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.XMLParserException;
+import com.thebuzzmedia.sjxp.rule.BooleanRule;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.DoubleRule;
+import com.thebuzzmedia.sjxp.rule.EnumRule;
+import com.thebuzzmedia.sjxp.rule.ILimitedRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+import com.thebuzzmedia.sjxp.rule.IntRule;
+import com.thebuzzmedia.sjxp.rule.LongRule;
+import com.thebuzzmedia.sjxp.rule.TimestampRule;
+
+/**
+ * Class used to bind the content of documents to instances of a class whose
+ * fields are annotated with {@link XMLPath}s, instead of writing an
+ * {@link IRule} for every field by hand.
+ * <p/>
+ * The annotations of the class are read once, when the binder is created, and
+ * compiled into a {@link RuleSet} with one rule per annotated field. Every
+ * rule is a typed rule (see {@link com.thebuzzmedia.sjxp.rule.AbstractTypedRule})
+ * writing straight into its field, which was looked up and made accessible
+ * up front: numbers, booleans, dates and enums are parsed out of the parser's
+ * <code>char[]</code> buffer and primitive fields are set without boxing, so
+ * no {@link String} is created for any of them.
+ * <p/>
+ * An annotated RSS item could look like this:
+ * 
+ * <pre>
+ * &#064;XMLRecord(&quot;/rss/channel/item&quot;)
+ * public class Item {
+ * 	&#064;XMLPath(&quot;title&quot;)
+ * 	private String title;
+ * 
+ * 	&#064;XMLPath(value = &quot;enclosure&quot;, attribute = &quot;length&quot;)
+ * 	private long length;
+ * 
+ * 	&#064;XMLPath(&quot;category&quot;)
+ * 	private List&lt;String&gt; categories;
+ * }
+ * 
+ * Binder&lt;Item&gt; binder = new Binder&lt;Item&gt;(Item.class);
+ * RecordIterator&lt;Item&gt; items = binder.iterator(in);
+ * </pre>
+ * 
+ * <h3>Field Types</h3>
+ * The following field types can be bound:
+ * <ul>
+ * <li>{@link String}</li>
+ * <li><code>int</code>, <code>long</code>, <code>double</code> and
+ * <code>boolean</code> or their wrapper types, parsed by
+ * {@link com.thebuzzmedia.sjxp.rule.ValueParser}.</li>
+ * <li>{@link Date}, parsed like a {@link TimestampRule} value.</li>
+ * <li>Any enum type, parsed from the name of the constant.</li>
+ * <li>A {@link Collection}, {@link List} or {@link java.util.Set} of any of
+ * the above. Every value is added to the collection, which is created when
+ * the field is <code>null</code>.</li>
+ * </ul>
+ * Any other field is set to the last value bound to it. Fields can be
+ * private, but not <code>static</code> or <code>final</code>, and the class
+ * needs a no-argument constructor (which can be private too). Annotated fields
+ * of superclasses are bound as well. The fields of an {@link XMLRecord} class
+ * can't have a {@link XMLPath#matchLimit()}. A value that can't be parsed into the
+ * type of its field stops the parse with an {@link XMLParserException}.
+ * <h3>Reuse</h3>
+ * Binding the same class again and again is what a binder is for: create it
+ * once and keep it. A binder is immutable once created and can be used by any
+ * number of threads at the same time, every call parses with its own parser.
+ * 
+ * @param <T>
+ *            The class type of the objects bound.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public class Binder<T> implements IUserObjectFactory<T> {
+	private Class<T> type;
+	private String recordPath;
+	private Constructor<T> constructor;
+	private RuleSet<T> ruleSet;
+
+	/**
+	 * Create a new binder for the given class, compiling its annotated fields
+	 * into rules.
+	 * 
+	 * @param type
+	 *            The class of the objects bound.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>type</code> is <code>null</code>, abstract, has no
+	 *             no-argument constructor or no field annotated with
+	 *             {@link XMLPath}, or if any annotated field can't be bound
+	 *             (see the field types above), uses a relative path without
+	 *             an {@link XMLRecord} path on the class or a match limit
+	 *             with one.
+	 * @throws XMLParserException
+	 *             if any of the paths or attribute names is malformed.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Binder(Class<T> type) throws IllegalArgumentException,
+			XMLParserException {
+		if (type == null)
+			throw new IllegalArgumentException("type cannot be null");
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+			throw new IllegalArgumentException("type [" + type.getName()
+					+ "] cannot be an interface or abstract class");
+
+		try {
+			constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(
+					"type ["
+							+ type.getName()
+							+ "] must have a no-argument constructor (inner classes must be static).");
+		}
+
+		this.type = type;
+
+		XMLRecord record = type.getAnnotation(XMLRecord.class);
+		recordPath = (record == null ? null : record.value());
+
+		List<IRule<T>> rules = new ArrayList<IRule<T>>();
+
+		for (Class<?> c = type; c != null && c != Object.class; c = c
+				.getSuperclass()) {
+			Field[] fields = c.getDeclaredFields();
+
+			for (int i = 0; i < fields.length; i++) {
+				XMLPath path = fields[i].getAnnotation(XMLPath.class);
+
+				if (path != null)
+					rules.add(createRule(fields[i], path));
+			}
+		}
+
+		if (rules.isEmpty())
+			throw new IllegalArgumentException("type [" + type.getName()
+					+ "] has no fields annotated with @XMLPath to bind.");
+
+		ruleSet = new RuleSet<T>(rules.toArray(new IRule[rules.size()]));
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the binder
+	 * for easy debugging.
+	 * 
+	 * @return a nicely formatted representation of the binder for easy
+	 *         debugging.
+	 */
+	@Override
+	public String toString() {
+		return this.getClass().getName() + "[type=" + type.getName()
+				+ ", recordPath=" + recordPath + ", ruleSet=" + ruleSet + "]";
+	}
+
+	/**
+	 * Used to get the class of the objects bound.
+	 * 
+	 * @return the class of the objects bound.
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * Used to get the {@link XMLRecord} path of the class.
+	 * 
+	 * @return the location path of the records, or <code>null</code> if the
+	 *         class isn't annotated with {@link XMLRecord}.
+	 */
+	public String getRecordPath() {
+		return recordPath;
+	}
+
+	/**
+	 * Used to get the rules compiled from the annotated fields, for use with
+	 * any parser taking a {@link RuleSet} and instances of the class as user
+	 * objects.
+	 * 
+	 * @return the rules compiled from the annotated fields.
+	 */
+	public RuleSet<T> getRuleSet() {
+		return ruleSet;
+	}
+
+	/**
+	 * Used to create a new, unbound instance of the class.
+	 * 
+	 * @return a new instance of the class.
+	 * 
+	 * @throws XMLParserException
+	 *             if the constructor of the class fails.
+	 */
+	public T newInstance() throws XMLParserException {
+		try {
+			return constructor.newInstance();
+		} catch (InstantiationException e) {
+			throw new XMLParserException("Unable to create a new instance of ["
+					+ type.getName() + "]", e);
+		} catch (IllegalAccessException e) {
+			throw new XMLParserException("Unable to create a new instance of ["
+					+ type.getName() + "]", e);
+		} catch (InvocationTargetException e) {
+			throw new XMLParserException("Unable to create a new instance of ["
+					+ type.getName() + "]", e);
+		}
+	}
+
+	/**
+	 * Used to create a new, unbound instance of the class for every record
+	 * of a {@link RecordIterator} or any other parser taking an
+	 * {@link IUserObjectFactory}.
+	 * 
+	 * @see #newInstance()
+	 */
+	public T newUserObject(int index) {
+		return newInstance();
+	}
+
+	/**
+	 * Used to bind the whole document in the given stream to a new instance
+	 * of the class. Fields matched more than once are set to the last value
+	 * matched (or have every value added, for collections).
+	 * 
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * 
+	 * @return the new instance bound to the document.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws XMLParserException
+	 *             if any error occurs while parsing the content of the stream
+	 *             or a value can't be parsed into the type of its field.
+	 */
+	public T bind(InputStream source) throws IllegalArgumentException,
+			XMLParserException {
+		if (source == null)
+			throw new IllegalArgumentException("source cannot be null");
+
+		T object = newInstance();
+		new XMLParser<T>(ruleSet).parse(source, object);
+
+		return object;
+	}
+
+	/**
+	 * Used to iterate over the records of the document in the given stream,
+	 * every one of them bound to a new instance of the class.
+	 * 
+	 * @param source
+	 *            The stream that XML content will be read out of.
+	 * 
+	 * @return an iterator over the bound records of the document.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> is <code>null</code>.
+	 * @throws IllegalStateException
+	 *             if the class isn't annotated with {@link XMLRecord}.
+	 * @throws XMLParserException
+	 *             if the stream can't be used as input.
+	 * 
+	 * @see RecordIterator
+	 */
+	public RecordIterator<T> iterator(InputStream source)
+			throws IllegalArgumentException, IllegalStateException,
+			XMLParserException {
+		if (recordPath == null)
+			throw new IllegalStateException("type [" + type.getName()
+					+ "] is not annotated with @XMLRecord, it has no records.");
+
+		return new RecordIterator<T>(ruleSet, recordPath, this, source);
+	}
+
+	/**
+	 * Used to create the rule binding the given field.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private IRule<T> createRule(Field field, XMLPath path)
+			throws IllegalArgumentException {
+		int modifiers = field.getModifiers();
+
+		if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers))
+			throw new IllegalArgumentException("field [" + field
+					+ "] cannot be bound, it is static or final.");
+
+		String locationPath = path.value();
+
+		if (!locationPath.startsWith("/")) {
+			if (recordPath == null)
+				throw new IllegalArgumentException(
+						"field ["
+								+ field
+								+ "] has the relative path ["
+								+ locationPath
+								+ "], but its class is not annotated with @XMLRecord to resolve it against.");
+
+			locationPath = (locationPath.length() == 0 ? recordPath
+					: recordPath + '/' + locationPath);
+		}
+
+		// A limit would count over every record, not start over with each one
+		if (recordPath != null && path.matchLimit() != ILimitedRule.UNLIMITED)
+			throw new IllegalArgumentException("field [" + field
+					+ "] has a matchLimit, which can't be used in an @XMLRecord class.");
+
+		Type ruleType;
+		String[] attributeNames;
+
+		if (path.attribute().length() == 0) {
+			ruleType = Type.CHARACTER;
+			attributeNames = new String[0];
+		} else {
+			ruleType = Type.ATTRIBUTE;
+			attributeNames = new String[] { path.attribute() };
+		}
+
+		int matchLimit = path.matchLimit();
+		FieldAccessor accessor = new FieldAccessor(field);
+		Class<?> valueType = accessor.getValueType();
+
+		if (valueType == String.class)
+			return new StringBinding<T>(ruleType, locationPath, matchLimit,
+					attributeNames, accessor);
+		if (valueType == int.class || valueType == Integer.class)
+			return new IntBinding<T>(ruleType, locationPath, matchLimit,
+					attributeNames, accessor);
+		if (valueType == long.class || valueType == Long.class)
+			return new LongBinding<T>(ruleType, locationPath, matchLimit,
+					attributeNames, accessor);
+		if (valueType == double.class || valueType == Double.class)
+			return new DoubleBinding<T>(ruleType, locationPath, matchLimit,
+					attributeNames, accessor);
+		if (valueType == boolean.class || valueType == Boolean.class)
+			return new BooleanBinding<T>(ruleType, locationPath, matchLimit,
+					attributeNames, accessor);
+		if (valueType == Date.class)
+			return new DateBinding<T>(ruleType, locationPath, matchLimit,
+					attributeNames, accessor);
+		if (valueType.isEnum())
+			return new EnumBinding(ruleType, locationPath, matchLimit,
+					valueType, attributeNames, accessor);
+
+		throw new IllegalArgumentException("field [" + field
+				+ "] cannot be bound, values of type [" + valueType.getName()
+				+ "] are not supported.");
+	}
+
+	/**
+	 * Class used to write the values bound to a field into it, adding them to
+	 * the collection the field holds if it is a collection.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class FieldAccessor {
+		private Field field;
+		private Class<?> valueType;
+		private boolean primitive;
+		private boolean collection;
+		private boolean list;
+
+		FieldAccessor(Field field) throws IllegalArgumentException {
+			Class<?> fieldType = field.getType();
+
+			if (Collection.class.isAssignableFrom(fieldType)) {
+				if (fieldType.isAssignableFrom(ArrayList.class))
+					list = true;
+				else if (!fieldType.isAssignableFrom(LinkedHashSet.class))
+					throw new IllegalArgumentException("field [" + field
+							+ "] must be declared as a Collection, List or Set.");
+
+				java.lang.reflect.Type genericType = field.getGenericType();
+
+				if (!(genericType instanceof ParameterizedType)
+						|| !(((ParameterizedType) genericType)
+								.getActualTypeArguments()[0] instanceof Class))
+					throw new IllegalArgumentException("field [" + field
+							+ "] must declare the type of its elements.");
+
+				collection = true;
+				valueType = (Class<?>) ((ParameterizedType) genericType)
+						.getActualTypeArguments()[0];
+			} else {
+				primitive = fieldType.isPrimitive();
+				valueType = fieldType;
+			}
+
+			field.setAccessible(true);
+			this.field = field;
+		}
+
+		Class<?> getValueType() {
+			return valueType;
+		}
+
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		void set(Object target, Object value) throws XMLParserException {
+			try {
+				if (!collection) {
+					field.set(target, value);
+					return;
+				}
+
+				Collection values = (Collection) field.get(target);
+
+				if (values == null) {
+					values = (list ? new ArrayList() : new LinkedHashSet());
+					field.set(target, values);
+				}
+
+				values.add(value);
+			} catch (IllegalAccessException e) {
+				throw fail(e);
+			}
+		}
+
+		void setInt(Object target, int value) throws XMLParserException {
+			if (!primitive)
+				set(target, Integer.valueOf(value));
+			else {
+				try {
+					field.setInt(target, value);
+				} catch (IllegalAccessException e) {
+					throw fail(e);
+				}
+			}
+		}
+
+		void setLong(Object target, long value) throws XMLParserException {
+			if (!primitive)
+				set(target, Long.valueOf(value));
+			else {
+				try {
+					field.setLong(target, value);
+				} catch (IllegalAccessException e) {
+					throw fail(e);
+				}
+			}
+		}
+
+		void setDouble(Object target, double value) throws XMLParserException {
+			if (!primitive)
+				set(target, Double.valueOf(value));
+			else {
+				try {
+					field.setDouble(target, value);
+				} catch (IllegalAccessException e) {
+					throw fail(e);
+				}
+			}
+		}
+
+		void setBoolean(Object target, boolean value)
+				throws XMLParserException {
+			if (!primitive)
+				set(target, Boolean.valueOf(value));
+			else {
+				try {
+					field.setBoolean(target, value);
+				} catch (IllegalAccessException e) {
+					throw fail(e);
+				}
+			}
+		}
+
+		private XMLParserException fail(IllegalAccessException e) {
+			return new XMLParserException("Unable to set field [" + field
+					+ "]", e);
+		}
+	}
+
+	/**
+	 * Class used to bind character data or attribute values to a
+	 * {@link String} field, or a collection of {@link String}s, as is.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class StringBinding<T> extends DefaultRule<T> {
+		private FieldAccessor accessor;
+
+		StringBinding(Type type, String locationPath, int matchLimit,
+				String[] attributeNames, FieldAccessor accessor) {
+			super(type, locationPath, matchLimit, attributeNames);
+			this.accessor = accessor;
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser<T> parser, String text,
+				T userObject) {
+			accessor.set(userObject, text);
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser<T> parser, int index,
+				String value, T userObject) {
+			// Attributes missing from the element leave the field alone
+			if (value != null)
+				accessor.set(userObject, value);
+		}
+	}
+
+	/**
+	 * Class used to bind values parsed by an {@link IntRule} to an
+	 * <code>int</code> or {@link Integer} field, or a collection of
+	 * {@link Integer}s. Primitive fields are set without boxing.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class IntBinding<T> extends IntRule<T> {
+		private FieldAccessor accessor;
+
+		IntBinding(Type type, String locationPath, int matchLimit,
+				String[] attributeNames, FieldAccessor accessor) {
+			super(type, locationPath, matchLimit, attributeNames);
+			this.accessor = accessor;
+		}
+
+		@Override
+		public void handleParsedInt(XMLParser<T> parser, int index, int value,
+				T userObject) {
+			accessor.setInt(userObject, value);
+		}
+	}
+
+	/**
+	 * Class used to bind values parsed by a {@link LongRule} to a
+	 * <code>long</code> or {@link Long} field, or a collection of {@link Long}s.
+	 * Primitive fields are set without boxing.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class LongBinding<T> extends LongRule<T> {
+		private FieldAccessor accessor;
+
+		LongBinding(Type type, String locationPath, int matchLimit,
+				String[] attributeNames, FieldAccessor accessor) {
+			super(type, locationPath, matchLimit, attributeNames);
+			this.accessor = accessor;
+		}
+
+		@Override
+		public void handleParsedLong(XMLParser<T> parser, int index,
+				long value, T userObject) {
+			accessor.setLong(userObject, value);
+		}
+	}
+
+	/**
+	 * Class used to bind values parsed by a {@link DoubleRule} to a
+	 * <code>double</code> or {@link Double} field, or a collection of
+	 * {@link Double}s. Primitive fields are set without boxing.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class DoubleBinding<T> extends DoubleRule<T> {
+		private FieldAccessor accessor;
+
+		DoubleBinding(Type type, String locationPath, int matchLimit,
+				String[] attributeNames, FieldAccessor accessor) {
+			super(type, locationPath, matchLimit, attributeNames);
+			this.accessor = accessor;
+		}
+
+		@Override
+		public void handleParsedDouble(XMLParser<T> parser, int index,
+				double value, T userObject) {
+			accessor.setDouble(userObject, value);
+		}
+	}
+
+	/**
+	 * Class used to bind values parsed by a {@link BooleanRule} to a
+	 * <code>boolean</code> or {@link Boolean} field, or a collection of
+	 * {@link Boolean}s. Primitive fields are set without boxing.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class BooleanBinding<T> extends BooleanRule<T> {
+		private FieldAccessor accessor;
+
+		BooleanBinding(Type type, String locationPath, int matchLimit,
+				String[] attributeNames, FieldAccessor accessor) {
+			super(type, locationPath, matchLimit, attributeNames);
+			this.accessor = accessor;
+		}
+
+		@Override
+		public void handleParsedBoolean(XMLParser<T> parser, int index,
+				boolean value, T userObject) {
+			accessor.setBoolean(userObject, value);
+		}
+	}
+
+	/**
+	 * Class used to bind timestamps parsed by a {@link TimestampRule} to a
+	 * {@link Date} field, or a collection of {@link Date}s.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class DateBinding<T> extends TimestampRule<T> {
+		private FieldAccessor accessor;
+
+		DateBinding(Type type, String locationPath, int matchLimit,
+				String[] attributeNames, FieldAccessor accessor) {
+			super(type, locationPath, matchLimit, attributeNames);
+			this.accessor = accessor;
+		}
+
+		@Override
+		public void handleParsedTimestamp(XMLParser<T> parser, int index,
+				long value, T userObject) {
+			accessor.set(userObject, new Date(value));
+		}
+	}
+
+	/**
+	 * Class used to bind constants parsed by an {@link EnumRule} to a field of
+	 * the enum type, or a collection of its constants.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class EnumBinding<T, E extends Enum<E>> extends EnumRule<T, E> {
+		private FieldAccessor accessor;
+
+		EnumBinding(Type type, String locationPath, int matchLimit,
+				Class<E> enumType, String[] attributeNames,
+				FieldAccessor accessor) {
+			super(type, locationPath, matchLimit, enumType, attributeNames);
+			this.accessor = accessor;
+		}
+
+		@Override
+		public void handleParsedEnum(XMLParser<T> parser, int index, E value,
+				T userObject) {
+			accessor.set(userObject, value);
+		}
+	}
+}
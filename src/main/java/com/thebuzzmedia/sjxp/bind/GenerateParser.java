@@ -0,0 +1,53 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.bind;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation used to ask the <code>sjxp-processor</code> annotation
+ * processor (<code>com.thebuzzmedia.sjxp.processor.ParserProcessor</code>)
+ * to generate a dedicated parser for a class bound with {@link XMLPath}s.
+ * <p/>
+ * Classes without it are left alone, so the processor can sit on the
+ * processor path of classes that are only ever bound by a {@link Binder}:
+ * 
+ * <pre>
+ * &#064;GenerateParser
+ * &#064;XMLRecord(&quot;/rss/channel/item&quot;)
+ * public class Item {
+ * 	&#064;XMLPath(&quot;title&quot;)
+ * 	String title;
+ * }
+ * </pre>
+ * 
+ * A class a parser can't be generated for (e.g. one with private fields)
+ * fails the compilation with an error explaining why; without this annotation
+ * it can still be bound by a {@link Binder}.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see com.thebuzzmedia.sjxp.AbstractCompiledParser
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateParser {
+}
@@ -0,0 +1,68 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.bind;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.thebuzzmedia.sjxp.rule.ILimitedRule;
+
+/**
+ * Annotation used to bind a field to the character data or an attribute of
+ * the elements at a location path.
+ * <p/>
+ * Without an {@link #attribute()}, the field is bound to the character data
+ * of the elements (like a {@link com.thebuzzmedia.sjxp.rule.IRule.Type#CHARACTER}
+ * rule); with one, it is bound to that attribute of the elements (like a
+ * {@link com.thebuzzmedia.sjxp.rule.IRule.Type#ATTRIBUTE} rule). Paths that
+ * don't start with a <code>/</code> are relative to the {@link XMLRecord}
+ * path of the class, an empty path names the record element itself.
+ * <p/>
+ * See {@link Binder} for the field types that can be bound.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see Binder
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XMLPath {
+	/**
+	 * The location path of the elements the field is bound to, either
+	 * absolute (e.g. <code>/rss/channel/title</code>) or relative to the
+	 * {@link XMLRecord} path of the class (e.g. <code>title</code>).
+	 */
+	public String value();
+
+	/**
+	 * The name of the attribute the field is bound to (e.g. <code>href</code>
+	 * or <code>[http://w3.org/2005/Atom]href</code>), or an empty string to
+	 * bind the field to the character data of the elements.
+	 */
+	public String attribute() default "";
+
+	/**
+	 * The maximum number of times the field is bound per parse of a document,
+	 * or {@link ILimitedRule#UNLIMITED}. A limit counts over the whole
+	 * document, not per record, so it can't be used in an {@link XMLRecord}
+	 * class.
+	 */
+	public int matchLimit() default ILimitedRule.UNLIMITED;
+}
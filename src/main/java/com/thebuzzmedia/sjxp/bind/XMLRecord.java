@@ -0,0 +1,56 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.bind;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation used to mark a class as the record type of a document, naming
+ * the location path of the elements every instance is bound from.
+ * <p/>
+ * Relative {@link XMLPath}s on the fields of the class are resolved against
+ * this path, so an annotated RSS item could look like this:
+ * 
+ * <pre>
+ * &#064;XMLRecord(&quot;/rss/channel/item&quot;)
+ * public class Item {
+ * 	&#064;XMLPath(&quot;title&quot;)
+ * 	private String title;
+ * 
+ * 	&#064;XMLPath(&quot;pubDate&quot;)
+ * 	private Date published;
+ * }
+ * </pre>
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see Binder
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface XMLRecord {
+	/**
+	 * The location path of the record elements (e.g.
+	 * <code>/rss/channel/item</code>), in the same format as the paths of
+	 * {@link com.thebuzzmedia.sjxp.rule.IRule}s.
+	 */
+	public String value();
+}
@@ -0,0 +1,166 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.XMLParserException;
+
+/**
+ * Class used to provide the base implementation of the typed rules in SJXP
+ * (e.g. {@link IntRule}, {@link DoubleRule} or {@link EnumRule}).
+ * <p/>
+ * A typed rule parses the character data or attribute values it matches into
+ * a typed value using {@link ValueParser} and hands that value to its
+ * <code>handleParsedXXX</code> method instead of a {@link String}:
+ * <ul>
+ * <li>{@link IRule.Type#CHARACTER} rules parse straight out of the parser's
+ * <code>char[]</code> buffer (see {@link ICharacterBufferRule}), no
+ * {@link String} is ever created for the text.</li>
+ * <li>{@link IRule.Type#ATTRIBUTE} rules parse the attribute value
+ * {@link String} the underlying pull parser already created, without creating
+ * any further {@link String}s. Attributes missing from an element have no
+ * value to parse and are silently skipped.</li>
+ * </ul>
+ * {@link IRule.Type#TAG} rules have no values and cannot be typed.
+ * <h3>Invalid Values</h3>
+ * When a value cannot be parsed,
+ * {@link #handleInvalidValue(XMLParser, int, String, IllegalArgumentException, Object)}
+ * is called; by default it throws an {@link XMLParserException} that stops
+ * the parse, override it to skip or log bad values instead.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public abstract class AbstractTypedRule<T> extends DefaultRule<T> implements
+		ICharacterBufferRule<T> {
+	/**
+	 * Create a new rule with the given values.
+	 * 
+	 * @see DefaultRule#DefaultRule(IRule.Type, String, String...)
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>type</code> is {@link IRule.Type#TAG} or for any of
+	 *             the reasons listed in
+	 *             {@link DefaultRule#DefaultRule(IRule.Type, String, String...)}
+	 *             .
+	 */
+	public AbstractTypedRule(Type type, String locationPath,
+			String... attributeNames) throws IllegalArgumentException {
+		this(type, locationPath, UNLIMITED, attributeNames);
+	}
+
+	/**
+	 * Create a new rule with the given values that will be matched at most
+	 * <code>matchLimit</code> times per parse.
+	 * 
+	 * @see DefaultRule#DefaultRule(IRule.Type, String, int, String...)
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>type</code> is {@link IRule.Type#TAG} or for any of
+	 *             the reasons listed in
+	 *             {@link DefaultRule#DefaultRule(IRule.Type, String, int, String...)}
+	 *             .
+	 */
+	public AbstractTypedRule(Type type, String locationPath, int matchLimit,
+			String... attributeNames) throws IllegalArgumentException {
+		super(type, locationPath, matchLimit, attributeNames);
+
+		if (type == Type.TAG)
+			throw new IllegalArgumentException(
+					"Type.TAG was specified, but TAG rules have no values to parse. Use Type.CHARACTER or Type.ATTRIBUTE for a typed rule.");
+	}
+
+	/**
+	 * Used to parse the character data matched by this rule out of the
+	 * parser's buffer.
+	 */
+	public void handleParsedCharacters(XMLParser<T> parser, char[] buffer,
+			int start, int length, T userObject) {
+		parseValue(parser, 0, buffer, start, length, userObject);
+	}
+
+	/**
+	 * Used to parse the character data matched by this rule. The parser never
+	 * calls this for typed rules (it uses the buffer instead), it is only
+	 * provided so the rule behaves the same if it is called directly.
+	 */
+	@Override
+	public void handleParsedCharacters(XMLParser<T> parser, String text,
+			T userObject) {
+		parseValue(parser, 0, text, userObject);
+	}
+
+	/**
+	 * Used to parse an attribute value matched by this rule. Attributes missing
+	 * from the element (<code>value</code> is <code>null</code>) are skipped.
+	 */
+	@Override
+	public void handleParsedAttribute(XMLParser<T> parser, int index,
+			String value, T userObject) {
+		if (value != null)
+			parseValue(parser, index, value, userObject);
+	}
+
+	/**
+	 * Handler method called when a value matched by this rule cannot be
+	 * parsed into the type of the rule.
+	 * <p/>
+	 * The default implementation throws an {@link XMLParserException}, which
+	 * stops the parse. Override this method to skip, log or substitute invalid
+	 * values instead.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param index
+	 *            The index of the attribute name (from
+	 *            {@link #getAttributeNames()}) the value belongs to, or 0 for
+	 *            {@link IRule.Type#CHARACTER} rules.
+	 * @param value
+	 *            The value that could not be parsed.
+	 * @param cause
+	 *            The exception describing why the value could not be parsed.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method.
+	 * 
+	 * @throws XMLParserException
+	 *             by default, to report the invalid value.
+	 */
+	public void handleInvalidValue(XMLParser<T> parser, int index,
+			String value, IllegalArgumentException cause, T userObject)
+			throws XMLParserException {
+		throw new XMLParserException("Unable to parse the value [" + value
+				+ "] for IRule: " + this, cause);
+	}
+
+	/**
+	 * Used to parse the value in the given range of the buffer and hand it to
+	 * the typed handler.
+	 */
+	protected abstract void parseValue(XMLParser<T> parser, int index,
+			char[] buffer, int start, int length, T userObject);
+
+	/**
+	 * Used to parse the given value and hand it to the typed handler.
+	 */
+	protected abstract void parseValue(XMLParser<T> parser, int index,
+			CharSequence value, T userObject);
+}
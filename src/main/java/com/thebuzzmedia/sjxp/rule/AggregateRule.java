@@ -0,0 +1,513 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.util.Arrays;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Class used to define a rule that computes an aggregate ({@link Function}) of
+ * the values it matches by itself, with no handler to implement.
+ * <p/>
+ * Aggregate rules are {@link ICharacterBufferRule}s, so the {@link XMLParser}
+ * feeds them character data straight out of the parser's <code>char[]</code>
+ * buffer and no {@link String} is ever created for it; no user object is
+ * involved either. Counting, summing or histogramming millions of values is
+ * then little more than the cost of tokenizing the document.
+ * <p/>
+ * An example counting the books of a library and summing their pages would
+ * look like this:
+ * 
+ * <pre>
+ * AggregateRule books = new AggregateRule(Type.TAG, &quot;/library/book&quot;,
+ * 		Function.COUNT);
+ * AggregateRule pages = new AggregateRule(Type.CHARACTER,
+ * 		&quot;/library/book/pages&quot;, Function.SUM);
+ * 
+ * new XMLParser(books, pages).parse(source);
+ * System.out.println(books.getCount() + &quot; books, &quot; + pages.getValue()
+ * 		+ &quot; pages&quot;);
+ * </pre>
+ * 
+ * <h3>Values</h3>
+ * {@link IRule.Type#TAG} rules count the elements they match and only support
+ * {@link Function#COUNT}. {@link IRule.Type#CHARACTER} and
+ * {@link IRule.Type#ATTRIBUTE} rules aggregate the values they match, with
+ * leading and trailing whitespace ignored; blank values and attributes missing
+ * from an element are not values and are skipped. Numeric functions parse the
+ * values with {@link ValueParser#parseDouble(char[], int, int)}; values that
+ * can't be parsed are counted by {@link #getInvalidCount()} and otherwise
+ * ignored, so a bad value in a huge feed never stops the parse.
+ * <h3>Thread Safety</h3>
+ * An aggregate rule accumulates over every parse it is used in until
+ * {@link #reset()} is called, and is not thread-safe: it must only be used by
+ * one parser at a time. Give every thread its own rules (and
+ * {@link com.thebuzzmedia.sjxp.RuleSet}) to aggregate concurrently, then
+ * combine the results.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods, unused by this rule.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public final class AggregateRule<T> extends DefaultRule<T> implements
+		ICharacterBufferRule<T> {
+	/**
+	 * The number of bits of a value's hash used to pick its
+	 * {@link Function#DISTINCT} register; 2^12 registers give a standard error
+	 * of about 1.6%.
+	 */
+	private static final int DISTINCT_BITS = 12;
+	private static final int DISTINCT_REGISTERS = 1 << DISTINCT_BITS;
+
+	private Function function;
+
+	private long count;
+	private long invalidCount;
+	private double value;
+
+	private byte[] registers;
+	private double[] bucketBounds;
+	private long[] buckets;
+
+	/**
+	 * Create a new rule computing the given function of the values it matches.
+	 * 
+	 * @param type
+	 *            The type of the rule.
+	 * @param locationPath
+	 *            The location path of the element.
+	 * @param function
+	 *            The function computed. Use
+	 *            {@link #AggregateRule(IRule.Type, String, double[], String...)}
+	 *            for a {@link Function#HISTOGRAM}.
+	 * @param attributeNames
+	 *            The attributes aggregated by an {@link IRule.Type#ATTRIBUTE}
+	 *            rule.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>function</code> is <code>null</code> or
+	 *             {@link Function#HISTOGRAM}, if <code>type</code> is
+	 *             {@link IRule.Type#TAG} and <code>function</code> isn't
+	 *             {@link Function#COUNT} or for any of the reasons listed in
+	 *             {@link DefaultRule#DefaultRule(IRule.Type, String, String...)}
+	 *             .
+	 */
+	public AggregateRule(Type type, String locationPath, Function function,
+			String... attributeNames) throws IllegalArgumentException {
+		super(type, locationPath, attributeNames);
+
+		if (function == null)
+			throw new IllegalArgumentException("function cannot be null");
+		if (function == Function.HISTOGRAM)
+			throw new IllegalArgumentException(
+					"Function.HISTOGRAM was specified without bucket bounds, use the constructor taking the bucket bounds instead.");
+		if (type == Type.TAG && function != Function.COUNT)
+			throw new IllegalArgumentException("Type.TAG rules have no values, "
+					+ function + " is not supported. Use Function.COUNT.");
+
+		this.function = function;
+
+		if (function == Function.DISTINCT)
+			registers = new byte[DISTINCT_REGISTERS];
+
+		reset();
+	}
+
+	/**
+	 * Create a new rule computing a {@link Function#HISTOGRAM} of the values it
+	 * matches.
+	 * <p/>
+	 * <code>n</code> bucket bounds define <code>n + 1</code> buckets: bucket
+	 * <code>0</code> counts the values lower than <code>bucketBounds[0]</code>,
+	 * bucket <code>i</code> the values &gt;= <code>bucketBounds[i - 1]</code>
+	 * and lower than <code>bucketBounds[i]</code>, and bucket <code>n</code>
+	 * the values &gt;= <code>bucketBounds[n - 1]</code>.
+	 * 
+	 * @param type
+	 *            The type of the rule.
+	 * @param locationPath
+	 *            The location path of the element.
+	 * @param bucketBounds
+	 *            The bounds between the buckets, in ascending order.
+	 * @param attributeNames
+	 *            The attributes aggregated by an {@link IRule.Type#ATTRIBUTE}
+	 *            rule.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>type</code> is {@link IRule.Type#TAG}, if
+	 *             <code>bucketBounds</code> is <code>null</code>, empty or not
+	 *             in strictly ascending order or for any of the reasons listed
+	 *             in
+	 *             {@link DefaultRule#DefaultRule(IRule.Type, String, String...)}
+	 *             .
+	 */
+	public AggregateRule(Type type, String locationPath,
+			double[] bucketBounds, String... attributeNames)
+			throws IllegalArgumentException {
+		super(type, locationPath, attributeNames);
+
+		if (type == Type.TAG)
+			throw new IllegalArgumentException(
+					"Type.TAG rules have no values, Function.HISTOGRAM is not supported. Use Function.COUNT.");
+		if (bucketBounds == null || bucketBounds.length == 0)
+			throw new IllegalArgumentException(
+					"bucketBounds cannot be null or empty");
+
+		for (int i = 0; i < bucketBounds.length; i++) {
+			if (Double.isNaN(bucketBounds[i])
+					|| (i > 0 && !(bucketBounds[i] > bucketBounds[i - 1])))
+				throw new IllegalArgumentException("bucketBounds["
+						+ i
+						+ "] ["
+						+ bucketBounds[i]
+						+ "] must be greater than the bound before it, bounds must be in strictly ascending order.");
+		}
+
+		this.function = Function.HISTOGRAM;
+		this.bucketBounds = bucketBounds.clone();
+		buckets = new long[bucketBounds.length + 1];
+
+		reset();
+	}
+
+	/**
+	 * Overridden to provide a nicely formatted representation of the rule for
+	 * easy debugging.
+	 */
+	@Override
+	public String toString() {
+		return super.toString() + "[function=" + function + ", count="
+				+ count + ", invalidCount=" + invalidCount + ", value="
+				+ getValue() + "]";
+	}
+
+	/**
+	 * Used to get the function computed by this rule.
+	 * 
+	 * @return the function computed by this rule.
+	 */
+	public Function getFunction() {
+		return function;
+	}
+
+	/**
+	 * Used to get the number of values aggregated (elements for
+	 * {@link IRule.Type#TAG} rules), not counting invalid values.
+	 * 
+	 * @return the number of values aggregated.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Used to get the number of values a numeric function skipped because
+	 * they could not be parsed.
+	 * 
+	 * @return the number of invalid values.
+	 */
+	public long getInvalidCount() {
+		return invalidCount;
+	}
+
+	/**
+	 * Used to get the result of the function:
+	 * <ul>
+	 * <li>{@link Function#COUNT} and {@link Function#HISTOGRAM}: the number of
+	 * values, same as {@link #getCount()}.</li>
+	 * <li>{@link Function#SUM}: the sum of the values, 0 if there are none.</li>
+	 * <li>{@link Function#MIN} and {@link Function#MAX}: the lowest or highest
+	 * value, {@link Double#NaN} if there are none.</li>
+	 * <li>{@link Function#DISTINCT}: the estimated number of distinct values.</li>
+	 * </ul>
+	 * 
+	 * @return the result of the function.
+	 */
+	public double getValue() {
+		switch (function) {
+		case SUM:
+		case MIN:
+		case MAX:
+			return value;
+
+		case DISTINCT:
+			return estimateDistinct();
+
+		default:
+			return count;
+		}
+	}
+
+	/**
+	 * Used to get the bucket bounds of a {@link Function#HISTOGRAM}.
+	 * 
+	 * @return a copy of the bucket bounds, or <code>null</code> if this rule
+	 *         doesn't compute a histogram.
+	 */
+	public double[] getBucketBounds() {
+		return (bucketBounds == null ? null : bucketBounds.clone());
+	}
+
+	/**
+	 * Used to get the number of values in every bucket of a
+	 * {@link Function#HISTOGRAM}.
+	 * 
+	 * @return a copy of the bucket counts (see
+	 *         {@link #AggregateRule(IRule.Type, String, double[], String...)}),
+	 *         or <code>null</code> if this rule doesn't compute a histogram.
+	 */
+	public long[] getHistogram() {
+		return (buckets == null ? null : buckets.clone());
+	}
+
+	/**
+	 * Used to clear the aggregate so the rule starts over.
+	 */
+	public void reset() {
+		count = 0;
+		invalidCount = 0;
+
+		switch (function) {
+		case MIN:
+		case MAX:
+			value = Double.NaN;
+			break;
+
+		default:
+			value = 0;
+		}
+
+		if (registers != null)
+			Arrays.fill(registers, (byte) 0);
+		if (buckets != null)
+			Arrays.fill(buckets, 0);
+	}
+
+	/**
+	 * Used to count an element matched by an {@link IRule.Type#TAG} rule; end
+	 * tags are ignored.
+	 */
+	@Override
+	public void handleTag(XMLParser<T> parser, boolean isStartTag,
+			T userObject) {
+		if (isStartTag)
+			count++;
+	}
+
+	/**
+	 * Used to aggregate an attribute value matched by this rule.
+	 */
+	@Override
+	public void handleParsedAttribute(XMLParser<T> parser, int index,
+			String value, T userObject) {
+		if (value != null)
+			aggregate(null, value, 0, value.length());
+	}
+
+	/**
+	 * Used to aggregate the character data matched by this rule. The parser
+	 * never calls this (it uses the buffer instead), it is only provided so
+	 * the rule behaves the same if it is called directly.
+	 */
+	@Override
+	public void handleParsedCharacters(XMLParser<T> parser, String text,
+			T userObject) {
+		aggregate(null, text, 0, text.length());
+	}
+
+	/**
+	 * Used to aggregate the character data matched by this rule out of the
+	 * parser's buffer.
+	 */
+	public void handleParsedCharacters(XMLParser<T> parser, char[] buffer,
+			int start, int length, T userObject) {
+		aggregate(buffer, null, start, start + length);
+	}
+
+	/**
+	 * Used to aggregate the characters of either <code>buffer</code> or
+	 * <code>text</code> between <code>start</code> and <code>end</code>.
+	 */
+	private void aggregate(char[] buffer, String text, int start, int end) {
+		// Trim, blank values aren't values
+		while (start < end && isWhitespace(charAt(buffer, text, start)))
+			start++;
+		while (end > start && isWhitespace(charAt(buffer, text, end - 1)))
+			end--;
+
+		if (start == end)
+			return;
+
+		if (function == Function.COUNT) {
+			count++;
+			return;
+		}
+
+		if (function == Function.DISTINCT) {
+			addDistinct(buffer, text, start, end);
+			count++;
+			return;
+		}
+
+		double number;
+
+		try {
+			// ValueParser ignores the whitespace around the value by itself
+			number = (buffer == null ? ValueParser.parseDouble(text)
+					: ValueParser.parseDouble(buffer, start, end - start));
+		} catch (NumberFormatException e) {
+			invalidCount++;
+			return;
+		}
+
+		switch (function) {
+		case SUM:
+			value += number;
+			break;
+
+		case MIN:
+			if (count == 0 || number < value)
+				value = number;
+			break;
+
+		case MAX:
+			if (count == 0 || number > value)
+				value = number;
+			break;
+
+		default:
+			buckets[bucketOf(number)]++;
+		}
+
+		count++;
+	}
+
+	/**
+	 * Used to find the bucket of the given value with a binary search of the
+	 * bucket bounds.
+	 */
+	private int bucketOf(double number) {
+		int low = 0;
+		int high = bucketBounds.length;
+
+		// Find the first bound greater than the value
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (number < bucketBounds[middle])
+				high = middle;
+			else
+				low = middle + 1;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Used to add a value to the HyperLogLog sketch estimating the number of
+	 * distinct values: the first bits of the value's hash pick a register that
+	 * keeps the longest run of leading zeros seen in the rest of the hash.
+	 */
+	private void addDistinct(char[] buffer, String text, int start, int end) {
+		// 64-bit FNV-1a, mixed with the MurmurHash3 finalizer
+		long hash = 0xcbf29ce484222325L;
+
+		for (int i = start; i < end; i++)
+			hash = (hash ^ charAt(buffer, text, i)) * 0x100000001b3L;
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		int register = (int) (hash >>> (64 - DISTINCT_BITS));
+		byte rank = (byte) (Long.numberOfLeadingZeros((hash << DISTINCT_BITS)
+				| (1L << (DISTINCT_BITS - 1))) + 1);
+
+		if (rank > registers[register])
+			registers[register] = rank;
+	}
+
+	private double estimateDistinct() {
+		double sum = 0;
+		int zeros = 0;
+
+		for (int i = 0; i < DISTINCT_REGISTERS; i++) {
+			sum += 1.0 / (1L << registers[i]);
+
+			if (registers[i] == 0)
+				zeros++;
+		}
+
+		double m = DISTINCT_REGISTERS;
+		double estimate = (0.7213 / (1 + 1.079 / m)) * m * m / sum;
+
+		// Small cardinalities are estimated better by linear counting
+		if (estimate <= 2.5 * m && zeros > 0)
+			estimate = m * Math.log(m / zeros);
+
+		return Math.round(estimate);
+	}
+
+	private static char charAt(char[] buffer, String text, int index) {
+		return (buffer == null ? text.charAt(index) : buffer[index]);
+	}
+
+	private static boolean isWhitespace(char c) {
+		return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+	}
+
+	/**
+	 * Enum used to describe the aggregate computed by an {@link AggregateRule}
+	 * .
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	public enum Function {
+		/**
+		 * The number of values (or elements, for {@link IRule.Type#TAG}
+		 * rules).
+		 */
+		COUNT,
+		/**
+		 * The sum of the numeric values.
+		 */
+		SUM,
+		/**
+		 * The lowest numeric value.
+		 */
+		MIN,
+		/**
+		 * The highest numeric value.
+		 */
+		MAX,
+		/**
+		 * An estimate of the number of distinct values, computed in a fixed
+		 * 4 KB of memory however many values there are (HyperLogLog, with a
+		 * standard error of about 1.6%).
+		 */
+		DISTINCT,
+		/**
+		 * The number of numeric values falling in each of a set of buckets.
+		 */
+		HISTOGRAM;
+	}
+}
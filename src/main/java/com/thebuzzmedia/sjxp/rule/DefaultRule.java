@@ -50,6 +50,18 @@ import com.thebuzzmedia.sjxp.XMLParser;
  * };
  * </pre>
  * 
+ * <h3>Match Limits</h3>
+ * A rule can be created with a match limit (see {@link ILimitedRule}) if it
+ * only needs the first few matches from a document, for example:
+ * 
+ * <pre>
+ * new DefaultRule(Type.CHARACTER, &quot;/rss/channel/item/title&quot;, 20) {
+ * 	// Only called for the first 20 item titles
+ * };
+ * </pre>
+ * 
+ * If every rule given to an {@link XMLParser} has a limit, the parser stops
+ * reading the document as soon as all of them have been reached.
  * <h3>Instance Reuse</h3>
  * Instances of {@link DefaultRule} are immutable and maintain no internal
  * state, so re-using the same {@link DefaultRule} among multiple instances of
@@ -66,12 +78,13 @@ import com.thebuzzmedia.sjxp.XMLParser;
  * 
  * @author Riyad Kalla (software@thebuzzmedia.com)
  */
-public class DefaultRule<T> implements IRule<T> {
+public class DefaultRule<T> implements ILimitedRule<T> {
 	private String toStringCache = null;
 
 	private Type type;
 	private String locationPath;
 	private String[] attributeNames;
+	private int matchLimit;
 
 	/**
 	 * Create a new rule with the given values.
@@ -95,6 +108,34 @@ public class DefaultRule<T> implements IRule<T> {
 	 */
 	public DefaultRule(Type type, String locationPath, String... attributeNames)
 			throws IllegalArgumentException {
+		this(type, locationPath, UNLIMITED, attributeNames);
+	}
+
+	/**
+	 * Create a new rule with the given values that will be matched at most
+	 * <code>matchLimit</code> times per parse.
+	 * 
+	 * @param type
+	 *            The type of the rule.
+	 * @param locationPath
+	 *            The location path of the element to target in the XML.
+	 * @param matchLimit
+	 *            The maximum number of times the rule will be matched during a
+	 *            single parse or {@link ILimitedRule#UNLIMITED} if there is no
+	 *            limit.
+	 * @param attributeNames
+	 *            An optional list of attribute names to parse values for if the
+	 *            type of this rule is {@link IRule.Type#ATTRIBUTE}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>matchLimit</code> is &lt; 0 or for any of the
+	 *             reasons listed in
+	 *             {@link #DefaultRule(IRule.Type, String, String...)}.
+	 * 
+	 * @see ILimitedRule
+	 */
+	public DefaultRule(Type type, String locationPath, int matchLimit,
+			String... attributeNames) throws IllegalArgumentException {
 		if (type == null)
 			throw new IllegalArgumentException("type cannot be null");
 		if (locationPath == null || locationPath.length() == 0)
@@ -124,10 +165,14 @@ public class DefaultRule<T> implements IRule<T> {
 				&& attributeNames.length > 0)
 			throw new IllegalArgumentException(
 					"Type.CHARACTER was specified, but attribute names were passed in. This is likely a mistake and can be fixed by simply not passing in the ignored attribute names.");
+		if (matchLimit < 0)
+			throw new IllegalArgumentException("matchLimit [" + matchLimit
+					+ "] must be >= 0 (0 meaning UNLIMITED)");
 
 		this.type = type;
 		this.locationPath = locationPath;
 		this.attributeNames = attributeNames;
+		this.matchLimit = matchLimit;
 	}
 
 	/**
@@ -162,7 +207,10 @@ public class DefaultRule<T> implements IRule<T> {
 
 			toStringCache = this.getClass().getName() + "[type=" + type
 					+ ", locationPath=" + locationPath + ", attributeNames="
-					+ (builder == null ? "" : builder.toString()) + "]";
+					+ (builder == null ? "" : builder.toString())
+					+ ", matchLimit="
+					+ (matchLimit == UNLIMITED ? "UNLIMITED" : matchLimit)
+					+ "]";
 		}
 
 		return toStringCache;
@@ -180,6 +228,10 @@ public class DefaultRule<T> implements IRule<T> {
 		return attributeNames;
 	}
 
+	public int getMatchLimit() {
+		return matchLimit;
+	}
+
 	/**
 	 * Default no-op implementation. Please override with your own logic.
 	 * 
@@ -0,0 +1,118 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Class used to define a rule that parses the values it matches into
+ * a <code>double</code>.
+ * <p/>
+ * Most values are parsed with a fast, exact path; see
+ * {@link ValueParser#parseDouble(char[], int, int)} for details.
+ * <p/>
+ * An example would look like this:
+ * 
+ * <pre>
+ * new DoubleRule(Type.CHARACTER, &quot;/library/book/price&quot;) {
+ * 	&#064;Override
+ * 	public void handleParsedDouble(XMLParser parser, int index, double value,
+ * 			T userObject) {
+ * 		// Handle the price
+ * 	}
+ * };
+ * </pre>
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see AbstractTypedRule
+ */
+public class DoubleRule<T> extends AbstractTypedRule<T> {
+	/**
+	 * @see AbstractTypedRule#AbstractTypedRule(IRule.Type, String, String...)
+	 */
+	public DoubleRule(Type type, String locationPath, String... attributeNames)
+			throws IllegalArgumentException {
+		super(type, locationPath, attributeNames);
+	}
+
+	/**
+	 * @see AbstractTypedRule#AbstractTypedRule(IRule.Type, String, int,
+	 *      String...)
+	 */
+	public DoubleRule(Type type, String locationPath, int matchLimit,
+			String... attributeNames) throws IllegalArgumentException {
+		super(type, locationPath, matchLimit, attributeNames);
+	}
+
+	/**
+	 * Handler method called with every value matched by this rule. Default
+	 * no-op implementation, please override with your own logic.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param index
+	 *            The index of the attribute name (from
+	 *            {@link #getAttributeNames()}) the value belongs to, or 0 for
+	 *            {@link IRule.Type#CHARACTER} rules.
+	 * @param value
+	 *            The parsed value.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method.
+	 */
+	public void handleParsedDouble(XMLParser<T> parser, int index, double value,
+			T userObject) {
+		// no-op impl
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index, char[] buffer,
+			int start, int length, T userObject) {
+		double value;
+
+		try {
+			value = ValueParser.parseDouble(buffer, start, length);
+		} catch (NumberFormatException e) {
+			handleInvalidValue(parser, index, new String(buffer, start, length),
+					e, userObject);
+			return;
+		}
+
+		handleParsedDouble(parser, index, value, userObject);
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index,
+			CharSequence text, T userObject) {
+		double value;
+
+		try {
+			value = ValueParser.parseDouble(text);
+		} catch (NumberFormatException e) {
+			handleInvalidValue(parser, index, text.toString(), e, userObject);
+			return;
+		}
+
+		handleParsedDouble(parser, index, value, userObject);
+	}
+}
@@ -0,0 +1,144 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Class used to define a rule that parses the values it matches into one of
+ * the constants of an enum, by matching the value against the exact name of
+ * each constant.
+ * <p/>
+ * An example would look like this:
+ * 
+ * <pre>
+ * new EnumRule(Type.ATTRIBUTE, &quot;/zoo/cage/animal&quot;, Species.class, &quot;type&quot;) {
+ * 	&#064;Override
+ * 	public void handleParsedEnum(XMLParser parser, int index, Species value,
+ * 			T userObject) {
+ * 		// Handle the species
+ * 	}
+ * };
+ * </pre>
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * @param <E>
+ *            The enum type values are parsed into.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see AbstractTypedRule
+ */
+public class EnumRule<T, E extends Enum<E>> extends AbstractTypedRule<T> {
+	private E[] constants;
+
+	/**
+	 * Create a new rule with the given values.
+	 * 
+	 * @param enumType
+	 *            The enum type values are parsed into.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>enumType</code> is <code>null</code> or for any of
+	 *             the reasons listed in
+	 *             {@link AbstractTypedRule#AbstractTypedRule(IRule.Type, String, String...)}
+	 *             .
+	 */
+	public EnumRule(Type type, String locationPath, Class<E> enumType,
+			String... attributeNames) throws IllegalArgumentException {
+		this(type, locationPath, UNLIMITED, enumType, attributeNames);
+	}
+
+	/**
+	 * Create a new rule with the given values that will be matched at most
+	 * <code>matchLimit</code> times per parse.
+	 * 
+	 * @param enumType
+	 *            The enum type values are parsed into.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if <code>enumType</code> is <code>null</code> or for any of
+	 *             the reasons listed in
+	 *             {@link AbstractTypedRule#AbstractTypedRule(IRule.Type, String, int, String...)}
+	 *             .
+	 */
+	public EnumRule(Type type, String locationPath, int matchLimit,
+			Class<E> enumType, String... attributeNames)
+			throws IllegalArgumentException {
+		super(type, locationPath, matchLimit, attributeNames);
+
+		if (enumType == null)
+			throw new IllegalArgumentException("enumType cannot be null");
+
+		constants = enumType.getEnumConstants();
+	}
+
+	/**
+	 * Handler method called with every value matched by this rule. Default
+	 * no-op implementation, please override with your own logic.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param index
+	 *            The index of the attribute name (from
+	 *            {@link #getAttributeNames()}) the value belongs to, or 0 for
+	 *            {@link IRule.Type#CHARACTER} rules.
+	 * @param value
+	 *            The enum constant named by the value.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method.
+	 */
+	public void handleParsedEnum(XMLParser<T> parser, int index, E value,
+			T userObject) {
+		// no-op impl
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index, char[] buffer,
+			int start, int length, T userObject) {
+		E value;
+
+		try {
+			value = ValueParser.parseEnum(constants, buffer, start, length);
+		} catch (IllegalArgumentException e) {
+			handleInvalidValue(parser, index, new String(buffer, start, length),
+					e, userObject);
+			return;
+		}
+
+		handleParsedEnum(parser, index, value, userObject);
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index,
+			CharSequence text, T userObject) {
+		E value;
+
+		try {
+			value = ValueParser.parseEnum(constants, text);
+		} catch (IllegalArgumentException e) {
+			handleInvalidValue(parser, index, text.toString(), e, userObject);
+			return;
+		}
+
+		handleParsedEnum(parser, index, value, userObject);
+	}
+}
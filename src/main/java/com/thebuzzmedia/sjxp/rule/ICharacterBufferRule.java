@@ -0,0 +1,95 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Interface used to describe a {@link IRule.Type#CHARACTER} rule that wants
+ * the matching character data handed to it straight out of the underlying
+ * parser's <code>char[]</code> buffer instead of as a new {@link String}.
+ * <p/>
+ * When a rule implements this interface, the {@link XMLParser} calls
+ * {@link #handleParsedCharacters(XMLParser, char[], int, int, Object)} instead
+ * of {@link #handleParsedCharacters(XMLParser, String, Object)}. Handlers that
+ * only need to count, hash, compare or parse numbers out of the text can then
+ * do so without allocating anything at all. If none of the rules matching a
+ * TEXT event need a {@link String}, the parser never creates one.
+ * <p/>
+ * An example would look like this:
+ * 
+ * <pre>
+ * class LengthRule extends DefaultRule implements ICharacterBufferRule {
+ * 	public LengthRule() {
+ * 		super(Type.CHARACTER, &quot;/library/book/title&quot;);
+ * 	}
+ * 
+ * 	public void handleParsedCharacters(XMLParser parser, char[] buffer,
+ * 			int start, int length, Object userObject) {
+ * 		totalLength += length;
+ * 	}
+ * }
+ * </pre>
+ * 
+ * <h3>Buffer Lifetime</h3>
+ * The buffer belongs to the underlying pull parser and is reused as soon as
+ * the handler returns; the handler must never modify it or hold onto it. Copy
+ * the characters out (e.g. <code>new String(buffer, start, length)</code>) if
+ * they are needed later.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface ICharacterBufferRule<T> extends IRule<T> {
+	/**
+	 * Handler method called by the {@link XMLParser} when an
+	 * {@link ICharacterBufferRule} of type {@link IRule.Type#CHARACTER} matches
+	 * the parser's current location in the document.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 *            Providing access to the originating parser is handy if the
+	 *            rule wants to stop parsing by calling {@link XMLParser#stop()}
+	 *            .
+	 * @param buffer
+	 *            The buffer holding the character data contained between the
+	 *            open and close tags described by {@link #getLocationPath()}.
+	 *            This must not be modified or held onto after the handler
+	 *            returns.
+	 * @param start
+	 *            The index of the first character of the data in
+	 *            <code>buffer</code>.
+	 * @param length
+	 *            The number of characters of data in <code>buffer</code>.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method directly to this
+	 *            handler. This is typically a data storage mechanism like a DAO
+	 *            or cache used to hold parsed data or <code>null</code> if you
+	 *            do not need to make use of this pass-through mechanism and
+	 *            passed nothing to the {@link XMLParser} when you initiated the
+	 *            parse.
+	 * 
+	 * @see #getLocationPath()
+	 */
+	public void handleParsedCharacters(XMLParser<T> parser, char[] buffer,
+			int start, int length, T userObject);
+}
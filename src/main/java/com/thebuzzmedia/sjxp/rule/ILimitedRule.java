@@ -0,0 +1,71 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Interface used to describe an {@link IRule} that only wants to be matched a
+ * limited number of times per parse (e.g. "the first 20 items" or "only the
+ * channel title").
+ * <p/>
+ * Once a rule has been matched as many times as its limit allows, the
+ * {@link XMLParser} drops it from its dispatch tables for the rest of the
+ * parse, so it costs nothing from that point on. When <strong>every</strong>
+ * rule given to the parser is limited and all of them have reached their
+ * limit, the parser stops automatically (exactly as if {@link XMLParser#stop()}
+ * had been called) instead of reading the rest of the document.
+ * <p/>
+ * Limits are tracked per parse; every call to one of the parser's
+ * <code>parse</code> methods starts counting again from zero.
+ * <h3>What Counts as a Match</h3>
+ * <ul>
+ * <li>{@link IRule.Type#TAG} - every matching element counts once, after the
+ * rule has been notified of its END_TAG.</li>
+ * <li>{@link IRule.Type#ATTRIBUTE} - every matching element counts once, after
+ * all the rule's attribute values for that element have been handled.</li>
+ * <li>{@link IRule.Type#CHARACTER} - every call to
+ * {@link #handleParsedCharacters(XMLParser, String, Object)} counts once.</li>
+ * </ul>
+ * <strong>NOTE</strong>: If a {@link IRule.Type#TAG} rule matches elements
+ * nested inside of each other (e.g. with a <code>//</code> location path) and
+ * reaches its limit on an inner element, it will not be notified of the
+ * END_TAGs of the enclosing elements.
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when an
+ *            {@link IRule} matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public interface ILimitedRule<T> extends IRule<T> {
+	/**
+	 * Value returned by {@link #getMatchLimit()} to indicate the rule can be
+	 * matched any number of times.
+	 */
+	public static final int UNLIMITED = 0;
+
+	/**
+	 * Used to get the maximum number of times this rule will be matched during
+	 * a single parse.
+	 * 
+	 * @return the maximum number of times this rule will be matched during a
+	 *         single parse or {@link #UNLIMITED} if there is no limit.
+	 */
+	public int getMatchLimit();
+}
@@ -57,6 +57,25 @@ import com.thebuzzmedia.sjxp.XMLParser;
  * would point the "title" element inside of the "book" element which is inside
  * the "library" element. If you are after a specific attribute of that element,
  * simply provide its name as an attribute argument.
+ * <h3>Rule Format - Wildcards</h3>
+ * A location path can also match more than one exact path by using a few
+ * simple wildcards:
+ * <ul>
+ * <li><code>*</code> matches any single element, in any namespace (e.g.
+ * <code>/rss/&#42;/title</code> matches the "title" element of every child
+ * of "rss").</li>
+ * <li><code>[namespaceURI]*</code> matches any single element from the given
+ * namespace (e.g. <code>/rss/channel/item/[http://purl.org/dc/elements/1.1/]*</code>
+ * ).</li>
+ * <li><code>//</code> matches the element that follows it at any depth below
+ * the previous element (or the document) instead of only as a direct child
+ * (e.g. <code>//title</code> matches every "title" element in the document
+ * and <code>/rss//item/title</code> matches the "title" of every "item" found
+ * anywhere inside of "rss").</li>
+ * </ul>
+ * All the location paths given to an {@link XMLParser}, wildcard or not, are
+ * compiled into a single state machine, so using wildcards does not slow down
+ * the matching of any other rule.
  * <h3>Rule Format - Namespaces</h3>
  * Referring to a namespace-qualified element in an XML doc is easy; whether it
  * is part of the location path or an attribute name, all you have to do is
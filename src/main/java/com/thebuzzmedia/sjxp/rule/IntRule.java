@@ -0,0 +1,115 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Class used to define a rule that parses the values it matches into
+ * an <code>int</code>.
+ * <p/>
+ * An example would look like this:
+ * 
+ * <pre>
+ * new IntRule(Type.CHARACTER, &quot;/library/book/pages&quot;) {
+ * 	&#064;Override
+ * 	public void handleParsedInt(XMLParser parser, int index, int value,
+ * 			T userObject) {
+ * 		// Handle the number of pages
+ * 	}
+ * };
+ * </pre>
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see AbstractTypedRule
+ */
+public class IntRule<T> extends AbstractTypedRule<T> {
+	/**
+	 * @see AbstractTypedRule#AbstractTypedRule(IRule.Type, String, String...)
+	 */
+	public IntRule(Type type, String locationPath, String... attributeNames)
+			throws IllegalArgumentException {
+		super(type, locationPath, attributeNames);
+	}
+
+	/**
+	 * @see AbstractTypedRule#AbstractTypedRule(IRule.Type, String, int,
+	 *      String...)
+	 */
+	public IntRule(Type type, String locationPath, int matchLimit,
+			String... attributeNames) throws IllegalArgumentException {
+		super(type, locationPath, matchLimit, attributeNames);
+	}
+
+	/**
+	 * Handler method called with every value matched by this rule. Default
+	 * no-op implementation, please override with your own logic.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param index
+	 *            The index of the attribute name (from
+	 *            {@link #getAttributeNames()}) the value belongs to, or 0 for
+	 *            {@link IRule.Type#CHARACTER} rules.
+	 * @param value
+	 *            The parsed value.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method.
+	 */
+	public void handleParsedInt(XMLParser<T> parser, int index, int value,
+			T userObject) {
+		// no-op impl
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index, char[] buffer,
+			int start, int length, T userObject) {
+		int value;
+
+		try {
+			value = ValueParser.parseInt(buffer, start, length);
+		} catch (NumberFormatException e) {
+			handleInvalidValue(parser, index, new String(buffer, start, length),
+					e, userObject);
+			return;
+		}
+
+		handleParsedInt(parser, index, value, userObject);
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index,
+			CharSequence text, T userObject) {
+		int value;
+
+		try {
+			value = ValueParser.parseInt(text);
+		} catch (NumberFormatException e) {
+			handleInvalidValue(parser, index, text.toString(), e, userObject);
+			return;
+		}
+
+		handleParsedInt(parser, index, value, userObject);
+	}
+}
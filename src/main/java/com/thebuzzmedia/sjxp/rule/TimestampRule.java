@@ -0,0 +1,119 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+
+/**
+ * Class used to define a rule that parses the values it matches into
+ * a timestamp (milliseconds since the epoch).
+ * <p/>
+ * Values can be plain numbers of milliseconds or ISO 8601 dates and
+ * date-times (e.g. "2011-02-22T10:15:30Z"), see
+ * {@link ValueParser#parseTimestamp(char[], int, int)} for the exact formats.
+ * <p/>
+ * An example would look like this:
+ * 
+ * <pre>
+ * new TimestampRule(Type.CHARACTER, &quot;/library/book/published&quot;) {
+ * 	&#064;Override
+ * 	public void handleParsedTimestamp(XMLParser parser, int index, long value,
+ * 			T userObject) {
+ * 		// Handle the publication date
+ * 	}
+ * };
+ * </pre>
+ * 
+ * @param <T>
+ *            The class type of any user-supplied object that the caller wishes
+ *            to be passed through from one of the {@link XMLParser}'s
+ *            <code>parse</code> methods directly to the handler when a rule
+ *            matches.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ * 
+ * @see AbstractTypedRule
+ */
+public class TimestampRule<T> extends AbstractTypedRule<T> {
+	/**
+	 * @see AbstractTypedRule#AbstractTypedRule(IRule.Type, String, String...)
+	 */
+	public TimestampRule(Type type, String locationPath, String... attributeNames)
+			throws IllegalArgumentException {
+		super(type, locationPath, attributeNames);
+	}
+
+	/**
+	 * @see AbstractTypedRule#AbstractTypedRule(IRule.Type, String, int,
+	 *      String...)
+	 */
+	public TimestampRule(Type type, String locationPath, int matchLimit,
+			String... attributeNames) throws IllegalArgumentException {
+		super(type, locationPath, matchLimit, attributeNames);
+	}
+
+	/**
+	 * Handler method called with every value matched by this rule. Default
+	 * no-op implementation, please override with your own logic.
+	 * 
+	 * @param parser
+	 *            The source {@link XMLParser} currently executing this rule.
+	 * @param index
+	 *            The index of the attribute name (from
+	 *            {@link #getAttributeNames()}) the value belongs to, or 0 for
+	 *            {@link IRule.Type#CHARACTER} rules.
+	 * @param value
+	 *            The parsed value.
+	 * @param userObject
+	 *            The user-supplied object passed through from the
+	 *            {@link XMLParser}'s <code>parse</code> method.
+	 */
+	public void handleParsedTimestamp(XMLParser<T> parser, int index, long value,
+			T userObject) {
+		// no-op impl
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index, char[] buffer,
+			int start, int length, T userObject) {
+		long value;
+
+		try {
+			value = ValueParser.parseTimestamp(buffer, start, length);
+		} catch (IllegalArgumentException e) {
+			handleInvalidValue(parser, index, new String(buffer, start, length),
+					e, userObject);
+			return;
+		}
+
+		handleParsedTimestamp(parser, index, value, userObject);
+	}
+
+	@Override
+	protected void parseValue(XMLParser<T> parser, int index,
+			CharSequence text, T userObject) {
+		long value;
+
+		try {
+			value = ValueParser.parseTimestamp(text);
+		} catch (IllegalArgumentException e) {
+			handleInvalidValue(parser, index, text.toString(), e, userObject);
+			return;
+		}
+
+		handleParsedTimestamp(parser, index, value, userObject);
+	}
+}
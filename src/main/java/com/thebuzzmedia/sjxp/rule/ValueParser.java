@@ -0,0 +1,591 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+/**
+ * Class used to parse typed values directly out of a range of a
+ * <code>char[]</code> (or out of a {@link CharSequence}) without creating any
+ * intermediate {@link String}s.
+ * <p/>
+ * This is what the typed rules (e.g. {@link IntRule} or {@link DoubleRule})
+ * use to turn the character data handed to them by the parser's buffer into
+ * values, but the methods are just as usable from inside of your own
+ * {@link ICharacterBufferRule} implementations.
+ * <h3>Whitespace</h3>
+ * Leading and trailing XML whitespace (space, tab, carriage return and line
+ * feed) is ignored by every method, so values that are pretty-printed onto
+ * their own line parse the same as values that aren't.
+ * <h3>Invalid Values</h3>
+ * Every method throws an {@link IllegalArgumentException} (or the
+ * {@link NumberFormatException} subclass for numbers) if the value isn't
+ * valid for the requested type; a {@link String} of the value is only ever
+ * created to build the exception message.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+public final class ValueParser {
+	/**
+	 * Every power of ten that can be represented exactly as a
+	 * <code>double</code>.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * The largest number of significant digits a <code>long</code> mantissa
+	 * can hold exactly while parsing a <code>double</code>.
+	 */
+	private static final int MAX_MANTISSA_DIGITS = 18;
+
+	/**
+	 * The largest number of significant digits that are guaranteed to fit in
+	 * the 53 bits of a <code>double</code> mantissa.
+	 */
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	private ValueParser() {
+		// no-op, static utility class
+	}
+
+	public static int parseInt(char[] buffer, int start, int length)
+			throws NumberFormatException {
+		return parseInt(buffer, null, start, start + length);
+	}
+
+	public static int parseInt(CharSequence text) throws NumberFormatException {
+		return parseInt(null, text, 0, text.length());
+	}
+
+	public static long parseLong(char[] buffer, int start, int length)
+			throws NumberFormatException {
+		return parseLong(buffer, null, start, start + length);
+	}
+
+	public static long parseLong(CharSequence text)
+			throws NumberFormatException {
+		return parseLong(null, text, 0, text.length());
+	}
+
+	/**
+	 * Used to parse a <code>double</code> value.
+	 * <p/>
+	 * Values with no more than 15 significant digits and a decimal exponent
+	 * within +/-22 (which covers the vast majority of the values found in XML
+	 * documents) are calculated directly with a single, correctly rounded,
+	 * multiplication or division. Anything else falls back to
+	 * {@link Double#parseDouble(String)}, so the result is always identical to
+	 * what {@link Double#parseDouble(String)} would return.
+	 */
+	public static double parseDouble(char[] buffer, int start, int length)
+			throws NumberFormatException {
+		return parseDouble(buffer, null, start, start + length);
+	}
+
+	/**
+	 * @see #parseDouble(char[], int, int)
+	 */
+	public static double parseDouble(CharSequence text)
+			throws NumberFormatException {
+		return parseDouble(null, text, 0, text.length());
+	}
+
+	/**
+	 * Used to parse a <code>boolean</code> value using the XML Schema
+	 * definition of a boolean: "true" or "1" for <code>true</code> and "false"
+	 * or "0" for <code>false</code>.
+	 */
+	public static boolean parseBoolean(char[] buffer, int start, int length)
+			throws IllegalArgumentException {
+		return parseBoolean(buffer, null, start, start + length);
+	}
+
+	/**
+	 * @see #parseBoolean(char[], int, int)
+	 */
+	public static boolean parseBoolean(CharSequence text)
+			throws IllegalArgumentException {
+		return parseBoolean(null, text, 0, text.length());
+	}
+
+	/**
+	 * Used to parse a timestamp into the number of milliseconds since the
+	 * epoch (1970-01-01T00:00:00Z).
+	 * <p/>
+	 * The value can either be a plain (optionally signed) integer, which is
+	 * returned as-is as a number of milliseconds, or an ISO 8601 (XML Schema)
+	 * date or date-time, for example:
+	 * <ul>
+	 * <li>2011-02-22</li>
+	 * <li>2011-02-22T10:15:30</li>
+	 * <li>2011-02-22T10:15:30.125Z</li>
+	 * <li>2011-02-22T10:15:30-05:00</li>
+	 * </ul>
+	 * Dates and date-times without a time zone are treated as UTC. Fractions of
+	 * a second beyond milliseconds are truncated.
+	 */
+	public static long parseTimestamp(char[] buffer, int start, int length)
+			throws IllegalArgumentException {
+		return parseTimestamp(buffer, null, start, start + length);
+	}
+
+	/**
+	 * @see #parseTimestamp(char[], int, int)
+	 */
+	public static long parseTimestamp(CharSequence text)
+			throws IllegalArgumentException {
+		return parseTimestamp(null, text, 0, text.length());
+	}
+
+	/**
+	 * Used to find the enum constant (from the given constants) whose name
+	 * matches the value exactly.
+	 * 
+	 * @param constants
+	 *            The constants to choose from, typically the result of
+	 *            <code>Class.getEnumConstants()</code>.
+	 */
+	public static <E extends Enum<E>> E parseEnum(E[] constants,
+			char[] buffer, int start, int length)
+			throws IllegalArgumentException {
+		return parseEnum(constants, buffer, null, start, start + length);
+	}
+
+	/**
+	 * @see #parseEnum(Enum[], char[], int, int)
+	 */
+	public static <E extends Enum<E>> E parseEnum(E[] constants,
+			CharSequence text) throws IllegalArgumentException {
+		return parseEnum(constants, null, text, 0, text.length());
+	}
+
+	private static int parseInt(char[] buffer, CharSequence text, int start,
+			int end) throws NumberFormatException {
+		long value = parseLong(buffer, text, start, end);
+
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new NumberFormatException("Value ["
+					+ toString(buffer, text, start, end)
+					+ "] is out of range for an int");
+
+		return (int) value;
+	}
+
+	private static long parseLong(char[] buffer, CharSequence text,
+			int start, int end) throws NumberFormatException {
+		int i = trimStart(buffer, text, start, end);
+		end = trimEnd(buffer, text, i, end);
+
+		if (i == end)
+			throw invalidNumber(buffer, text, start, end);
+
+		boolean negative = false;
+		char c = charAt(buffer, text, i);
+
+		if (c == '-' || c == '+') {
+			negative = (c == '-');
+
+			if (++i == end)
+				throw invalidNumber(buffer, text, start, end);
+		}
+
+		/*
+		 * Accumulate the value negatively (like Long.parseLong does) so that
+		 * Long.MIN_VALUE can be parsed without overflowing.
+		 */
+		long limit = (negative ? Long.MIN_VALUE : -Long.MAX_VALUE);
+		long multiplyLimit = limit / 10;
+		long result = 0;
+
+		for (; i < end; i++) {
+			int digit = charAt(buffer, text, i) - '0';
+
+			if (digit < 0 || digit > 9 || result < multiplyLimit)
+				throw invalidNumber(buffer, text, start, end);
+
+			result *= 10;
+
+			if (result < limit + digit)
+				throw invalidNumber(buffer, text, start, end);
+
+			result -= digit;
+		}
+
+		return (negative ? result : -result);
+	}
+
+	private static double parseDouble(char[] buffer, CharSequence text,
+			int start, int end) throws NumberFormatException {
+		int i = trimStart(buffer, text, start, end);
+		end = trimEnd(buffer, text, i, end);
+
+		boolean negative = false;
+
+		if (i < end) {
+			char c = charAt(buffer, text, i);
+
+			if (c == '-' || c == '+') {
+				negative = (c == '-');
+				i++;
+			}
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+
+		// Integer part
+		for (; i < end; i++) {
+			int digit = charAt(buffer, text, i) - '0';
+
+			if (digit < 0 || digit > 9)
+				break;
+
+			hasDigits = true;
+
+			if (digits < MAX_MANTISSA_DIGITS) {
+				mantissa = mantissa * 10 + digit;
+
+				// Leading zeros are not significant
+				if (mantissa != 0)
+					digits++;
+			} else
+				exponent++;
+		}
+
+		// Fraction part
+		if (i < end && charAt(buffer, text, i) == '.') {
+			for (i++; i < end; i++) {
+				int digit = charAt(buffer, text, i) - '0';
+
+				if (digit < 0 || digit > 9)
+					break;
+
+				hasDigits = true;
+
+				if (digits < MAX_MANTISSA_DIGITS) {
+					mantissa = mantissa * 10 + digit;
+					exponent--;
+
+					if (mantissa != 0)
+						digits++;
+				}
+			}
+		}
+
+		// Exponent part
+		if (hasDigits && i < end
+				&& (charAt(buffer, text, i) | 0x20) == 'e') {
+			boolean negativeExponent = false;
+			int value = 0;
+			int exponentStart = ++i;
+
+			if (i < end) {
+				char c = charAt(buffer, text, i);
+
+				if (c == '-' || c == '+') {
+					negativeExponent = (c == '-');
+					exponentStart = ++i;
+				}
+			}
+
+			for (; i < end; i++) {
+				int digit = charAt(buffer, text, i) - '0';
+
+				if (digit < 0 || digit > 9)
+					break;
+
+				// Anything this big is out of range anyway, stop accumulating
+				if (value < 100000)
+					value = value * 10 + digit;
+			}
+
+			if (i == exponentStart)
+				hasDigits = false;
+
+			exponent += (negativeExponent ? -value : value);
+		}
+
+		/*
+		 * Fast path: the mantissa and the power of ten are both exact doubles,
+		 * so the IEEE 754 multiplication or division rounds the result
+		 * correctly. Everything else (including NaN, Infinity and malformed
+		 * values) is left to Double.parseDouble.
+		 */
+		if (hasDigits && i == end && digits <= MAX_EXACT_DIGITS
+				&& exponent >= -22 && exponent <= 22) {
+			double value = mantissa;
+
+			if (exponent < 0)
+				value /= POWERS_OF_TEN[-exponent];
+			else
+				value *= POWERS_OF_TEN[exponent];
+
+			return (negative ? -value : value);
+		}
+
+		return Double.parseDouble(toString(buffer, text, start, end));
+	}
+
+	private static boolean parseBoolean(char[] buffer, CharSequence text,
+			int start, int end) throws IllegalArgumentException {
+		int i = trimStart(buffer, text, start, end);
+		int trimmedEnd = trimEnd(buffer, text, i, end);
+
+		if (matches(buffer, text, i, trimmedEnd, "true")
+				|| matches(buffer, text, i, trimmedEnd, "1"))
+			return true;
+		if (matches(buffer, text, i, trimmedEnd, "false")
+				|| matches(buffer, text, i, trimmedEnd, "0"))
+			return false;
+
+		throw new IllegalArgumentException("Value ["
+				+ toString(buffer, text, start, end)
+				+ "] is not a valid boolean");
+	}
+
+	private static long parseTimestamp(char[] buffer, CharSequence text,
+			int start, int end) throws IllegalArgumentException {
+		int i = trimStart(buffer, text, start, end);
+		int trimmedEnd = trimEnd(buffer, text, i, end);
+		int yearStart = i;
+
+		if (i < trimmedEnd && charAt(buffer, text, i) == '-')
+			yearStart++;
+
+		// A plain number is already a number of milliseconds
+		int yearEnd = yearStart;
+
+		while (yearEnd < trimmedEnd && isDigit(charAt(buffer, text, yearEnd)))
+			yearEnd++;
+
+		if (yearEnd == trimmedEnd)
+			return parseLong(buffer, text, i, trimmedEnd);
+
+		// Date: [-]YYYY-MM-DD
+		if (yearEnd - yearStart < 4 || yearEnd - yearStart > 9
+				|| yearEnd + 6 > trimmedEnd
+				|| charAt(buffer, text, yearEnd) != '-'
+				|| charAt(buffer, text, yearEnd + 3) != '-')
+			throw invalidTimestamp(buffer, text, start, end);
+
+		long year = digits(buffer, text, yearStart, yearEnd);
+		int month = digits(buffer, text, yearEnd + 1, yearEnd + 3);
+		int day = digits(buffer, text, yearEnd + 4, yearEnd + 6);
+
+		if (yearStart > i)
+			year = -year;
+		if (month < 1 || month > 12 || day < 1
+				|| day > daysInMonth(year, month))
+			throw invalidTimestamp(buffer, text, start, end);
+
+		long millis = daysFromEpoch(year, month, day) * MILLIS_PER_DAY;
+		i = yearEnd + 6;
+
+		// Time: Thh:mm:ss[.fraction]
+		if (i < trimmedEnd && charAt(buffer, text, i) == 'T') {
+			if (i + 9 > trimmedEnd || charAt(buffer, text, i + 3) != ':'
+					|| charAt(buffer, text, i + 6) != ':')
+				throw invalidTimestamp(buffer, text, start, end);
+
+			int hour = digits(buffer, text, i + 1, i + 3);
+			int minute = digits(buffer, text, i + 4, i + 6);
+			int second = digits(buffer, text, i + 7, i + 9);
+
+			if (hour < 0 || hour > 23 || minute < 0 || minute > 59
+					|| second < 0 || second > 59)
+				throw invalidTimestamp(buffer, text, start, end);
+
+			millis += ((hour * 60L + minute) * 60L + second) * 1000L;
+			i += 9;
+
+			if (i < trimmedEnd && charAt(buffer, text, i) == '.') {
+				int fractionStart = ++i;
+				int scale = 100;
+
+				for (; i < trimmedEnd && isDigit(charAt(buffer, text, i)); i++) {
+					millis += (charAt(buffer, text, i) - '0') * scale;
+					scale /= 10;
+				}
+
+				if (i == fractionStart)
+					throw invalidTimestamp(buffer, text, start, end);
+			}
+		}
+
+		// Time zone: Z or +/-hh:mm
+		if (i < trimmedEnd) {
+			char c = charAt(buffer, text, i);
+
+			if (c == 'Z' && i + 1 == trimmedEnd)
+				i++;
+			else if ((c == '+' || c == '-') && i + 6 == trimmedEnd
+					&& charAt(buffer, text, i + 3) == ':') {
+				int hours = digits(buffer, text, i + 1, i + 3);
+				int minutes = digits(buffer, text, i + 4, i + 6);
+
+				if (hours < 0 || hours > 14 || minutes < 0 || minutes > 59)
+					throw invalidTimestamp(buffer, text, start, end);
+
+				// Convert local time to UTC by undoing the offset
+				long offset = (hours * 60L + minutes) * 60000L;
+				millis += (c == '+' ? -offset : offset);
+				i += 6;
+			}
+		}
+
+		if (i != trimmedEnd)
+			throw invalidTimestamp(buffer, text, start, end);
+
+		return millis;
+	}
+
+	private static <E extends Enum<E>> E parseEnum(E[] constants,
+			char[] buffer, CharSequence text, int start, int end)
+			throws IllegalArgumentException {
+		int i = trimStart(buffer, text, start, end);
+		int trimmedEnd = trimEnd(buffer, text, i, end);
+
+		for (int j = 0; j < constants.length; j++) {
+			if (matches(buffer, text, i, trimmedEnd, constants[j].name()))
+				return constants[j];
+		}
+
+		throw new IllegalArgumentException("Value ["
+				+ toString(buffer, text, start, end)
+				+ "] does not match the name of any of the enum constants");
+	}
+
+	/**
+	 * Used to calculate the number of days between the epoch and the given
+	 * date in the proleptic Gregorian calendar.
+	 */
+	private static long daysFromEpoch(long year, int month, int day) {
+		// Treat March as the first month so the leap day is the last day
+		if (month <= 2)
+			year--;
+
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day
+				- 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+
+		// 719468 is the number of days from 0000-03-01 to 1970-01-01
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static int daysInMonth(long year, int month) {
+		switch (month) {
+		case 2:
+			return ((year % 4 == 0 && year % 100 != 0) || year % 400 == 0) ? 29
+					: 28;
+
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * @return the value of the run of digits or -1 if any of the characters
+	 *         isn't a digit.
+	 */
+	private static int digits(char[] buffer, CharSequence text, int start,
+			int end) {
+		int value = 0;
+
+		for (int i = start; i < end; i++) {
+			char c = charAt(buffer, text, i);
+
+			if (!isDigit(c))
+				return -1;
+
+			value = value * 10 + (c - '0');
+		}
+
+		return value;
+	}
+
+	private static boolean matches(char[] buffer, CharSequence text,
+			int start, int end, String value) {
+		if (end - start != value.length())
+			return false;
+
+		for (int i = 0; i < value.length(); i++) {
+			if (charAt(buffer, text, start + i) != value.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static int trimStart(char[] buffer, CharSequence text, int start,
+			int end) {
+		while (start < end && isWhitespace(charAt(buffer, text, start)))
+			start++;
+
+		return start;
+	}
+
+	private static int trimEnd(char[] buffer, CharSequence text, int start,
+			int end) {
+		while (end > start && isWhitespace(charAt(buffer, text, end - 1)))
+			end--;
+
+		return end;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+	}
+
+	private static boolean isDigit(char c) {
+		return (c >= '0' && c <= '9');
+	}
+
+	private static char charAt(char[] buffer, CharSequence text, int index) {
+		return (buffer != null ? buffer[index] : text.charAt(index));
+	}
+
+	private static String toString(char[] buffer, CharSequence text,
+			int start, int end) {
+		return (buffer != null ? new String(buffer, start, end - start) : text
+				.subSequence(start, end).toString());
+	}
+
+	private static NumberFormatException invalidNumber(char[] buffer,
+			CharSequence text, int start, int end) {
+		return new NumberFormatException("Value ["
+				+ toString(buffer, text, start, end) + "] is not a valid number");
+	}
+
+	private static IllegalArgumentException invalidTimestamp(char[] buffer,
+			CharSequence text, int start, int end) {
+		return new IllegalArgumentException("Value ["
+				+ toString(buffer, text, start, end)
+				+ "] is not a valid timestamp");
+	}
+}
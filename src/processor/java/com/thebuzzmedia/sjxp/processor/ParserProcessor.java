@@ -0,0 +1,702 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+import com.thebuzzmedia.sjxp.bind.GenerateParser;
+import com.thebuzzmedia.sjxp.bind.XMLPath;
+import com.thebuzzmedia.sjxp.bind.XMLRecord;
+
+/**
+ * Class used to generate a dedicated parser at compile time for every class
+ * annotated with {@link GenerateParser}, binding its {@link XMLPath} fields.
+ * Classes without that annotation, e.g. those only ever bound by a
+ * {@link com.thebuzzmedia.sjxp.bind.Binder}, are ignored.
+ * <p/>
+ * For a class <code>com.acme.Item</code> the parser generated is
+ * <code>com.acme.ItemParser</code> (nested classes are named after all of
+ * their enclosing classes, e.g. <code>Feed_ItemParser</code>), a subclass of
+ * {@link com.thebuzzmedia.sjxp.AbstractCompiledParser}. The location paths
+ * of the class are compiled into a hard-coded element state machine and every
+ * value is parsed and assigned straight to its field, without any
+ * {@link com.thebuzzmedia.sjxp.rule.IRule}s, rule tables or reflection. The
+ * annotations mean exactly what they mean to a
+ * {@link com.thebuzzmedia.sjxp.bind.Binder}, with these restrictions:
+ * <ul>
+ * <li>Fields and the no-argument constructor cannot be <code>private</code>,
+ * the parser is generated in the package of the class and accesses them
+ * directly.</li>
+ * <li>Location paths cannot contain wildcards (<code>*</code> or
+ * <code>//</code>).</li>
+ * <li>The class cannot be generic, abstract or a non-static inner class.</li>
+ * </ul>
+ * A class breaking any of them fails the compilation, with an error on the
+ * offending element; drop its {@link GenerateParser} annotation to only bind
+ * it with a {@link com.thebuzzmedia.sjxp.bind.Binder} instead.
+ * <p/>
+ * The processor is registered in <code>META-INF/services</code> of the
+ * <code>sjxp-processor</code> jar, so putting that jar on the processor path
+ * of <code>javac</code> is all it takes. It only runs at compile time; the
+ * generated parsers need nothing but the SJXP jar at runtime.
+ * 
+ * @author Riyad Kalla (software@thebuzzmedia.com)
+ */
+@SupportedAnnotationTypes("com.thebuzzmedia.sjxp.bind.GenerateParser")
+public class ParserProcessor extends AbstractProcessor {
+	private static final String VALUE_PARSER = "com.thebuzzmedia.sjxp.rule.ValueParser";
+
+	/**
+	 * Overridden to support whatever version of the language the compiler
+	 * does; the processor only reads fields and annotations.
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		for (Element element : roundEnv
+				.getElementsAnnotatedWith(GenerateParser.class)) {
+			TypeElement type = (TypeElement) element;
+
+			try {
+				generate(type);
+			} catch (InvalidBindingException e) {
+				processingEnv.getMessager().printMessage(Kind.ERROR,
+						"No parser generated for " + type.getQualifiedName()
+								+ ": " + e.getMessage(), e.getElement());
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Kind.ERROR,
+						"Unable to write the parser of the class: " + e,
+						type);
+			}
+		}
+
+		// The annotations are left for anything else to process too
+		return false;
+	}
+
+	/**
+	 * Used to generate the parser of the given class.
+	 */
+	private void generate(TypeElement type) throws InvalidBindingException,
+			IOException {
+		checkType(type);
+
+		String packageName = processingEnv.getElementUtils().getPackageOf(
+				type).getQualifiedName().toString();
+		String parserName = getParserName(type);
+
+		XMLRecord record = type.getAnnotation(XMLRecord.class);
+		String recordPath = (record == null ? null : record.value());
+
+		Model model = new Model(type.getQualifiedName().toString());
+
+		if (recordPath != null)
+			model.recordState = model.getState(type, recordPath).id;
+
+		// Bind the fields of the class and all its superclasses
+		for (TypeElement c = type; c != null; c = getSuperclass(c)) {
+			for (VariableElement field : ElementFilter.fieldsIn(c
+					.getEnclosedElements())) {
+				XMLPath path = field.getAnnotation(XMLPath.class);
+
+				if (path != null)
+					bindField(model, type, c, field, path, recordPath);
+			}
+		}
+
+		String name = (packageName.length() == 0 ? parserName : packageName
+				+ '.' + parserName);
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(name,
+				type);
+		Writer writer = file.openWriter();
+
+		try {
+			writer.write(model.toSource(packageName, parserName));
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Used to make sure the generated parser can create instances of the
+	 * given class.
+	 */
+	private void checkType(TypeElement type) throws InvalidBindingException {
+		if (type.getKind() != ElementKind.CLASS
+				|| type.getModifiers().contains(Modifier.ABSTRACT))
+			throw new InvalidBindingException(type,
+					"A parser can only be generated for a concrete class.");
+		if (!type.getTypeParameters().isEmpty())
+			throw new InvalidBindingException(type,
+					"A parser can't be generated for a generic class.");
+
+		for (Element e = type; e instanceof TypeElement; e = e
+				.getEnclosingElement()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE))
+				throw new InvalidBindingException(type,
+						"A parser can't be generated for a private class.");
+			if (((TypeElement) e).getNestingKind() == NestingKind.MEMBER
+					&& !e.getModifiers().contains(Modifier.STATIC))
+				throw new InvalidBindingException(type,
+						"A parser can't be generated for an inner class, make it static.");
+		}
+
+		for (ExecutableElement constructor : ElementFilter
+				.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty()
+					&& !constructor.getModifiers().contains(Modifier.PRIVATE))
+				return;
+		}
+
+		throw new InvalidBindingException(type,
+				"A parser can't be generated for a class without a non-private no-argument constructor.");
+	}
+
+	/**
+	 * Used to add the binding of the given field to the model of the parser.
+	 */
+	private void bindField(Model model, TypeElement type,
+			TypeElement declaringType, VariableElement field, XMLPath path,
+			String recordPath) throws InvalidBindingException {
+		Set<Modifier> modifiers = field.getModifiers();
+
+		if (modifiers.contains(Modifier.STATIC)
+				|| modifiers.contains(Modifier.FINAL))
+			throw new InvalidBindingException(field,
+					"A static or final field can't be bound.");
+		if (modifiers.contains(Modifier.PRIVATE))
+			throw new InvalidBindingException(field,
+					"A private field can't be bound by a generated parser, it assigns the field directly.");
+
+		PackageElement fieldPackage = processingEnv.getElementUtils()
+				.getPackageOf(declaringType);
+
+		if (!modifiers.contains(Modifier.PUBLIC)
+				&& !fieldPackage.equals(processingEnv.getElementUtils()
+						.getPackageOf(type)))
+			throw new InvalidBindingException(field,
+					"A field of a superclass in another package must be public to be bound by a generated parser.");
+
+		// A limit would count over every record, not start over with each one
+		if (recordPath != null && path.matchLimit() > 0)
+			throw new InvalidBindingException(field,
+					"A field of an @XMLRecord class can't have a matchLimit.");
+
+		String locationPath = path.value();
+
+		if (!locationPath.startsWith("/")) {
+			if (recordPath == null)
+				throw new InvalidBindingException(field, "The relative path ["
+						+ locationPath
+						+ "] can't be resolved, the class is not annotated with @XMLRecord.");
+
+			locationPath = (locationPath.length() == 0 ? recordPath
+					: recordPath + '/' + locationPath);
+		}
+
+		State state = model.getState(field, locationPath);
+		boolean attribute = (path.attribute().length() > 0);
+		String source = (attribute ? "value" : "buffer, start, length");
+
+		// Collections have every value added to them
+		TypeMirror fieldType = field.asType();
+		TypeMirror valueType = fieldType;
+		String collectionType = getCollectionType(field);
+
+		if (collectionType != null)
+			valueType = ((DeclaredType) fieldType).getTypeArguments().get(0);
+
+		String value = getValueExpression(model, field, valueType, source);
+		String target = (declaringType.equals(type) ? "object" : "(("
+				+ declaringType.getQualifiedName() + ") object)")
+				+ '.' + field.getSimpleName();
+
+		List<String> lines = new ArrayList<String>();
+
+		if (collectionType == null)
+			lines.add(target + " = " + value + ';');
+		else {
+			lines.add("if (" + target + " == null)");
+			lines.add('\t' + target + " = new " + collectionType + '<'
+					+ valueType + ">();");
+			lines.add(target + ".add(" + value + ");");
+		}
+
+		if (path.matchLimit() > 0)
+			lines = block("if (countMatch(" + model.limitCount++ + ", "
+					+ path.matchLimit() + "))", lines);
+
+		if (attribute) {
+			String[] name = parseName(field, path.attribute());
+			lines = block("if ((value = getAttributeValue("
+					+ literal(name[0]) + ", " + literal(name[1])
+					+ ")) != null)", lines);
+			state.attributeLines.addAll(lines);
+		} else
+			state.textLines.addAll(lines);
+	}
+
+	/**
+	 * Used to get the collection class created for a collection field.
+	 * 
+	 * @return the class name, or <code>null</code> if the field isn't a
+	 *         collection.
+	 */
+	private String getCollectionType(VariableElement field)
+			throws InvalidBindingException {
+		if (field.asType().getKind() != TypeKind.DECLARED)
+			return null;
+
+		DeclaredType type = (DeclaredType) field.asType();
+		String name = ((TypeElement) type.asElement()).getQualifiedName()
+				.toString();
+		String collectionType;
+
+		if (name.equals("java.util.Collection")
+				|| name.equals("java.util.List"))
+			collectionType = "java.util.ArrayList";
+		else if (name.equals("java.util.Set"))
+			collectionType = "java.util.LinkedHashSet";
+		else
+			return null;
+
+		if (type.getTypeArguments().size() != 1
+				|| type.getTypeArguments().get(0).getKind() != TypeKind.DECLARED)
+			throw new InvalidBindingException(field,
+					"A collection field must declare the type of its elements.");
+
+		return collectionType;
+	}
+
+	/**
+	 * Used to get the expression parsing a value of the given type out of the
+	 * given source (the <code>char[]</code> buffer or the attribute value).
+	 */
+	private String getValueExpression(Model model, VariableElement field,
+			TypeMirror valueType, String source)
+			throws InvalidBindingException {
+		switch (valueType.getKind()) {
+		case INT:
+			return VALUE_PARSER + ".parseInt(" + source + ')';
+		case LONG:
+			return VALUE_PARSER + ".parseLong(" + source + ')';
+		case DOUBLE:
+			return VALUE_PARSER + ".parseDouble(" + source + ')';
+		case BOOLEAN:
+			return VALUE_PARSER + ".parseBoolean(" + source + ')';
+		case DECLARED:
+			TypeElement element = (TypeElement) ((DeclaredType) valueType)
+					.asElement();
+			String name = element.getQualifiedName().toString();
+
+			if (name.equals("java.lang.String"))
+				return (source.equals("value") ? "value" : "new String("
+						+ source + ')');
+			if (name.equals("java.lang.Integer"))
+				return "Integer.valueOf(" + VALUE_PARSER + ".parseInt("
+						+ source + "))";
+			if (name.equals("java.lang.Long"))
+				return "Long.valueOf(" + VALUE_PARSER + ".parseLong(" + source
+						+ "))";
+			if (name.equals("java.lang.Double"))
+				return "Double.valueOf(" + VALUE_PARSER + ".parseDouble("
+						+ source + "))";
+			if (name.equals("java.lang.Boolean"))
+				return "Boolean.valueOf(" + VALUE_PARSER + ".parseBoolean("
+						+ source + "))";
+			if (name.equals("java.util.Date"))
+				return "new java.util.Date(" + VALUE_PARSER
+						+ ".parseTimestamp(" + source + "))";
+			if (element.getKind() == ElementKind.ENUM)
+				return VALUE_PARSER + ".parseEnum(" + model.getEnumConstants(name)
+						+ ", " + source + ')';
+		}
+
+		throw new InvalidBindingException(field, "Values of type ["
+				+ valueType + "] can't be bound.");
+	}
+
+	/**
+	 * Used to get the name of the parser generated for the given class.
+	 */
+	private static String getParserName(TypeElement type) {
+		StringBuilder name = new StringBuilder(type.getSimpleName())
+				.append("Parser");
+
+		for (Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e
+				.getEnclosingElement())
+			name.insert(0, '_').insert(0, e.getSimpleName());
+
+		return name.toString();
+	}
+
+	/**
+	 * Used to get the superclass of the given class.
+	 * 
+	 * @return the superclass, or <code>null</code> once {@link Object} is
+	 *         reached.
+	 */
+	private static TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+
+		if (superclass.getKind() != TypeKind.DECLARED)
+			return null;
+
+		TypeElement element = (TypeElement) ((DeclaredType) superclass)
+				.asElement();
+
+		return (element.getQualifiedName().contentEquals("java.lang.Object") ? null
+				: element);
+	}
+
+	/**
+	 * Used to parse an element or attribute name of a location path into its
+	 * namespace URI (empty without one) and local name.
+	 */
+	private static String[] parseName(Element element, String name)
+			throws InvalidBindingException {
+		String namespace = "";
+
+		if (name.startsWith("[")) {
+			int end = name.indexOf(']');
+
+			if (end == -1)
+				throw new InvalidBindingException(element, "The name [" + name
+						+ "] is missing the closing ']' of its namespace URI.");
+
+			namespace = name.substring(1, end);
+			name = name.substring(end + 1);
+		}
+
+		if (name.length() == 0 || name.equals("*"))
+			throw new InvalidBindingException(element,
+					"Generated parsers don't support empty names or wildcards, found [*] or an empty name.");
+
+		return new String[] { namespace, name };
+	}
+
+	/**
+	 * Used to quote the given text as a Java string literal.
+	 */
+	private static String literal(String text) {
+		StringBuilder literal = new StringBuilder("\"");
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+
+			if (c == '"' || c == '\\')
+				literal.append('\\').append(c);
+			else if (c < 0x20 || c > 0x7E)
+				literal.append(String.format("\\u%04x", Integer.valueOf(c)));
+			else
+				literal.append(c);
+		}
+
+		return literal.append('"').toString();
+	}
+
+	/**
+	 * Used to indent the given lines into a block under the given statement.
+	 */
+	private static List<String> block(String statement, List<String> lines) {
+		List<String> block = new ArrayList<String>();
+		block.add(statement + " {");
+
+		for (String line : lines)
+			block.add('\t' + line);
+
+		block.add("}");
+		return block;
+	}
+
+	/**
+	 * Class used to represent an element path of the state machine of a
+	 * generated parser and the code binding the fields at it.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class State {
+		private int id;
+		private String path;
+		private String namespace;
+		private String localName;
+		private List<State> children = new ArrayList<State>();
+
+		private List<String> attributeLines = new ArrayList<String>();
+		private List<String> textLines = new ArrayList<String>();
+
+		State(int id, String path, String namespace, String localName) {
+			this.id = id;
+			this.path = path;
+			this.namespace = namespace;
+			this.localName = localName;
+		}
+	}
+
+	/**
+	 * Class used to collect everything the parser of a class is generated
+	 * from.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class Model {
+		private String typeName;
+		private List<State> states = new ArrayList<State>();
+		private Map<String, String> enumConstants = new LinkedHashMap<String, String>();
+		private int recordState = -1;
+		private int limitCount;
+
+		Model(String typeName) {
+			this.typeName = typeName;
+			states.add(new State(0, "", "", ""));
+		}
+
+		/**
+		 * Used to get the state of the given location path, adding any of
+		 * its elements that are missing from the state machine.
+		 */
+		State getState(Element element, String locationPath)
+				throws InvalidBindingException {
+			if (!locationPath.startsWith("/") || locationPath.length() == 1)
+				throw new InvalidBindingException(element, "The location path ["
+						+ locationPath + "] is malformed.");
+
+			String[] segments = locationPath.substring(1).split("/", -1);
+			State state = states.get(0);
+
+			for (int i = 0; i < segments.length; i++) {
+				if (segments[i].length() == 0)
+					throw new InvalidBindingException(element,
+							"Generated parsers don't support the // wildcard or empty elements, found in ["
+									+ locationPath + "].");
+
+				String[] name = parseName(element, segments[i]);
+				State child = null;
+
+				for (State s : state.children) {
+					if (s.namespace.equals(name[0])
+							&& s.localName.equals(name[1])) {
+						child = s;
+						break;
+					}
+				}
+
+				if (child == null) {
+					child = new State(states.size(), state.path + '/'
+							+ segments[i], name[0], name[1]);
+					state.children.add(child);
+					states.add(child);
+				}
+
+				state = child;
+			}
+
+			return state;
+		}
+
+		/**
+		 * Used to get the name of the constant holding the constants of the
+		 * given enum type.
+		 */
+		String getEnumConstants(String enumType) {
+			String constant = enumConstants.get(enumType);
+
+			if (constant == null) {
+				constant = "ENUM_" + enumConstants.size();
+				enumConstants.put(enumType, constant);
+			}
+
+			return constant;
+		}
+
+		/**
+		 * Used to write out the source code of the parser.
+		 */
+		String toSource(String packageName, String parserName) {
+			StringBuilder source = new StringBuilder();
+			source.append("// Generated by ").append(
+					ParserProcessor.class.getName()).append(" from ").append(
+					typeName).append(", do not edit.\n");
+
+			if (packageName.length() > 0)
+				source.append("package ").append(packageName).append(";\n");
+
+			source.append("\n/**\n * Parser binding documents to {@link ")
+					.append(typeName).append("}s.\n */\n");
+			source.append("public class ").append(parserName).append(
+					" extends com.thebuzzmedia.sjxp.AbstractCompiledParser<")
+					.append(typeName).append("> {\n");
+
+			// Constants
+			source.append("\tprivate static final int RECORD_STATE = ")
+					.append(recordState < 0 ? "NO_STATE" : recordState)
+					.append(";\n");
+			source.append("\tprivate static final boolean[] TEXT_STATES = new boolean[] {");
+
+			for (int i = 0; i < states.size(); i++)
+				source.append(i == 0 ? " " : ", ").append(
+						!states.get(i).textLines.isEmpty());
+
+			source.append(" };\n");
+			source.append("\tprivate static final int LIMIT_COUNT = ").append(
+					limitCount).append(";\n");
+
+			for (Map.Entry<String, String> e : enumConstants.entrySet())
+				source.append("\tprivate static final ").append(e.getKey())
+						.append("[] ").append(e.getValue()).append(" = ")
+						.append(e.getKey()).append(".values();\n");
+
+			// Constructors
+			source.append("\n\tpublic ").append(parserName).append("() {\n");
+			source.append("\t\tsuper(RECORD_STATE, TEXT_STATES, LIMIT_COUNT);\n\t}\n");
+			source.append("\n\tpublic ").append(parserName).append(
+					"(boolean nativeTokenizer) {\n");
+			source.append("\t\tsuper(RECORD_STATE, TEXT_STATES, LIMIT_COUNT, nativeTokenizer);\n\t}\n");
+
+			source.append("\n\t@Override\n\tprotected ").append(typeName)
+					.append(" newObject() {\n\t\treturn new ").append(typeName)
+					.append("();\n\t}\n");
+
+			// The state machine
+			source.append("\n\t@Override\n\tprotected int transition(int state, String namespace,\n\t\t\tString localName) {\n");
+			source.append("\t\tswitch (state) {\n");
+
+			for (State state : states) {
+				if (state.children.isEmpty())
+					continue;
+
+				source.append("\t\tcase ").append(state.id).append(": // ")
+						.append(state.path.length() == 0 ? "/" : state.path)
+						.append('\n');
+
+				for (State child : state.children)
+					source.append("\t\t\tif (").append(literal(child.localName))
+							.append(".equals(localName) && ").append(
+									literal(child.namespace)).append(
+									".equals(namespace))\n\t\t\t\treturn ")
+							.append(child.id).append(";\n");
+
+				source.append("\t\t\tbreak;\n");
+			}
+
+			source.append("\t\t}\n\n\t\treturn NO_STATE;\n\t}\n");
+
+			// The bindings
+			source.append("\n\t@Override\n\tprotected void bindAttributes(int state, ")
+					.append(typeName).append(" object) {\n");
+			appendSwitch(source, true);
+			source.append("\t}\n");
+
+			source.append("\n\t@Override\n\tprotected void bindText(int state, char[] buffer, int start,\n\t\t\tint length, ")
+					.append(typeName).append(" object) {\n");
+			appendSwitch(source, false);
+			source.append("\t}\n}\n");
+
+			return source.toString();
+		}
+
+		/**
+		 * Used to write out the <code>switch</code> over the states binding
+		 * either the attributes or the character data of the elements.
+		 */
+		private void appendSwitch(StringBuilder source, boolean attributes) {
+			boolean empty = true;
+
+			for (State state : states)
+				empty &= (attributes ? state.attributeLines : state.textLines)
+						.isEmpty();
+
+			if (empty) {
+				source.append("\t\t// no-op, nothing is bound here.\n");
+				return;
+			}
+
+			if (attributes)
+				source.append("\t\tString value;\n\n");
+
+			source.append("\t\tswitch (state) {\n");
+
+			for (State state : states) {
+				List<String> lines = (attributes ? state.attributeLines
+						: state.textLines);
+
+				if (lines.isEmpty())
+					continue;
+
+				source.append("\t\tcase ").append(state.id).append(": // ")
+						.append(state.path).append('\n');
+
+				for (String line : lines)
+					source.append("\t\t\t").append(line).append('\n');
+
+				source.append("\t\t\tbreak;\n");
+			}
+
+			source.append("\t\t}\n");
+		}
+	}
+
+	/**
+	 * Class used to report an annotated element that can't be bound by a
+	 * generated parser.
+	 * 
+	 * @author Riyad Kalla (software@thebuzzmedia.com)
+	 */
+	static class InvalidBindingException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private transient Element element;
+
+		InvalidBindingException(Element element, String message) {
+			super(message);
+			this.element = element;
+		}
+
+		Element getElement() {
+			return element;
+		}
+	}
+}
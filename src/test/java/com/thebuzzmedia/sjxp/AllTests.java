@@ -3,12 +3,28 @@ package com.thebuzzmedia.sjxp;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import com.thebuzzmedia.sjxp.bind.BinderTest;
+import com.thebuzzmedia.sjxp.processor.ParserProcessorTest;
+import com.thebuzzmedia.sjxp.rule.AggregateRuleTest;
 import com.thebuzzmedia.sjxp.rule.DefaultRuleTest;
+import com.thebuzzmedia.sjxp.rule.ValueParserTest;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ DefaultRuleTest.class, AttributeOnlyTest.class,
-		CharacterOnlyTest.class, ComplexTest.class, EmptyTest.class,
-		NamespaceTest.class, SimpleTest.class, StopTest.class })
+@Suite.SuiteClasses({ DefaultRuleTest.class, AggregateRuleTest.class,
+		AttributeOnlyTest.class, BatchParserTest.class, BinderTest.class,
+		CharacterBufferTest.class,
+		CharacterOnlyTest.class,
+		CollisionTest.class, ColumnExtractorTest.class, ComplexTest.class,
+		EmptyTest.class, LimitTest.class, MappedInputStreamTest.class,
+		NamespaceTest.class, NativeTokenizerTest.class, ParseCheckpointTest.class,
+		ParseLimitsTest.class, ParserProcessorTest.class, PushParserTest.class,
+		ReadAheadInputStreamTest.class, RecordIteratorTest.class,
+		RecordPublisherTest.class, RuleSetTest.class,
+		SimpleTest.class,
+		SkipTest.class,
+		SplitParserTest.class, StopTest.class,
+		TypedRuleTest.class, ValueParserTest.class, WildcardTest.class,
+		XMLParserPoolTest.class })
 public class AllTests {
 	// no op
 }
@@ -15,6 +15,9 @@
  */
 package com.thebuzzmedia.sjxp;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import com.thebuzzmedia.sjxp.rule.DefaultRule;
@@ -28,6 +31,7 @@ public class AttributeOnlyTest extends AbstractTest {
 	public static final boolean[] LOLZ = new boolean[] { true, false };
 
 	private int count = 0;
+	private List<String> values = new ArrayList<String>();
 
 	private boolean[] OK_CAGES = new boolean[CAGES.length];
 	private boolean[] OK_TYPES = new boolean[TYPES.length];
@@ -42,6 +46,24 @@ public class AttributeOnlyTest extends AbstractTest {
 		assertTrue(isAllOK(OK_CAGES, OK_TYPES, OK_LOLZ));
 	}
 
+	@Test
+	public void testMissingAndShared() {
+		XMLParser parser = new XMLParser(new ValueRule("canHasCheezBurger",
+				"missing", "type"), new ValueRule("type"));
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/attribute-only.xml"));
+
+		// Rule order and attribute name order are kept for every element
+		assertEquals("[true, null, tiger, tiger, false, null, walrus, walrus]",
+				values.toString());
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testEmptyNamespace() {
+		// Malformed attribute names are rejected up-front
+		new XMLParser(new ValueRule("[]type"));
+	}
+
 	class CageRule extends DefaultRule {
 		public CageRule() {
 			super(Type.ATTRIBUTE, "/zoo/cage", "id");
@@ -55,6 +77,18 @@ public class AttributeOnlyTest extends AbstractTest {
 		}
 	}
 
+	class ValueRule extends DefaultRule {
+		public ValueRule(String... attributeNames) {
+			super(Type.ATTRIBUTE, "/zoo/cage/animal", attributeNames);
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser parser, int index,
+				String value, Object userObject) {
+			values.add(value);
+		}
+	}
+
 	class AnimalRule extends DefaultRule {
 		public AnimalRule() {
 			super(Type.ATTRIBUTE, "/zoo/cage/animal", "type",
@@ -81,4 +115,4 @@ public class AttributeOnlyTest extends AbstractTest {
 			}
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,191 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class BatchParserTest extends AbstractTest {
+	public static final String XML = "<library><book><title>I Like Ham</title></book></library>";
+
+	private ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void test() throws Exception {
+		BatchParser batch = new BatchParser(new RuleSet(new TitleRule()),
+				executor, 4);
+		List<ParseSource> sources = new ArrayList<ParseSource>();
+
+		sources.add(ParseSource.forFile(new File(this.getClass()
+				.getResource("resources/character-only.xml").toURI())));
+		sources.add(ParseSource.forBytes(XML.getBytes()));
+		sources.add(ParseSource.forStream(new ByteArrayInputStream(XML
+				.getBytes())));
+		sources.add(ParseSource.forBytes("<library><book>".getBytes()));
+		sources.add(ParseSource.forFile(new File("does-not-exist.xml")));
+
+		List<ParseResult> results = batch.parse(sources, new CounterFactory());
+
+		assertEquals(sources.size(), results.size());
+
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals(i, results.get(i).getIndex());
+			assertSame(sources.get(i), results.get(i).getSource());
+		}
+
+		// Every document counted its titles in its own user object
+		int[] titles = new int[] { 3, 1, 1, 0, 0 };
+
+		for (int i = 0; i < results.size(); i++)
+			assertEquals(titles[i],
+					((AtomicInteger) results.get(i).getUserObject()).get());
+
+		assertTrue(results.get(0).isSuccess());
+		assertTrue(results.get(1).isSuccess());
+		assertTrue(results.get(2).isSuccess());
+		assertFalse(results.get(3).isSuccess());
+		assertFalse(results.get(4).isSuccess());
+		assertTrue(results.get(4).getException().getCause() instanceof IOException);
+	}
+
+	@Test
+	public void testMaxInFlight() throws Exception {
+		BatchParser batch = new BatchParser(new RuleSet(new TitleRule()),
+				executor, 2);
+		List<ParseSource> sources = new ArrayList<ParseSource>();
+		final AtomicInteger open = new AtomicInteger();
+		final AtomicInteger maxOpen = new AtomicInteger();
+
+		for (int i = 0; i < 50; i++) {
+			sources.add(new ParseSource("source-" + i, "UTF-8") {
+				@Override
+				protected InputStream open() throws IOException {
+					int count = open.incrementAndGet();
+
+					synchronized (maxOpen) {
+						if (count > maxOpen.get())
+							maxOpen.set(count);
+					}
+
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						// no-op
+					}
+
+					return new ByteArrayInputStream(XML.getBytes());
+				}
+
+				@Override
+				protected void close(InputStream stream) throws IOException {
+					open.decrementAndGet();
+				}
+			});
+		}
+
+		List<ParseResult> results = batch.parse(sources, new CounterFactory());
+
+		for (int i = 0; i < results.size(); i++) {
+			assertTrue(results.get(i).toString(), results.get(i).isSuccess());
+			assertEquals(1,
+					((AtomicInteger) results.get(i).getUserObject()).get());
+		}
+
+		assertTrue(maxOpen.get() <= 2);
+		assertTrue(batch.getPool().getCreatedCount() <= 2);
+	}
+
+	@Test
+	public void testRuleException() throws Exception {
+		BatchParser batch = new BatchParser(new RuleSet(new DefaultRule(
+				Type.CHARACTER, "/library/book/title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				throw new IllegalStateException(text);
+			}
+		}), executor, 1);
+		List<ParseSource> sources = new ArrayList<ParseSource>();
+		sources.add(ParseSource.forBytes(XML.getBytes()));
+
+		List<ParseResult> results = batch.parse(sources, new CounterFactory());
+
+		assertFalse(results.get(0).isSuccess());
+		assertTrue(results.get(0).getException().getCause() instanceof IllegalStateException);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullSource() throws Exception {
+		List<ParseSource> sources = new ArrayList<ParseSource>();
+		sources.add(null);
+
+		new BatchParser(new RuleSet(new TitleRule()), executor, 1).parse(
+				sources, new CounterFactory());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullFactory() throws Exception {
+		List<ParseSource> sources = new ArrayList<ParseSource>();
+		sources.add(ParseSource.forBytes(XML.getBytes()));
+
+		new BatchParser(new RuleSet(new TitleRule()), executor, 1).parse(
+				sources, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxInFlightZero() {
+		new BatchParser(new RuleSet(new TitleRule()), executor, 0);
+	}
+
+	static class CounterFactory implements IUserObjectFactory {
+		public Object newUserObject(int index) {
+			return new AtomicInteger();
+		}
+	}
+
+	static class TitleRule extends DefaultRule {
+		public TitleRule() {
+			super(Type.CHARACTER, "/library/book/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			((AtomicInteger) userObject).incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.ICharacterBufferRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class CharacterBufferTest extends AbstractTest {
+	public static final String[] TITLES = new String[] { "I Like Ham",
+			"That's What She Said", "I Crack Myself Up" };
+
+	private int bufferCount = 0;
+	private int textCount = 0;
+
+	@Test
+	public void test() {
+		XMLParser parser = new XMLParser(new BufferRule());
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/character-only.xml"));
+
+		assertEquals(TITLES.length, bufferCount);
+	}
+
+	@Test
+	public void testMixed() {
+		XMLParser parser = new XMLParser(new BufferRule(), new TextRule(),
+				new BufferRule());
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/character-only.xml"));
+
+		assertEquals(TITLES.length * 2, bufferCount);
+		assertEquals(TITLES.length, textCount);
+	}
+
+	class BufferRule extends DefaultRule implements ICharacterBufferRule {
+		private int count = 0;
+
+		public BufferRule() {
+			super(Type.CHARACTER, "/library/book/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			fail("String handler called for an ICharacterBufferRule");
+		}
+
+		public void handleParsedCharacters(XMLParser parser, char[] buffer,
+				int start, int length, Object userObject) {
+			assertEquals(TITLES[count++], new String(buffer, start, length));
+			bufferCount++;
+		}
+	}
+
+	class TextRule extends DefaultRule {
+		public TextRule() {
+			super(Type.CHARACTER, "/library/book/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(TITLES[textCount++], text);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class CollisionTest extends AbstractTest {
+	public static final String[] AA_TEXT = new String[] { "first", "third" };
+	public static final String[] BB_TEXT = new String[] { "second" };
+
+	private int aaCount = 0;
+	private int bbCount = 0;
+	private int duplicateCount = 0;
+
+	private boolean[] OK_AA = new boolean[AA_TEXT.length];
+	private boolean[] OK_BB = new boolean[BB_TEXT.length];
+
+	@Test
+	public void testHashCollision() {
+		// Make sure the test is actually testing what it thinks it is
+		assertEquals("/root/Aa".hashCode(), "/root/BB".hashCode());
+
+		XMLParser parser = new XMLParser(new AaRule(), new BBRule());
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/collision.xml"));
+
+		assertTrue(isAllOK(OK_AA, OK_BB));
+		assertEquals(AA_TEXT.length, aaCount);
+		assertEquals(BB_TEXT.length, bbCount);
+	}
+
+	@Test
+	public void testDuplicatePath() {
+		XMLParser parser = new XMLParser(new DuplicateRule(),
+				new DuplicateRule(), new DuplicateRule());
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/collision.xml"));
+
+		// Every rule sharing the path must run for every match
+		assertEquals(3 * BB_TEXT.length, duplicateCount);
+	}
+
+	class AaRule extends DefaultRule {
+		public AaRule() {
+			super(Type.CHARACTER, "/root/Aa");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(AA_TEXT[aaCount], text);
+			OK_AA[aaCount++] = true;
+		}
+	}
+
+	class BBRule extends DefaultRule {
+		public BBRule() {
+			super(Type.CHARACTER, "/root/BB");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(BB_TEXT[bbCount], text);
+			OK_BB[bbCount++] = true;
+		}
+	}
+
+	class DuplicateRule extends DefaultRule {
+		public DuplicateRule() {
+			super(Type.CHARACTER, "/root/BB");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(BB_TEXT[0], text);
+			duplicateCount++;
+		}
+	}
+}
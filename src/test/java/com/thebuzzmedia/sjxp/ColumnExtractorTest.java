@@ -0,0 +1,208 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.ColumnBatch.Type;
+import com.thebuzzmedia.sjxp.ColumnExtractor.Column;
+import com.thebuzzmedia.sjxp.ColumnExtractor.IBatchHandler;
+
+import static junit.framework.Assert.*;
+
+public class ColumnExtractorTest extends AbstractTest {
+	public static final Column[] COLUMNS = new Column[] {
+			new Column("id", Type.INT, "", "id"),
+			new Column("priority", Type.STRING, "", "priority"),
+			new Column("fragile", Type.STRING, "", "fragile"),
+			new Column("weight", Type.DOUBLE, "weight"),
+			new Column("tracking", Type.LONG, "/shipments/shipment/tracking") };
+
+	@Test
+	public void testColumns() {
+		final List<String> batches = new ArrayList<String>();
+		ColumnExtractor extractor = new ColumnExtractor("/shipments/shipment",
+				2, COLUMNS);
+
+		assertEquals(3, extractor.extract(getTyped(), new IBatchHandler() {
+			public boolean handleBatch(ColumnBatch batch) {
+				StringBuilder text = new StringBuilder();
+
+				for (int i = 0; i < batch.getRecordCount(); i++) {
+					text.append(batch.getFirstRecord() + i).append(':');
+					text.append(batch.getInts(0)[i]).append(',');
+					text.append(batch.getCodes(1)[i]).append('=');
+					text.append(batch.getString(1, i)).append(',');
+					text.append(batch.getString(2, i)).append(',');
+					text.append(batch.getDoubles(3)[i]).append(',');
+					text.append(batch.getLongs(4)[i]).append(';');
+				}
+
+				batches.add(text.toString());
+				return true;
+			}
+		}));
+
+		assertEquals(2, batches.size());
+		assertEquals("0:1001,0=HIGH,true,1250.75,9223372036854775807;"
+				+ "1:1002,1=LOW,0,0.5,42;", batches.get(0));
+		assertEquals("2:1003,2=MEDIUM,null,1000.0,0;", batches.get(1));
+	}
+
+	@Test
+	public void testNulls() {
+		ColumnExtractor extractor = new ColumnExtractor("/a/b", 16,
+				new Column("x", Type.INT, "x"), new Column("y", Type.STRING,
+						"y"), new Column("z", Type.DOUBLE, "", "z"));
+
+		extractor.extract(new ByteArrayInputStream(
+				"<a><x>9</x><b z='1.5'><x>1</x><x>2</x></b><b><y>q</y></b></a>"
+						.getBytes()), new IBatchHandler() {
+			public boolean handleBatch(ColumnBatch batch) {
+				assertEquals(2, batch.getRecordCount());
+				assertEquals(0, batch.getColumnIndex("x"));
+				assertEquals(-1, batch.getColumnIndex("w"));
+
+				// The last value matched in a record wins
+				assertEquals(2, batch.getInts(0)[0]);
+				assertFalse(batch.isNull(0, 0));
+				assertTrue(batch.isNull(1, 0));
+				assertEquals(-1, batch.getCodes(1)[0]);
+				assertNull(batch.getString(1, 0));
+				assertEquals(1.5, batch.getDoubles(2)[0]);
+
+				assertEquals(0, batch.getInts(0)[1]);
+				assertTrue(batch.isNull(0, 1));
+				assertEquals("q", batch.getString(1, 1));
+				assertTrue(batch.isNull(2, 1));
+
+				try {
+					batch.getLongs(0);
+					fail();
+				} catch (IllegalArgumentException e) {
+					// expected, x is an INT column
+				}
+
+				return true;
+			}
+		});
+	}
+
+	@Test
+	public void testDictionary() {
+		StringBuilder xml = new StringBuilder("<a>");
+
+		for (int i = 0; i < 5000; i++)
+			xml.append("<b><n>").append(i).append("</n><s>v").append(i % 7)
+					.append("</s></b>");
+
+		final int[] totals = new int[3];
+		ColumnExtractor extractor = new ColumnExtractor("/a/b", 3000,
+				new Column("n", Type.INT, "n"), new Column("s", Type.STRING,
+						"s"));
+
+		assertEquals(5000, extractor.extract(new ByteArrayInputStream(xml
+				.append("</a>").toString().getBytes()), new IBatchHandler() {
+			public boolean handleBatch(ColumnBatch batch) {
+				int[] n = batch.getInts(0);
+				int[] codes = batch.getCodes(1);
+				String[] dictionary = batch.getDictionary(1);
+
+				for (int i = 0; i < batch.getRecordCount(); i++) {
+					int record = (int) batch.getFirstRecord() + i;
+					assertEquals(record, n[i]);
+
+					// Codes are assigned in order and stay the same
+					assertEquals(record % 7, codes[i]);
+					assertEquals("v" + (record % 7), dictionary[codes[i]]);
+				}
+
+				totals[0]++;
+				totals[1] += batch.getRecordCount();
+				totals[2] = batch.getDictionarySize(1);
+				return true;
+			}
+		}));
+
+		assertEquals(2, totals[0]);
+		assertEquals(5000, totals[1]);
+		assertEquals(7, totals[2]);
+	}
+
+	@Test
+	public void testStop() {
+		final int[] calls = new int[1];
+		ColumnExtractor extractor = new ColumnExtractor("/shipments/shipment",
+				1, COLUMNS);
+
+		assertEquals(1, extractor.extract(getTyped(), new IBatchHandler() {
+			public boolean handleBatch(ColumnBatch batch) {
+				calls[0]++;
+				return false;
+			}
+		}));
+		assertEquals(1, calls[0]);
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testInvalidValue() {
+		new ColumnExtractor("/shipments/shipment", 8, new Column("pieces",
+				Type.INT, "pieces")).extract(getTyped(), new IBatchHandler() {
+			public boolean handleBatch(ColumnBatch batch) {
+				return true;
+			}
+		});
+	}
+
+	@Test
+	public void testIllegalArguments() {
+		Column column = new Column("a", Type.INT, "a");
+		Object[][] arguments = new Object[][] {
+				{ null, Integer.valueOf(1), new Column[] { column } },
+				{ "a/b", Integer.valueOf(1), new Column[] { column } },
+				{ "/a/b", Integer.valueOf(0), new Column[] { column } },
+				{ "/a/b", Integer.valueOf(1), new Column[0] },
+				{ "/a/b", Integer.valueOf(1), new Column[] { null } },
+				{ "/a/b", Integer.valueOf(1), new Column[] { column, column } } };
+
+		for (int i = 0; i < arguments.length; i++) {
+			try {
+				new ColumnExtractor((String) arguments[i][0],
+						((Integer) arguments[i][1]).intValue(),
+						(Column[]) arguments[i][2]);
+				fail(String.valueOf(i));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+
+		try {
+			new Column("a", Type.INT, "a", "");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private InputStream getTyped() {
+		return this.getClass().getResourceAsStream("resources/typed.xml");
+	}
+}
@@ -20,6 +20,7 @@ public class EnvVarTest {
 		System.setProperty("sjxp.debug", "true");
 		System.setProperty("sjxp.namespaces", "false");
 		System.setProperty("sjxp.validation", "false");
+		System.setProperty("sjxp.skipping", "false");
 
 		// Cause the class to load
 		new XMLParser(new DefaultRule(Type.CHARACTER, "/test"));
@@ -27,5 +28,6 @@ public class EnvVarTest {
 		assertTrue(XMLParser.DEBUG);
 		assertFalse(XMLParser.ENABLE_NAMESPACES);
 		assertFalse(XMLParser.ENABLE_VALIDATION);
+		assertFalse(XMLParser.ENABLE_SKIPPING);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class LimitTest extends AbstractTest {
+	public static final String NAME = "Terminator 2";
+	public static final String[] ACTORS = new String[] {
+			"Arnold Schwarzenegger", "Linda Hamilton" };
+
+	private int nameCount = 0;
+	private int actorCount = 0;
+	private int tagCount = 0;
+	private int startTags = 0;
+
+	@Test
+	public void testStop() {
+		XMLParser parser = new CountingParser(new NameRule(1));
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// imdb, category, movie and name; nothing after the first name
+		assertEquals(1, nameCount);
+		assertEquals(4, startTags);
+	}
+
+	@Test
+	public void testStopAfterAllLimits() {
+		XMLParser parser = new CountingParser(new NameRule(1), new ActorRule(
+				2));
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// The name rule is dropped first, then the parse runs up to the 2nd
+		// actor of the first movie
+		assertEquals(1, nameCount);
+		assertEquals(2, actorCount);
+		assertEquals(8, startTags);
+	}
+
+	@Test
+	public void testUnlimited() {
+		XMLParser parser = new CountingParser(new NameRule(1), new TagRule(
+				DefaultRule.UNLIMITED));
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// The unlimited rule keeps the parse going through the whole document
+		assertEquals(1, nameCount);
+		assertEquals(4, tagCount);
+	}
+
+	@Test
+	public void testTagLimit() {
+		XMLParser parser = new CountingParser(new TagRule(1));
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// The START_TAG and END_TAG of the first category are both delivered,
+		// the only other elements seen are imdb and the (skipped) movie
+		assertEquals(2, tagCount);
+		assertEquals(3, startTags);
+	}
+
+	@Test
+	public void testReset() {
+		XMLParser parser = new XMLParser(new NameRule(1));
+
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		// Limits are counted per parse
+		assertEquals(2, nameCount);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimit() {
+		new DefaultRule(Type.TAG, "/imdb", -1);
+	}
+
+	class CountingParser extends XMLParser {
+		public CountingParser(IRule... rules) {
+			super(rules);
+		}
+
+		@Override
+		protected void doStartTag(Object userObject) {
+			startTags++;
+			super.doStartTag(userObject);
+		}
+	}
+
+	class NameRule extends DefaultRule {
+		public NameRule(int matchLimit) {
+			super(Type.CHARACTER, "/imdb/category/movie/name", matchLimit);
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(NAME, text);
+			nameCount++;
+		}
+	}
+
+	class ActorRule extends DefaultRule {
+		public ActorRule(int matchLimit) {
+			super(Type.ATTRIBUTE, "/imdb/category/movie/cast/actor",
+					matchLimit, "realName");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser parser, int index,
+				String value, Object userObject) {
+			assertEquals(ACTORS[actorCount++], value);
+		}
+	}
+
+	class TagRule extends DefaultRule {
+		public TagRule(int matchLimit) {
+			super(Type.TAG, "/imdb/category", matchLimit);
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isStartTag,
+				Object userObject) {
+			tagCount++;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.thebuzzmedia.sjxp.SplitParserTest.WordRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class MappedInputStreamTest extends AbstractTest {
+	public static final String PREFIX = "not xml, skipped by the channel position";
+	public static final int[] WINDOW_SIZES = new int[] { 1, 7, 4096,
+			MappedInputStream.DEFAULT_WINDOW_SIZE };
+
+	private byte[] data;
+	private File file;
+
+	@Before
+	public void createFile() throws Exception {
+		data = SplitParserTest.createDictionary();
+		file = File.createTempFile("sjxp-mapped", ".xml");
+		file.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(PREFIX.getBytes());
+		out.write(data);
+		out.close();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		FileInputStream in = new FileInputStream(file);
+		FileChannel channel = in.getChannel();
+
+		for (int i = 0; i < WINDOW_SIZES.length; i++) {
+			channel.position(PREFIX.length());
+			MappedInputStream stream = new MappedInputStream(channel,
+					WINDOW_SIZES[i]);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			assertEquals(data[0], stream.read());
+			out.write(data[0]);
+
+			byte[] buffer = new byte[13];
+
+			for (int length = stream.read(buffer); length != -1; length = stream
+					.read(buffer))
+				out.write(buffer, 0, length);
+
+			assertEquals(-1, stream.read());
+			assertEquals(PREFIX.length(), channel.position());
+			assertTrue(Arrays.equals(data, out.toByteArray()));
+		}
+
+		in.close();
+	}
+
+	@Test
+	public void testTokenizer() throws Exception {
+		List<String> expected = PushParserTest.pullEvents(data, null);
+		FileInputStream in = new FileInputStream(file);
+
+		for (int i = 0; i < WINDOW_SIZES.length; i++) {
+			in.getChannel().position(PREFIX.length());
+
+			// The tokenizer maps the windows itself instead of reading them
+			ByteTokenizer tokenizer = new ByteTokenizer(true);
+			tokenizer.setInput(new MappedInputStream(in.getChannel(),
+					WINDOW_SIZES[i]), null);
+			List<String> events = new ArrayList<String>();
+
+			for (int event = tokenizer.next(); event != XmlPullParser.END_DOCUMENT; event = tokenizer
+					.next())
+				events.add(PushParserTest.describe(tokenizer, event));
+
+			assertEquals(expected, events);
+		}
+
+		in.close();
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		RuleSet ruleSet = new RuleSet(new WordRule());
+		List expected = SplitParserTest.parseSequentially(ruleSet, data);
+
+		File plain = File.createTempFile("sjxp-mapped", ".xml");
+		plain.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(plain);
+		out.write(data);
+		out.close();
+
+		List words = new ArrayList();
+		new XMLParser(ruleSet).parse(plain, words);
+		assertEquals(expected, words);
+
+		words = new ArrayList();
+		new PushParser(ruleSet).parse(plain, words);
+		assertEquals(expected, words);
+
+		FileInputStream in = new FileInputStream(file);
+		in.getChannel().position(PREFIX.length());
+
+		words = new ArrayList();
+		new XMLParser(ruleSet).parse(in.getChannel(), words);
+		assertEquals(expected, words);
+
+		words = new ArrayList();
+		new PushParser(ruleSet).parse(in.getChannel(), words);
+		assertEquals(expected, words);
+
+		// The channel is left open
+		assertTrue(in.getChannel().isOpen());
+		in.close();
+		plain.delete();
+	}
+
+	@Test
+	public void testEmptyFile() throws Exception {
+		File empty = File.createTempFile("sjxp-mapped", ".xml");
+		empty.deleteOnExit();
+
+		try {
+			new PushParser(new WordRule()).parse(empty);
+			fail();
+		} catch (XMLParserException e) {
+			// expected
+		} finally {
+			empty.delete();
+		}
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testMissingFile() {
+		new XMLParser(new WordRule()).parse(new File(file.getPath()
+				+ ".missing"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullChannel() {
+		new XMLParser(new WordRule()).parse((FileChannel) null, null);
+	}
+}
@@ -0,0 +1,260 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class NativeTokenizerTest extends AbstractTest {
+	@Test
+	public void testResources() throws Exception {
+		RuleSet ruleSet = new RuleSet(new RecordingRule(Type.TAG, "//*"),
+				new RecordingRule(Type.CHARACTER, "//title"),
+				new RecordingRule(Type.CHARACTER,
+						"/rss/channel/item/[http://purl.org/dc/elements/1.1/]*"),
+				new RecordingRule(Type.ATTRIBUTE, "//item", "id",
+						"[http://www.w3.org/1999/02/22-rdf-syntax-ns#]about"),
+				new RecordingRule(Type.ATTRIBUTE,
+						"//[http://www.w3.org/2005/Atom]link", "rel", "href"));
+
+		for (int i = 0; i < PushParserTest.RESOURCES.length; i++) {
+			byte[] data = PushParserTest.read(this.getClass()
+					.getResourceAsStream("resources/" + PushParserTest.RESOURCES[i]));
+
+			List expected = new ArrayList();
+			new XMLParser(ruleSet, false).parse(new ByteArrayInputStream(data),
+					expected);
+
+			List tokenized = new ArrayList();
+			new XMLParser(ruleSet, true).parse(new ByteArrayInputStream(data),
+					tokenized);
+
+			assertTrue(expected.size() > 0);
+			assertEquals(PushParserTest.RESOURCES[i], expected, tokenized);
+		}
+	}
+
+	@Test
+	public void testTransitions() throws Exception {
+		// The same names show up in different places and namespaces
+		String xml = "<a xmlns:p='urn:1'><p:x/><b xmlns:p='urn:2'><p:x/><x/></b>"
+				+ "<p:x/><b><p:x/></b><x xmlns='urn:2'/><x/></a>";
+		RuleSet ruleSet = new RuleSet(new RecordingRule(Type.TAG,
+				"/a/[urn:1]x"), new RecordingRule(Type.TAG, "/a/b/[urn:2]x"),
+				new RecordingRule(Type.TAG, "/a/b/x"), new RecordingRule(
+						Type.TAG, "/a/[urn:2]x"));
+
+		List expected = new ArrayList();
+		new XMLParser(ruleSet, false).parse(
+				new ByteArrayInputStream(xml.getBytes()), expected);
+
+		XMLParser parser = new XMLParser(ruleSet, true);
+
+		for (int i = 0; i < 2; i++) {
+			List tokenized = new ArrayList();
+			parser.parse(new ByteArrayInputStream(xml.getBytes()), tokenized);
+
+			assertEquals(10, expected.size());
+			assertEquals(expected, tokenized);
+		}
+	}
+
+	@Test
+	public void testWellFormedness() throws Exception {
+		RuleSet ruleSet = new RuleSet(new RecordingRule(Type.TAG, "//*"),
+				new RecordingRule(Type.CHARACTER, "//*"));
+		String[] malformed = new String[] { "<a b='1' b='2'/>",
+				"<a xmlns:p='urn:1' xmlns:p='urn:2'/>",
+				"<a xmlns:p='urn:1' xmlns:q='urn:1' p:b='1' q:b='2'/>",
+				"<a>x ]]> y</a>", "<a>]]]]><![CDATA[]]>]]></a>",
+				"<a><!-- x -- y --></a>", "<!-- x ---><a/>", "<1a/>", "<;/>",
+				"<a ;id='1'/>", "<a b='x<y'/>", "<a :b='1'/>", "<p:a:b/>",
+				"<?xml versio='1.0'?><a/>", "<?xml version='x'?><a/>",
+				"<?xml version='1.0' standalone='y'?><a/>",
+				"<a/><?xml version='1.0'?>", "<? a?><a/>", "<!DOCTYP a><a/>",
+				"<!DOCTYPE a><!DOCTYPE a><a/>" };
+
+		// Both backends reject these documents, however they are fed
+		for (int i = 0; i < malformed.length; i++) {
+			for (int j = 0; j < 2; j++)
+				assertMalformed(ruleSet, malformed[i], j == 0);
+
+			assertMalformedWhenPushed(ruleSet, malformed[i]);
+		}
+
+		// XPP3 lets these through, the tokenizer follows the specification
+		String[] lenient = new String[] { "<a b='1'c='2'/>",
+				"<?xml version='1.0'encoding='UTF-8'?><a/>",
+				"<a/><!DOCTYPE a>" };
+
+		for (int i = 0; i < lenient.length; i++) {
+			assertMalformed(ruleSet, lenient[i], true);
+			assertMalformedWhenPushed(ruleSet, lenient[i]);
+		}
+
+		String xml = "<?xml version='1.0' encoding='UTF-8' standalone='no'?>"
+				+ "<!DOCTYPE a [<!ELEMENT a ANY>]><?pi x?>"
+				+ "<a xmlns:p='urn:1' b='1' p:b='2' c='3'>]> ]] > ]&gt;"
+				+ "<![CDATA[]]]]><!-- - --></a>";
+		List expected = new ArrayList();
+		new XMLParser(ruleSet, false).parse(
+				new ByteArrayInputStream(xml.getBytes()), expected);
+
+		List tokenized = new ArrayList();
+		new XMLParser(ruleSet, true).parse(
+				new ByteArrayInputStream(xml.getBytes()), tokenized);
+
+		assertEquals(3, expected.size());
+		assertEquals(expected, tokenized);
+	}
+
+	private static void assertMalformed(RuleSet ruleSet, String xml,
+			boolean nativeTokenizer) {
+		try {
+			new XMLParser(ruleSet, nativeTokenizer).parse(
+					new ByteArrayInputStream(xml.getBytes()), new ArrayList());
+			fail(xml);
+		} catch (XMLParserException e) {
+			// expected
+		}
+	}
+
+	private static void assertMalformedWhenPushed(RuleSet ruleSet, String xml) {
+		PushParser parser = new PushParser(ruleSet);
+		parser.start(new ArrayList());
+
+		try {
+			byte[] data = xml.getBytes();
+
+			for (int i = 0; i < data.length; i++)
+				parser.feed(ByteBuffer.wrap(data, i, 1));
+
+			parser.endOfInput();
+			fail(xml);
+		} catch (XMLParserException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPositions() throws Exception {
+		byte[] data = ("<?xml version='1.0'?>\n<a>\n  <b x='1'/>text\r\n"
+				+ "<!-- a comment\nover two lines --><c>some longer text,\n"
+				+ "long enough to be searched 8 bytes at a time\n</c>"
+				+ "<![CDATA[\n]]><d/></a>").getBytes();
+
+		// Tags end at the same line and column as they do in XPP3
+		XmlPullParser xpp = XmlPullParserFactory.newInstance().newPullParser();
+		xpp.setInput(new ByteArrayInputStream(data), null);
+		List<String> expected = new ArrayList<String>();
+
+		for (int event = xpp.next(); event != XmlPullParser.END_DOCUMENT; event = xpp
+				.next()) {
+			if (event != XmlPullParser.TEXT)
+				expected.add(xpp.getName() + "@" + xpp.getLineNumber() + ":"
+						+ xpp.getColumnNumber());
+		}
+
+		int[] chunkSizes = new int[] { 1, 3, 7, data.length };
+
+		for (int i = 0; i < chunkSizes.length; i++) {
+			ByteTokenizer tokenizer = new ByteTokenizer(false);
+			List<String> positions = new ArrayList<String>();
+
+			for (int j = 0; j <= data.length; j += chunkSizes[i]) {
+				if (j < data.length)
+					tokenizer.feed(ByteBuffer.wrap(data, j, Math.min(
+							chunkSizes[i], data.length - j)));
+				else
+					tokenizer.endOfInput();
+
+				for (int event = tokenizer.nextEvent(); event != ByteTokenizer.NEED_INPUT
+						&& event != XmlPullParser.END_DOCUMENT; event = tokenizer
+						.nextEvent()) {
+					if (event != XmlPullParser.TEXT)
+						positions.add(tokenizer.getName() + "@"
+								+ tokenizer.getLineNumber() + ":"
+								+ tokenizer.getColumnNumber());
+				}
+			}
+
+			assertEquals("chunkSize " + chunkSizes[i], expected, positions);
+		}
+
+		// Errors point at the line and column of the offending markup
+		ByteTokenizer tokenizer = new ByteTokenizer(false);
+		tokenizer.setInput(new ByteArrayInputStream("<a>\n <b>\n  </a>"
+				.getBytes()), null);
+
+		try {
+			while (tokenizer.nextToken() != XmlPullParser.END_DOCUMENT)
+				;
+
+			fail();
+		} catch (XmlPullParserException e) {
+			assertEquals(3, e.getLineNumber());
+			assertEquals(3, e.getColumnNumber());
+			assertTrue(e.getMessage(), e.getMessage().contains(
+					"line 3, column 3"));
+		}
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testUnsupportedEncoding() throws Exception {
+		new XMLParser(new RuleSet(new RecordingRule(Type.TAG, "/a")), true)
+				.parse(new ByteArrayInputStream("<a/>".getBytes()), "UTF-16",
+						null);
+	}
+
+	static class RecordingRule extends DefaultRule {
+		public RecordingRule(Type type, String locationPath,
+				String... attributeNames) {
+			super(type, locationPath, attributeNames);
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isStartTag,
+				Object userObject) {
+			((List) userObject).add(getLocationPath() + " " + isStartTag);
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser parser, int index,
+				String value, Object userObject) {
+			((List) userObject).add(getLocationPath() + " " + index + "="
+					+ value);
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			((List) userObject).add(getLocationPath() + " [" + text + "]");
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ParseCheckpointTest extends AbstractTest {
+	public static final String PREFIX = "not xml, skipped by the channel position";
+	public static final String RECORD_PATH = "//[urn:x]item";
+	public static final int ITEMS = 20;
+	public static final int NAME_LIMIT = 12;
+
+	private File file;
+	private FileInputStream in;
+	private FileChannel channel;
+	private RuleSet ruleSet;
+
+	@Before
+	public void createFile() throws Exception {
+		StringBuilder xml = new StringBuilder(
+				"<?xml version='1.0' encoding='UTF-8'?>\n"
+						+ "<feed xmlns='urn:feed' xmlns:x='urn:x'><head><name>head</name></head>\n"
+						+ "<caf\u00e9><x:items xmlns:y='urn:y'>\n");
+
+		for (int i = 0; i < ITEMS; i++) {
+			// Every 5th item is an empty element
+			if (i % 5 == 4)
+				xml.append("\t<x:item n='").append(i).append("'/>\n");
+			else
+				xml.append("\t<x:item n='").append(i).append("'><name>name")
+						.append(i).append("</name><y:z>z").append(i).append(
+								"</y:z></x:item>\n");
+		}
+
+		xml.append("</x:items></caf\u00e9><tail><name>tail</name></tail></feed>");
+
+		file = File.createTempFile("sjxp-checkpoint", ".xml");
+		file.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(PREFIX.getBytes());
+		out.write(xml.toString().getBytes("UTF-8"));
+		out.close();
+
+		in = new FileInputStream(file);
+		channel = in.getChannel();
+
+		ruleSet = new RuleSet(new DefaultRule(Type.ATTRIBUTE, RECORD_PATH,
+				"n") {
+			@Override
+			public void handleParsedAttribute(XMLParser parser, int index,
+					String value, Object userObject) {
+				((List) userObject).add("n" + value);
+			}
+		}, new DefaultRule(Type.CHARACTER, "//[urn:feed]name", NAME_LIMIT) {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				if (userObject != null)
+					((List) userObject).add(text);
+			}
+		}, new DefaultRule(Type.CHARACTER, "//[urn:y]z") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				((List) userObject).add(text);
+			}
+		});
+	}
+
+	@After
+	public void deleteFile() throws Exception {
+		in.close();
+		file.delete();
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		channel.position(PREFIX.length());
+
+		RecordIterator records = new RecordIterator(ruleSet, RECORD_PATH,
+				new IndexFactory(), channel);
+		List<List> all = new ArrayList<List>();
+		List<ParseCheckpoint> checkpoints = new ArrayList<ParseCheckpoint>();
+
+		assertNull(records.getCheckpoint());
+
+		while (records.hasNext()) {
+			all.add((List) records.next());
+
+			// Parsing on to the next record doesn't move the checkpoint
+			records.hasNext();
+			checkpoints.add(records.getCheckpoint());
+		}
+
+		records.close();
+		assertEquals(ITEMS, all.size());
+		assertEquals(PREFIX.length(), channel.position());
+
+		// The same records as when the file is streamed from the start
+		channel.position(PREFIX.length());
+		assertEquals(all, RecordIteratorTest.collect(new RecordIterator(
+				ruleSet, RECORD_PATH, new IndexFactory(), in, "UTF-8")));
+
+		// The first 12 names are in the head and items 0-12, minus item 4
+		assertTrue(all.get(11).contains("name11"));
+		assertTrue(all.get(12).contains("name12"));
+		assertFalse(all.get(13).contains("name13"));
+
+		for (int i = 0; i < checkpoints.size(); i++) {
+			ParseCheckpoint checkpoint = serialize(checkpoints.get(i));
+
+			assertEquals(i + 1, checkpoint.getRecordCount());
+			assertEquals(3, checkpoint.getDepth());
+
+			RecordIterator resumed = new RecordIterator(ruleSet, RECORD_PATH,
+					new IndexFactory(), channel, checkpoint);
+			assertSame(checkpoint, resumed.getCheckpoint());
+			assertEquals(all.subList(i + 1, all.size()), RecordIteratorTest
+					.collect(resumed));
+		}
+
+		// Items in the same parent share the state of their ancestors
+		assertSame(checkpoints.get(0).getTokenizerState(), checkpoints.get(
+				ITEMS - 1).getTokenizerState());
+
+		// The last checkpoint still has to parse the end of the document
+		assertTrue(checkpoints.get(ITEMS - 1).getByteOffset() < file.length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOtherRecordPath() throws Exception {
+		new RecordIterator(ruleSet, "//[urn:x]items", new IndexFactory(),
+				channel, firstCheckpoint());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOtherRules() throws Exception {
+		new RecordIterator(new RuleSet(new DefaultRule(Type.TAG, RECORD_PATH)),
+				RECORD_PATH, new IndexFactory(), channel, firstCheckpoint());
+	}
+
+	@Test
+	public void testNotNative() {
+		if (XMLParser.ENABLE_NATIVE_TOKENIZER)
+			return;
+
+		RecordIterator records = new RecordIterator(ruleSet, RECORD_PATH,
+				new IndexFactory(), new ByteArrayInputStream(
+						"<item/>".getBytes()));
+
+		try {
+			records.getCheckpoint();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private ParseCheckpoint firstCheckpoint() throws Exception {
+		channel.position(PREFIX.length());
+
+		RecordIterator records = new RecordIterator(ruleSet, RECORD_PATH,
+				new IndexFactory(), channel);
+		records.next();
+
+		return records.getCheckpoint();
+	}
+
+	static ParseCheckpoint serialize(ParseCheckpoint checkpoint)
+			throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(checkpoint);
+		out.close();
+
+		return (ParseCheckpoint) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+
+	static class IndexFactory implements IUserObjectFactory {
+		public Object newUserObject(int index) {
+			List record = new ArrayList();
+			record.add("#" + index);
+
+			return record;
+		}
+	}
+}
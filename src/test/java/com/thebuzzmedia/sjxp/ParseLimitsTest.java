@@ -0,0 +1,289 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.XMLParserAbortedException.Reason;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ParseLimitsTest extends AbstractTest {
+	public static final RuleSet RULE_SET = new RuleSet(new DefaultRule(
+			Type.CHARACTER, "/r/e") {
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			if (userObject != null)
+				((List) userObject).add(text);
+		}
+	});
+
+	@Test
+	public void testCancelled() {
+		for (int i = 0; i < 2; i++) {
+			CancellationToken token = new CancellationToken();
+			token.cancel();
+
+			XMLParser parser = new XMLParser(RULE_SET, i == 1);
+			parser.setCancellationToken(token);
+
+			assertEquals(Reason.CANCELLED, abort(parser, new EndlessStream()));
+		}
+	}
+
+	@Test
+	public void testCancelWhileParsing() {
+		final CancellationToken token = new CancellationToken();
+		XMLParser parser = new XMLParser(new DefaultRule(Type.CHARACTER, "/r/e") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				((List) userObject).add(text);
+
+				if (((List) userObject).size() == 3)
+					token.cancel();
+			}
+		});
+		parser.setCancellationToken(token);
+
+		List texts = new ArrayList();
+
+		try {
+			parser.parse(new EndlessStream(), texts);
+			fail();
+		} catch (XMLParserAbortedException e) {
+			assertEquals(Reason.CANCELLED, e.getReason());
+		}
+
+		assertEquals(3, texts.size());
+
+		// The token stays cancelled, the next parse is aborted right away
+		try {
+			parser.parse(new EndlessStream(), texts);
+			fail();
+		} catch (XMLParserAbortedException e) {
+			assertEquals(3, texts.size());
+		}
+	}
+
+	@Test
+	public void testTimeout() {
+		for (int i = 0; i < 2; i++) {
+			XMLParser parser = new XMLParser(RULE_SET, i == 1);
+			parser.setTimeout(100);
+
+			long start = System.currentTimeMillis();
+			assertEquals(Reason.TIMEOUT, abort(parser, new EndlessStream()));
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		}
+	}
+
+	@Test
+	public void testTimeoutInsideToken() {
+		// A single endless text node produces no events at all
+		EndlessStream in = new EndlessStream("<r><e>", "x");
+		XMLParser parser = new XMLParser(RULE_SET);
+		parser.setTimeout(100);
+
+		assertEquals(Reason.TIMEOUT, abort(parser, in));
+	}
+
+	@Test
+	public void testMaxBytes() {
+		for (int i = 0; i < 2; i++) {
+			EndlessStream in = new EndlessStream("<r><e>", "x");
+			XMLParser parser = new XMLParser(RULE_SET, i == 1);
+			parser.setMaxBytes(1024 * 1024);
+
+			assertEquals(Reason.MAX_BYTES, abort(parser, in));
+
+			// Aborted as soon as the read going over the budget returned
+			assertTrue(in.getCount() > 1024 * 1024);
+			assertTrue(in.getCount() <= 1024 * 1024 + 65536);
+		}
+	}
+
+	@Test
+	public void testMaxEvents() {
+		for (int i = 0; i < 2; i++) {
+			XMLParser parser = new XMLParser(RULE_SET, i == 1);
+			parser.setMaxEvents(10);
+
+			List texts = new ArrayList();
+
+			try {
+				parser.parse(new EndlessStream(), texts);
+				fail();
+			} catch (XMLParserAbortedException e) {
+				assertEquals(Reason.MAX_EVENTS, e.getReason());
+			}
+
+			// <r>, then 3 events for each of the first 3 elements
+			assertEquals(3, texts.size());
+
+			// A document within the budget parses normally
+			texts.clear();
+			parser.parse(new ByteArrayInputStream(
+					"<r><e>a</e><e>b</e></r>".getBytes()), texts);
+			assertEquals(2, texts.size());
+		}
+	}
+
+	@Test
+	public void testStopFromOtherThread() throws Exception {
+		final XMLParser parser = new XMLParser(RULE_SET);
+		Thread stopper = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// no-op, stop right away.
+				}
+
+				parser.stop();
+			}
+		};
+
+		stopper.start();
+
+		// Returns normally once the stop is seen
+		parser.parse(new EndlessStream());
+		stopper.join();
+	}
+
+	@Test
+	public void testPushParser() {
+		PushParser parser = new PushParser(RULE_SET);
+		parser.setMaxBytes(100);
+		parser.start(null);
+
+		ByteBuffer buffer = ByteBuffer.wrap("<r><e>0123456789</e>".getBytes());
+
+		try {
+			for (int i = 0; i < 10; i++)
+				assertTrue(parser.feed(buffer.duplicate()));
+
+			fail();
+		} catch (XMLParserAbortedException e) {
+			assertEquals(Reason.MAX_BYTES, e.getReason());
+		}
+
+		// Every document gets the whole budget again
+		parser.start(null);
+		assertTrue(parser.feed(buffer.duplicate()));
+	}
+
+	@Test
+	public void testPoolClearsLimits() {
+		XMLParserPool pool = new XMLParserPool(RULE_SET, 1);
+		XMLParser parser = pool.acquire();
+
+		parser.setCancellationToken(new CancellationToken());
+		parser.setTimeout(100);
+		parser.setMaxBytes(100);
+		parser.setMaxEvents(100);
+		pool.release(parser);
+
+		assertSame(parser, pool.acquire());
+		assertNull(parser.getCancellationToken());
+		assertEquals(0, parser.getTimeout());
+		assertEquals(0, parser.getMaxBytes());
+		assertEquals(0, parser.getMaxEvents());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeTimeout() {
+		new XMLParser(RULE_SET).setTimeout(-1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeMaxBytes() {
+		new XMLParser(RULE_SET).setMaxBytes(-1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeMaxEvents() {
+		new XMLParser(RULE_SET).setMaxEvents(-1);
+	}
+
+	/**
+	 * Used to parse the given stream expecting the parse to be aborted.
+	 * 
+	 * @return the reason the parse was aborted.
+	 */
+	static Reason abort(XMLParser parser, InputStream in) {
+		try {
+			parser.parse(in);
+		} catch (XMLParserAbortedException e) {
+			assertFalse(parser.isParsing());
+			return e.getReason();
+		}
+
+		fail("The parse was not aborted.");
+		return null;
+	}
+
+	/**
+	 * Class used to stream a document that never ends: a prefix followed by
+	 * the same chunk of bytes repeated forever.
+	 */
+	static class EndlessStream extends InputStream {
+		private byte[] prefix;
+		private byte[] chunk;
+		private long count;
+
+		public EndlessStream() {
+			this("<r>", "<e>text</e>");
+		}
+
+		public EndlessStream(String prefix, String chunk) {
+			this.prefix = prefix.getBytes();
+			this.chunk = chunk.getBytes();
+		}
+
+		@Override
+		public int read() {
+			byte b = (count < prefix.length ? prefix[(int) count]
+					: chunk[(int) ((count - prefix.length) % chunk.length)]);
+			count++;
+
+			return (b & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			for (int i = 0; i < len; i++)
+				b[off + i] = (byte) read();
+
+			return len;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class PushParserTest extends AbstractTest {
+	public static final String[] RESOURCES = new String[] {
+			"attribute-only.xml", "character-only.xml", "collision.xml",
+			"complex.xml", "namespace.xml", "simple.xml", "typed.xml" };
+	public static final int[] CHUNK_SIZES = new int[] { 1, 3, 64, 65536 };
+
+	@Test
+	public void testEvents() throws Exception {
+		for (int i = 0; i < RESOURCES.length; i++) {
+			byte[] data = read(this.getClass().getResourceAsStream(
+					"resources/" + RESOURCES[i]));
+			List<String> expected = pullEvents(data, null);
+
+			for (int j = 0; j < CHUNK_SIZES.length; j++)
+				assertEquals(RESOURCES[i] + " in chunks of " + CHUNK_SIZES[j],
+						expected, pushEvents(data, CHUNK_SIZES[j]));
+		}
+	}
+
+	@Test
+	public void testEncodings() throws Exception {
+		String body = "<r xmlns='urn:r' xmlns:p='urn:p' p:a='x&#10;y\tz &lt;&amp;&#x20AC;' b=\"'\">"
+				+ "caf\u00e9 \u20ac<!-- c --> <![CDATA[ <a> & ]]]]><?pi ?>&quot;&#233;\r\n"
+				+ "<p:e/><e p:x='1'>a\u00e9<e/></e>\r</r>";
+
+		byte[] utf8 = ("<?xml version='1.0' encoding='UTF-8'?>" + body)
+				.getBytes("UTF-8");
+		byte[] bom = new byte[utf8.length + 3];
+		bom[0] = (byte) 0xEF;
+		bom[1] = (byte) 0xBB;
+		bom[2] = (byte) 0xBF;
+		System.arraycopy(utf8, 0, bom, 3, utf8.length);
+
+		byte[] latin1 = ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" + body
+				.replace('\u20ac', 'E')).getBytes("ISO-8859-1");
+
+		byte[][] documents = new byte[][] { utf8, bom, latin1 };
+		String[] encodings = new String[] { null, null, "ISO-8859-1" };
+
+		for (int i = 0; i < documents.length; i++) {
+			// XPP3 only uses a declared encoding when it is given explicitly
+			List<String> expected = pullEvents(documents[i], encodings[i]);
+
+			for (int j = 0; j < CHUNK_SIZES.length; j++)
+				assertEquals(expected, pushEvents(documents[i], CHUNK_SIZES[j]));
+		}
+	}
+
+	@Test
+	public void testByteOrders() throws Exception {
+		// Every kind of byte lands at every offset of the 8 read at once
+		StringBuilder xml = new StringBuilder("<r>");
+
+		for (int i = 0; i < 40; i++) {
+			String padding = "abcdefghijklmnopqrstuvwxyz0123456789ABCD"
+					.substring(0, i);
+
+			xml.append("<e a='").append(padding).append("&amp;\t").append(
+					padding).append("'>").append(padding).append(
+					"\u00e9&lt;\r\n").append(padding).append("<!--")
+					.append(padding).append("--><![CDATA[").append(padding)
+					.append("<&]]>").append(padding).append("</e>");
+		}
+
+		byte[] data = xml.append("</r>").toString().getBytes("UTF-8");
+		List<String> expected = pullEvents(data, null);
+		ByteOrder[] orders = new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+				ByteOrder.LITTLE_ENDIAN };
+
+		for (int i = 0; i < orders.length; i++) {
+			for (int j = 0; j < 2; j++) {
+				ByteBuffer buffer = (j == 0 ? ByteBuffer.allocate(data.length)
+						: ByteBuffer.allocateDirect(data.length));
+				buffer.order(orders[i]).put(data).flip();
+
+				ByteTokenizer tokenizer = new ByteTokenizer(true);
+				tokenizer.feed(buffer);
+				tokenizer.endOfInput();
+
+				List<String> events = new ArrayList<String>();
+
+				for (int event = tokenizer.nextEvent(); event != XmlPullParser.END_DOCUMENT; event = tokenizer
+						.nextEvent())
+					events.add(describe(tokenizer, event));
+
+				assertEquals(orders[i] + (j == 0 ? " heap" : " direct"),
+						expected, events);
+			}
+		}
+	}
+
+	@Test
+	public void testRules() throws Exception {
+		byte[] data = read(this.getClass().getResourceAsStream(
+				"resources/complex.xml"));
+		RuleSet ruleSet = new RuleSet(new DefaultRule(Type.CHARACTER,
+				"//[http://purl.org/rss/1.0/]title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				((List) userObject).add(text);
+			}
+		}, new DefaultRule(Type.ATTRIBUTE,
+				"//[http://purl.org/rss/1.0/]item",
+				"[http://www.w3.org/1999/02/22-rdf-syntax-ns#]about") {
+			@Override
+			public void handleParsedAttribute(XMLParser parser, int index,
+					String value, Object userObject) {
+				((List) userObject).add(value);
+			}
+		});
+
+		List expected = new ArrayList();
+		new XMLParser(ruleSet).parse(new ByteArrayInputStream(data), expected);
+
+		List pushed = new ArrayList();
+		PushParser parser = new PushParser(ruleSet);
+		parser.start(pushed);
+
+		for (int i = 0; i < data.length; i += 100) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+			buffer.put(data, i, Math.min(100, data.length - i)).flip();
+
+			assertTrue(parser.feed(buffer));
+			assertFalse(buffer.hasRemaining());
+		}
+
+		parser.endOfInput();
+		assertTrue(expected.size() > 6);
+		assertEquals(expected, pushed);
+
+		// The inherited pull parsing uses the same tokenizer
+		List pulled = new ArrayList();
+		parser.parse(new ByteArrayInputStream(data), pulled);
+		assertEquals(expected, pulled);
+	}
+
+	@Test
+	public void testSkipping() throws Exception {
+		final List events = new ArrayList();
+		PushParser parser = new PushParser(new DefaultRule(Type.CHARACTER,
+				"/library/book/title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				events.add(text);
+			}
+		}) {
+			@Override
+			protected void skipElement(Object userObject) throws IOException,
+					XmlPullParserException {
+				events.add("skip " + getPullParser().getName());
+				super.skipElement(userObject);
+			}
+		};
+
+		// The skipped element is split across feeds
+		parser.start(null);
+		assertTrue(parser.feed(ByteBuffer.wrap("<library><shelf><book><title>X"
+				.getBytes())));
+		assertTrue(parser.feed(ByteBuffer.wrap("</title></book></she"
+				.getBytes())));
+		assertTrue(parser.feed(ByteBuffer.wrap("lf><book><title>A</title></book>"
+				.getBytes())));
+		assertTrue(parser.feed(ByteBuffer.wrap("</library>".getBytes())));
+		parser.endOfInput();
+
+		assertEquals(2, events.size());
+		assertEquals("skip shelf", events.get(0));
+		assertEquals("A", events.get(1));
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		final List titles = new ArrayList();
+		PushParser parser = new PushParser(new DefaultRule(Type.CHARACTER,
+				"/library/book/title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				titles.add(text);
+				parser.stop();
+			}
+		});
+
+		parser.start(null);
+		assertTrue(parser.feed(ByteBuffer.wrap("<library><book><ti"
+				.getBytes())));
+		assertFalse(parser.feed(ByteBuffer.wrap("tle>A</title></book><book><title>B"
+				.getBytes())));
+
+		ByteBuffer rest = ByteBuffer.wrap("</title></book></library>"
+				.getBytes());
+		assertFalse(parser.feed(rest));
+		assertFalse(rest.hasRemaining());
+
+		parser.endOfInput();
+		assertEquals(1, titles.size());
+		assertEquals("A", titles.get(0));
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		String[] documents = new String[] { "<a><b></a>", "<a>",
+				"<a b=c></a>", "<a></a><b/>", "text<a/>", "<a>&foo;</a>",
+				"<p:a/>", "<?xml version='1.0' encoding='Shift_JIS'?><a/>", "" };
+
+		for (int i = 0; i < documents.length; i++) {
+			PushParser parser = new PushParser(new DefaultRule(
+					Type.CHARACTER, "/a"));
+
+			try {
+				parser.start(null);
+				parser.feed(ByteBuffer.wrap(documents[i].getBytes()));
+				parser.endOfInput();
+				fail(documents[i]);
+			} catch (XMLParserException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNotStarted() {
+		new PushParser(new DefaultRule(Type.TAG, "/a")).feed(ByteBuffer
+				.wrap("<a/>".getBytes()));
+	}
+
+	static byte[] read(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+
+		for (int length = in.read(buffer); length != -1; length = in
+				.read(buffer))
+			out.write(buffer, 0, length);
+
+		in.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Used to record every event of the document as parsed by XPP3.
+	 */
+	static List<String> pullEvents(byte[] data, String encoding)
+			throws Exception {
+		XmlPullParser xpp = XMLParser.XPP_FACTORY.newPullParser();
+		xpp.setInput(new ByteArrayInputStream(data), encoding);
+
+		List<String> events = new ArrayList<String>();
+
+		for (int event = xpp.next(); event != XmlPullParser.END_DOCUMENT; event = xpp
+				.next())
+			events.add(describe(xpp, event));
+
+		return events;
+	}
+
+	/**
+	 * Used to record every event of the document as tokenized by the
+	 * {@link ByteTokenizer}, feeding it the given number of bytes at a time.
+	 */
+	static List<String> pushEvents(byte[] data, int chunkSize)
+			throws Exception {
+		ByteTokenizer tokenizer = new ByteTokenizer(true);
+		List<String> events = new ArrayList<String>();
+
+		for (int i = 0; i < data.length; i += chunkSize) {
+			tokenizer.feed(ByteBuffer.wrap(data, i,
+					Math.min(chunkSize, data.length - i)));
+
+			for (int event = tokenizer.nextEvent(); event != ByteTokenizer.NEED_INPUT; event = tokenizer
+					.nextEvent())
+				events.add(describe(tokenizer, event));
+		}
+
+		tokenizer.endOfInput();
+
+		for (int event = tokenizer.nextEvent(); event != XmlPullParser.END_DOCUMENT; event = tokenizer
+				.nextEvent())
+			events.add(describe(tokenizer, event));
+
+		return events;
+	}
+
+	static String describe(XmlPullParser xpp, int event) {
+		StringBuilder description = new StringBuilder(
+				XmlPullParser.TYPES[event]).append(' ').append(xpp.getDepth());
+
+		if (event == XmlPullParser.TEXT)
+			description.append(" [").append(xpp.getText()).append(']');
+		else {
+			description.append(" {").append(xpp.getNamespace()).append('}')
+					.append(xpp.getName());
+
+			for (int i = 0; event == XmlPullParser.START_TAG
+					&& i < xpp.getAttributeCount(); i++)
+				description.append(" {").append(xpp.getAttributeNamespace(i))
+						.append('}').append(xpp.getAttributeName(i))
+						.append("=[").append(xpp.getAttributeValue(i))
+						.append(']');
+		}
+
+		return description.toString();
+	}
+}
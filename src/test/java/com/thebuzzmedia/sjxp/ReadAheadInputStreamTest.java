@@ -0,0 +1,222 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.SplitParserTest.WordRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ReadAheadInputStreamTest extends AbstractTest {
+	public static final int[] CHUNK_SIZES = new int[] { 1, 7, 4096,
+			ReadAheadInputStream.DEFAULT_CHUNK_SIZE };
+
+	@Test
+	public void testRead() throws Exception {
+		byte[] data = SplitParserTest.createDictionary();
+		byte[][] sources = new byte[][] { data, gzip(data), zlib(data) };
+
+		for (int i = 0; i < sources.length; i++) {
+			for (int j = 0; j < CHUNK_SIZES.length; j++) {
+				InputStream in = new ReadAheadInputStream(
+						new ByteArrayInputStream(sources[i]), CHUNK_SIZES[j],
+						null);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+				assertEquals(data[0], in.read());
+				out.write(data[0]);
+
+				byte[] buffer = new byte[13];
+
+				for (int length = in.read(buffer); length != -1; length = in
+						.read(buffer))
+					out.write(buffer, 0, length);
+
+				assertEquals(-1, in.read());
+				in.close();
+
+				assertTrue(Arrays.equals(data, out.toByteArray()));
+			}
+		}
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(
+				new byte[0]));
+
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(new byte[8]));
+		in.close();
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		byte[] data = SplitParserTest.createDictionary();
+		RuleSet ruleSet = new RuleSet(new WordRule());
+		List expected = SplitParserTest.parseSequentially(ruleSet, data);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			for (int i = 0; i < 2; i++) {
+				for (int j = 0; j < CHUNK_SIZES.length; j++) {
+					XMLParser parser = new XMLParser(ruleSet, i == 1);
+					List words = new ArrayList();
+
+					parser.parse(new ReadAheadInputStream(
+							new ByteArrayInputStream(gzip(data)),
+							CHUNK_SIZES[j], executor), words);
+					assertEquals(expected, words);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testCorrupt() throws Exception {
+		byte[] data = gzip(SplitParserTest.createDictionary());
+
+		// Keep the gzip header, garble the compressed data
+		for (int i = 100; i < data.length; i += 50)
+			data[i] ^= 0x5A;
+
+		InputStream in = new ReadAheadInputStream(
+				new ByteArrayInputStream(data));
+
+		try {
+			while (in.read(new byte[4096]) != -1)
+				;
+
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		try {
+			new XMLParser(new WordRule()).parse(new ReadAheadInputStream(
+					new ByteArrayInputStream(data)), new ArrayList());
+			fail();
+		} catch (XMLParserException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		final boolean[] closed = new boolean[1];
+		InputStream source = new InputStream() {
+			@Override
+			public int read() {
+				return 'x';
+			}
+
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+
+		// An endless source, the read-ahead thread waits for an empty chunk
+		InputStream in = new ReadAheadInputStream(source, 16, null);
+		assertEquals('x', in.read());
+
+		in.close();
+		assertTrue(closed[0]);
+
+		try {
+			in.read();
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAbandoned() throws Exception {
+		final AtomicBoolean closed = new AtomicBoolean();
+		InputStream source = new InputStream() {
+			@Override
+			public int read() {
+				return 'x';
+			}
+
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+
+		InputStream in = new ReadAheadInputStream(source, 16, null);
+		assertEquals('x', in.read());
+
+		// Dropped without being closed, the read-ahead thread gives up
+		in = null;
+
+		for (int i = 0; i < 100 && !closed.get(); i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+
+		assertTrue(closed.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullSource() {
+		new ReadAheadInputStream(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChunkSize() {
+		new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), 0,
+				null);
+	}
+
+	static byte[] gzip(byte[] data) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out = new GZIPOutputStream(bytes);
+		out.write(data);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	static byte[] zlib(byte[] data) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out = new DeflaterOutputStream(bytes);
+		out.write(data);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+}
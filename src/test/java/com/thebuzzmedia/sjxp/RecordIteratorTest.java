@@ -0,0 +1,211 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.SplitParserTest.ListFactory;
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class RecordIteratorTest extends AbstractTest {
+	public static final String RSS = "http://purl.org/rss/1.0/";
+
+	@Test
+	public void test() throws Exception {
+		RuleSet ruleSet = new RuleSet(new DefaultRule(Type.ATTRIBUTE, "//["
+				+ RSS + "]item",
+				"[http://www.w3.org/1999/02/22-rdf-syntax-ns#]about") {
+			@Override
+			public void handleParsedAttribute(XMLParser parser, int index,
+					String value, Object userObject) {
+				((List) userObject).add(value);
+			}
+		}, new DefaultRule(Type.CHARACTER, "//[" + RSS + "]item/[" + RSS
+				+ "]title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				((List) userObject).add(text);
+			}
+		});
+
+		RecordIterator records = new RecordIterator(ruleSet, "//[" + RSS
+				+ "]item", new ListFactory(), this.getClass()
+				.getResourceAsStream("resources/complex.xml"));
+		List all = new ArrayList();
+
+		while (records.hasNext()) {
+			List record = (List) records.next();
+
+			// The attribute of the record element lands in its own record
+			assertEquals(2, record.size());
+			assertTrue(((String) record.get(0)).startsWith("http://"));
+			all.addAll(record);
+		}
+
+		records.close();
+
+		List expected = new ArrayList();
+		new XMLParser(ruleSet).parse(this.getClass().getResourceAsStream(
+				"resources/complex.xml"), expected);
+
+		assertEquals(3, all.size() / 2);
+		assertEquals(expected, all);
+	}
+
+	@Test
+	public void testLazy() throws Exception {
+		StringBuilder xml = new StringBuilder("<feed>");
+
+		for (int i = 0; i < 1000; i++)
+			xml.append("<entry><id>").append(i).append("</id></entry>");
+
+		// Malformed, but never reached when only the first records are read
+		xml.append("<entry><id>x</oops></entry></feed>");
+
+		RecordIterator records = new RecordIterator(new RuleSet(
+				new IdRule()), "/feed/entry", new ListFactory(),
+				new ByteArrayInputStream(xml.toString().getBytes()));
+
+		for (int i = 0; i < 3; i++)
+			assertEquals("" + i, ((List) records.next()).get(0));
+
+		records.close();
+		assertFalse(records.hasNext());
+
+		try {
+			records.next();
+			fail();
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSkippedAncestors() throws Exception {
+		// No rule matches outside of <b>, which must not hide the records
+		String xml = "<a><x><r><b>1</b></r><r/><r><b>2</b><r><b>3</b></r></r></x></a>";
+		List<List> records = collect(new RecordIterator(new RuleSet(
+				new DefaultRule(Type.CHARACTER, "//b") {
+					@Override
+					public void handleParsedCharacters(XMLParser parser,
+							String text, Object userObject) {
+						((List) userObject).add(text);
+					}
+				}), "/a/*/r", new ListFactory(), new ByteArrayInputStream(
+				xml.getBytes())));
+
+		assertEquals(3, records.size());
+		assertEquals("[1]", records.get(0).toString());
+		assertEquals("[]", records.get(1).toString());
+
+		// A nested record is part of the outer one
+		assertEquals("[2, 3]", records.get(2).toString());
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		String xml = "<feed><entry><id>1</id></entry><entry><id>stop</id></entry>"
+				+ "<entry><id>3</id></entry></feed>";
+		List<List> records = collect(new RecordIterator(new RuleSet(
+				new IdRule() {
+					@Override
+					public void handleParsedCharacters(XMLParser parser,
+							String text, Object userObject) {
+						if ("stop".equals(text))
+							parser.stop();
+						else
+							super.handleParsedCharacters(parser, text,
+									userObject);
+					}
+				}), "/feed/entry", new ListFactory(),
+				new ByteArrayInputStream(xml.getBytes())));
+
+		// The record being parsed when parsing stopped is dropped
+		assertEquals(1, records.size());
+	}
+
+	@Test
+	public void testMatchLimit() throws Exception {
+		String xml = "<feed><entry><id>A</id></entry><entry><id>B</id></entry></feed>";
+		List<List> records = collect(new RecordIterator(new RuleSet(
+				new DefaultRule(Type.CHARACTER, "/feed/entry/id", 1) {
+					@Override
+					public void handleParsedCharacters(XMLParser parser,
+							String text, Object userObject) {
+						((List) userObject).add(text);
+					}
+				}), "/feed/entry", new ListFactory(),
+				new ByteArrayInputStream(xml.getBytes())));
+
+		// Reaching every limit doesn't stop the parse half way into a record
+		assertEquals(2, records.size());
+		assertEquals("[A]", records.get(0).toString());
+		assertEquals("[]", records.get(1).toString());
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testMalformed() throws Exception {
+		collect(new RecordIterator(new RuleSet(new IdRule()), "/feed/entry",
+				new ListFactory(), new ByteArrayInputStream(
+						"<feed><entry><id>1</id></entry><entry></feed>"
+								.getBytes())));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullFactory() {
+		new RecordIterator(new RuleSet(new IdRule()), "/feed/entry", null,
+				new ByteArrayInputStream(new byte[0]));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testRemove() {
+		new RecordIterator(new RuleSet(new IdRule()), "/feed/entry",
+				new ListFactory(), new ByteArrayInputStream(new byte[0]))
+				.remove();
+	}
+
+	static List<List> collect(RecordIterator records) {
+		List<List> list = new ArrayList<List>();
+
+		while (records.hasNext())
+			list.add((List) records.next());
+
+		records.close();
+		return list;
+	}
+
+	static class IdRule extends DefaultRule {
+		public IdRule() {
+			super(Type.CHARACTER, "/feed/entry/id");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			((List) userObject).add(text);
+		}
+	}
+}
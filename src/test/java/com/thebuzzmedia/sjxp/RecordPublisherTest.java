@@ -0,0 +1,254 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.RecordIteratorTest.IdRule;
+import com.thebuzzmedia.sjxp.RecordPublisher.ISubscriber;
+import com.thebuzzmedia.sjxp.RecordPublisher.ISubscription;
+import com.thebuzzmedia.sjxp.SplitParserTest.ListFactory;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class RecordPublisherTest extends AbstractTest {
+	public static final int RECORDS = 2000;
+
+	@Test
+	public void testDemand() throws Exception {
+		CountingInputStream in = new CountingInputStream(createFeed());
+		RecordPublisher publisher = new RecordPublisher(new RuleSet(
+				new IdRule()), "/feed/entry", new ListFactory(), in);
+		RecordingSubscriber subscriber = new RecordingSubscriber(0);
+
+		publisher.subscribe(subscriber);
+		assertEquals(0, subscriber.records.size());
+
+		subscriber.subscription.request(3);
+		assertEquals(3, subscriber.records.size());
+		assertEquals("[2]", subscriber.records.get(2).toString());
+
+		// Parsing paused, the rest of the document hasn't even been read
+		assertTrue(in.count < in.length / 2);
+
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals(RECORDS, subscriber.records.size());
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void testExecutor() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		RecordPublisher publisher = new RecordPublisher(new RuleSet(
+				new IdRule()), "/feed/entry", new ListFactory(),
+				new ByteArrayInputStream(createFeed()), executor);
+
+		// Requests one record at a time from inside onNext
+		RecordingSubscriber subscriber = new RecordingSubscriber(1);
+		publisher.subscribe(subscriber);
+
+		assertTrue(subscriber.finished.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+
+		assertEquals(RECORDS, subscriber.records.size());
+
+		for (int i = 0; i < RECORDS; i++)
+			assertEquals("[" + i + "]", subscriber.records.get(i).toString());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		RecordPublisher publisher = new RecordPublisher(new RuleSet(
+				new IdRule()), "/feed/entry", new ListFactory(),
+				new ByteArrayInputStream(createFeed()));
+		RecordingSubscriber subscriber = new RecordingSubscriber(1) {
+			@Override
+			public void onNext(Object record) {
+				super.onNext(record);
+
+				if (records.size() == 5)
+					subscription.cancel();
+			}
+		};
+
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(1);
+		subscriber.subscription.request(10);
+
+		assertEquals(5, subscriber.records.size());
+		assertFalse(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void testError() throws Exception {
+		RecordPublisher publisher = new RecordPublisher(new RuleSet(
+				new IdRule()), "/feed/entry", new ListFactory(),
+				new ByteArrayInputStream(
+						"<feed><entry><id>1</id></entry><entry></feed>"
+								.getBytes()));
+		RecordingSubscriber subscriber = new RecordingSubscriber(0);
+
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(5);
+
+		assertEquals(1, subscriber.records.size());
+		assertTrue(subscriber.error instanceof XMLParserException);
+		assertFalse(subscriber.completed);
+
+		// A bad request fails the subscription
+		publisher = new RecordPublisher(new RuleSet(new IdRule()),
+				"/feed/entry", new ListFactory(), new ByteArrayInputStream(
+						createFeed()));
+		subscriber = new RecordingSubscriber(0);
+
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+
+		// Only one subscriber is accepted
+		RecordingSubscriber second = new RecordingSubscriber(0);
+		publisher.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+
+	@Test
+	public void testRuntimeException() throws Exception {
+		final IllegalStateException failure = new IllegalStateException();
+		RecordPublisher publisher = new RecordPublisher(new RuleSet(
+				new IdRule() {
+					@Override
+					public void handleParsedCharacters(XMLParser parser,
+							String text, Object userObject) {
+						if (text.equals("2"))
+							throw failure;
+
+						super.handleParsedCharacters(parser, text, userObject);
+					}
+				}), "/feed/entry", new ListFactory(),
+				new ByteArrayInputStream(createFeed()));
+		RecordingSubscriber subscriber = new RecordingSubscriber(0);
+
+		// A rule throwing is reported like a parse error, not lost
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(5);
+
+		assertEquals(2, subscriber.records.size());
+		assertSame(failure, subscriber.error);
+		assertFalse(subscriber.completed);
+
+		// A subscriber throwing is cancelled, and the publisher keeps working
+		publisher = new RecordPublisher(new RuleSet(new IdRule()),
+				"/feed/entry", new ListFactory(), new ByteArrayInputStream(
+						createFeed()));
+		subscriber = new RecordingSubscriber(0) {
+			@Override
+			public void onNext(Object record) {
+				super.onNext(record);
+				throw failure;
+			}
+		};
+
+		publisher.subscribe(subscriber);
+
+		try {
+			subscriber.subscription.request(5);
+			fail();
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+
+		subscriber.subscription.request(5);
+		assertEquals(1, subscriber.records.size());
+		assertNull(subscriber.error);
+	}
+
+	static byte[] createFeed() {
+		StringBuilder xml = new StringBuilder("<feed>");
+
+		for (int i = 0; i < RECORDS; i++)
+			xml.append("<entry><id>").append(i).append(
+					"</id><text>some text to make the feed bigger</text></entry>");
+
+		return xml.append("</feed>").toString().getBytes();
+	}
+
+	static class CountingInputStream extends ByteArrayInputStream {
+		private int length;
+		private int count;
+
+		public CountingInputStream(byte[] data) {
+			super(data);
+			length = data.length;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			int read = super.read(b, off, len);
+			count += Math.max(read, 0);
+
+			return read;
+		}
+	}
+
+	static class RecordingSubscriber implements ISubscriber {
+		protected ISubscription subscription;
+		protected List records = new ArrayList();
+		protected boolean completed;
+		protected Throwable error;
+		protected CountDownLatch finished = new CountDownLatch(1);
+
+		private int batch;
+
+		public RecordingSubscriber(int batch) {
+			this.batch = batch;
+		}
+
+		public void onSubscribe(ISubscription subscription) {
+			this.subscription = subscription;
+
+			if (batch > 0)
+				subscription.request(batch);
+		}
+
+		public void onNext(Object record) {
+			records.add(record);
+
+			if (batch > 0 && records.size() % batch == 0)
+				subscription.request(batch);
+		}
+
+		public void onError(Throwable error) {
+			this.error = error;
+			finished.countDown();
+		}
+
+		public void onComplete() {
+			completed = true;
+			finished.countDown();
+		}
+	}
+}
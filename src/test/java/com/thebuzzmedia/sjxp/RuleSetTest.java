@@ -0,0 +1,153 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class RuleSetTest extends AbstractTest {
+	public static final String[] TITLES = new String[] { "I Like Ham",
+			"That's What She Said", "I Crack Myself Up" };
+	public static final int THREADS = 8;
+	public static final int PARSES = 50;
+
+	@Test
+	public void test() {
+		RuleSet ruleSet = new RuleSet(new TitleRule());
+		List titles = new ArrayList();
+
+		new XMLParser(ruleSet).parse(
+				this.getClass().getResourceAsStream(
+						"resources/character-only.xml"), titles);
+
+		assertEquals(TITLES.length, titles.size());
+		assertEquals(1, ruleSet.getCharacterRuleCount());
+		assertEquals(0, ruleSet.getTagRuleCount());
+	}
+
+	@Test
+	public void testGetRuleSet() {
+		XMLParser parser = new XMLParser(new TitleRule());
+		List titles = new ArrayList();
+
+		new XMLParser(parser.getRuleSet()).parse(this.getClass()
+				.getResourceAsStream("resources/character-only.xml"), titles);
+
+		assertEquals(TITLES.length, titles.size());
+	}
+
+	@Test
+	public void testLimitsPerParser() {
+		RuleSet ruleSet = new RuleSet(new DefaultRule(Type.CHARACTER,
+				"/library/book/title", 2) {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				((List) userObject).add(text);
+			}
+		});
+
+		// Every parser counts the matches of its own parses
+		for (int i = 0; i < 2; i++) {
+			List titles = new ArrayList();
+
+			new XMLParser(ruleSet).parse(
+					this.getClass().getResourceAsStream(
+							"resources/character-only.xml"), titles);
+
+			assertEquals(2, titles.size());
+		}
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final RuleSet ruleSet = new RuleSet(new TitleRule());
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[THREADS];
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						XMLParser parser = new XMLParser(ruleSet);
+
+						for (int j = 0; j < PARSES; j++) {
+							List titles = new ArrayList();
+
+							parser.parse(
+									RuleSetTest.class
+											.getResourceAsStream("resources/character-only.xml"),
+									titles);
+
+							assertEquals(TITLES.length, titles.size());
+
+							for (int k = 0; k < TITLES.length; k++)
+								assertEquals(TITLES[k], titles.get(k));
+						}
+					} catch (Throwable t) {
+						synchronized (errors) {
+							errors.add(t);
+						}
+					}
+				}
+			};
+
+			threads[i].start();
+		}
+
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		assertTrue(errors.toString(), errors.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmpty() {
+		new RuleSet(new IRule[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullRule() {
+		new RuleSet(new TitleRule(), null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullRuleSet() {
+		new XMLParser((RuleSet) null);
+	}
+
+	class TitleRule extends DefaultRule {
+		public TitleRule() {
+			super(Type.CHARACTER, "/library/book/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			((List) userObject).add(text);
+		}
+	}
+}
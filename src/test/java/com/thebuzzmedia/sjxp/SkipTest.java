@@ -0,0 +1,93 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class SkipTest extends AbstractTest {
+	public static final String[] NAMES = new String[] { "Terminator 2",
+			"Tommy Boy" };
+
+	/*
+	 * imdb (1), category (2), movie (2) and name (2) lead to the rule; year (2)
+	 * and cast (2) are entered and then skipped, so none of the 6 actors are
+	 * ever seen.
+	 */
+	public static final int START_TAGS = 11;
+
+	private int count = 0;
+	private int startTags = 0;
+	private int endTags = 0;
+
+	@Test
+	public void test() {
+		XMLParser parser = new CountingParser(new NameRule());
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		assertEquals(NAMES.length, count);
+		assertEquals(START_TAGS, startTags);
+		assertEquals(START_TAGS, endTags);
+	}
+
+	@Test
+	public void testSkipRoot() {
+		XMLParser parser = new CountingParser(new DefaultRule(
+				Type.CHARACTER, "/library/book"));
+		parser.parse(this.getClass()
+				.getResourceAsStream("resources/simple.xml"));
+
+		assertEquals(1, startTags);
+		assertEquals(1, endTags);
+	}
+
+	class CountingParser extends XMLParser {
+		public CountingParser(IRule... rules) {
+			super(rules);
+		}
+
+		@Override
+		protected void doStartTag(Object userObject) {
+			startTags++;
+			super.doStartTag(userObject);
+		}
+
+		@Override
+		protected void doEndTag(Object userObject) {
+			endTags++;
+			super.doEndTag(userObject);
+		}
+	}
+
+	class NameRule extends DefaultRule {
+		public NameRule() {
+			super(Type.CHARACTER, "/imdb/category/movie/name");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(NAMES[count++], text);
+		}
+	}
+}
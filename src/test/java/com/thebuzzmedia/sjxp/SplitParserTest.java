@@ -0,0 +1,232 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class SplitParserTest extends AbstractTest {
+	public static final int WORDS = 500;
+
+	private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void test() throws Exception {
+		byte[] data = createDictionary();
+		RuleSet ruleSet = new RuleSet(new WordRule());
+		List<List> chunks = new SplitParser(ruleSet, "/dictionary/e",
+				executor, 1024, 3).parse(data, new ListFactory());
+
+		List words = parseSequentially(ruleSet, data);
+
+		assertTrue(chunks.size() > 10);
+		assertTrue(words.size() >= WORDS);
+		assertEquals(words, flatten(chunks));
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		byte[] data = createDictionary();
+		File file = File.createTempFile("sjxp-split", ".xml");
+		file.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+
+		RuleSet ruleSet = new RuleSet(new WordRule());
+		List<List> chunks = new SplitParser(ruleSet, "/dictionary/e",
+				executor, 4096, 2).parse(file, new ListFactory());
+
+		assertEquals(parseSequentially(ruleSet, data), flatten(chunks));
+		file.delete();
+	}
+
+	@Test
+	public void testAncestors() throws Exception {
+		StringBuilder xml = new StringBuilder("<rss>");
+
+		for (int i = 0; i < 3; i++) {
+			xml.append("<channel name=\"c").append(i).append("\">");
+
+			for (int j = 0; j < 20; j++)
+				xml.append("<item><title>").append(i).append('-').append(j)
+						.append("</title></item>");
+
+			xml.append("</channel>");
+		}
+
+		xml.append("</rss>");
+
+		RuleSet ruleSet = new RuleSet(new DefaultRule(Type.ATTRIBUTE,
+				"/rss/channel", "name") {
+			@Override
+			public void handleParsedAttribute(XMLParser parser, int index,
+					String value, Object userObject) {
+				((List) userObject).add(value);
+			}
+		}, new DefaultRule(Type.CHARACTER, "/rss/channel/item/title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				List list = (List) userObject;
+
+				// Every chunk starts with the name of its own channel
+				assertEquals("c" + text.charAt(0), list.get(0));
+				list.add(text);
+			}
+		});
+
+		List<List> chunks = new SplitParser(ruleSet, "/rss/channel/item",
+				executor, 200, 4).parse(xml.toString().getBytes(),
+				new ListFactory());
+		int items = 0;
+
+		for (int i = 0; i < chunks.size(); i++)
+			items += chunks.get(i).size() - 1;
+
+		assertTrue(chunks.size() > 3);
+		assertEquals(60, items);
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testMalformedChunk() throws Exception {
+		new SplitParser(new RuleSet(new WordRule()), "/dictionary/e",
+				executor, 16, 2).parse(
+				"<dictionary><e><w>a</w></e><e><w>b</x></e></dictionary>"
+						.getBytes(), new ListFactory());
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testUTF16() throws Exception {
+		new SplitParser(new RuleSet(new WordRule()), "/dictionary/e",
+				executor).parse("<dictionary/>".getBytes("UTF-16"),
+				new ListFactory());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWildcardPath() {
+		new SplitParser(new RuleSet(new WordRule()), "/dictionary/*", executor);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMatchLimit() {
+		new SplitParser(new RuleSet(new DefaultRule(Type.TAG,
+				"/dictionary/e", 1)), "/dictionary/e", executor);
+	}
+
+	@Test
+	public void testDocumentLength() {
+		SplitParser parser = new SplitParser(new RuleSet(new WordRule()),
+				"/dictionary/e", executor);
+		byte[] prolog = new byte[10];
+		byte[][] ancestorTags = new byte[][] { "<dictionary>".getBytes() };
+
+		// 10 + 100 + 12 + "</dictionary>"
+		assertEquals(135, parser.getDocumentLength(prolog, ancestorTags, 50,
+				150));
+
+		// A chunk spanning over 2GB of a huge file can't be parsed
+		try {
+			parser.getDocumentLength(prolog, ancestorTags, 1L << 32,
+					(1L << 32) + Integer.MAX_VALUE);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	static byte[] createDictionary() throws Exception {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<!DOCTYPE dictionary [ <!ELEMENT dictionary (e*)> ]>\n");
+		xml.append("<!-- a <e> in a comment is not a record -->\n");
+		xml.append("<dictionary xmlns=\"urn:dict\" xmlns:x=\"urn:extra\" version=\"1 > 0\">\n");
+
+		for (int i = 0; i < WORDS; i++) {
+			xml.append("\t<e id='").append(i).append("'><w>word").append(i);
+
+			if (i % 7 == 0)
+				xml.append(" &amp; &#60;/e&#62;");
+			if (i % 11 == 0)
+				xml.append("<![CDATA[ </e> ]]>");
+
+			xml.append("</w><x:note>\u00e9t\u00e9</x:note>");
+
+			if (i % 13 == 0)
+				xml.append("<empty/><?pi </e> ?>");
+
+			xml.append("</e>\n");
+		}
+
+		xml.append("</dictionary>\n");
+
+		return xml.toString().getBytes("UTF-8");
+	}
+
+	static List parseSequentially(RuleSet ruleSet, byte[] data) {
+		List words = new ArrayList();
+		new XMLParser(ruleSet).parse(new ByteArrayInputStream(data), words);
+
+		return words;
+	}
+
+	static List flatten(List<List> chunks) {
+		List all = new ArrayList();
+
+		for (int i = 0; i < chunks.size(); i++)
+			all.addAll(chunks.get(i));
+
+		return all;
+	}
+
+	static class ListFactory implements IUserObjectFactory {
+		public Object newUserObject(int index) {
+			return new ArrayList();
+		}
+	}
+
+	static class WordRule extends DefaultRule {
+		public WordRule() {
+			super(Type.CHARACTER, "/[urn:dict]dictionary/[urn:dict]e/[urn:dict]w");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			((List) userObject).add(text);
+		}
+	}
+}
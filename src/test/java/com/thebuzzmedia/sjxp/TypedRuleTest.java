@@ -0,0 +1,157 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.BooleanRule;
+import com.thebuzzmedia.sjxp.rule.DoubleRule;
+import com.thebuzzmedia.sjxp.rule.EnumRule;
+import com.thebuzzmedia.sjxp.rule.IntRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+import com.thebuzzmedia.sjxp.rule.LongRule;
+import com.thebuzzmedia.sjxp.rule.TimestampRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TypedRuleTest extends AbstractTest {
+	public enum Priority {
+		LOW, MEDIUM, HIGH
+	}
+
+	public static final int[] IDS = new int[] { 1001, 1002, 1003 };
+	public static final Priority[] PRIORITIES = new Priority[] {
+			Priority.HIGH, Priority.LOW, Priority.MEDIUM };
+	public static final boolean[] FRAGILE = new boolean[] { true, false };
+	public static final double[] WEIGHTS = new double[] { 1250.75, 0.5, 1000 };
+	public static final long[] TRACKING = new long[] { Long.MAX_VALUE, 42, 0 };
+	public static final long[] SHIPPED = new long[] { 1298369730000L,
+			1298419200000L, 1298370930000L };
+
+	private List<Object> values = new ArrayList<Object>();
+	private List<String> invalidValues = new ArrayList<String>();
+
+	@Test
+	public void testCharacter() {
+		XMLParser parser = new XMLParser(new DoubleRule(Type.CHARACTER,
+				"/shipments/shipment/weight") {
+			@Override
+			public void handleParsedDouble(XMLParser parser, int index,
+					double value, Object userObject) {
+				assertEquals(0, index);
+				assertEquals(WEIGHTS[values.size() / 3], value);
+				values.add(Double.valueOf(value));
+			}
+		}, new LongRule(Type.CHARACTER, "/shipments/shipment/tracking") {
+			@Override
+			public void handleParsedLong(XMLParser parser, int index,
+					long value, Object userObject) {
+				assertEquals(TRACKING[values.size() / 3], value);
+				values.add(Long.valueOf(value));
+			}
+		}, new TimestampRule(Type.CHARACTER, "/shipments/shipment/shipped") {
+			@Override
+			public void handleParsedTimestamp(XMLParser parser, int index,
+					long value, Object userObject) {
+				assertEquals(SHIPPED[values.size() / 3], value);
+				values.add(Long.valueOf(value));
+			}
+		});
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/typed.xml"));
+
+		assertEquals(9, values.size());
+	}
+
+	@Test
+	public void testAttribute() {
+		XMLParser parser = new XMLParser(new IntRule(Type.ATTRIBUTE,
+				"/shipments/shipment", "id") {
+			@Override
+			public void handleParsedInt(XMLParser parser, int index,
+					int value, Object userObject) {
+				assertEquals(IDS[values.size() / 3], value);
+				values.add(Integer.valueOf(value));
+			}
+		}, new EnumRule(Type.ATTRIBUTE, "/shipments/shipment", Priority.class,
+				"priority") {
+			@Override
+			public void handleParsedEnum(XMLParser parser, int index,
+					Enum value, Object userObject) {
+				assertEquals(PRIORITIES[values.size() / 3], value);
+				values.add(value);
+			}
+		}, new BooleanRule(Type.ATTRIBUTE, "/shipments/shipment", "fragile") {
+			@Override
+			public void handleParsedBoolean(XMLParser parser, int index,
+					boolean value, Object userObject) {
+				assertEquals(FRAGILE[values.size() / 3], value);
+				values.add(Boolean.valueOf(value));
+			}
+		});
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/typed.xml"));
+
+		// The 3rd shipment has no fragile attribute, so it is skipped
+		assertEquals(8, values.size());
+	}
+
+	@Test
+	public void testInvalidValue() {
+		XMLParser parser = new XMLParser(new PiecesRule() {
+			@Override
+			public void handleInvalidValue(XMLParser parser, int index,
+					String value, IllegalArgumentException cause,
+					Object userObject) {
+				invalidValues.add(value);
+			}
+		});
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/typed.xml"));
+
+		assertEquals(2, values.size());
+		assertEquals(1, invalidValues.size());
+		assertEquals("not-a-number", invalidValues.get(0));
+	}
+
+	@Test(expected = XMLParserException.class)
+	public void testInvalidValueStops() {
+		XMLParser parser = new XMLParser(new PiecesRule());
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/typed.xml"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTag() {
+		new IntRule(Type.TAG, "/shipments/shipment");
+	}
+
+	class PiecesRule extends IntRule {
+		public PiecesRule() {
+			super(Type.CHARACTER, "/shipments/shipment/pieces");
+		}
+
+		@Override
+		public void handleParsedInt(XMLParser parser, int index, int value,
+				Object userObject) {
+			values.add(Integer.valueOf(value));
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class WildcardTest extends AbstractTest {
+	public static final String[] ALL_TITLES = new String[] {
+			"NYT > Home Page", "NYT > Home Page",
+			"Wisconsin\u2019s Ties to Labor Fray as Its Economy Shifts",
+			"American Held in Pakistan Shootings Worked With C.I.A.",
+			"Danger Pent Up Behind Aging Dams" };
+	public static final String[] CREATORS = NamespaceTest.CREATORS;
+
+	private int titleCount = 0;
+	private int childTitleCount = 0;
+	private int itemTitleCount = 0;
+	private int creatorCount = 0;
+	private int mediaCount = 0;
+	private int emCount = 0;
+
+	@Test
+	public void test() {
+		XMLParser parser = new XMLParser(new AllTitleRule(),
+				new ChildTitleRule(), new ItemTitleRule(), new CreatorRule(),
+				new MediaRule(), new EmRule());
+		parser.parse(this.getClass().getResourceAsStream(
+				"resources/namespace.xml"));
+
+		// channel/title, channel/image/title and the 3 item titles
+		assertEquals(ALL_TITLES.length, titleCount);
+		// channel/image/title and the 3 item titles
+		assertEquals(4, childTitleCount);
+		assertEquals(3, itemTitleCount);
+		assertEquals(CREATORS.length, creatorCount);
+		// 2 items each with a media:content, media:description and media:credit
+		assertEquals(6, mediaCount);
+		assertEquals(1, emCount);
+	}
+
+	@Test
+	public void testInvalidWildcard() {
+		try {
+			new XMLParser(new DefaultRule(Type.CHARACTER, "/rss/chan*"));
+			assertTrue(false);
+		} catch (XMLParserException e) {
+			assertTrue(true);
+		}
+	}
+
+	class AllTitleRule extends DefaultRule {
+		public AllTitleRule() {
+			super(Type.CHARACTER, "//title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(ALL_TITLES[titleCount++], text);
+		}
+	}
+
+	class ChildTitleRule extends DefaultRule {
+		public ChildTitleRule() {
+			super(Type.CHARACTER, "/rss/channel/*/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(ALL_TITLES[1 + childTitleCount++], text);
+		}
+	}
+
+	class ItemTitleRule extends DefaultRule {
+		public ItemTitleRule() {
+			super(Type.CHARACTER, "/rss//item/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(ALL_TITLES[2 + itemTitleCount++], text);
+		}
+	}
+
+	class CreatorRule extends DefaultRule {
+		public CreatorRule() {
+			super(Type.CHARACTER, "//[http://purl.org/dc/elements/1.1/]creator");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			assertEquals(CREATORS[creatorCount++], text);
+		}
+	}
+
+	class MediaRule extends DefaultRule {
+		public MediaRule() {
+			super(Type.TAG,
+					"/rss/channel/item/[http://search.yahoo.com/mrss/]*");
+		}
+
+		@Override
+		public void handleTag(XMLParser parser, boolean isStartTag,
+				Object userObject) {
+			if (isStartTag)
+				mediaCount++;
+		}
+	}
+
+	class EmRule extends DefaultRule {
+		public EmRule() {
+			super(Type.ATTRIBUTE, "//item//em", "class");
+		}
+
+		@Override
+		public void handleParsedAttribute(XMLParser parser, int index,
+				String value, Object userObject) {
+			assertEquals("bold", value);
+			emCount++;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.rule.DefaultRule;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class XMLParserPoolTest extends AbstractTest {
+	public static final String[] TITLES = new String[] { "I Like Ham",
+			"That's What She Said", "I Crack Myself Up" };
+	public static final int THREADS = 8;
+	public static final int PARSES = 50;
+
+	@Test
+	public void testReuse() {
+		XMLParserPool pool = new XMLParserPool(new RuleSet(new TitleRule()), 2);
+
+		for (int i = 0; i < 3; i++)
+			assertEquals(TITLES.length, parse(pool).size());
+
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(3, pool.getAcquiredCount());
+		assertEquals(2, pool.getReusedCount());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testDiscard() {
+		XMLParserPool pool = new XMLParserPool(new RuleSet(new TitleRule()), 1);
+		XMLParser first = pool.acquire();
+		XMLParser second = pool.acquire();
+
+		assertNotSame(first, second);
+
+		pool.release(first);
+		pool.release(second);
+
+		assertEquals(2, pool.getCreatedCount());
+		assertEquals(1, pool.getDiscardedCount());
+		assertEquals(1, pool.getIdleCount());
+		assertSame(first, pool.acquire());
+	}
+
+	@Test
+	public void testResetAfterStop() {
+		XMLParserPool pool = new XMLParserPool(new RuleSet(new DefaultRule(
+				Type.CHARACTER, "/library/book/title") {
+			@Override
+			public void handleParsedCharacters(XMLParser parser, String text,
+					Object userObject) {
+				((List) userObject).add(text);
+				parser.stop();
+			}
+		}), 1);
+
+		// Every parse starts over, a reused parser is no longer stopped
+		assertEquals(1, parse(pool).size());
+		assertEquals(1, parse(pool).size());
+		assertEquals(1, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testResetAfterError() {
+		XMLParserPool pool = new XMLParserPool(new RuleSet(new TitleRule()), 1);
+
+		try {
+			pool.parse(new ByteArrayInputStream(
+					"<library><book><title>I Like Ham</title><book>"
+							.getBytes()), new ArrayList());
+			fail("Parsed a truncated document");
+		} catch (XMLParserException e) {
+			// expected
+		}
+
+		assertEquals(TITLES.length, parse(pool).size());
+		assertEquals(1, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testConcurrent() throws InterruptedException {
+		final XMLParserPool pool = new XMLParserPool(new RuleSet(
+				new TitleRule()), THREADS);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] threads = new Thread[THREADS];
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < PARSES; j++) {
+							List titles = parse(pool);
+
+							for (int k = 0; k < TITLES.length; k++)
+								assertEquals(TITLES[k], titles.get(k));
+						}
+					} catch (Throwable t) {
+						synchronized (errors) {
+							errors.add(t);
+						}
+					}
+				}
+			};
+
+			threads[i].start();
+		}
+
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(THREADS * PARSES, pool.getAcquiredCount());
+		assertTrue(pool.getCreatedCount() <= THREADS);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testForeignParser() {
+		XMLParserPool pool = new XMLParserPool(new RuleSet(new TitleRule()), 1);
+		pool.release(new XMLParser(new TitleRule()));
+	}
+
+	@Test
+	public void testDoubleRelease() {
+		RuleSet ruleSet = new RuleSet(new TitleRule());
+		XMLParserPool pool = new XMLParserPool(ruleSet, 2);
+		XMLParser parser = pool.acquire();
+		pool.release(parser);
+
+		try {
+			pool.release(parser);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// The parser is only idle once, so it is never handed out twice
+		assertEquals(1, pool.getIdleCount());
+		assertSame(parser, pool.acquire());
+		assertNotSame(parser, pool.acquire());
+
+		// Nor can it be released into another pool of the same rules
+		try {
+			new XMLParserPool(ruleSet, 1).release(parser);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxIdle() {
+		new XMLParserPool(new RuleSet(new TitleRule()), 0);
+	}
+
+	static List parse(XMLParserPool pool) {
+		List titles = new ArrayList();
+		pool.parse(XMLParserPoolTest.class
+				.getResourceAsStream("resources/character-only.xml"), titles);
+
+		return titles;
+	}
+
+	static class TitleRule extends DefaultRule {
+		public TitleRule() {
+			super(Type.CHARACTER, "/library/book/title");
+		}
+
+		@Override
+		public void handleParsedCharacters(XMLParser parser, String text,
+				Object userObject) {
+			((List) userObject).add(text);
+		}
+	}
+}
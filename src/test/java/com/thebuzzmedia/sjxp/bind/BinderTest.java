@@ -0,0 +1,244 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.bind;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.RecordIterator;
+import com.thebuzzmedia.sjxp.XMLParserException;
+import com.thebuzzmedia.sjxp.rule.IRule;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class BinderTest {
+	public enum Priority {
+		LOW, MEDIUM, HIGH
+	}
+
+	public static class Item {
+		@XMLPath(value = "", attribute = "id")
+		private int id;
+	}
+
+	@XMLRecord("/shipments/shipment")
+	public static class Shipment extends Item {
+		@XMLPath(value = "", attribute = "priority")
+		private Priority priority;
+
+		@XMLPath(value = "", attribute = "fragile")
+		private Boolean fragile;
+
+		@XMLPath("weight")
+		private double weight;
+
+		@XMLPath("pieces")
+		private String pieces;
+
+		@XMLPath("tracking")
+		private long tracking;
+
+		@XMLPath("shipped")
+		private Date shipped;
+
+		private Shipment() {
+			// private constructors are used too
+		}
+	}
+
+	public static class Shipments {
+		@XMLPath(value = "/shipments/shipment", attribute = "id")
+		private List<Integer> ids;
+
+		@XMLPath(value = "/shipments/shipment", attribute = "priority")
+		private Set<Priority> priorities = new LinkedHashSet<Priority>();
+
+		@XMLPath(value = "/shipments/shipment/weight", matchLimit = 1)
+		private Double firstWeight;
+
+		@XMLPath("/shipments/shipment/tracking")
+		private Collection<Long> tracking;
+
+		@XMLPath("/shipments/shipment/pieces")
+		private String lastPieces;
+	}
+
+	public static class Pieces {
+		@XMLPath("/shipments/shipment/pieces")
+		private int pieces;
+	}
+
+	public static class Unannotated {
+		private String name;
+	}
+
+	@XMLRecord("/a")
+	public static class Unsupported {
+		@XMLPath("b")
+		private Object value;
+	}
+
+	public static class Relative {
+		@XMLPath("b")
+		private String value;
+	}
+
+	@XMLRecord("/a")
+	public static class Final {
+		@XMLPath("b")
+		private final String value = null;
+	}
+
+	@XMLRecord("/a")
+	public static class Raw {
+		@XMLPath("b")
+		private List values;
+	}
+
+	@XMLRecord("/a")
+	public static class Limited {
+		@XMLPath(value = "b", matchLimit = 1)
+		private String value;
+	}
+
+	@XMLRecord("/a")
+	public static class NoConstructor {
+		@XMLPath("b")
+		private String value;
+
+		public NoConstructor(String value) {
+			this.value = value;
+		}
+	}
+
+	@Test
+	public void testRecords() {
+		Binder<Shipment> binder = new Binder<Shipment>(Shipment.class);
+		assertEquals("/shipments/shipment", binder.getRecordPath());
+		assertEquals(7, binder.getRuleSet().getAttributeRuleCount()
+				+ binder.getRuleSet().getCharacterRuleCount());
+
+		RecordIterator<Shipment> shipments = binder.iterator(getTyped());
+		List<Shipment> records = new ArrayList<Shipment>();
+
+		while (shipments.hasNext())
+			records.add(shipments.next());
+
+		assertEquals(3, records.size());
+
+		Shipment shipment = records.get(0);
+		assertEquals(1001, ((Item) shipment).id);
+		assertEquals(Priority.HIGH, shipment.priority);
+		assertEquals(Boolean.TRUE, shipment.fragile);
+		assertEquals(1250.75, shipment.weight);
+		assertEquals("12", shipment.pieces);
+		assertEquals(Long.MAX_VALUE, shipment.tracking);
+		assertEquals(new Date(1298369730000L), shipment.shipped);
+
+		shipment = records.get(1);
+		assertEquals(1002, ((Item) shipment).id);
+		assertEquals(Priority.LOW, shipment.priority);
+		assertEquals(Boolean.FALSE, shipment.fragile);
+		assertEquals(0.5, shipment.weight);
+		assertEquals("-3", shipment.pieces);
+		assertEquals(42, shipment.tracking);
+		assertEquals(new Date(1298419200000L), shipment.shipped);
+
+		// Missing attributes leave their fields alone
+		shipment = records.get(2);
+		assertEquals(1003, ((Item) shipment).id);
+		assertEquals(Priority.MEDIUM, shipment.priority);
+		assertNull(shipment.fragile);
+		assertEquals(1000.0, shipment.weight);
+		assertEquals("not-a-number", shipment.pieces);
+		assertEquals(0, shipment.tracking);
+		assertEquals(new Date(1298370930000L), shipment.shipped);
+	}
+
+	@Test
+	public void testBind() {
+		Binder<Shipments> binder = new Binder<Shipments>(Shipments.class);
+		assertNull(binder.getRecordPath());
+
+		Shipments shipments = binder.bind(getTyped());
+		assertEquals(Arrays.asList(new Integer[] { Integer.valueOf(1001),
+				Integer.valueOf(1002), Integer.valueOf(1003) }), shipments.ids);
+		assertEquals(ArrayList.class, shipments.ids.getClass());
+		assertEquals(Arrays.asList(new Priority[] { Priority.HIGH,
+				Priority.LOW, Priority.MEDIUM }), new ArrayList<Priority>(
+				shipments.priorities));
+		assertEquals(Double.valueOf(1250.75), shipments.firstWeight);
+		assertEquals(Arrays.asList(new Long[] { Long.valueOf(Long.MAX_VALUE),
+				Long.valueOf(42), Long.valueOf(0) }), shipments.tracking);
+		assertEquals("not-a-number", shipments.lastPieces);
+
+		// Every bind starts with a new instance
+		assertEquals(3, binder.bind(getTyped()).ids.size());
+	}
+
+	@Test
+	public void testInvalidValue() {
+		Binder<Pieces> binder = new Binder<Pieces>(Pieces.class);
+
+		try {
+			binder.bind(getTyped());
+			fail();
+		} catch (XMLParserException e) {
+			// expected, "not-a-number" isn't an int
+		}
+
+		Pieces pieces = binder.bind(new ByteArrayInputStream(
+				"<shipments><shipment><pieces> 7 </pieces></shipment></shipments>"
+						.getBytes()));
+		assertEquals(7, pieces.pieces);
+	}
+
+	@Test
+	public void testIllegalTypes() {
+		Class[] types = new Class[] { null, Unannotated.class,
+				Unsupported.class, Relative.class, Final.class, Raw.class,
+				Limited.class, NoConstructor.class, IRule.class };
+
+		for (int i = 0; i < types.length; i++) {
+			try {
+				new Binder(types[i]);
+				fail(String.valueOf(types[i]));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNoRecords() {
+		new Binder<Shipments>(Shipments.class).iterator(getTyped());
+	}
+
+	private InputStream getTyped() {
+		return this.getClass().getResourceAsStream(
+				"/com/thebuzzmedia/sjxp/resources/typed.xml");
+	}
+}
@@ -0,0 +1,349 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.AbstractCompiledParser;
+import com.thebuzzmedia.sjxp.AbstractCompiledParser.IRecordHandler;
+import com.thebuzzmedia.sjxp.RecordIterator;
+import com.thebuzzmedia.sjxp.XMLParserException;
+import com.thebuzzmedia.sjxp.bind.Binder;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ParserProcessorTest {
+	public static final String ITEM = "package com.acme;\n"
+			+ "import com.thebuzzmedia.sjxp.bind.*;\n"
+			+ "public abstract class Item {\n"
+			+ "	@XMLPath(value = \"\", attribute = \"id\") int id;\n" + "}\n";
+
+	public static final String SHIPMENT = "package com.acme;\n"
+			+ "import java.util.Date;\n"
+			+ "import com.thebuzzmedia.sjxp.bind.*;\n"
+			+ "@GenerateParser @XMLRecord(\"/shipments/shipment\")\n"
+			+ "public class Shipment extends Item {\n"
+			+ "	public enum Priority { LOW, MEDIUM, HIGH }\n"
+			+ "	@XMLPath(value = \"\", attribute = \"priority\") Priority priority;\n"
+			+ "	@XMLPath(value = \"\", attribute = \"fragile\") Boolean fragile;\n"
+			+ "	@XMLPath(\"weight\") double weight;\n"
+			+ "	@XMLPath(\"pieces\") String pieces;\n"
+			+ "	@XMLPath(\"tracking\") long tracking;\n"
+			+ "	@XMLPath(\"shipped\") Date shipped;\n" + "}\n";
+
+	public static final String SHIPMENTS = "package com.acme;\n"
+			+ "import java.util.*;\n"
+			+ "import com.thebuzzmedia.sjxp.bind.*;\n"
+			+ "@GenerateParser public class Shipments {\n"
+			+ "	@XMLPath(value = \"/shipments/shipment\", attribute = \"id\") List<Integer> ids;\n"
+			+ "	@XMLPath(value = \"/shipments/shipment\", attribute = \"priority\") Set<Shipment.Priority> priorities;\n"
+			+ "	@XMLPath(value = \"/shipments/shipment/weight\", matchLimit = 1) Double firstWeight;\n"
+			+ "	@XMLPath(\"/shipments/shipment/tracking\") Collection<Long> tracking;\n"
+			+ "	@XMLPath(\"/shipments/shipment/pieces\") String lastPieces;\n"
+			+ "	@XMLPath(\"/shipments/[urn:x]shipment/pieces\") String otherPieces;\n"
+			+ "}\n";
+
+	public static final String PIECES = "package com.acme;\n"
+			+ "import com.thebuzzmedia.sjxp.bind.*;\n"
+			+ "@GenerateParser public class Pieces {\n"
+			+ "	@XMLPath(\"/shipments/shipment/pieces\") int pieces;\n"
+			+ "}\n";
+
+	private File directory;
+	private JavaCompiler compiler;
+
+	@Before
+	public void setUp() throws IOException {
+		compiler = ToolProvider.getSystemJavaCompiler();
+
+		// The processor can only be run by a JDK
+		Assume.assumeNotNull(compiler);
+
+		directory = File.createTempFile("sjxp-processor", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		if (directory != null)
+			delete(directory);
+	}
+
+	@Test
+	public void testRecords() throws Exception {
+		ClassLoader loader = compile(null, ITEM, SHIPMENT, SHIPMENTS, PIECES);
+		Class type = loader.loadClass("com.acme.Shipment");
+		AbstractCompiledParser parser = (AbstractCompiledParser) loader
+				.loadClass("com.acme.ShipmentParser").newInstance();
+
+		final List records = new ArrayList();
+		parser.parseRecords(getTyped(), new IRecordHandler() {
+			public void handleRecord(Object record) {
+				records.add(record);
+			}
+		});
+
+		// The same class bound by a Binder is the reference
+		RecordIterator expected = new Binder(type).iterator(getTyped());
+
+		for (int i = 0; i < records.size(); i++)
+			assertFieldsEqual(type, expected.next(), records.get(i));
+
+		assertEquals(3, records.size());
+		assertFalse(expected.hasNext());
+		assertEquals(Integer.valueOf(1003), get(type.getSuperclass(), records
+				.get(2), "id"));
+		assertNull(get(type, records.get(2), "fragile"));
+	}
+
+	@Test
+	public void testBind() throws Exception {
+		ClassLoader loader = compile(null, ITEM, SHIPMENT, SHIPMENTS, PIECES);
+		Class type = loader.loadClass("com.acme.Shipments");
+		AbstractCompiledParser parser = (AbstractCompiledParser) loader
+				.loadClass("com.acme.ShipmentsParser").newInstance();
+
+		Object shipments = parser.bind(getTyped());
+		assertFieldsEqual(type, new Binder(type).bind(getTyped()), shipments);
+		assertEquals(Arrays.asList(new Integer[] { Integer.valueOf(1001),
+				Integer.valueOf(1002), Integer.valueOf(1003) }), get(type,
+				shipments, "ids"));
+		assertEquals(Double.valueOf(1250.75), get(type, shipments,
+				"firstWeight"));
+		assertNull(get(type, shipments, "otherPieces"));
+
+		// The match limits start over with every parse
+		assertFieldsEqual(type, shipments, parser.bind(getTyped()));
+
+		try {
+			parser.parseRecords(getTyped(), new IRecordHandler() {
+				public void handleRecord(Object record) {
+					fail();
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			// expected, Shipments has no records
+		}
+	}
+
+	@Test
+	public void testInvalidValue() throws Exception {
+		ClassLoader loader = compile(null, ITEM, SHIPMENT, SHIPMENTS, PIECES);
+		AbstractCompiledParser parser = (AbstractCompiledParser) loader
+				.loadClass("com.acme.PiecesParser").newInstance();
+
+		try {
+			parser.bind(getTyped());
+			fail();
+		} catch (XMLParserException e) {
+			// expected, "not-a-number" isn't an int
+		}
+
+		Object pieces = parser.bind(new ByteArrayInputStream(
+				"<shipments><shipment><pieces> 7 </pieces></shipment></shipments>"
+						.getBytes()));
+		assertEquals(Integer.valueOf(7), get(pieces.getClass(), pieces,
+				"pieces"));
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		String[] fields = new String[] {
+				"@XMLPath(\"/a/b\") private String value;",
+				"@XMLPath(\"/a/*\") String value;",
+				"@XMLPath(\"/a//b\") String value;",
+				"@XMLPath(\"b\") String value;",
+				"@XMLPath(\"/a/b\") Object value;",
+				"@XMLPath(\"/a/b\") java.util.List value;",
+				"@XMLPath(\"/a/b\") final String value = null;" };
+		String[] messages = new String[] { "private", "wildcard",
+				"wildcard", "relative", "can't be bound", "collection",
+				"final" };
+
+		for (int i = 0; i < fields.length; i++) {
+			StringWriter errors = new StringWriter();
+			assertNull(fields[i], compile(errors, "package com.acme;\n"
+					+ "import com.thebuzzmedia.sjxp.bind.*;\n"
+					+ "@GenerateParser public class Broken {\n	" + fields[i]
+					+ "\n}\n"));
+			assertTrue(errors.toString(), errors.toString().contains(
+					messages[i]));
+		}
+
+		StringWriter errors = new StringWriter();
+		assertNull(compile(errors, ITEM.replace("public abstract",
+				"@GenerateParser public abstract")));
+		assertTrue(errors.toString(), errors.toString().contains("concrete"));
+
+		errors = new StringWriter();
+		assertNull(compile(errors, "package com.acme;\n"
+				+ "import com.thebuzzmedia.sjxp.bind.*;\n"
+				+ "@GenerateParser @XMLRecord(\"/a\") public class Limited {\n"
+				+ "	@XMLPath(value = \"b\", matchLimit = 1) String value;\n"
+				+ "}\n"));
+		assertTrue(errors.toString(), errors.toString().contains("matchLimit"));
+	}
+
+	@Test
+	public void testNotRequested() throws Exception {
+		// Classes only bound by a Binder are left alone, private fields and all
+		StringWriter warnings = new StringWriter();
+		ClassLoader loader = compile(warnings, "package com.acme;\n"
+				+ "import com.thebuzzmedia.sjxp.bind.*;\n"
+				+ "@XMLRecord(\"/a/b\") public class Bound {\n"
+				+ "	@XMLPath(\"//c\") private final String value = null;\n"
+				+ "	private Bound() {}\n" + "}\n");
+
+		assertNotNull(warnings.toString(), loader);
+		assertEquals("", warnings.toString());
+		assertNotGenerated(loader, "com.acme.BoundParser");
+	}
+
+	/**
+	 * Used to compile the given classes of the com.acme package with the
+	 * processor and load them.
+	 * 
+	 * @return the class loader of the compiled classes, or <code>null</code>
+	 *         if they didn't compile.
+	 */
+	private ClassLoader compile(StringWriter errors, String... sources)
+			throws Exception {
+		File sourceDirectory = new File(directory, "com/acme");
+		File classDirectory = new File(directory, "classes");
+		sourceDirectory.mkdirs();
+		classDirectory.mkdirs();
+
+		List<String> options = new ArrayList<String>(Arrays
+				.asList(new String[] { "-proc:only", "-processor",
+						ParserProcessor.class.getName(), "-classpath",
+						System.getProperty("java.class.path"), "-s",
+						directory.getPath(), "-d", classDirectory.getPath() }));
+		List<File> files = new ArrayList<File>();
+
+		for (int i = 0; i < sources.length; i++) {
+			String name = sources[i].substring(sources[i]
+					.indexOf("public ") + 7);
+			name = name.substring(name.indexOf("class ") + 6);
+			name = name.substring(0, name.indexOf(' '));
+
+			File file = new File(sourceDirectory, name + ".java");
+			FileWriter writer = new FileWriter(file);
+			writer.write(sources[i]);
+			writer.close();
+
+			files.add(file);
+		}
+
+		// Generate the parsers, then compile the classes and parsers together
+		if (!run(errors, options, files))
+			return null;
+
+		options.set(0, "-proc:none");
+		File[] generated = sourceDirectory.listFiles();
+
+		for (int i = 0; i < generated.length; i++) {
+			if (generated[i].getName().endsWith("Parser.java"))
+				files.add(generated[i]);
+		}
+
+		if (!run(errors, options, files))
+			return null;
+
+		return new URLClassLoader(new URL[] { classDirectory.toURI().toURL() },
+				this.getClass().getClassLoader());
+	}
+
+	private boolean run(StringWriter errors, List<String> options,
+			List<File> files) throws IOException {
+		StandardJavaFileManager fileManager = compiler
+				.getStandardFileManager(null, null, null);
+
+		try {
+			return compiler.getTask(errors, fileManager, null, options, null,
+					fileManager.getJavaFileObjectsFromFiles(files)).call()
+					.booleanValue();
+		} finally {
+			fileManager.close();
+		}
+	}
+
+	private static void assertFieldsEqual(Class type, Object expected,
+			Object actual) throws Exception {
+		for (Class c = type; c != Object.class; c = c.getSuperclass()) {
+			Field[] fields = c.getDeclaredFields();
+
+			for (int i = 0; i < fields.length; i++) {
+				fields[i].setAccessible(true);
+				assertEquals(fields[i].getName(), fields[i].get(expected),
+						fields[i].get(actual));
+			}
+		}
+	}
+
+	private static void assertNotGenerated(ClassLoader loader, String name) {
+		try {
+			loader.loadClass(name);
+			fail(name);
+		} catch (ClassNotFoundException e) {
+			// expected
+		}
+	}
+
+	private static Object get(Class type, Object object, String name)
+			throws Exception {
+		Field field = type.getDeclaredField(name);
+		field.setAccessible(true);
+
+		return field.get(object);
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+
+		for (int i = 0; files != null && i < files.length; i++)
+			delete(files[i]);
+
+		file.delete();
+	}
+
+	private InputStream getTyped() {
+		return this.getClass().getResourceAsStream(
+				"/com/thebuzzmedia/sjxp/resources/typed.xml");
+	}
+}
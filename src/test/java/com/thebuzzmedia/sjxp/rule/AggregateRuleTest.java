@@ -0,0 +1,174 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.thebuzzmedia.sjxp.XMLParser;
+import com.thebuzzmedia.sjxp.rule.AggregateRule.Function;
+import com.thebuzzmedia.sjxp.rule.IRule.Type;
+
+import static junit.framework.Assert.*;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class AggregateRuleTest {
+	@Test
+	public void testCount() {
+		AggregateRule shipments = new AggregateRule(Type.TAG,
+				"/shipments/shipment", Function.COUNT);
+		AggregateRule pieces = new AggregateRule(Type.CHARACTER,
+				"/shipments/shipment/pieces", Function.COUNT);
+		AggregateRule fragile = new AggregateRule(Type.ATTRIBUTE,
+				"/shipments/shipment", Function.COUNT, "fragile");
+
+		new XMLParser(shipments, pieces, fragile).parse(getTyped());
+
+		assertEquals(3, shipments.getCount());
+		assertEquals(3.0, shipments.getValue());
+		assertEquals(3, pieces.getCount());
+
+		// Missing attributes aren't values
+		assertEquals(2, fragile.getCount());
+	}
+
+	@Test
+	public void testSumMinMax() {
+		AggregateRule sum = new AggregateRule(Type.CHARACTER,
+				"/shipments/shipment/weight", Function.SUM);
+		AggregateRule min = new AggregateRule(Type.CHARACTER,
+				"/shipments/shipment/weight", Function.MIN);
+		AggregateRule max = new AggregateRule(Type.CHARACTER,
+				"/shipments/shipment/weight", Function.MAX);
+		AggregateRule pieces = new AggregateRule(Type.CHARACTER,
+				"/shipments/shipment/pieces", Function.SUM);
+		AggregateRule ids = new AggregateRule(Type.ATTRIBUTE,
+				"/shipments/shipment", Function.MAX, "id");
+
+		new XMLParser(sum, min, max, pieces, ids).parse(getTyped());
+
+		assertEquals(2251.25, sum.getValue());
+		assertEquals(0.5, min.getValue());
+		assertEquals(1250.75, max.getValue());
+		assertEquals(3, sum.getCount());
+		assertEquals(1003.0, ids.getValue());
+
+		// "not-a-number" is skipped and counted as invalid
+		assertEquals(9.0, pieces.getValue());
+		assertEquals(2, pieces.getCount());
+		assertEquals(1, pieces.getInvalidCount());
+	}
+
+	@Test
+	public void testDistinct() {
+		AggregateRule priorities = new AggregateRule(Type.ATTRIBUTE,
+				"/shipments/shipment", Function.DISTINCT, "priority");
+		new XMLParser(priorities).parse(getTyped());
+		assertEquals(3.0, priorities.getValue());
+
+		StringBuilder xml = new StringBuilder("<a>");
+
+		for (int i = 0; i < 100000; i++)
+			xml.append("<b> value-").append(i % 20000).append(" </b>");
+
+		AggregateRule values = new AggregateRule(Type.CHARACTER, "/a/b",
+				Function.DISTINCT);
+		new XMLParser(values).parse(new ByteArrayInputStream(xml.append(
+				"</a>").toString().getBytes()));
+
+		assertEquals(100000, values.getCount());
+		assertTrue(String.valueOf(values.getValue()), Math.abs(values
+				.getValue() - 20000) < 20000 * 0.05);
+	}
+
+	@Test
+	public void testHistogram() {
+		AggregateRule weights = new AggregateRule(Type.CHARACTER,
+				"/shipments/shipment/weight", new double[] { 1, 1000 });
+		new XMLParser(weights).parse(getTyped());
+
+		assertEquals(Function.HISTOGRAM, weights.getFunction());
+		assertTrue(Arrays.equals(new long[] { 1, 0, 2 }, weights
+				.getHistogram()));
+		assertTrue(Arrays.equals(new double[] { 1, 1000 }, weights
+				.getBucketBounds()));
+		assertEquals(3.0, weights.getValue());
+	}
+
+	@Test
+	public void testReset() {
+		AggregateRule min = new AggregateRule(Type.CHARACTER,
+				"/shipments/shipment/weight", Function.MIN);
+		XMLParser parser = new XMLParser(min);
+
+		// Aggregates accumulate over every parse until reset
+		parser.parse(getTyped());
+		parser.parse(new ByteArrayInputStream(
+				"<shipments><shipment><weight>0.25</weight></shipment></shipments>"
+						.getBytes()));
+		assertEquals(4, min.getCount());
+		assertEquals(0.25, min.getValue());
+
+		min.reset();
+		assertEquals(0, min.getCount());
+		assertTrue(Double.isNaN(min.getValue()));
+	}
+
+	@Test
+	public void testIllegalArguments() {
+		try {
+			new AggregateRule(Type.CHARACTER, "/a", (Function) null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			new AggregateRule(Type.CHARACTER, "/a", Function.HISTOGRAM);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected, no bucket bounds
+		}
+
+		try {
+			new AggregateRule(Type.TAG, "/a", Function.SUM);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected, tags have no values
+		}
+
+		double[][] bounds = new double[][] { null, new double[0],
+				new double[] { 2, 1 }, new double[] { 1, 1 },
+				new double[] { Double.NaN } };
+
+		for (int i = 0; i < bounds.length; i++) {
+			try {
+				new AggregateRule(Type.CHARACTER, "/a", bounds[i]);
+				fail(String.valueOf(i));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	private InputStream getTyped() {
+		return this.getClass().getResourceAsStream(
+				"/com/thebuzzmedia/sjxp/resources/typed.xml");
+	}
+}
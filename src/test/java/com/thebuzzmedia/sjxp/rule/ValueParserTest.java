@@ -0,0 +1,208 @@
+/**   
+ * Copyright 2011 The Buzz Media, LLC
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thebuzzmedia.sjxp.rule;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class ValueParserTest {
+	public static final String[] DOUBLES = new String[] { "0", "-0", "1",
+			"3.14159", "-2.5", "0.1", "0.3", "1e10", "1.5E-7", "123456789012345",
+			"1234567890123456789", "0.000000000000000000001", "1e22", "1e23",
+			"4.9e-324", "1.7976931348623157e308", "  42.0\n", "+7", ".5", "5.",
+			"NaN", "-Infinity", "2.2250738585072014E-308" };
+
+	public static final String[] INVALID_NUMBERS = new String[] { "", "  ",
+			"-", "+", "1.0", "12a", "--1", "1 2" };
+
+	public static final String[] INVALID_DOUBLES = new String[] { "", "-",
+			"e5", "1e", "1.2.3", "abc" };
+
+	public enum Color {
+		RED, GREEN, BLUE
+	}
+
+	@Test
+	public void testInt() {
+		assertEquals(0, ValueParser.parseInt("0"));
+		assertEquals(-42, ValueParser.parseInt(" -42 "));
+		assertEquals(42, ValueParser.parseInt("+42"));
+		assertEquals(Integer.MAX_VALUE, ValueParser.parseInt("2147483647"));
+		assertEquals(Integer.MIN_VALUE, ValueParser.parseInt("-2147483648"));
+
+		char[] buffer = "<a>\n\t123\n</a>".toCharArray();
+		assertEquals(123, ValueParser.parseInt(buffer, 3, 6));
+
+		assertInvalidInt("2147483648");
+		assertInvalidInt("-2147483649");
+
+		for (int i = 0; i < INVALID_NUMBERS.length; i++)
+			assertInvalidInt(INVALID_NUMBERS[i]);
+	}
+
+	@Test
+	public void testLong() {
+		assertEquals(Long.MAX_VALUE, ValueParser.parseLong("9223372036854775807"));
+		assertEquals(Long.MIN_VALUE,
+				ValueParser.parseLong("-9223372036854775808"));
+
+		for (int i = 0; i < INVALID_NUMBERS.length; i++) {
+			try {
+				ValueParser.parseLong(INVALID_NUMBERS[i]);
+				fail("Parsed invalid long [" + INVALID_NUMBERS[i] + "]");
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+
+		try {
+			ValueParser.parseLong("9223372036854775808");
+			fail("Parsed an out of range long");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDouble() {
+		for (int i = 0; i < DOUBLES.length; i++)
+			assertDouble(DOUBLES[i]);
+
+		// The fast path must round exactly like Double.parseDouble
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100000; i++) {
+			long mantissa = random.nextLong() % 1000000000000000L;
+			int scale = random.nextInt(23);
+			String value = Long.toString(mantissa);
+
+			if (scale > 0 && value.length() > scale)
+				value = value.substring(0, value.length() - scale) + '.'
+						+ value.substring(value.length() - scale);
+			else if (random.nextBoolean())
+				value += "e-" + scale;
+
+			assertDouble(value);
+		}
+
+		for (int i = 0; i < INVALID_DOUBLES.length; i++) {
+			try {
+				ValueParser.parseDouble(INVALID_DOUBLES[i]);
+				fail("Parsed invalid double [" + INVALID_DOUBLES[i] + "]");
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testBoolean() {
+		assertTrue(ValueParser.parseBoolean("true"));
+		assertTrue(ValueParser.parseBoolean(" 1 "));
+		assertFalse(ValueParser.parseBoolean("false"));
+		assertFalse(ValueParser.parseBoolean("0"));
+
+		try {
+			ValueParser.parseBoolean("TRUE");
+			fail("Parsed invalid boolean");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTimestamp() {
+		assertEquals(0, ValueParser.parseTimestamp("1970-01-01T00:00:00Z"));
+		assertEquals(1298370930000L, ValueParser.parseTimestamp("1298370930000"));
+		assertEquals(utc(2011, 2, 22, 0, 0, 0, 0),
+				ValueParser.parseTimestamp("2011-02-22"));
+		assertEquals(utc(2011, 2, 22, 10, 15, 30, 0),
+				ValueParser.parseTimestamp("2011-02-22T10:15:30"));
+		assertEquals(utc(2011, 2, 22, 10, 15, 30, 125),
+				ValueParser.parseTimestamp("2011-02-22T10:15:30.1259Z"));
+		assertEquals(utc(2011, 2, 22, 15, 15, 30, 0),
+				ValueParser.parseTimestamp("2011-02-22T10:15:30-05:00"));
+		assertEquals(utc(2000, 2, 29, 23, 59, 59, 0),
+				ValueParser.parseTimestamp("\n2000-02-29T23:59:59+00:00\n"));
+		assertEquals(utc(1969, 12, 31, 0, 0, 0, 0),
+				ValueParser.parseTimestamp("1969-12-31"));
+
+		String[] invalid = new String[] { "", "2011-13-01", "2011-02-29",
+				"2011-2-22", "2011-02-22T25:00:00", "2011-02-22T10:15",
+				"2011-02-22T10:15:30.", "2011-02-22T10:15:30+0500",
+				"2011-02-22X" };
+
+		for (int i = 0; i < invalid.length; i++) {
+			try {
+				ValueParser.parseTimestamp(invalid[i]);
+				fail("Parsed invalid timestamp [" + invalid[i] + "]");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testEnum() {
+		Color[] colors = Color.values();
+		char[] buffer = "xGREENx".toCharArray();
+
+		assertEquals(Color.RED, ValueParser.parseEnum(colors, " RED "));
+		assertEquals(Color.GREEN, ValueParser.parseEnum(colors, buffer, 1, 5));
+
+		try {
+			ValueParser.parseEnum(colors, "red");
+			fail("Parsed invalid enum");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static void assertInvalidInt(String value) {
+		try {
+			ValueParser.parseInt(value);
+			fail("Parsed invalid int [" + value + "]");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+
+	private static void assertDouble(String value) {
+		double expected = Double.parseDouble(value);
+		char[] buffer = ("<" + value + ">").toCharArray();
+
+		assertEquals(value, Double.doubleToLongBits(expected),
+				Double.doubleToLongBits(ValueParser.parseDouble(value)));
+		assertEquals(value, Double.doubleToLongBits(expected),
+				Double.doubleToLongBits(ValueParser.parseDouble(buffer, 1,
+						value.length())));
+	}
+
+	private static long utc(int year, int month, int day, int hour,
+			int minute, int second, int millis) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		calendar.set(Calendar.MILLISECOND, millis);
+
+		return calendar.getTimeInMillis();
+	}
+}